@@ -0,0 +1,361 @@
+package com.gmail.nossr50.database;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Profile loads and saves in the five table and single table layouts of
+ * {@link SQLDatabaseManager}, on scratch SQLite tables filled with users.
+ * <p>
+ * Loads read a random user. Saves write every column of one of a handful of
+ * users from several threads at once, so that they wait on each other's
+ * locks the way saves of busy players do.
+ * <p>
+ * {@link SQLQueries} can't be built outside the server, as the skill names
+ * it reads come from the config, so the queries here are written out the
+ * way it builds them for an embedded database.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SQLLayoutBenchmark {
+    private static final String TABLE_PREFIX = "mcmmo_";
+    private static final String UNIX_TIMESTAMP = "CAST(strftime('%s', 'now') AS INTEGER)";
+    private static final int USERS = 10000;
+    // Users shared by the saving threads, few enough that their saves collide
+    private static final int CONTENDED_USERS = 8;
+
+    private static final List<String> SKILL_COLUMNS = withTotal(SQLQueries.SKILL_COLUMNS);
+    private static final List<String> HUD_COLUMNS = Arrays.asList("mobhealthbar", "scoreboardtips");
+
+    @State(Scope.Benchmark)
+    public static class Database {
+        @Param({"joined", "single"})
+        public String layout;
+
+        private File databaseFile;
+        private String loadQuery;
+        private final List<String> saveQueries = new ArrayList<String>();
+        private final List<List<Object>> saveParameters = new ArrayList<List<Object>>();
+
+        @Setup
+        public void setUp() throws IOException, SQLException {
+            databaseFile = Files.createTempFile("mcmmo-benchmark", ".db").toFile();
+
+            try (Connection connection = connect()) {
+                connection.setAutoCommit(false);
+
+                if (layout.equals("single")) {
+                    createProfiles(connection);
+                }
+                else {
+                    createUsers(connection);
+                }
+
+                connection.commit();
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            databaseFile.delete();
+            new File(databaseFile.getPath() + "-wal").delete();
+            new File(databaseFile.getPath() + "-shm").delete();
+        }
+
+        Connection connect() throws SQLException {
+            Properties properties = new Properties();
+            // The same settings as the embedded pools of the plugin
+            properties.setProperty("journal_mode", "WAL");
+            properties.setProperty("synchronous", "NORMAL");
+            properties.setProperty("busy_timeout", "30000");
+            return DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath(), properties);
+        }
+
+        private void createUsers(Connection connection) throws SQLException {
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE " + TABLE_PREFIX + "users ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "user varchar(40) NOT NULL COLLATE NOCASE,"
+                        + "uuid varchar(36) NULL DEFAULT NULL UNIQUE,"
+                        + "lastlogin INTEGER NOT NULL)");
+                statement.executeUpdate("CREATE INDEX " + TABLE_PREFIX + "users_user ON " + TABLE_PREFIX + "users (user)");
+                statement.executeUpdate("CREATE TABLE " + TABLE_PREFIX + "huds (user_id INTEGER NOT NULL PRIMARY KEY,"
+                        + "mobhealthbar varchar(50) NOT NULL DEFAULT 'HEARTS',"
+                        + "scoreboardtips INTEGER NOT NULL DEFAULT 0)");
+                statement.executeUpdate("CREATE TABLE " + TABLE_PREFIX + "cooldowns (user_id INTEGER NOT NULL PRIMARY KEY" + getDefinitions(SQLQueries.COOLDOWN_COLUMNS) + ")");
+                statement.executeUpdate("CREATE TABLE " + TABLE_PREFIX + "experience (user_id INTEGER NOT NULL PRIMARY KEY" + getDefinitions(SQLQueries.SKILL_COLUMNS) + ")");
+                statement.executeUpdate("CREATE TABLE " + TABLE_PREFIX + "skills (user_id INTEGER NOT NULL PRIMARY KEY" + getDefinitions(SKILL_COLUMNS) + ")");
+
+                for (String column : SKILL_COLUMNS) {
+                    statement.executeUpdate("CREATE INDEX " + TABLE_PREFIX + "skills_idx_" + column + " ON " + TABLE_PREFIX + "skills (" + column + ")");
+                }
+            }
+
+            Random random = new Random(0);
+
+            try (PreparedStatement user = connection.prepareStatement("INSERT INTO " + TABLE_PREFIX + "users (user, uuid, lastlogin) VALUES (?, ?, 0)");
+                 PreparedStatement skills = connection.prepareStatement("INSERT INTO " + TABLE_PREFIX + "skills (user_id, " + join(SKILL_COLUMNS) + ") VALUES (?" + getPlaceholders(SKILL_COLUMNS.size()) + ")");
+                 PreparedStatement experience = connection.prepareStatement("INSERT INTO " + TABLE_PREFIX + "experience (user_id) VALUES (?)");
+                 PreparedStatement cooldowns = connection.prepareStatement("INSERT INTO " + TABLE_PREFIX + "cooldowns (user_id) VALUES (?)");
+                 PreparedStatement huds = connection.prepareStatement("INSERT INTO " + TABLE_PREFIX + "huds (user_id) VALUES (?)")) {
+                for (int id = 1; id <= USERS; id++) {
+                    user.setString(1, "player" + id);
+                    user.setString(2, UUID.randomUUID().toString());
+                    user.executeUpdate();
+
+                    skills.setInt(1, id);
+                    setLevels(skills, 2, random);
+                    skills.executeUpdate();
+
+                    for (PreparedStatement statement : Arrays.asList(experience, cooldowns, huds)) {
+                        statement.setInt(1, id);
+                        statement.executeUpdate();
+                    }
+                }
+            }
+
+            loadQuery = "SELECT " + getSelection("s", SQLQueries.SKILL_COLUMNS) + getSelection("e", SQLQueries.SKILL_COLUMNS) + getSelection("c", SQLQueries.COOLDOWN_COLUMNS)
+                    + "h.mobhealthbar, h.scoreboardtips, u.uuid, u.user FROM " + TABLE_PREFIX + "users u "
+                    + "JOIN " + TABLE_PREFIX + "skills s ON (u.id = s.user_id) "
+                    + "JOIN " + TABLE_PREFIX + "experience e ON (u.id = e.user_id) "
+                    + "JOIN " + TABLE_PREFIX + "cooldowns c ON (u.id = c.user_id) "
+                    + "JOIN " + TABLE_PREFIX + "huds h ON (u.id = h.user_id) WHERE u.id = ?";
+
+            addSave("UPDATE " + TABLE_PREFIX + "users SET lastlogin = " + UNIX_TIMESTAMP + " WHERE id = ?", Collections.emptyList());
+            addSave(getUpdate("skills", SKILL_COLUMNS), getZeros(SKILL_COLUMNS.size()));
+            addSave(getUpdate("experience", SQLQueries.SKILL_COLUMNS), getZeros(SQLQueries.SKILL_COLUMNS.size()));
+            addSave(getUpdate("cooldowns", SQLQueries.COOLDOWN_COLUMNS), getZeros(SQLQueries.COOLDOWN_COLUMNS.size()));
+            addSave(getUpdate("huds", HUD_COLUMNS), Arrays.<Object>asList("HEARTS", 0));
+        }
+
+        private void createProfiles(Connection connection) throws SQLException {
+            List<String> columns = new ArrayList<String>(SKILL_COLUMNS);
+
+            for (String column : SQLQueries.SKILL_COLUMNS) {
+                columns.add(SQLQueries.EXPERIENCE_PREFIX + column);
+            }
+
+            for (String column : SQLQueries.COOLDOWN_COLUMNS) {
+                columns.add(SQLQueries.COOLDOWN_PREFIX + column);
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                statement.executeUpdate("CREATE TABLE " + TABLE_PREFIX + "profiles ("
+                        + "id INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "user varchar(40) NOT NULL COLLATE NOCASE,"
+                        + "uuid varchar(36) NULL DEFAULT NULL UNIQUE,"
+                        + "lastlogin INTEGER NOT NULL"
+                        + getDefinitions(columns) + ","
+                        + "mobhealthbar varchar(50) NOT NULL DEFAULT 'HEARTS',"
+                        + "scoreboardtips INTEGER NOT NULL DEFAULT 0)");
+                statement.executeUpdate("CREATE INDEX " + TABLE_PREFIX + "profiles_user ON " + TABLE_PREFIX + "profiles (user)");
+
+                for (String column : SKILL_COLUMNS) {
+                    statement.executeUpdate("CREATE INDEX " + TABLE_PREFIX + "profiles_idx_" + column + " ON " + TABLE_PREFIX + "profiles (" + column + ")");
+                }
+            }
+
+            Random random = new Random(0);
+
+            try (PreparedStatement profile = connection.prepareStatement("INSERT INTO " + TABLE_PREFIX + "profiles (user, uuid, lastlogin, " + join(SKILL_COLUMNS) + ") VALUES (?, ?, 0" + getPlaceholders(SKILL_COLUMNS.size()) + ")")) {
+                for (int id = 1; id <= USERS; id++) {
+                    profile.setString(1, "player" + id);
+                    profile.setString(2, UUID.randomUUID().toString());
+                    setLevels(profile, 3, random);
+                    profile.executeUpdate();
+                }
+            }
+
+            List<String> experience = new ArrayList<String>();
+            List<String> cooldowns = new ArrayList<String>();
+
+            for (String column : SQLQueries.SKILL_COLUMNS) {
+                experience.add(SQLQueries.EXPERIENCE_PREFIX + column);
+            }
+
+            for (String column : SQLQueries.COOLDOWN_COLUMNS) {
+                cooldowns.add(SQLQueries.COOLDOWN_PREFIX + column);
+            }
+
+            loadQuery = "SELECT " + getSelection("u", SQLQueries.SKILL_COLUMNS) + getSelection("u", experience) + getSelection("u", cooldowns)
+                    + "u.mobhealthbar, u.scoreboardtips, u.uuid, u.user FROM " + TABLE_PREFIX + "profiles u WHERE u.id = ?";
+
+            columns.addAll(HUD_COLUMNS);
+            List<Object> values = getZeros(columns.size() - HUD_COLUMNS.size());
+            values.addAll(Arrays.<Object>asList("HEARTS", 0));
+            addSave("UPDATE " + TABLE_PREFIX + "profiles SET lastlogin = " + UNIX_TIMESTAMP + ", " + getAssignments(columns) + " WHERE id = ?", values);
+        }
+
+        private void addSave(String query, List<Object> parameters) {
+            saveQueries.add(query);
+            saveParameters.add(parameters);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Session {
+        private final Random random = new Random();
+        private Connection connection;
+        private PreparedStatement load;
+        private final List<PreparedStatement> saves = new ArrayList<PreparedStatement>();
+
+        @Setup
+        public void setUp(Database database) throws SQLException {
+            connection = database.connect();
+            connection.setAutoCommit(false);
+            // Prepared once, like the statement cache of the pools does
+            load = connection.prepareStatement(database.loadQuery);
+
+            for (String query : database.saveQueries) {
+                saves.add(connection.prepareStatement(query));
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws SQLException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    public int load(Session session) throws SQLException {
+        int columns = 0;
+        session.load.setInt(1, 1 + session.random.nextInt(USERS));
+
+        try (ResultSet resultSet = session.load.executeQuery()) {
+            while (resultSet.next()) {
+                for (int column = 1; column <= resultSet.getMetaData().getColumnCount(); column++) {
+                    resultSet.getObject(column);
+                    columns++;
+                }
+            }
+        }
+
+        session.connection.commit();
+        return columns;
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void save(Database database, Session session) throws SQLException {
+        int id = 1 + session.random.nextInt(CONTENDED_USERS);
+
+        for (int i = 0; i < session.saves.size(); i++) {
+            PreparedStatement statement = session.saves.get(i);
+            List<Object> parameters = database.saveParameters.get(i);
+
+            for (int parameter = 0; parameter < parameters.size(); parameter++) {
+                statement.setObject(parameter + 1, parameters.get(parameter));
+            }
+
+            statement.setInt(parameters.size() + 1, id);
+            statement.executeUpdate();
+        }
+
+        session.connection.commit();
+    }
+
+    private static List<String> withTotal(List<String> columns) {
+        List<String> withTotal = new ArrayList<String>(columns);
+        withTotal.add(SQLDatabaseManager.ALL_QUERY_VERSION);
+        return Collections.unmodifiableList(withTotal);
+    }
+
+    private static void setLevels(PreparedStatement statement, int firstParameter, Random random) throws SQLException {
+        int total = 0;
+
+        for (int i = 0; i < SQLQueries.SKILL_COLUMNS.size(); i++) {
+            int level = random.nextInt(1000);
+            statement.setInt(firstParameter + i, level);
+            total += level;
+        }
+
+        statement.setInt(firstParameter + SQLQueries.SKILL_COLUMNS.size(), total);
+    }
+
+    private static String getDefinitions(List<String> columns) {
+        StringBuilder definition = new StringBuilder();
+
+        for (String column : columns) {
+            definition.append(", ").append(column).append(" INTEGER NOT NULL DEFAULT 0");
+        }
+
+        return definition.toString();
+    }
+
+    private static String getSelection(String alias, List<String> columns) {
+        StringBuilder selection = new StringBuilder();
+
+        for (String column : columns) {
+            selection.append(alias).append(".").append(column).append(", ");
+        }
+
+        return selection.toString();
+    }
+
+    private static String getUpdate(String table, List<String> columns) {
+        return "UPDATE " + TABLE_PREFIX + table + " SET " + getAssignments(columns) + " WHERE user_id = ?";
+    }
+
+    private static String getAssignments(List<String> columns) {
+        StringBuilder assignments = new StringBuilder();
+
+        for (String column : columns) {
+            if (assignments.length() > 0) {
+                assignments.append(", ");
+            }
+
+            assignments.append(column).append(" = ?");
+        }
+
+        return assignments.toString();
+    }
+
+    private static String join(List<String> columns) {
+        StringBuilder joined = new StringBuilder();
+
+        for (String column : columns) {
+            if (joined.length() > 0) {
+                joined.append(", ");
+            }
+
+            joined.append(column);
+        }
+
+        return joined.toString();
+    }
+
+    private static String getPlaceholders(int count) {
+        StringBuilder placeholders = new StringBuilder();
+
+        for (int i = 0; i < count; i++) {
+            placeholders.append(", ?");
+        }
+
+        return placeholders.toString();
+    }
+
+    private static List<Object> getZeros(int count) {
+        return new ArrayList<Object>(Collections.nCopies(count, 0));
+    }
+}
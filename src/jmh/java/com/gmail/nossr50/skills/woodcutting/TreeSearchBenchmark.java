@@ -0,0 +1,265 @@
+package com.gmail.nossr50.skills.woodcutting;
+
+import com.gmail.nossr50.util.blockmeta.NullChunkManager;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding a whole tree for Tree Feller, from the bottom log of synthetic
+ * trees standing on open ground: a small oak, a two by two jungle tree with
+ * branches and a wide canopy, and a huge red mushroom.
+ * <p>
+ * Like the server, the world hands out a new block for every lookup, and
+ * nothing is placed by players.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TreeSearchBenchmark {
+    private static final int GROUND = 63;
+    private static final int THRESHOLD = 5000;
+
+    private static final TreeSearch.Classifier CLASSIFIER = material -> {
+        switch (material) {
+            case OAK_LOG:
+            case JUNGLE_LOG:
+            case MUSHROOM_STEM:
+            case RED_MUSHROOM_BLOCK:
+                return TreeSearch.Part.LOG;
+            case OAK_LEAVES:
+            case JUNGLE_LEAVES:
+                return TreeSearch.Part.LEAVES;
+            default:
+                return TreeSearch.Part.NONE;
+        }
+    };
+
+    @Param({"oak", "jungle", "mushroom"})
+    public String tree;
+
+    private final Map<Long, Material> blocks = new HashMap<>();
+    private final NullChunkManager placeStore = new NullChunkManager();
+    private World world;
+    private Block start;
+
+    @Setup
+    public void setUp() {
+        switch (tree) {
+            case "oak":
+                growOak();
+                break;
+            case "jungle":
+                growJungle();
+                break;
+            case "mushroom":
+                growMushroom();
+                break;
+            default:
+                throw new IllegalArgumentException(tree);
+        }
+
+        world = createWorld();
+        start = world.getBlockAt(0, GROUND + 1, 0);
+
+        // Leaves too far from a log are left standing, as in game
+        if (!new TreeSearch(placeStore, THRESHOLD, CLASSIFIER).search(start))
+            throw new IllegalStateException("The " + tree + " tree is over the threshold");
+    }
+
+    @Benchmark
+    public int search() {
+        TreeSearch search = new TreeSearch(placeStore, THRESHOLD, CLASSIFIER);
+        search.search(start);
+        return search.getBlocks().size();
+    }
+
+    private void growOak() {
+        column(0, 0, GROUND + 1, 5, Material.OAK_LOG);
+
+        for (int y = GROUND + 3; y <= GROUND + 6; y++) {
+            int radius = y <= GROUND + 4 ? 2 : 1;
+
+            for (int x = -radius; x <= radius; x++) {
+                for (int z = -radius; z <= radius; z++) {
+                    if (Math.abs(x) == radius && Math.abs(z) == radius && (radius == 2 || y == GROUND + 6))
+                        continue;
+
+                    leaf(x, y, z, Material.OAK_LEAVES);
+                }
+            }
+        }
+    }
+
+    private void growJungle() {
+        int height = 30;
+
+        for (int x = 0; x <= 1; x++) {
+            for (int z = 0; z <= 1; z++)
+                column(x, z, GROUND + 1, height, Material.JUNGLE_LOG);
+        }
+
+        // Branches out of each side, with leaves at the end
+        int[][] sides = { {1, 0}, {0, 1}, {-1, 0}, {0, -1} };
+        int branch = 0;
+
+        for (int y = GROUND + 12; y < GROUND + height - 4; y += 5) {
+            int[] side = sides[branch++ % sides.length];
+            int x = side[0] > 0 ? 1 : 0;
+            int z = side[1] > 0 ? 1 : 0;
+
+            for (int i = 1; i <= 3; i++) {
+                x += side[0];
+                z += side[1];
+                blocks.put(TreeSearch.pack(x, y + i / 2, z), Material.JUNGLE_LOG);
+            }
+
+            blob(x, y + 2, z, 2, Material.JUNGLE_LEAVES);
+        }
+
+        // Canopy around the top of the trunk
+        for (int y = GROUND + height - 2; y <= GROUND + height + 1; y++) {
+            int radius = y <= GROUND + height ? 5 : 3;
+
+            for (int x = -radius; x <= radius + 1; x++) {
+                for (int z = -radius; z <= radius + 1; z++) {
+                    double dx = x - 0.5;
+                    double dz = z - 0.5;
+
+                    if (dx * dx + dz * dz <= radius * radius)
+                        leaf(x, y, z, Material.JUNGLE_LEAVES);
+                }
+            }
+        }
+    }
+
+    private void growMushroom() {
+        int height = 6;
+
+        column(0, 0, GROUND + 1, height, Material.MUSHROOM_STEM);
+
+        // Top of the cap, then its sides hanging down
+        int top = GROUND + height + 1;
+
+        for (int x = -2; x <= 2; x++) {
+            for (int z = -2; z <= 2; z++) {
+                if (Math.abs(x) == 2 && Math.abs(z) == 2)
+                    continue;
+
+                blocks.put(TreeSearch.pack(x, top, z), Material.RED_MUSHROOM_BLOCK);
+            }
+        }
+
+        for (int y = top - 3; y < top; y++) {
+            for (int x = -2; x <= 2; x++) {
+                for (int z = -2; z <= 2; z++) {
+                    if (Math.max(Math.abs(x), Math.abs(z)) == 2 && !(Math.abs(x) == 2 && Math.abs(z) == 2))
+                        blocks.put(TreeSearch.pack(x, y, z), Material.RED_MUSHROOM_BLOCK);
+                }
+            }
+        }
+    }
+
+    private void column(int x, int z, int bottom, int height, Material material) {
+        for (int y = bottom; y < bottom + height; y++)
+            blocks.put(TreeSearch.pack(x, y, z), material);
+    }
+
+    private void blob(int cx, int cy, int cz, int radius, Material material) {
+        for (int x = -radius; x <= radius; x++) {
+            for (int y = -1; y <= 1; y++) {
+                for (int z = -radius; z <= radius; z++) {
+                    if (x * x + z * z + y * y * 4 <= radius * radius)
+                        leaf(cx + x, cy + y, cz + z, material);
+                }
+            }
+        }
+    }
+
+    // Leaves never replace logs
+    private void leaf(int x, int y, int z, Material material) {
+        blocks.putIfAbsent(TreeSearch.pack(x, y, z), material);
+    }
+
+    /**
+     * A world of the tree on a layer of grass, where every other block is air.
+     */
+    private World createWorld() {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getBlockAt":
+                    return createBlock((World) proxy, (Integer) args[0], (Integer) args[1], (Integer) args[2]);
+                case "getMaxHeight":
+                    return 256;
+                case "getMinHeight":
+                    return 0;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private Block createBlock(World world, int x, int y, int z) {
+        Material material = blocks.getOrDefault(TreeSearch.pack(x, y, z), y == GROUND ? Material.GRASS_BLOCK : Material.AIR);
+
+        return (Block) Proxy.newProxyInstance(Block.class.getClassLoader(), new Class<?>[] { Block.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getType":
+                    return material;
+                case "getState":
+                    return createState(world, x, y, z, material);
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private static BlockState createState(World world, int x, int y, int z, Material material) {
+        return (BlockState) Proxy.newProxyInstance(BlockState.class.getClassLoader(), new Class<?>[] { BlockState.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getType":
+                    return material;
+                case "getWorld":
+                    return world;
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}
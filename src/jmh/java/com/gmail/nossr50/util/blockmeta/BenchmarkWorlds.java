@@ -0,0 +1,95 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.World;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * Worlds for benchmarks to track placed blocks in.
+ * <p>
+ * Reading a chunk store looks its world up through {@link Bukkit}, so the
+ * first world created also installs a server that knows every world created.
+ */
+final class BenchmarkWorlds {
+    private static final Map<UUID, World> worlds = new ConcurrentHashMap<>();
+
+    private BenchmarkWorlds() {}
+
+    /**
+     * A world that only answers what the chunk manager asks of it. Unlike a
+     * mock it records nothing, so it adds no allocation of its own.
+     */
+    static World createWorld(UUID worldId, File worldFolder) {
+        World world = (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUID":
+                    return worldId;
+                case "getWorldFolder":
+                    return worldFolder;
+                case "getMaxHeight":
+                    return 256;
+                case "getMinHeight":
+                    return 0;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        installServer();
+        worlds.put(worldId, world);
+        return world;
+    }
+
+    private static synchronized void installServer() {
+        if (Bukkit.getServer() != null)
+            return;
+
+        Logger logger = Logger.getLogger("Benchmark");
+
+        Bukkit.setServer((Server) Proxy.newProxyInstance(Server.class.getClassLoader(), new Class<?>[] { Server.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getWorld":
+                    return args[0] instanceof UUID ? worlds.get(args[0]) : null;
+                case "getLogger":
+                    return logger;
+                case "getName":
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "Benchmark";
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }));
+    }
+
+    /**
+     * Delete a world folder and the region files in it.
+     */
+    static void deleteWorldFolder(File worldFolder) {
+        File regionFolder = new File(worldFolder, "mcmmo_regions");
+        File[] regions = regionFolder.listFiles();
+
+        if (regions != null) {
+            for (File region : regions)
+                region.delete();
+        }
+
+        regionFolder.delete();
+        worldFolder.delete();
+    }
+}
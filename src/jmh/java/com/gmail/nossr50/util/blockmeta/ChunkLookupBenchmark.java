@@ -0,0 +1,120 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placed block lookups through {@link HashChunkManager}, against the
+ * HashMap index keyed by a world and chunk object it used to have.
+ * <p>
+ * Lookups cycle over blocks in a number of chunks that all have a store. With
+ * one chunk every lookup hits the last chunk cache, with more they probe the
+ * chunk map. Run with {@code -prof gc} to see the allocation per lookup,
+ * which is zero for the chunk index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkLookupBenchmark {
+    private static final int LOOKUPS = 1024; // Must be a power of two
+
+    @Param({"1", "64"})
+    public int chunks;
+
+    private File worldFolder;
+    private World world;
+    private HashChunkManager chunkManager;
+    private HashMap<LegacyKey, ChunkStore> legacyIndex;
+
+    private final int[] xs = new int[LOOKUPS];
+    private final int[] zs = new int[LOOKUPS];
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        worldFolder = Files.createTempDirectory("mcmmo-benchmark").toFile();
+        world = BenchmarkWorlds.createWorld(UUID.randomUUID(), worldFolder);
+        chunkManager = new HashChunkManager();
+        legacyIndex = new HashMap<>();
+
+        int side = (int) Math.ceil(Math.sqrt(chunks));
+
+        for (int i = 0; i < chunks; i++) {
+            int cx = i % side - side / 2;
+            int cz = i / side - side / 2;
+
+            chunkManager.set(cx << 4, 64, cz << 4, world, true);
+            legacyIndex.put(new LegacyKey(world.getUID(), cx, cz), new BitSetChunkStore(world, cx, cz));
+        }
+
+        // Runs of lookups in the same chunk, like the neighbour checks of a block break
+        for (int i = 0; i < LOOKUPS; i++) {
+            int chunk = (i / 8) % chunks;
+            xs[i] = ((chunk % side - side / 2) << 4) + (i & 15);
+            zs[i] = ((chunk / side - side / 2) << 4) + ((i >> 4) & 15);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        chunkManager.closeAll();
+        BenchmarkWorlds.deleteWorldFolder(worldFolder);
+    }
+
+    @Benchmark
+    public boolean chunkIndex() {
+        int i = next++ & (LOOKUPS - 1);
+        return chunkManager.isTrue(xs[i], 64, zs[i], world);
+    }
+
+    @Benchmark
+    public boolean legacyIndex() {
+        int i = next++ & (LOOKUPS - 1);
+        int x = xs[i];
+        int z = zs[i];
+        LegacyKey chunkKey = new LegacyKey(world.getUID(), x >> 4, z >> 4);
+
+        synchronized (this) {
+            ChunkStore chunkStore = legacyIndex.computeIfAbsent(chunkKey, k -> null);
+            return chunkStore != null && chunkStore.isTrue(Math.abs(x) % 16, 64, Math.abs(z) % 16);
+        }
+    }
+
+    /**
+     * The key of the old index, hashed with Objects.hash.
+     */
+    private static final class LegacyKey {
+        private final UUID worldID;
+        private final int x;
+        private final int z;
+
+        private LegacyKey(UUID worldID, int x, int z) {
+            this.worldID = worldID;
+            this.x = x;
+            this.z = z;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            LegacyKey legacyKey = (LegacyKey) o;
+            return x == legacyKey.x && z == legacyKey.z && worldID.equals(legacyKey.worldID);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(worldID, x, z);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Placed block lookups and updates through {@link HashChunkManager}, with
+ * the chunks in memory or read back from their region file.
+ * <p>
+ * A region of 1024 chunks, each with a few hundred placed blocks, is saved
+ * before the measurement. Every operation goes to the next chunk in turn.
+ * Hot chunks all stay in memory. Cold chunks are limited to 64 in memory,
+ * so each chunk is evicted before it comes round again: every lookup reads
+ * its chunk from the region file, and every update also writes back the
+ * chunk it evicts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkManagerBenchmark {
+    private static final int CHUNKS = 1024; // One region, must be a power of two
+    private static final int BLOCKS_PER_CHUNK = 300;
+    private static final int COLD_RESIDENT_CHUNKS = 64;
+
+    @Param({"hot", "cold"})
+    public String residency;
+
+    private File worldFolder;
+    private World world;
+    private HashChunkManager chunkManager;
+
+    // A placed block in each chunk
+    private final int[] xs = new int[CHUNKS];
+    private final int[] ys = new int[CHUNKS];
+    private final int[] zs = new int[CHUNKS];
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        worldFolder = Files.createTempDirectory("mcmmo-benchmark").toFile();
+        world = BenchmarkWorlds.createWorld(UUID.randomUUID(), worldFolder);
+
+        HashChunkManager writer = new HashChunkManager();
+        Random random = new Random(0);
+
+        for (int i = 0; i < CHUNKS; i++) {
+            int baseX = (i >> 5) << 4;
+            int baseZ = (i & 31) << 4;
+
+            for (int j = 0; j < BLOCKS_PER_CHUNK; j++)
+                writer.set(baseX + random.nextInt(16), 40 + random.nextInt(64), baseZ + random.nextInt(16), world, true);
+
+            xs[i] = baseX + random.nextInt(16);
+            ys[i] = 40 + random.nextInt(64);
+            zs[i] = baseZ + random.nextInt(16);
+            writer.set(xs[i], ys[i], zs[i], world, true);
+        }
+
+        writer.closeAll();
+
+        chunkManager = new HashChunkManager(McMMOSimpleRegionFile::new, residency.equals("cold") ? COLD_RESIDENT_CHUNKS : 0);
+
+        // Read every chunk once, which leaves hot chunks all in memory
+        for (int i = 0; i < CHUNKS; i++)
+            chunkManager.isTrue(xs[i], ys[i], zs[i], world);
+    }
+
+    @TearDown
+    public void tearDown() {
+        chunkManager.closeAll();
+        BenchmarkWorlds.deleteWorldFolder(worldFolder);
+    }
+
+    @Benchmark
+    public boolean isTrue() {
+        int i = next++ & (CHUNKS - 1);
+        return chunkManager.isTrue(xs[i], ys[i], zs[i], world);
+    }
+
+    @Benchmark
+    public void set() {
+        int n = next++;
+        int i = n & (CHUNKS - 1);
+
+        // Clear the block on one pass over the chunks and place it again on the next
+        chunkManager.set(xs[i], ys[i], zs[i], world, (n & CHUNKS) != 0);
+    }
+}
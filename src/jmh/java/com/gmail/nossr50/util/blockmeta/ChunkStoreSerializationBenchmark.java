@@ -0,0 +1,88 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.bukkit.World;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reading a chunk store, for each format and for a range of
+ * placed block densities.
+ * <p>
+ * Densities are the share of the blocks between y 0 and 256 that are
+ * placed: a few placed blocks, a built up chunk, and chunks mostly or half
+ * full of placed blocks. Stores in the bitset format are converted to the
+ * sectioned format when read, as they are when a chunk saved by an older
+ * version loads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChunkStoreSerializationBenchmark {
+    @Param({"sparse", "bitset"})
+    public String format;
+
+    @Param({"0.001", "0.01", "0.1", "0.5"})
+    public double density;
+
+    private File worldFolder;
+    private ChunkStore chunkStore;
+    private byte[] serialized;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+
+    @Setup
+    public void setUp() throws IOException {
+        worldFolder = Files.createTempDirectory("mcmmo-benchmark").toFile();
+        World world = BenchmarkWorlds.createWorld(UUID.randomUUID(), worldFolder);
+        chunkStore = format.equals("bitset") ? new BitSetChunkStore(world, 0, 0) : new SparseChunkStore(world, 0, 0);
+
+        Random random = new Random(0);
+
+        for (int x = 0; x < 16; x++) {
+            for (int z = 0; z < 16; z++) {
+                for (int y = 0; y < 256; y++) {
+                    if (random.nextDouble() < density)
+                        chunkStore.setTrue(x, y, z);
+                }
+            }
+        }
+
+        serialize();
+        serialized = buffer.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchmarkWorlds.deleteWorldFolder(worldFolder);
+    }
+
+    @Benchmark
+    public int write() throws IOException {
+        return serialize();
+    }
+
+    @Benchmark
+    public ChunkStore read() throws IOException {
+        return BitSetChunkStore.Serialization.readChunkStore(new DataInputStream(new ByteArrayInputStream(serialized)));
+    }
+
+    /**
+     * @return the size of the store written to the buffer
+     */
+    private int serialize() throws IOException {
+        buffer.reset();
+
+        try (DataOutputStream out = new DataOutputStream(buffer)) {
+            BitSetChunkStore.Serialization.writeChunkStore(out, chunkStore);
+        }
+
+        return buffer.size();
+    }
+}
@@ -0,0 +1,96 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chunk reads and writes against a region with all 1024 chunks populated,
+ * for each {@link RegionFile} backend.
+ * <p>
+ * Every operation touches the next chunk of the region in turn, so reads
+ * and rewrites are spread over the whole file like a region being loaded or
+ * saved. The chunk data is about the size of a serialized chunk store with
+ * a few hundred placed blocks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class RegionFileBenchmark {
+    private static final int CHUNKS = 1024;
+
+    @Param({"stream", "nio"})
+    public String backend;
+
+    private File regionFile;
+    private RegionFile region;
+    private final byte[][] payloads = new byte[CHUNKS][];
+    private final byte[] readBuffer = new byte[8192];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        regionFile = Files.createTempFile("mcmmo-benchmark", ".mcm").toFile();
+        regionFile.delete();
+        region = open();
+
+        Random random = new Random(0);
+
+        for (int i = 0; i < CHUNKS; i++) {
+            // Mostly empty with scattered set bits, compressing like real chunk stores do
+            byte[] payload = new byte[2048 + random.nextInt(2048)];
+            for (int j = 0; j < 300; j++)
+                payload[random.nextInt(payload.length)] = (byte) random.nextInt();
+            payloads[i] = payload;
+            write(i);
+        }
+
+        // Start from the file as it would be opened on a later load
+        region.close();
+        region = open();
+    }
+
+    @TearDown
+    public void tearDown() {
+        region.close();
+        regionFile.delete();
+    }
+
+    @Benchmark
+    public int read() throws IOException {
+        int i = next++ & (CHUNKS - 1);
+        int total = 0;
+
+        try (DataInputStream in = region.getInputStream(i >> 5, i & 31)) {
+            int read;
+            while ((read = in.read(readBuffer)) > 0)
+                total += read;
+        }
+
+        return total;
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        write(next++ & (CHUNKS - 1));
+    }
+
+    private void write(int i) throws IOException {
+        try (DataOutputStream out = region.getOutputStream(i >> 5, i & 31)) {
+            out.write(payloads[i]);
+        }
+    }
+
+    private RegionFile open() {
+        return backend.equals("nio") ? new NIORegionFile(regionFile, 0, 0) : new McMMOSimpleRegionFile(regionFile, 0, 0);
+    }
+}
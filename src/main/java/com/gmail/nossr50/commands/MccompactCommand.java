@@ -0,0 +1,61 @@
+package com.gmail.nossr50.commands;
+
+import com.gmail.nossr50.locale.LocaleLoader;
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.runnables.RegionCompactionTask;
+import com.google.common.collect.ImmutableList;
+import org.bukkit.World;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.util.StringUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class MccompactCommand implements TabExecutor {
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        List<World> worlds;
+
+        switch (args.length) {
+            case 0:
+                worlds = mcMMO.p.getServer().getWorlds();
+                break;
+
+            case 1:
+                World world = mcMMO.p.getServer().getWorld(args[0]);
+
+                if (world == null) {
+                    sender.sendMessage(LocaleLoader.getString("Commands.mccompact.InvalidWorld", args[0]));
+                    return true;
+                }
+
+                worlds = ImmutableList.of(world);
+                break;
+
+            default:
+                return false;
+        }
+
+        sender.sendMessage(LocaleLoader.getString("Commands.mccompact.Start"));
+        new RegionCompactionTask(sender, worlds).runTaskAsynchronously(mcMMO.p);
+        return true;
+    }
+
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        switch (args.length) {
+            case 1:
+                List<String> worldNames = new ArrayList<String>();
+
+                for (World world : mcMMO.p.getServer().getWorlds()) {
+                    worldNames.add(world.getName());
+                }
+
+                return StringUtil.copyPartialMatches(args[0], worldNames, new ArrayList<String>(worldNames.size()));
+            default:
+                return ImmutableList.of();
+        }
+    }
+}
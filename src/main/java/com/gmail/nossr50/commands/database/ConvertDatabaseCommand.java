@@ -27,7 +27,7 @@ public class ConvertDatabaseCommand implements CommandExecutor {
                     return true;
                 }
 
-                DatabaseManager oldDatabase = DatabaseManagerFactory.createDatabaseManager(previousType);
+                DatabaseManager oldDatabase;
 
                 if (previousType == DatabaseType.CUSTOM) {
                     Class<?> clazz;
@@ -48,6 +48,9 @@ public class ConvertDatabaseCommand implements CommandExecutor {
                         return true;
                     }
                 }
+                else {
+                    oldDatabase = DatabaseManagerFactory.createDatabaseManager(previousType);
+                }
 
                 sender.sendMessage(LocaleLoader.getString("Commands.mcconvert.Database.Start", previousType.toString(), newType.toString()));
 
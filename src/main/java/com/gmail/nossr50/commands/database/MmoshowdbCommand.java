@@ -1,8 +1,8 @@
 package com.gmail.nossr50.commands.database;
 
-import com.gmail.nossr50.config.Config;
 import com.gmail.nossr50.database.DatabaseManagerFactory;
 import com.gmail.nossr50.locale.LocaleLoader;
+import com.gmail.nossr50.mcMMO;
 import com.google.common.collect.ImmutableList;
 import org.bukkit.command.Command;
 import org.bukkit.command.CommandSender;
@@ -22,7 +22,7 @@ public class MmoshowdbCommand implements TabExecutor {
                     return true;
                 }
 
-                sender.sendMessage(LocaleLoader.getString("Commands.mmoshowdb", (Config.getInstance().getUseMySQL() ? "sql" : "flatfile")));
+                sender.sendMessage(LocaleLoader.getString("Commands.mmoshowdb", mcMMO.getDatabaseManager().getDatabaseType().name().toLowerCase()));
                 return true;
 
             default:
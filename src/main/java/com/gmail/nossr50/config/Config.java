@@ -41,6 +41,39 @@ public class Config extends AutoUpdateConfigLoader {
             reason.add("General.Save_Interval should be greater than 0!");
         }
 
+        if (getProfilePrefetchThreads() <= 0) {
+            reason.add("General.Profile_Prefetch.Threads should be greater than 0!");
+        }
+
+        if (getProfilePrefetchQueueSize() < 0) {
+            reason.add("General.Profile_Prefetch.Queue_Size should be at least 0!");
+        }
+
+        if (getProfilePrefetchTimeout() < 0) {
+            reason.add("General.Profile_Prefetch.Timeout should be at least 0!");
+        }
+
+        if (getDatabaseConversionThreads() <= 0) {
+            reason.add("General.Database_Conversion.Threads should be greater than 0!");
+        }
+
+        if (getDatabaseConversionBatchSize() <= 0) {
+            reason.add("General.Database_Conversion.Batch_Size should be greater than 0!");
+        }
+
+        /* Block Tracking */
+        if (getBlockTrackingMaxResidentChunks() < 0) {
+            reason.add("Block_Tracking.Max_Resident_Chunks should be at least 0!");
+        }
+
+        if (getBlockTrackingStatisticsInterval() < 0) {
+            reason.add("Block_Tracking.Statistics_Interval should be at least 0!");
+        }
+
+        if (getBlockTrackingCompactionThreads() <= 0) {
+            reason.add("Block_Tracking.Compaction_Threads should be greater than 0!");
+        }
+
         /* MySQL Settings */
         for (PoolIdentifier identifier : PoolIdentifier.values()) {
             if (getMySQLMaxConnections(identifier) <= 0) {
@@ -177,6 +210,14 @@ public class Config extends AutoUpdateConfigLoader {
             reason.add("Abilities.Limits.Tree_Feller_Threshold should be greater than 0!");
         }
 
+        if (getTreeFellerBlocksPerTick() < 0) {
+            reason.add("Skills.Woodcutting.Tree_Feller_Blocks_Per_Tick should be at least 0!");
+        }
+
+        if (getTreeFellerMillisPerTick() < 0) {
+            reason.add("Skills.Woodcutting.Tree_Feller_Millis_Per_Tick should be at least 0!");
+        }
+
         if (getFishingLureModifier() < 0) {
             reason.add("Abilities.Fishing.Lure_Modifier should be at least 0!");
         }
@@ -249,6 +290,12 @@ public class Config extends AutoUpdateConfigLoader {
     public boolean getShowProfileLoadedMessage() { return config.getBoolean("General.Show_Profile_Loaded", true); }
     public boolean getDonateMessageEnabled() { return config.getBoolean("Commands.mcmmo.Donate_Message", true); }
     public int getSaveInterval() { return config.getInt("General.Save_Interval", 10); }
+    public boolean getProfilePrefetchEnabled() { return config.getBoolean("General.Profile_Prefetch.Enabled", true); }
+    public int getProfilePrefetchThreads() { return config.getInt("General.Profile_Prefetch.Threads", 2); }
+    public int getProfilePrefetchQueueSize() { return config.getInt("General.Profile_Prefetch.Queue_Size", 100); }
+    public long getProfilePrefetchTimeout() { return config.getLong("General.Profile_Prefetch.Timeout", 3000); }
+    public int getDatabaseConversionThreads() { return config.getInt("General.Database_Conversion.Threads", 4); }
+    public int getDatabaseConversionBatchSize() { return config.getInt("General.Database_Conversion.Batch_Size", 500); }
     public boolean getPreferBeta() { return config.getBoolean("General.Prefer_Beta", false); }
     public boolean getVerboseLoggingEnabled() { return config.getBoolean("General.Verbose_Logging", false); }
 
@@ -323,9 +370,25 @@ public class Config extends AutoUpdateConfigLoader {
     public boolean getKeepDailyLastWeek() { return config.getBoolean("Backups.Keep.Daily_Last_Week", true); }
     public boolean getKeepWeeklyPastMonth() { return config.getBoolean("Backups.Keep.Weekly_Past_Months", true); }
 
+    /* Block Tracking */
+    public boolean getBlockTrackingAsyncIO() { return config.getBoolean("Block_Tracking.Async_IO", false); }
+    public boolean getBlockTrackingConcurrentAccess() { return config.getBoolean("Block_Tracking.Concurrent_Access", false); }
+    public boolean getBlockTrackingNIORegionFiles() { return config.getBoolean("Block_Tracking.NIO_Region_Files", false); }
+    public int getBlockTrackingMaxResidentChunks() { return config.getInt("Block_Tracking.Max_Resident_Chunks", 0); }
+    public int getBlockTrackingStatisticsInterval() { return config.getInt("Block_Tracking.Statistics_Interval", 0); }
+    public boolean getBlockTrackingCompactOnStartup() { return config.getBoolean("Block_Tracking.Compact_On_Startup", false); }
+    public int getBlockTrackingCompactionThreads() { return config.getInt("Block_Tracking.Compaction_Threads", 4); }
+
+    /* SQLite */
+    public boolean getUseSQLite() { return config.getBoolean("SQLite.Enabled", false); }
+    public String getSQLiteFileName() { return config.getString("SQLite.File_Name", "mcmmo.db"); }
+    public int getSQLiteMaxConnections() { return config.getInt("SQLite.MaxConnections", 4); }
+    public boolean getSQLiteSingleTable() { return config.getBoolean("SQLite.Single_Table", false); }
+
     /* mySQL */
     public boolean getUseMySQL() { return config.getBoolean("MySQL.Enabled", false); }
     public String getMySQLTablePrefix() { return config.getString("MySQL.Database.TablePrefix", "mcmmo_"); }
+    public boolean getMySQLSingleTable() { return config.getBoolean("MySQL.Database.Single_Table", false); }
     public String getMySQLDatabaseName() { return getStringIncludingInts("MySQL.Database.Name"); }
     public String getMySQLUserName() { return getStringIncludingInts("MySQL.Database.User_Name"); }
     public int getMySQLServerPort() { return config.getInt("MySQL.Server.Port", 3306); }
@@ -519,6 +582,8 @@ public class Config extends AutoUpdateConfigLoader {
     /* Woodcutting */
     public boolean getWoodcuttingDoubleDropsEnabled(BlockData material) { return config.getBoolean("Bonus_Drops.Woodcutting." + StringUtils.getFriendlyConfigBlockDataString(material)); }
     public boolean getTreeFellerSoundsEnabled() { return config.getBoolean("Skills.Woodcutting.Tree_Feller_Sounds", true); }
+    public int getTreeFellerBlocksPerTick() { return config.getInt("Skills.Woodcutting.Tree_Feller_Blocks_Per_Tick", 100); }
+    public int getTreeFellerMillisPerTick() { return config.getInt("Skills.Woodcutting.Tree_Feller_Millis_Per_Tick", 5); }
 
     /* AFK Leveling */
     public boolean getAcrobaticsPreventAFK() { return config.getBoolean("Skills.Acrobatics.Prevent_AFK_Leveling", true); }
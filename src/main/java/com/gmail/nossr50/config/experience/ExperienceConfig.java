@@ -179,6 +179,7 @@ public class ExperienceConfig extends AutoUpdateConfigLoader {
 
     /* EXPLOIT */
     public boolean isFishingExploitingPrevented() { return config.getBoolean("ExploitFix.Fishing", true); }
+    public boolean getMobFlagPersistenceEnabled() { return config.getBoolean("ExploitFix.Persistent_Mob_Flags", false); }
 
     /* General Settings */
     public boolean getExperienceGainsPlayerVersusPlayerEnabled() { return config.getBoolean("Experience.PVP.Rewards", true); }
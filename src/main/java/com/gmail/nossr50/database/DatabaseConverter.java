@@ -0,0 +1,289 @@
+package com.gmail.nossr50.database;
+
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.datatypes.database.DatabaseType;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.mcMMO;
+import org.bukkit.configuration.file.YamlConfiguration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Copies every user of one database into another.
+ * <p>
+ * The source is read once from start to end with
+ * {@link DatabaseManager#readUsers(long, ObjLongConsumer)}, and the users
+ * are handed in batches to a pool of threads saving them to the destination
+ * with {@link DatabaseManager#saveUsers(java.util.Collection)}. Reading
+ * waits whenever every thread is busy and one more batch is queued, so only
+ * a few batches are ever held in memory.
+ * <p>
+ * With a checkpoint file, the position of the last user known to be saved
+ * is written there after every batch, and a conversion between the same
+ * two databases that was interrupted starts again from it. Saving a user
+ * twice is harmless, so batches that were in flight are simply saved
+ * again. A user the source cannot read stops the conversion there, and the
+ * checkpoint is kept.
+ */
+public class DatabaseConverter {
+    private static final long PROGRESS_INTERVAL_MILLIS = 5000L;
+
+    private final DatabaseManager source;
+    private final DatabaseManager destination;
+    private final File checkpointFile;
+    private final int threads;
+    private final int batchSize;
+
+    private ExecutorService executor;
+    private Semaphore permits;
+    private volatile boolean failed;
+    private final AtomicInteger convertedUsers = new AtomicInteger();
+    private long startMillis;
+
+    // Batches are saved out of order, the checkpoint only moves past a batch once every batch before it is saved
+    private final Map<Long, Long> savedBatches = new HashMap<Long, Long>();
+    private long nextBatch;
+    private long checkpoint;
+    private long lastReportMillis;
+    private int lastReportUsers;
+
+    /**
+     * @param source The database to copy the users from
+     * @param destination The database to copy the users to
+     * @param checkpointFile The file to keep the progress in, or null if an
+     *          interrupted conversion has to start over
+     */
+    public DatabaseConverter(DatabaseManager source, DatabaseManager destination, File checkpointFile) {
+        this.source = source;
+        this.destination = destination;
+        this.checkpointFile = checkpointFile;
+        threads = Config.getInstance().getDatabaseConversionThreads();
+        batchSize = Config.getInstance().getDatabaseConversionBatchSize();
+    }
+
+    /**
+     * Copy the users, blocking until every user is saved.
+     *
+     * @return true if every user was copied, false if a batch failed to save
+     */
+    public boolean convert() {
+        checkpoint = loadCheckpoint();
+        startMillis = System.currentTimeMillis();
+        lastReportMillis = startMillis;
+
+        if (checkpoint >= 0) {
+            mcMMO.p.getLogger().info("Resuming the database conversion from position " + checkpoint);
+        }
+
+        executor = Executors.newFixedThreadPool(threads, new ConverterThreadFactory());
+        // One batch queued for every thread, on top of the ones being saved
+        permits = new Semaphore(threads * 2);
+
+        BatchingReader reader = new BatchingReader();
+
+        try {
+            boolean complete = source.readUsers(checkpoint, reader);
+
+            // Save the users read before a failure too, so the checkpoint moves up to it
+            reader.flush();
+
+            if (!complete) {
+                failed = true;
+                mcMMO.p.getLogger().severe("Could not read every user from the source database");
+            }
+        }
+        catch (CancellationException e) {
+            // A batch failed or the thread was interrupted, stop reading
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            failed = true;
+        }
+
+        if (failed) {
+            mcMMO.p.getLogger().severe("Database conversion stopped after " + convertedUsers.get() + " users, it will resume from position " + checkpoint + " when started again");
+            return false;
+        }
+
+        deleteCheckpoint();
+
+        long elapsedMillis = Math.max(1, System.currentTimeMillis() - startMillis);
+        mcMMO.p.getLogger().info(String.format("Database conversion complete: %d users in %.1f seconds at %.2f users/second", convertedUsers.get(), elapsedMillis / 1000.0D, convertedUsers.get() / (elapsedMillis / 1000.0D)));
+        return true;
+    }
+
+    /**
+     * Get the number of users copied so far by this conversion.
+     */
+    public int getConvertedUsers() {
+        return convertedUsers.get();
+    }
+
+    private void submit(final List<PlayerProfile> batch, final long sequence, final long lastPosition) {
+        if (failed || Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
+        }
+
+        try {
+            permits.acquire();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean saved = false;
+
+                try {
+                    saved = destination.saveUsers(batch).isEmpty();
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                finally {
+                    permits.release();
+                }
+
+                if (!saved) {
+                    failed = true;
+                    mcMMO.p.getLogger().severe("Failed to save a batch of " + batch.size() + " users during the database conversion");
+                    return;
+                }
+
+                convertedUsers.addAndGet(batch.size());
+                batchSaved(sequence, lastPosition);
+            }
+        });
+    }
+
+    private synchronized void batchSaved(long sequence, long lastPosition) {
+        savedBatches.put(sequence, lastPosition);
+
+        if (sequence == nextBatch) {
+            while (savedBatches.containsKey(nextBatch)) {
+                checkpoint = savedBatches.remove(nextBatch);
+                nextBatch++;
+            }
+
+            saveCheckpoint();
+        }
+
+        long now = System.currentTimeMillis();
+
+        if (now - lastReportMillis < PROGRESS_INTERVAL_MILLIS) {
+            return;
+        }
+
+        int users = convertedUsers.get();
+        mcMMO.p.getLogger().info(String.format("Conversion progress: %d users at %.2f users/second (%.2f users/second over the last %d seconds)",
+                users, users / ((now - startMillis) / 1000.0D), (users - lastReportUsers) / ((now - lastReportMillis) / 1000.0D), (now - lastReportMillis) / 1000));
+        lastReportMillis = now;
+        lastReportUsers = users;
+    }
+
+    private long loadCheckpoint() {
+        if (checkpointFile == null || !checkpointFile.exists()) {
+            return -1;
+        }
+
+        YamlConfiguration checkpointData = YamlConfiguration.loadConfiguration(checkpointFile);
+
+        if (!getCheckpointKey(source).equals(checkpointData.getString("Source")) || !getCheckpointKey(destination).equals(checkpointData.getString("Destination"))) {
+            mcMMO.p.getLogger().info("Ignoring the checkpoint of an earlier conversion between different databases");
+            return -1;
+        }
+
+        return checkpointData.getLong("Position", -1);
+    }
+
+    private void saveCheckpoint() {
+        if (checkpointFile == null) {
+            return;
+        }
+
+        YamlConfiguration checkpointData = new YamlConfiguration();
+        checkpointData.set("Source", getCheckpointKey(source));
+        checkpointData.set("Destination", getCheckpointKey(destination));
+        checkpointData.set("Position", checkpoint);
+
+        try {
+            checkpointData.save(checkpointFile);
+        }
+        catch (IOException e) {
+            mcMMO.p.getLogger().warning("Could not save the database conversion checkpoint: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The kind of a database in the checkpoint. MySQL and SQLite share a
+     * class, and custom databases only have their class.
+     */
+    private static String getCheckpointKey(DatabaseManager databaseManager) {
+        DatabaseType type = databaseManager.getDatabaseType();
+        return type == DatabaseType.CUSTOM ? type.name() + ":" + databaseManager.getClass().getName() : type.name();
+    }
+
+    private void deleteCheckpoint() {
+        if (checkpointFile != null && checkpointFile.exists() && !checkpointFile.delete()) {
+            mcMMO.p.getLogger().warning("Could not delete the database conversion checkpoint " + checkpointFile.getPath());
+        }
+    }
+
+    /**
+     * Collects the users read from the source into batches.
+     */
+    private final class BatchingReader implements ObjLongConsumer<PlayerProfile> {
+        private List<PlayerProfile> batch = new ArrayList<PlayerProfile>(batchSize);
+        private long lastPosition;
+        private long sequence;
+
+        @Override
+        public void accept(PlayerProfile profile, long position) {
+            batch.add(profile);
+            lastPosition = position;
+
+            if (batch.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            submit(batch, sequence++, lastPosition);
+            batch = new ArrayList<PlayerProfile>(batchSize);
+        }
+    }
+
+    private static final class ConverterThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mcMMO Database Converter #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -5,10 +5,14 @@ import com.gmail.nossr50.datatypes.database.DatabaseType;
 import com.gmail.nossr50.datatypes.database.PlayerStat;
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.datatypes.skills.SkillType;
+import com.gmail.nossr50.mcMMO;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.function.ObjLongConsumer;
 
 public interface DatabaseManager {
     // One month in milliseconds
@@ -42,6 +46,39 @@ public interface DatabaseManager {
      */
     public boolean saveUser(PlayerProfile profile);
 
+    /**
+     * Save a group of users to the database in a single operation.
+     * <p>
+     * The default implementation saves each user with
+     * {@link #saveUser(PlayerProfile)}, databases that can do better should
+     * override it. A profile that fails to save must not keep the others
+     * from being saved.
+     *
+     * @param profiles The profiles of the players to save
+     * @return the profiles that failed to save, empty if every profile was saved
+     */
+    public default List<PlayerProfile> saveUsers(Collection<PlayerProfile> profiles) {
+        List<PlayerProfile> failed = new ArrayList<PlayerProfile>();
+
+        for (PlayerProfile profile : profiles) {
+            if (!saveUser(profile)) {
+                failed.add(profile);
+            }
+        }
+
+        return failed;
+    }
+
+    /**
+     * Called when the level of a skill changes on a loaded profile, before
+     * the profile is saved. Databases that keep live leaderboards can
+     * override this to keep them current, the default does nothing.
+     *
+     * @param profile The profile whose level changed
+     * @param skill The skill that changed
+     */
+    public default void updateSkillLevel(PlayerProfile profile, SkillType skill) {}
+
     /**
     * Retrieve leaderboard info.
     *
@@ -112,13 +149,51 @@ public interface DatabaseManager {
      */
     public List<String> getStoredUsers();
 
+    /**
+     * Read every user of this database in a stable order, for conversions.
+     * <p>
+     * Each user comes with its position in that order, and reading again
+     * after a position skips every user before it. The users at the
+     * position itself may be read again. Reading stops at the first user
+     * that cannot be read, so no user is ever skipped.
+     * <p>
+     * The default implementation loads the users of
+     * {@link #getStoredUsers()} one at a time, by their index in that list.
+     * Databases that can read all users in a single pass, or that have a
+     * position which does not change as users come and go, should override
+     * it.
+     *
+     * @param after The position of the last user already read, or -1 to
+     *          read from the start
+     * @param consumer Receives each user along with its position
+     * @return true if every user was read, false if reading stopped at a user that could not be read
+     */
+    public default boolean readUsers(long after, ObjLongConsumer<PlayerProfile> consumer) {
+        List<String> users = getStoredUsers();
+
+        for (int i = (int) Math.max(0, after); i < users.size(); i++) {
+            PlayerProfile profile = loadPlayerProfile(users.get(i), null, false);
+
+            if (!profile.isLoaded()) {
+                mcMMO.p.getLogger().severe("Could not read the user " + users.get(i));
+                return false;
+            }
+
+            consumer.accept(profile, i);
+        }
+
+        return true;
+    }
+
     /**
      * Convert all users from this database to the provided database using
-     * {@link #saveUser(PlayerProfile)}.
+     * a {@link DatabaseConverter}.
      *
      * @param destination The DatabaseManager to save to
      */
-    public void convertUsers(DatabaseManager destination);
+    public default void convertUsers(DatabaseManager destination) {
+        new DatabaseConverter(this, destination, null).convert();
+    }
 
     public boolean saveUserUUID(String userName, UUID uuid);
 
@@ -20,10 +20,10 @@ public class DatabaseManagerFactory {
                 mcMMO.p.debug("Failed to create custom database manager");
                 e.printStackTrace();
             }
-            mcMMO.p.debug("Falling back on " + (Config.getInstance().getUseMySQL() ? "SQL" : "Flatfile") + " database");
+            mcMMO.p.debug("Falling back on " + getConfiguredDatabaseType() + " database");
         }
 
-        return Config.getInstance().getUseMySQL() ? new SQLDatabaseManager() : new FlatfileDatabaseManager();
+        return createDatabaseManager(getConfiguredDatabaseType());
     }
 
     /**
@@ -64,6 +64,9 @@ public class DatabaseManagerFactory {
             case SQL:
                 return new SQLDatabaseManager();
 
+            case SQLITE:
+                return new SQLDatabaseManager(DatabaseType.SQLITE);
+
             case CUSTOM:
                 try {
                     return createDefaultCustomDatabaseManager();
@@ -77,6 +80,20 @@ public class DatabaseManagerFactory {
         }
     }
 
+    /**
+     * Get the built-in database type selected in the config. MySQL takes
+     * precedence over SQLite, and flatfile is used if neither is enabled.
+     *
+     * @return the configured database type
+     */
+    public static DatabaseType getConfiguredDatabaseType() {
+        if (Config.getInstance().getUseMySQL()) {
+            return DatabaseType.SQL;
+        }
+
+        return Config.getInstance().getUseSQLite() ? DatabaseType.SQLITE : DatabaseType.FLATFILE;
+    }
+
     public static DatabaseManager createDefaultCustomDatabaseManager() throws Throwable {
         return customManager.getConstructor().newInstance();
     }
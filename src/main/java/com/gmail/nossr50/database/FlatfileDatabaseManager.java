@@ -13,23 +13,30 @@ import com.gmail.nossr50.runnables.database.UUIDUpdateAsyncTask;
 import com.gmail.nossr50.util.Misc;
 import com.gmail.nossr50.util.StringUtils;
 import org.bukkit.OfflinePlayer;
+import org.bukkit.scheduler.BukkitRunnable;
 
 import java.io.*;
 import java.util.*;
+import java.util.function.ObjLongConsumer;
 
 public final class FlatfileDatabaseManager implements DatabaseManager {
-    private final HashMap<SkillType, List<PlayerStat>> playerStatHash = new HashMap<SkillType, List<PlayerStat>>();
-    private final List<PlayerStat> powerLevels = new ArrayList<PlayerStat>();
-    private long lastUpdate = 0;
+    private volatile FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
 
-    private final long UPDATE_WAIT_TIME = 600000L; // 10 minutes
+    private final long COMPACTION_INTERVAL = 12000L; // 10 minutes, in ticks
     private final File usersFile;
+    private final FlatfileUserStore userStore;
+    private final BukkitRunnable compactionTask;
     private static final Object fileWritingLock = new Object();
 
     protected FlatfileDatabaseManager() {
         usersFile = new File(mcMMO.getUsersFilePath());
+        userStore = new FlatfileUserStore(usersFile, UUID_INDEX);
         checkStructure();
-        updateLeaderboards();
+        loadUserStore();
+        loadLeaderboards();
+
+        compactionTask = new CompactionTask();
+        compactionTask.runTaskTimerAsynchronously(mcMMO.p, COMPACTION_INTERVAL, COMPACTION_INTERVAL);
 
         if (mcMMO.getUpgradeManager().shouldUpgrade(UpgradeType.ADD_UUIDS)) {
             new UUIDUpdateAsyncTask(mcMMO.p, getStoredUsers()).start();
@@ -42,17 +49,16 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         mcMMO.p.getLogger().info("Purging powerless users...");
 
         BufferedReader in = null;
-        FileWriter out = null;
         String usersFilePath = mcMMO.getUsersFilePath();
 
         // This code is O(n) instead of O(n²)
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
+                in = userStore.openReader();
+                List<String> records = new ArrayList<String>();
                 String line;
 
-                while ((line = in.readLine()) != null) {
+                while ((line = FlatfileUserStore.nextRecord(in)) != null) {
                     String[] character = line.split(":");
                     Map<SkillType, Integer> skills = getSkillMapFromLine(character);
 
@@ -66,7 +72,7 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
 
                     // If they're still around, rewrite them to the file.
                     if (!powerless) {
-                        writer.append(line).append("\r\n");
+                        records.add(line);
                     }
                     else {
                         purgedUsers++;
@@ -74,8 +80,8 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                 }
 
                 // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
+                in.close();
+                userStore.rewrite(records);
             }
             catch (IOException e) {
                 mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
@@ -89,17 +95,10 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                         // Ignore
                     }
                 }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
             }
         }
 
+        loadLeaderboards();
         mcMMO.p.getLogger().info("Purged " + purgedUsers + " users from the database.");
     }
 
@@ -110,17 +109,16 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         mcMMO.p.getLogger().info("Purging old users...");
 
         BufferedReader in = null;
-        FileWriter out = null;
         String usersFilePath = mcMMO.getUsersFilePath();
 
         // This code is O(n) instead of O(n²)
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
+                in = userStore.openReader();
+                List<String> records = new ArrayList<String>();
                 String line;
 
-                while ((line = in.readLine()) != null) {
+                while ((line = FlatfileUserStore.nextRecord(in)) != null) {
                     String[] character = line.split(":");
                     String name = character[USERNAME];
                     long lastPlayed = 0;
@@ -144,17 +142,17 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                             // Rewrite their data with a valid time
                             character[37] = Long.toString(lastPlayed);
                             String newLine = org.apache.commons.lang.StringUtils.join(character, ":");
-                            writer.append(newLine).append("\r\n");
+                            records.add(newLine);
                         }
                         else {
-                            writer.append(line).append("\r\n");
+                            records.add(line);
                         }
                     }
                 }
 
                 // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
+                in.close();
+                userStore.rewrite(records);
             }
             catch (IOException e) {
                 mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
@@ -168,67 +166,29 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                         // Ignore
                     }
                 }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
             }
         }
 
+        loadLeaderboards();
         mcMMO.p.getLogger().info("Purged " + removedPlayers + " users from the database.");
     }
 
     public boolean removeUser(String playerName) {
         boolean worked = false;
 
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line;
-
-                while ((line = in.readLine()) != null) {
-                    // Write out the same file but when we get to the player we want to remove, we skip his line.
-                    if (!worked && line.split(":")[USERNAME].equalsIgnoreCase(playerName)) {
-                        mcMMO.p.getLogger().info("User found, removing...");
-                        worked = true;
-                        continue; // Skip the player
-                    }
+                FlatfileUserStore.Slot slot = userStore.getByName(playerName);
 
-                    writer.append(line).append("\r\n");
+                if (slot != null) {
+                    mcMMO.p.getLogger().info("User found, removing...");
+                    userStore.remove(slot);
+                    leaderboards.remove(slot.getName());
+                    worked = true;
                 }
-
-                out = new FileWriter(usersFilePath); // Write out the new file
-                out.write(writer.toString());
             }
             catch (Exception e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
-            }
-            finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
+                mcMMO.p.getLogger().severe("Exception while removing " + playerName + " from " + mcMMO.getUsersFilePath() + " " + e.toString());
             }
         }
 
@@ -241,68 +201,47 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         String playerName = profile.getPlayerName();
         UUID uuid = profile.getUniqueId();
 
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
         synchronized (fileWritingLock) {
             try {
-                // Open the file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line;
+                FlatfileUserStore.Slot slot = userStore.getByUniqueId(uuid);
 
-                boolean wroteUser = false;
-                // While not at the end of the file
-                while ((line = in.readLine()) != null) {
-                    // Read the line in and copy it to the output if it's not the player we want to edit
-                    String[] character = line.split(":");
-                    if (!(uuid != null && character[UUID_INDEX].equalsIgnoreCase(uuid.toString())) && !character[USERNAME].equalsIgnoreCase(playerName)) {
-                        writer.append(line).append("\r\n");
-                    }
-                    else {
-                        // Otherwise write the new player information
-                        writeUserToLine(profile, playerName, uuid, writer);
-                        wroteUser = true;
-                    }
+                if (slot == null) {
+                    slot = userStore.getByName(playerName);
                 }
 
-                /*
-                 * If we couldn't find the user in the DB we need to add him
-                 */
-                if(!wroteUser)
-                {
-                    writeUserToLine(profile, playerName, uuid, writer);
+                // Drop the old name from the leaderboards if the player was renamed
+                if (slot != null && !slot.getName().equalsIgnoreCase(playerName)) {
+                    leaderboards.remove(slot.getName());
                 }
 
-                // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
+                // If we couldn't find the user in the DB this will add him
+                StringBuilder writer = new StringBuilder();
+                writeUserToLine(profile, playerName, uuid, writer);
+                userStore.write(slot, writer.toString());
+                leaderboards.update(playerName, getSkillLevels(profile));
                 return true;
             }
             catch (Exception e) {
                 e.printStackTrace();
                 return false;
             }
-            finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
+        }
+    }
+
+    @Override
+    public List<PlayerProfile> saveUsers(Collection<PlayerProfile> profiles) {
+        List<PlayerProfile> failed = new ArrayList<PlayerProfile>();
+
+        // Take the file lock once for the whole group instead of once per user
+        synchronized (fileWritingLock) {
+            for (PlayerProfile profile : profiles) {
+                if (!saveUser(profile)) {
+                    failed.add(profile);
                 }
             }
         }
+
+        return failed;
     }
 
     private void writeUserToLine(PlayerProfile profile, String playerName, UUID uuid, StringBuilder writer) {
@@ -350,99 +289,80 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         writer.append(profile.getSkillXpLevel(SkillType.ALCHEMY)).append(":");
         writer.append(uuid != null ? uuid.toString() : "NULL").append(":");
         writer.append(profile.getScoreboardTipsShown()).append(":");
-        writer.append("\r\n");
     }
 
     public List<PlayerStat> readLeaderboard(SkillType skill, int pageNumber, int statsPerPage) {
-        updateLeaderboards();
-        List<PlayerStat> statsList = skill == null ? powerLevels : playerStatHash.get(skill);
         int fromIndex = (Math.max(pageNumber, 1) - 1) * statsPerPage;
 
-        return statsList.subList(Math.min(fromIndex, statsList.size()), Math.min(fromIndex + statsPerPage, statsList.size()));
+        return leaderboards.getRange(skill, fromIndex, statsPerPage);
     }
 
     public Map<SkillType, Integer> readRank(String playerName) {
-        updateLeaderboards();
-
-        Map<SkillType, Integer> skills = new HashMap<SkillType, Integer>();
-
-        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
-            skills.put(skill, getPlayerRank(playerName, playerStatHash.get(skill)));
-        }
-
-        skills.put(null, getPlayerRank(playerName, powerLevels));
+        return leaderboards.getRanks(playerName);
+    }
 
-        return skills;
+    @Override
+    public void updateSkillLevel(PlayerProfile profile, SkillType skill) {
+        leaderboards.update(profile.getPlayerName(), skill, profile.getSkillLevel(skill));
     }
 
     public void newUser(String playerName, UUID uuid) {
-        BufferedWriter out = null;
+        StringBuilder out = new StringBuilder();
+
+        // Add the player to the end
+        out.append(playerName).append(":");
+        out.append("0:"); // Mining
+        out.append(":");
+        out.append(":");
+        out.append("0:"); // Xp
+        out.append("0:"); // Woodcutting
+        out.append("0:"); // WoodCuttingXp
+        out.append("0:"); // Repair
+        out.append("0:"); // Unarmed
+        out.append("0:"); // Herbalism
+        out.append("0:"); // Excavation
+        out.append("0:"); // Archery
+        out.append("0:"); // Swords
+        out.append("0:"); // Axes
+        out.append("0:"); // Acrobatics
+        out.append("0:"); // RepairXp
+        out.append("0:"); // UnarmedXp
+        out.append("0:"); // HerbalismXp
+        out.append("0:"); // ExcavationXp
+        out.append("0:"); // ArcheryXp
+        out.append("0:"); // SwordsXp
+        out.append("0:"); // AxesXp
+        out.append("0:"); // AcrobaticsXp
+        out.append(":");
+        out.append("0:"); // Taming
+        out.append("0:"); // TamingXp
+        out.append("0:"); // DATS
+        out.append("0:"); // DATS
+        out.append("0:"); // DATS
+        out.append("0:"); // DATS
+        out.append("0:"); // DATS
+        out.append("0:"); // DATS
+        out.append("0:"); // DATS
+        out.append(":");
+        out.append("0:"); // Fishing
+        out.append("0:"); // FishingXp
+        out.append("0:"); // Blast Mining
+        out.append(String.valueOf(System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR)).append(":"); // LastLogin
+        out.append(Config.getInstance().getMobHealthbarDefault().toString()).append(":"); // Mob Healthbar HUD
+        out.append("0:"); // Alchemy
+        out.append("0:"); // AlchemyXp
+        out.append(uuid != null ? uuid.toString() : "NULL").append(":"); // UUID
+        out.append("0:"); // Scoreboard tips shown
+        // Add more in the same format as the line above
+
         synchronized (fileWritingLock) {
             try {
-                // Open the file to write the player
-                out = new BufferedWriter(new FileWriter(mcMMO.getUsersFilePath(), true));
-
-                // Add the player to the end
-                out.append(playerName).append(":");
-                out.append("0:"); // Mining
-                out.append(":");
-                out.append(":");
-                out.append("0:"); // Xp
-                out.append("0:"); // Woodcutting
-                out.append("0:"); // WoodCuttingXp
-                out.append("0:"); // Repair
-                out.append("0:"); // Unarmed
-                out.append("0:"); // Herbalism
-                out.append("0:"); // Excavation
-                out.append("0:"); // Archery
-                out.append("0:"); // Swords
-                out.append("0:"); // Axes
-                out.append("0:"); // Acrobatics
-                out.append("0:"); // RepairXp
-                out.append("0:"); // UnarmedXp
-                out.append("0:"); // HerbalismXp
-                out.append("0:"); // ExcavationXp
-                out.append("0:"); // ArcheryXp
-                out.append("0:"); // SwordsXp
-                out.append("0:"); // AxesXp
-                out.append("0:"); // AcrobaticsXp
-                out.append(":");
-                out.append("0:"); // Taming
-                out.append("0:"); // TamingXp
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append("0:"); // DATS
-                out.append(":");
-                out.append("0:"); // Fishing
-                out.append("0:"); // FishingXp
-                out.append("0:"); // Blast Mining
-                out.append(String.valueOf(System.currentTimeMillis() / Misc.TIME_CONVERSION_FACTOR)).append(":"); // LastLogin
-                out.append(Config.getInstance().getMobHealthbarDefault().toString()).append(":"); // Mob Healthbar HUD
-                out.append("0:"); // Alchemy
-                out.append("0:"); // AlchemyXp
-                out.append(uuid != null ? uuid.toString() : "NULL").append(":"); // UUID
-                out.append("0:"); // Scoreboard tips shown
-                // Add more in the same format as the line above
-
-                out.newLine();
+                userStore.append(out.toString());
+                leaderboards.update(playerName, new EnumMap<SkillType, Integer>(SkillType.class));
             }
             catch (Exception e) {
                 e.printStackTrace();
             }
-            finally {
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
-            }
         }
     }
 
@@ -456,30 +376,22 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     }
 
     public PlayerProfile loadPlayerProfile(String playerName, UUID uuid, boolean create) {
-        BufferedReader in = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
         synchronized (fileWritingLock) {
             try {
-                // Open the user file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                String line;
+                FlatfileUserStore.Slot slot = userStore.getByUniqueId(uuid);
 
-                while ((line = in.readLine()) != null) {
-                    // Find if the line contains the player we want.
-                    String[] character = line.split(":");
+                // Compare names because we don't have a valid uuid for that player even
+                // if input uuid is not null
+                if (slot == null) {
+                    slot = userStore.getByName(playerName);
 
-                    // Compare names because we don't have a valid uuid for that player even
-                    // if input uuid is not null
-                    if (character[UUID_INDEX].equalsIgnoreCase("NULL")) {
-                        if (!character[USERNAME].equalsIgnoreCase(playerName)) {
-                            continue;
-                        }
-                    }
-                    // If input uuid is not null then we should compare uuids
-                    else if ((uuid != null && !character[UUID_INDEX].equalsIgnoreCase(uuid.toString())) || (uuid == null && !character[USERNAME].equalsIgnoreCase(playerName))) {
-                        continue;
+                    if (slot != null && uuid != null && slot.getUniqueId() != null) {
+                        slot = null;
                     }
+                }
+
+                if (slot != null) {
+                    String[] character = userStore.read(slot).split(":");
 
                     // Update playerName in database after name change
                     if (!character[USERNAME].equalsIgnoreCase(playerName)) {
@@ -504,18 +416,6 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
             catch (Exception e) {
                 e.printStackTrace();
             }
-            finally {
-                // I have no idea why it's necessary to inline tryClose() here, but it removes
-                // a resource leak warning, and I'm trusting the compiler on this one.
-                if (in != null) {
-                    try {
-                        in.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
-            }
         }
 
         // Return unloaded profile
@@ -526,102 +426,96 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         return new PlayerProfile(playerName, uuid);
     }
 
-    public void convertUsers(DatabaseManager destination) {
-        BufferedReader in = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-        int convertedUsers = 0;
-        long startMillis = System.currentTimeMillis();
-
-        synchronized (fileWritingLock) {
-            try {
-                // Open the user file
-                in = new BufferedReader(new FileReader(usersFilePath));
-                String line;
+    /**
+     * Read every user from front to back of a copy of the users file, taken
+     * when reading from the start. Records move around the live file as they
+     * grow and as it is compacted, so the position of a user is the offset
+     * of its record in the copy, which does not change. The copy is kept
+     * until every user was read, for a conversion to resume from.
+     */
+    @Override
+    public boolean readUsers(long after, ObjLongConsumer<PlayerProfile> consumer) {
+        File copy = new File(usersFile.getPath() + ".conversion");
 
-                while ((line = in.readLine()) != null) {
-                    String[] character = line.split(":");
+        try {
+            if (after < 0 || !copy.exists()) {
+                if (after >= 0) {
+                    mcMMO.p.getLogger().warning("The copy of the users file to resume reading from is gone, reading every user again");
+                    after = -1;
+                }
 
-                    try {
-                        destination.saveUser(loadFromLine(character));
-                    }
-                    catch (Exception e) {
-                        e.printStackTrace();
-                    }
-                    convertedUsers++;
-                    Misc.printProgress(convertedUsers, progressInterval, startMillis);
+                synchronized (fileWritingLock) {
+                    userStore.copyTo(copy);
                 }
             }
-            catch (Exception e) {
-                e.printStackTrace();
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+
+        FlatfileUserStore.RecordReader in = null;
+
+        try {
+            in = FlatfileUserStore.openRecordReader(copy, Math.max(0, after));
+            String line;
+
+            while ((line = in.next()) != null) {
+                PlayerProfile profile;
+
+                try {
+                    profile = loadFromLine(line.split(":"));
+                }
+                catch (Exception e) {
+                    mcMMO.p.getLogger().severe("Could not read the user at position " + in.getRecordOffset() + ": " + e);
+                    return false;
+                }
+
+                consumer.accept(profile, in.getRecordOffset());
             }
-            finally {
-                if (in != null) {
-                    try {
-                        in.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+        finally {
+            if (in != null) {
+                try {
+                    in.close();
+                }
+                catch (IOException e) {
+                    // Ignore
                 }
             }
         }
+
+        copy.delete();
+        return true;
     }
 
     public boolean saveUserUUID(String userName, UUID uuid) {
         boolean worked = false;
 
-        int i = 0;
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
-
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line;
+                FlatfileUserStore.Slot slot = userStore.getByName(userName);
 
-                while ((line = in.readLine()) != null) {
-                    String[] character = line.split(":");
-                    if (!worked && character[USERNAME].equalsIgnoreCase(userName)) {
-                        if (character.length < 42) {
-                            mcMMO.p.getLogger().severe("Could not update UUID for " + userName + "!");
-                            mcMMO.p.getLogger().severe("Database entry is invalid.");
-                            continue;
-                        }
+                if (slot != null) {
+                    String[] character = userStore.read(slot).split(":");
 
-                        line = line.replace(character[UUID_INDEX], uuid.toString());
+                    if (character.length < 42) {
+                        mcMMO.p.getLogger().severe("Could not update UUID for " + userName + "!");
+                        mcMMO.p.getLogger().severe("Database entry is invalid.");
+                    }
+                    else {
+                        character[UUID_INDEX] = uuid.toString();
+                        userStore.write(slot, org.apache.commons.lang.StringUtils.join(character, ":") + ":");
                         worked = true;
                     }
-
-                    i++;
-                    writer.append(line).append("\r\n");
                 }
-
-                out = new FileWriter(usersFilePath); // Write out the new file
-                out.write(writer.toString());
             }
             catch (Exception e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
-            }
-            finally {
-                mcMMO.p.getLogger().info(i + " entries written while saving UUID for " + userName);
-                if (in != null) {
-                    try {
-                        in.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
+                mcMMO.p.getLogger().severe("Exception while saving UUID for " + userName + " to " + mcMMO.getUsersFilePath() + " " + e.toString());
             }
         }
 
@@ -629,58 +523,35 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     }
 
     public boolean saveUserUUIDs(Map<String, UUID> fetchedUUIDs) {
-        BufferedReader in = null;
-        FileWriter out = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
         int i = 0;
 
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
-                String line;
+                for (Map.Entry<String, UUID> entry : fetchedUUIDs.entrySet()) {
+                    FlatfileUserStore.Slot slot = userStore.getByName(entry.getKey());
 
-                while (((line = in.readLine()) != null)) {
-                    String[] character = line.split(":");
-                    if (!fetchedUUIDs.isEmpty() && fetchedUUIDs.containsKey(character[USERNAME])) {
-                        if (character.length < 42) {
-                            mcMMO.p.getLogger().severe("Could not update UUID for " + character[USERNAME] + "!");
-                            mcMMO.p.getLogger().severe("Database entry is invalid.");
-                            continue;
-                        }
+                    if (slot == null) {
+                        continue;
+                    }
 
-                        character[UUID_INDEX] = fetchedUUIDs.remove(character[USERNAME]).toString();
-                        line = new StringBuilder(org.apache.commons.lang.StringUtils.join(character, ":")).append(":").toString();
+                    String[] character = userStore.read(slot).split(":");
+
+                    if (character.length < 42) {
+                        mcMMO.p.getLogger().severe("Could not update UUID for " + character[USERNAME] + "!");
+                        mcMMO.p.getLogger().severe("Database entry is invalid.");
+                        continue;
                     }
 
+                    character[UUID_INDEX] = entry.getValue().toString();
+                    userStore.write(slot, org.apache.commons.lang.StringUtils.join(character, ":") + ":");
                     i++;
-                    writer.append(line).append("\r\n");
                 }
-
-                out = new FileWriter(usersFilePath); // Write out the new file
-                out.write(writer.toString());
             }
             catch (Exception e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
+                mcMMO.p.getLogger().severe("Exception while saving UUID batch to " + mcMMO.getUsersFilePath() + " " + e.toString());
             }
             finally {
                 mcMMO.p.getLogger().info(i + " entries written while saving UUID batch");
-                if (in != null) {
-                    try {
-                        in.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
             }
         }
 
@@ -690,15 +561,14 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     public List<String> getStoredUsers() {
         ArrayList<String> users = new ArrayList<String>();
         BufferedReader in = null;
-        String usersFilePath = mcMMO.getUsersFilePath();
 
         synchronized (fileWritingLock) {
             try {
                 // Open the user file
-                in = new BufferedReader(new FileReader(usersFilePath));
+                in = userStore.openReader();
                 String line;
 
-                while ((line = in.readLine()) != null) {
+                while ((line = FlatfileUserStore.nextRecord(in)) != null) {
                     String[] character = line.split(":");
                     users.add(character[USERNAME]);
                 }
@@ -721,67 +591,28 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     }
 
     /**
-     * Update the leader boards.
+     * Build the leader boards from the users file. After this they are kept
+     * up to date as users are saved, removed and level up.
      */
-    private void updateLeaderboards() {
-        // Only update FFS leaderboards every 10 minutes.. this puts a lot of strain on the server (depending on the size of the database) and should not be done frequently
-        if (System.currentTimeMillis() < lastUpdate + UPDATE_WAIT_TIME) {
-            return;
-        }
-
-        String usersFilePath = mcMMO.getUsersFilePath();
-        lastUpdate = System.currentTimeMillis(); // Log when the last update was run
-        powerLevels.clear(); // Clear old values from the power levels
-
-        // Initialize lists
-        List<PlayerStat> mining = new ArrayList<PlayerStat>();
-        List<PlayerStat> woodcutting = new ArrayList<PlayerStat>();
-        List<PlayerStat> herbalism = new ArrayList<PlayerStat>();
-        List<PlayerStat> excavation = new ArrayList<PlayerStat>();
-        List<PlayerStat> acrobatics = new ArrayList<PlayerStat>();
-        List<PlayerStat> repair = new ArrayList<PlayerStat>();
-        List<PlayerStat> swords = new ArrayList<PlayerStat>();
-        List<PlayerStat> axes = new ArrayList<PlayerStat>();
-        List<PlayerStat> archery = new ArrayList<PlayerStat>();
-        List<PlayerStat> unarmed = new ArrayList<PlayerStat>();
-        List<PlayerStat> taming = new ArrayList<PlayerStat>();
-        List<PlayerStat> fishing = new ArrayList<PlayerStat>();
-        List<PlayerStat> alchemy = new ArrayList<PlayerStat>();
-
+    private void loadLeaderboards() {
+        FlatfileLeaderboards loaded = new FlatfileLeaderboards();
         BufferedReader in = null;
         String playerName = null;
-        // Read from the FlatFile database and fill our arrays with information
+
+        // Read from the FlatFile database and fill our leader boards with information
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
+                in = userStore.openReader();
                 String line;
 
-                while ((line = in.readLine()) != null) {
+                while ((line = FlatfileUserStore.nextRecord(in)) != null) {
                     String[] data = line.split(":");
                     playerName = data[USERNAME];
-                    int powerLevel = 0;
-
-                    Map<SkillType, Integer> skills = getSkillMapFromLine(data);
-
-                    powerLevel += putStat(acrobatics, playerName, skills.get(SkillType.ACROBATICS));
-                    powerLevel += putStat(alchemy, playerName, skills.get(SkillType.ALCHEMY));
-                    powerLevel += putStat(archery, playerName, skills.get(SkillType.ARCHERY));
-                    powerLevel += putStat(axes, playerName, skills.get(SkillType.AXES));
-                    powerLevel += putStat(excavation, playerName, skills.get(SkillType.EXCAVATION));
-                    powerLevel += putStat(fishing, playerName, skills.get(SkillType.FISHING));
-                    powerLevel += putStat(herbalism, playerName, skills.get(SkillType.HERBALISM));
-                    powerLevel += putStat(mining, playerName, skills.get(SkillType.MINING));
-                    powerLevel += putStat(repair, playerName, skills.get(SkillType.REPAIR));
-                    powerLevel += putStat(swords, playerName, skills.get(SkillType.SWORDS));
-                    powerLevel += putStat(taming, playerName, skills.get(SkillType.TAMING));
-                    powerLevel += putStat(unarmed, playerName, skills.get(SkillType.UNARMED));
-                    powerLevel += putStat(woodcutting, playerName, skills.get(SkillType.WOODCUTTING));
-
-                    putStat(powerLevels, playerName, powerLevel);
+                    loaded.update(playerName, getSkillMapFromLine(data));
                 }
             }
             catch (Exception e) {
-                mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " during user " + playerName + " (Are you sure you formatted it correctly?) " + e.toString());
+                mcMMO.p.getLogger().severe("Exception while reading " + mcMMO.getUsersFilePath() + " during user " + playerName + " (Are you sure you formatted it correctly?) " + e.toString());
             }
             finally {
                 if (in != null) {
@@ -795,36 +626,7 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
             }
         }
 
-        SkillComparator c = new SkillComparator();
-
-        Collections.sort(mining, c);
-        Collections.sort(woodcutting, c);
-        Collections.sort(repair, c);
-        Collections.sort(unarmed, c);
-        Collections.sort(herbalism, c);
-        Collections.sort(excavation, c);
-        Collections.sort(archery, c);
-        Collections.sort(swords, c);
-        Collections.sort(axes, c);
-        Collections.sort(acrobatics, c);
-        Collections.sort(taming, c);
-        Collections.sort(fishing, c);
-        Collections.sort(alchemy, c);
-        Collections.sort(powerLevels, c);
-
-        playerStatHash.put(SkillType.MINING, mining);
-        playerStatHash.put(SkillType.WOODCUTTING, woodcutting);
-        playerStatHash.put(SkillType.REPAIR, repair);
-        playerStatHash.put(SkillType.UNARMED, unarmed);
-        playerStatHash.put(SkillType.HERBALISM, herbalism);
-        playerStatHash.put(SkillType.EXCAVATION, excavation);
-        playerStatHash.put(SkillType.ARCHERY, archery);
-        playerStatHash.put(SkillType.SWORDS, swords);
-        playerStatHash.put(SkillType.AXES, axes);
-        playerStatHash.put(SkillType.ACROBATICS, acrobatics);
-        playerStatHash.put(SkillType.TAMING, taming);
-        playerStatHash.put(SkillType.FISHING, fishing);
-        playerStatHash.put(SkillType.ALCHEMY, alchemy);
+        leaderboards = loaded;
     }
 
     /**
@@ -833,22 +635,18 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     private void checkStructure() {
         if (usersFile.exists()) {
             BufferedReader in = null;
-            FileWriter out = null;
             String usersFilePath = mcMMO.getUsersFilePath();
 
             synchronized (fileWritingLock) {
                 try {
-                    in = new BufferedReader(new FileReader(usersFilePath));
-                    StringBuilder writer = new StringBuilder();
+                    in = userStore.openReader();
+                    List<String> records = new ArrayList<String>();
                     String line;
                     HashSet<String> usernames = new HashSet<String>();
                     HashSet<String> players = new HashSet<String>();
 
-                    while ((line = in.readLine()) != null) {
-                        // Remove empty lines from the file
-                        if (line.isEmpty()) {
-                            continue;
-                        }
+                    // Blank slots and padding are dropped here, which also imports legacy files into the slot layout
+                    while ((line = FlatfileUserStore.nextRecord(in)) != null) {
 
                         // Length checks depend on last character being ':'
                         if (line.charAt(line.length() - 1) != ':') {
@@ -907,7 +705,7 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
 
                         // If they're valid, rewrite them to the file.
                         if (!updated && character.length == 43) {
-                            writer.append(line).append("\r\n");
+                            records.add(line);
                             continue;
                         }
 
@@ -1044,12 +842,12 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                             line = new StringBuilder(org.apache.commons.lang.StringUtils.join(character, ":")).append(":").toString();
                         }
 
-                        writer.append(line).append("\r\n");
+                        records.add(line);
                     }
 
                     // Write the new file
-                    out = new FileWriter(usersFilePath);
-                    out.write(writer.toString());
+                    in.close();
+                    userStore.rewrite(records);
                 }
                 catch (IOException e) {
                     mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
@@ -1063,14 +861,6 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                             // Ignore
                         }
                     }
-                    if (out != null) {
-                        try {
-                            out.close();
-                        }
-                        catch (IOException e) {
-                            // Ignore
-                        }
-                    }
                 }
             }
 
@@ -1095,34 +885,14 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
         }
     }
 
-    private Integer getPlayerRank(String playerName, List<PlayerStat> statsList) {
-        if (statsList == null) {
-            return null;
-        }
-
-        int currentPos = 1;
+    private Map<SkillType, Integer> getSkillLevels(PlayerProfile profile) {
+        Map<SkillType, Integer> skills = new EnumMap<SkillType, Integer>(SkillType.class);
 
-        for (PlayerStat stat : statsList) {
-            if (stat.name.equalsIgnoreCase(playerName)) {
-                return currentPos;
-            }
-
-            currentPos++;
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skills.put(skill, profile.getSkillLevel(skill));
         }
 
-        return null;
-    }
-
-    private int putStat(List<PlayerStat> statList, String playerName, int statValue) {
-        statList.add(new PlayerStat(playerName, statValue));
-        return statValue;
-    }
-
-    private class SkillComparator implements Comparator<PlayerStat> {
-        @Override
-        public int compare(PlayerStat o1, PlayerStat o2) {
-            return (o2.statVal - o1.statVal);
-        }
+        return skills;
     }
 
     private PlayerProfile loadFromLine(String[] character) {
@@ -1211,7 +981,53 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
     }
 
     @Override
-    public void onDisable() { }
+    public void onDisable() {
+        compactionTask.cancel();
+
+        synchronized (fileWritingLock) {
+            try {
+                if (userStore.needsCompaction()) {
+                    userStore.compact();
+                }
+            }
+            catch (IOException e) {
+                mcMMO.p.getLogger().severe("Exception while compacting " + mcMMO.getUsersFilePath() + " " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Build the slot index of the users file.
+     */
+    private void loadUserStore() {
+        synchronized (fileWritingLock) {
+            try {
+                userStore.load();
+            }
+            catch (IOException e) {
+                mcMMO.p.getLogger().severe("Exception while indexing " + mcMMO.getUsersFilePath() + " " + e.toString());
+            }
+        }
+    }
+
+    /**
+     * Reclaims the blank slots left behind by removed and relocated users.
+     */
+    private class CompactionTask extends BukkitRunnable {
+        @Override
+        public void run() {
+            synchronized (fileWritingLock) {
+                try {
+                    if (userStore.needsCompaction()) {
+                        userStore.compact();
+                    }
+                }
+                catch (IOException e) {
+                    mcMMO.p.getLogger().severe("Exception while compacting " + mcMMO.getUsersFilePath() + " " + e.toString());
+                }
+            }
+        }
+    }
 
     private int getSkillIndex(SkillType skill) {
         switch (skill) {
@@ -1289,32 +1105,27 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
 
     public void resetMobHealthSettings() {
         BufferedReader in = null;
-        FileWriter out = null;
         String usersFilePath = mcMMO.getUsersFilePath();
 
         synchronized (fileWritingLock) {
             try {
-                in = new BufferedReader(new FileReader(usersFilePath));
-                StringBuilder writer = new StringBuilder();
+                in = userStore.openReader();
+                List<String> records = new ArrayList<String>();
                 String line;
 
-                while ((line = in.readLine()) != null) {
-                    // Remove empty lines from the file
-                    if (line.isEmpty()) {
-                        continue;
-                    }
+                while ((line = FlatfileUserStore.nextRecord(in)) != null) {
                     String[] character = line.split(":");
                     
                     character[HEALTHBAR] = Config.getInstance().getMobHealthbarDefault().toString();
                     
                     line = new StringBuilder(org.apache.commons.lang.StringUtils.join(character, ":")).append(":").toString();
 
-                    writer.append(line).append("\r\n");
+                    records.add(line);
                 }
 
                 // Write the new file
-                out = new FileWriter(usersFilePath);
-                out.write(writer.toString());
+                in.close();
+                userStore.rewrite(records);
             }
             catch (IOException e) {
                 mcMMO.p.getLogger().severe("Exception while reading " + usersFilePath + " (Are you sure you formatted it correctly?)" + e.toString());
@@ -1328,14 +1139,6 @@ public final class FlatfileDatabaseManager implements DatabaseManager {
                         // Ignore
                     }
                 }
-                if (out != null) {
-                    try {
-                        out.close();
-                    }
-                    catch (IOException e) {
-                        // Ignore
-                    }
-                }
             }
         }
     }
@@ -0,0 +1,340 @@
+package com.gmail.nossr50.database;
+
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+
+import java.util.*;
+
+/**
+ * Live leaderboards for the flatfile database.
+ * <p>
+ * Every skill, and the power level, is kept in an order-statistic tree
+ * sorted by level (highest first) and then by name, so ranks and leaderboard
+ * pages are answered in O(log n) and always reflect the latest known levels.
+ * The leaderboards are built once from the users file and then kept up to
+ * date as levels change, users are saved and users are removed.
+ */
+final class FlatfileLeaderboards {
+    private static final String INVALID_USERNAME = "_INVALID_OLD_USERNAME_";
+
+    private final Map<SkillType, RankTree> skillTrees = new EnumMap<SkillType, RankTree>(SkillType.class);
+    private final RankTree powerLevels = new RankTree();
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+
+    FlatfileLeaderboards() {
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skillTrees.put(skill, new RankTree());
+        }
+    }
+
+    /**
+     * Set all skill levels of a user, adding the user if needed.
+     *
+     * @param playerName The name of the user
+     * @param levels The skill levels of the user, missing skills count as 0
+     */
+    public synchronized void update(String playerName, Map<SkillType, Integer> levels) {
+        if (isInvalid(playerName)) {
+            return;
+        }
+
+        Entry entry = getOrCreate(playerName);
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            Integer level = levels.get(skill);
+            setLevel(entry, skill, level == null ? 0 : level);
+        }
+    }
+
+    /**
+     * Set a single skill level of a user, adding the user if needed.
+     *
+     * @param playerName The name of the user
+     * @param skill The skill to update, must not be a child skill
+     * @param level The new level
+     */
+    public synchronized void update(String playerName, SkillType skill, int level) {
+        if (isInvalid(playerName) || skill.isChildSkill()) {
+            return;
+        }
+
+        setLevel(getOrCreate(playerName), skill, level);
+    }
+
+    /**
+     * Remove a user from all leaderboards.
+     *
+     * @param playerName The name of the user
+     */
+    public synchronized void remove(String playerName) {
+        Entry entry = entries.remove(playerName.toLowerCase(Locale.ENGLISH));
+
+        if (entry == null) {
+            return;
+        }
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skillTrees.get(skill).remove(entry.name, entry.levels.get(skill));
+        }
+
+        powerLevels.remove(entry.name, entry.powerLevel);
+    }
+
+    /**
+     * Get a range of a leaderboard.
+     *
+     * @param skill The skill, or null for power level
+     * @param fromIndex The index of the first stat, starting at 0
+     * @param count The maximum number of stats to return
+     * @return the stats in leaderboard order
+     */
+    public synchronized List<PlayerStat> getRange(SkillType skill, int fromIndex, int count) {
+        List<PlayerStat> stats = new ArrayList<PlayerStat>(Math.max(0, count));
+        getTree(skill).collect(fromIndex, count, stats);
+        return stats;
+    }
+
+    /**
+     * Get the rank of a user in every leaderboard.
+     *
+     * @param playerName The name of the user
+     * @return the ranks, with null as the power level key, or an empty map if the user is unknown
+     */
+    public synchronized Map<SkillType, Integer> getRanks(String playerName) {
+        Map<SkillType, Integer> ranks = new HashMap<SkillType, Integer>();
+        Entry entry = entries.get(playerName.toLowerCase(Locale.ENGLISH));
+
+        if (entry == null) {
+            return ranks;
+        }
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            ranks.put(skill, skillTrees.get(skill).rank(entry.name, entry.levels.get(skill)));
+        }
+
+        ranks.put(null, powerLevels.rank(entry.name, entry.powerLevel));
+        return ranks;
+    }
+
+    private Entry getOrCreate(String playerName) {
+        String key = playerName.toLowerCase(Locale.ENGLISH);
+        Entry entry = entries.get(key);
+
+        if (entry != null) {
+            return entry;
+        }
+
+        entry = new Entry(playerName);
+        entries.put(key, entry);
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            entry.levels.put(skill, 0);
+            skillTrees.get(skill).insert(entry.name, 0);
+        }
+
+        powerLevels.insert(entry.name, 0);
+        return entry;
+    }
+
+    private void setLevel(Entry entry, SkillType skill, int level) {
+        int oldLevel = entry.levels.get(skill);
+
+        if (oldLevel == level) {
+            return;
+        }
+
+        RankTree tree = skillTrees.get(skill);
+        tree.remove(entry.name, oldLevel);
+        tree.insert(entry.name, level);
+        entry.levels.put(skill, level);
+
+        powerLevels.remove(entry.name, entry.powerLevel);
+        entry.powerLevel += level - oldLevel;
+        powerLevels.insert(entry.name, entry.powerLevel);
+    }
+
+    private RankTree getTree(SkillType skill) {
+        return skill == null ? powerLevels : skillTrees.get(skill);
+    }
+
+    private static boolean isInvalid(String playerName) {
+        return playerName == null || playerName.startsWith(INVALID_USERNAME);
+    }
+
+    private static final class Entry {
+        private final String name;
+        private final Map<SkillType, Integer> levels = new EnumMap<SkillType, Integer>(SkillType.class);
+        private int powerLevel;
+
+        private Entry(String name) {
+            this.name = name;
+        }
+    }
+
+    /**
+     * A treap with subtree sizes, ordered by level descending and then by name.
+     */
+    static final class RankTree {
+        private final Random random = new Random();
+        private Node root;
+
+        public void insert(String name, int level) {
+            Node node = new Node(name, level, random.nextInt());
+            Node[] parts = split(root, name, level);
+            root = merge(merge(parts[0], node), parts[1]);
+        }
+
+        public void remove(String name, int level) {
+            root = remove(root, name, level);
+        }
+
+        /**
+         * @return the 1-based position of the entry, or null if it is not present
+         */
+        public Integer rank(String name, int level) {
+            Node node = root;
+            int before = 0;
+
+            while (node != null) {
+                int compare = compare(name, level, node);
+
+                if (compare == 0) {
+                    return before + size(node.left) + 1;
+                }
+
+                if (compare < 0) {
+                    node = node.left;
+                }
+                else {
+                    before += size(node.left) + 1;
+                    node = node.right;
+                }
+            }
+
+            return null;
+        }
+
+        public void collect(int fromIndex, int count, List<PlayerStat> stats) {
+            collect(root, fromIndex, count, stats);
+        }
+
+        private void collect(Node node, int fromIndex, int count, List<PlayerStat> stats) {
+            if (node == null || stats.size() >= count) {
+                return;
+            }
+
+            int leftSize = size(node.left);
+
+            if (fromIndex < leftSize) {
+                collect(node.left, fromIndex, count, stats);
+            }
+
+            if (stats.size() >= count) {
+                return;
+            }
+
+            if (fromIndex <= leftSize) {
+                stats.add(new PlayerStat(node.name, node.level));
+            }
+
+            collect(node.right, Math.max(0, fromIndex - leftSize - 1), count, stats);
+        }
+
+        private Node remove(Node node, String name, int level) {
+            if (node == null) {
+                return null;
+            }
+
+            int compare = compare(name, level, node);
+
+            if (compare == 0) {
+                return merge(node.left, node.right);
+            }
+
+            if (compare < 0) {
+                node.left = remove(node.left, name, level);
+            }
+            else {
+                node.right = remove(node.right, name, level);
+            }
+
+            update(node);
+            return node;
+        }
+
+        /**
+         * Split a tree into the entries ordered before (name, level) and the rest.
+         */
+        private Node[] split(Node node, String name, int level) {
+            if (node == null) {
+                return new Node[2];
+            }
+
+            if (compare(name, level, node) > 0) {
+                Node[] parts = split(node.right, name, level);
+                node.right = parts[0];
+                update(node);
+                parts[0] = node;
+                return parts;
+            }
+
+            Node[] parts = split(node.left, name, level);
+            node.left = parts[1];
+            update(node);
+            parts[1] = node;
+            return parts;
+        }
+
+        private Node merge(Node left, Node right) {
+            if (left == null) {
+                return right;
+            }
+
+            if (right == null) {
+                return left;
+            }
+
+            if (left.priority > right.priority) {
+                left.right = merge(left.right, right);
+                update(left);
+                return left;
+            }
+
+            right.left = merge(left, right.left);
+            update(right);
+            return right;
+        }
+
+        private static int compare(String name, int level, Node node) {
+            if (level != node.level) {
+                return level > node.level ? -1 : 1;
+            }
+
+            int compare = name.compareToIgnoreCase(node.name);
+            return compare != 0 ? compare : name.compareTo(node.name);
+        }
+
+        private static int size(Node node) {
+            return node == null ? 0 : node.size;
+        }
+
+        private static void update(Node node) {
+            node.size = size(node.left) + size(node.right) + 1;
+        }
+
+        private static final class Node {
+            private final String name;
+            private final int level;
+            private final int priority;
+            private int size = 1;
+            private Node left;
+            private Node right;
+
+            private Node(String name, int level, int priority) {
+                this.name = name;
+                this.level = level;
+                this.priority = priority;
+            }
+        }
+    }
+}
@@ -0,0 +1,547 @@
+package com.gmail.nossr50.database;
+
+import com.google.common.base.Charsets;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Slot based storage for the flatfile users database.
+ * <p>
+ * Every record is a legacy colon-delimited line, padded with spaces up to a
+ * fixed slot size. Records are located through an in-memory index of slot
+ * offsets, so saving a user patches its slot in place instead of rewriting
+ * the whole file. A record that outgrows its slot is appended to the end of
+ * the file and the old slot is blanked out. Blank slots are reclaimed by
+ * {@link #compact()}.
+ * <p>
+ * Trimming a slot yields the legacy line, so the file can still be read by
+ * anything that understands the legacy format once blank lines are skipped.
+ * <p>
+ * This class is not thread safe, callers are expected to hold the database
+ * file lock.
+ */
+final class FlatfileUserStore {
+    private static final byte[] LINE_SEPARATOR = { '\r', '\n' };
+    private static final int SLOT_ALIGNMENT = 64;
+    private static final int SLOT_HEADROOM = 32;
+    private static final double COMPACTION_THRESHOLD = 0.25D;
+    private static final int MINIMUM_COMPACTION_BYTES = 64 * 1024;
+
+    private final File file;
+    private final int uuidIndex;
+
+    private final Map<String, Slot> slotsByName = new HashMap<String, Slot>();
+    private final Map<UUID, Slot> slotsByUniqueId = new HashMap<UUID, Slot>();
+
+    private long fileLength;
+    private long wastedBytes;
+
+    /**
+     * @param file The users file
+     * @param uuidIndex The index of the uuid field in a record
+     */
+    FlatfileUserStore(File file, int uuidIndex) {
+        this.file = file;
+        this.uuidIndex = uuidIndex;
+    }
+
+    /**
+     * Rebuild the slot index by scanning the users file once.
+     */
+    public void load() throws IOException {
+        slotsByName.clear();
+        slotsByUniqueId.clear();
+        fileLength = 0;
+        wastedBytes = 0;
+
+        if (!file.exists()) {
+            return;
+        }
+
+        InputStream in = null;
+
+        try {
+            in = new BufferedInputStream(new FileInputStream(file));
+            ByteArrayOutputStream line = new ByteArrayOutputStream(SLOT_ALIGNMENT * 4);
+            long offset = 0;
+            long slotStart = 0;
+            int read;
+
+            while ((read = in.read()) != -1) {
+                offset++;
+
+                if (read != '\n') {
+                    line.write(read);
+                    continue;
+                }
+
+                indexSlot(slotStart, (int) (offset - slotStart), line.toString(Charsets.UTF_8.name()));
+                line.reset();
+                slotStart = offset;
+            }
+
+            fileLength = offset;
+
+            // Terminate a trailing record so that appended records start on a line of their own
+            if (offset > slotStart) {
+                appendLineSeparator();
+                indexSlot(slotStart, (int) (fileLength - slotStart), line.toString(Charsets.UTF_8.name()));
+            }
+        }
+        finally {
+            tryClose(in);
+        }
+    }
+
+    /**
+     * Get the slot of the record with the given uuid.
+     *
+     * @param uuid The uuid to look up, may be null
+     * @return the slot, or null if there is no such record
+     */
+    public Slot getByUniqueId(UUID uuid) {
+        return uuid == null ? null : slotsByUniqueId.get(uuid);
+    }
+
+    /**
+     * Get the slot of the record with the given name, ignoring case.
+     *
+     * @param playerName The name to look up
+     * @return the slot, or null if there is no such record
+     */
+    public Slot getByName(String playerName) {
+        return playerName == null ? null : slotsByName.get(playerName.toLowerCase(Locale.ENGLISH));
+    }
+
+    /**
+     * Get the names of every record.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<String>(slotsByName.size());
+
+        for (Slot slot : slotsByName.values()) {
+            names.add(slot.name);
+        }
+
+        return names;
+    }
+
+    /**
+     * Read the record stored in a slot.
+     *
+     * @param slot The slot to read
+     * @return the legacy line stored in the slot
+     */
+    public String read(Slot slot) throws IOException {
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(file, "r");
+            byte[] buffer = new byte[slot.size];
+            raf.seek(slot.offset);
+            raf.readFully(buffer);
+
+            return new String(buffer, Charsets.UTF_8).trim();
+        }
+        finally {
+            tryClose(raf);
+        }
+    }
+
+    /**
+     * Store a record, patching the given slot in place when the record fits,
+     * and appending it to the end of the file otherwise.
+     *
+     * @param slot The slot currently holding the record, or null for a new record
+     * @param record The legacy line to store
+     * @return the slot now holding the record
+     */
+    public Slot write(Slot slot, String record) throws IOException {
+        byte[] bytes = record.getBytes(Charsets.UTF_8);
+
+        if (slot == null || bytes.length + LINE_SEPARATOR.length > slot.size) {
+            if (slot != null) {
+                remove(slot);
+            }
+
+            return append(bytes, record);
+        }
+
+        writeSlot(slot.offset, slot.size, bytes);
+        reindex(slot, record);
+        return slot;
+    }
+
+    /**
+     * Append a new record to the end of the file.
+     *
+     * @param record The legacy line to store
+     * @return the slot now holding the record
+     */
+    public Slot append(String record) throws IOException {
+        return append(record.getBytes(Charsets.UTF_8), record);
+    }
+
+    /**
+     * Blank out a slot, removing its record.
+     *
+     * @param slot The slot to clear
+     */
+    public void remove(Slot slot) throws IOException {
+        writeSlot(slot.offset, slot.size, new byte[0]);
+        unindex(slot);
+        wastedBytes += slot.size;
+    }
+
+    /**
+     * Replace the entire contents of the file, for bulk operations that touch
+     * most records anyway. The new file is written next to the old one and
+     * moved into place once complete, the index is only replaced after that
+     * so a failed rewrite leaves both untouched.
+     *
+     * @param records The legacy lines to store, in order
+     */
+    public void rewrite(Collection<String> records) throws IOException {
+        File tempFile = new File(file.getPath() + ".tmp");
+        OutputStream out = null;
+
+        Map<String, Slot> newSlotsByName = new HashMap<String, Slot>();
+        Map<UUID, Slot> newSlotsByUniqueId = new HashMap<UUID, Slot>();
+        long newFileLength = 0;
+
+        try {
+            out = new BufferedOutputStream(new FileOutputStream(tempFile));
+
+            for (String record : records) {
+                byte[] bytes = record.getBytes(Charsets.UTF_8);
+                int size = getSlotSize(bytes.length);
+
+                out.write(pad(bytes, size));
+                index(newSlotsByName, newSlotsByUniqueId, new Slot(newFileLength, size), record);
+                newFileLength += size;
+            }
+
+            out.close();
+            out = null;
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException e) {
+            tryClose(out);
+            tempFile.delete();
+            throw e;
+        }
+
+        slotsByName.clear();
+        slotsByName.putAll(newSlotsByName);
+        slotsByUniqueId.clear();
+        slotsByUniqueId.putAll(newSlotsByUniqueId);
+        fileLength = newFileLength;
+        wastedBytes = 0;
+    }
+
+    /**
+     * Whether enough space is taken up by blank slots to be worth compacting.
+     */
+    public boolean needsCompaction() {
+        return wastedBytes >= MINIMUM_COMPACTION_BYTES && wastedBytes >= fileLength * COMPACTION_THRESHOLD;
+    }
+
+    /**
+     * Rewrite the file without blank slots.
+     */
+    public void compact() throws IOException {
+        List<String> records = new ArrayList<String>(slotsByName.size());
+        BufferedReader in = null;
+
+        try {
+            in = openReader();
+            String record;
+
+            while ((record = nextRecord(in)) != null) {
+                records.add(record);
+            }
+        }
+        finally {
+            tryClose(in);
+        }
+
+        rewrite(records);
+    }
+
+    /**
+     * Copy the users file as it is now, padding and blank slots included.
+     *
+     * @param destination The file to copy to, replaced if it exists
+     */
+    public void copyTo(File destination) throws IOException {
+        Files.copy(file.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Open a reader over the users file for sequential scans, use together
+     * with {@link #nextRecord(BufferedReader)}.
+     */
+    public BufferedReader openReader() throws IOException {
+        return new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.UTF_8));
+    }
+
+    /**
+     * Read the next record from a sequential scan, skipping blank slots.
+     *
+     * @param in The reader to read from
+     * @return the next legacy line, or null at the end of the file
+     */
+    public static String nextRecord(BufferedReader in) throws IOException {
+        String line;
+
+        while ((line = in.readLine()) != null) {
+            line = line.trim();
+
+            if (!line.isEmpty()) {
+                return line;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Open a sequential scan of a users file that knows where each record
+     * starts, so that it can be resumed from a record.
+     *
+     * @param file The users file, or a copy of it
+     * @param start The offset to start at, which must be the start of a line
+     */
+    public static RecordReader openRecordReader(File file, long start) throws IOException {
+        return new RecordReader(file, start);
+    }
+
+    private Slot append(byte[] bytes, String record) throws IOException {
+        Slot slot = new Slot(fileLength, getSlotSize(bytes.length));
+
+        writeSlot(slot.offset, slot.size, bytes);
+        reindex(slot, record);
+        fileLength += slot.size;
+
+        return slot;
+    }
+
+    private void writeSlot(long offset, int size, byte[] bytes) throws IOException {
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.seek(offset);
+            raf.write(pad(bytes, size));
+        }
+        finally {
+            tryClose(raf);
+        }
+    }
+
+    private void appendLineSeparator() throws IOException {
+        RandomAccessFile raf = null;
+
+        try {
+            raf = new RandomAccessFile(file, "rw");
+            raf.seek(fileLength);
+            raf.write(LINE_SEPARATOR);
+            fileLength += LINE_SEPARATOR.length;
+        }
+        finally {
+            tryClose(raf);
+        }
+    }
+
+    private void indexSlot(long offset, int size, String line) {
+        String record = line.trim();
+
+        if (record.isEmpty()) {
+            wastedBytes += size;
+            return;
+        }
+
+        reindex(new Slot(offset, size), record);
+    }
+
+    private void reindex(Slot slot, String record) {
+        unindex(slot);
+        index(slotsByName, slotsByUniqueId, slot, record);
+    }
+
+    private void index(Map<String, Slot> byName, Map<UUID, Slot> byUniqueId, Slot slot, String record) {
+        slot.name = getName(record);
+        slot.uuid = getUniqueId(record);
+
+        byName.put(slot.name.toLowerCase(Locale.ENGLISH), slot);
+
+        if (slot.uuid != null) {
+            byUniqueId.put(slot.uuid, slot);
+        }
+    }
+
+    private void unindex(Slot slot) {
+        if (slot.name != null) {
+            String key = slot.name.toLowerCase(Locale.ENGLISH);
+
+            if (slotsByName.get(key) == slot) {
+                slotsByName.remove(key);
+            }
+        }
+
+        if (slot.uuid != null && slotsByUniqueId.get(slot.uuid) == slot) {
+            slotsByUniqueId.remove(slot.uuid);
+        }
+    }
+
+    private String getName(String record) {
+        int end = record.indexOf(':');
+        return end == -1 ? record : record.substring(0, end);
+    }
+
+    private UUID getUniqueId(String record) {
+        String[] character = record.split(":");
+
+        if (character.length <= uuidIndex) {
+            return null;
+        }
+
+        try {
+            return UUID.fromString(character[uuidIndex]);
+        }
+        catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static int getSlotSize(int recordLength) {
+        int size = recordLength + LINE_SEPARATOR.length + SLOT_HEADROOM;
+        return ((size + SLOT_ALIGNMENT - 1) / SLOT_ALIGNMENT) * SLOT_ALIGNMENT;
+    }
+
+    private static byte[] pad(byte[] bytes, int size) {
+        byte[] slot = new byte[size];
+
+        System.arraycopy(bytes, 0, slot, 0, bytes.length);
+        Arrays.fill(slot, bytes.length, size - LINE_SEPARATOR.length, (byte) ' ');
+        System.arraycopy(LINE_SEPARATOR, 0, slot, size - LINE_SEPARATOR.length, LINE_SEPARATOR.length);
+
+        return slot;
+    }
+
+    private static void tryClose(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            }
+            catch (IOException e) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * A sequential scan of a users file, skipping blank slots.
+     */
+    static final class RecordReader implements Closeable {
+        private final InputStream in;
+        private final ByteArrayOutputStream line = new ByteArrayOutputStream(SLOT_ALIGNMENT * 4);
+        private long offset;
+        private long recordOffset = -1;
+
+        private RecordReader(File file, long start) throws IOException {
+            in = new BufferedInputStream(new FileInputStream(file));
+
+            while (offset < start) {
+                long skipped = in.skip(start - offset);
+
+                if (skipped <= 0) {
+                    break;
+                }
+
+                offset += skipped;
+            }
+        }
+
+        /**
+         * Read the next record.
+         *
+         * @return the next legacy line, or null at the end of the file
+         */
+        public String next() throws IOException {
+            long lineStart = offset;
+            int read;
+
+            line.reset();
+
+            while ((read = in.read()) != -1) {
+                offset++;
+
+                if (read != '\n') {
+                    line.write(read);
+                    continue;
+                }
+
+                String record = line.toString(Charsets.UTF_8.name()).trim();
+
+                if (!record.isEmpty()) {
+                    recordOffset = lineStart;
+                    return record;
+                }
+
+                line.reset();
+                lineStart = offset;
+            }
+
+            // A last record without a line separator
+            String record = line.toString(Charsets.UTF_8.name()).trim();
+            line.reset();
+
+            if (record.isEmpty()) {
+                return null;
+            }
+
+            recordOffset = lineStart;
+            return record;
+        }
+
+        /**
+         * Get the offset in the file of the record last read.
+         */
+        public long getRecordOffset() {
+            return recordOffset;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * The location of a single record in the users file.
+     */
+    static final class Slot {
+        private final long offset;
+        private final int size;
+        private String name;
+        private UUID uuid;
+
+        private Slot(long offset, int size) {
+            this.offset = offset;
+            this.size = size;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public UUID getUniqueId() {
+            return uuid;
+        }
+    }
+}
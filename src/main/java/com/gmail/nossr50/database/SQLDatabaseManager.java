@@ -6,6 +6,7 @@ import com.gmail.nossr50.datatypes.database.DatabaseType;
 import com.gmail.nossr50.datatypes.database.PlayerStat;
 import com.gmail.nossr50.datatypes.database.UpgradeType;
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.datatypes.player.ProfileChanges;
 import com.gmail.nossr50.datatypes.skills.AbilityType;
 import com.gmail.nossr50.datatypes.skills.SkillType;
 import com.gmail.nossr50.mcMMO;
@@ -15,15 +16,42 @@ import org.apache.tomcat.jdbc.pool.DataSource;
 import org.apache.tomcat.jdbc.pool.PoolProperties;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.io.File;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ObjLongConsumer;
 
 public final class SQLDatabaseManager implements DatabaseManager {
-    private static final String ALL_QUERY_VERSION = "total";
-    private String tablePrefix = Config.getInstance().getMySQLTablePrefix();
+    static final String ALL_QUERY_VERSION = "total";
+    // Statements cached per pooled connection, enough for every template and the common save updates
+    private static final int STATEMENT_CACHE_SIZE = 64;
+    // Users copied per transaction when migrating to the single table layout
+    private static final int MIGRATION_CHUNK_SIZE = 1000;
+    // Name of the progress row of the single table migration
+    private static final String PROFILES_MIGRATION = "profiles";
+    // Users read per query when reading every user for a conversion
+    private static final int READ_PAGE_SIZE = 1000;
+    static final Map<AbilityType, String> COOLDOWN_COLUMNS = new LinkedHashMap<AbilityType, String>();
+
+    static {
+        COOLDOWN_COLUMNS.put(AbilityType.SUPER_BREAKER, "mining");
+        COOLDOWN_COLUMNS.put(AbilityType.TREE_FELLER, "woodcutting");
+        COOLDOWN_COLUMNS.put(AbilityType.BERSERK, "unarmed");
+        COOLDOWN_COLUMNS.put(AbilityType.GREEN_TERRA, "herbalism");
+        COOLDOWN_COLUMNS.put(AbilityType.GIGA_DRILL_BREAKER, "excavation");
+        COOLDOWN_COLUMNS.put(AbilityType.SERRATED_STRIKES, "swords");
+        COOLDOWN_COLUMNS.put(AbilityType.SKULL_SPLITTER, "axes");
+        COOLDOWN_COLUMNS.put(AbilityType.BLAST_MINING, "blast_mining");
+    }
+
+    private final boolean embedded;
+    private final String tablePrefix;
+    private final SQLQueries queries;
 
-    private final Map<UUID, Integer> cachedUserIDs = new HashMap<UUID, Integer>();
+    private final Map<UUID, Integer> cachedUserIDs = new ConcurrentHashMap<UUID, Integer>();
 
     private DataSource miscPool;
     private DataSource loadPool;
@@ -31,7 +59,31 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
     private ReentrantLock massUpdateLock = new ReentrantLock();
 
+    private volatile boolean migratingProfiles = false;
+    private volatile boolean disabled = false;
+
+    private final AtomicLong rankLookups = new AtomicLong();
+    private final AtomicLong rankQueries = new AtomicLong();
+
     protected SQLDatabaseManager() {
+        this(DatabaseType.SQL);
+    }
+
+    /**
+     * @param databaseType SQL for a MySQL server, or SQLITE for an embedded
+     *          database in the flatfile directory
+     */
+    protected SQLDatabaseManager(DatabaseType databaseType) {
+        embedded = databaseType == DatabaseType.SQLITE;
+        tablePrefix = embedded ? "mcmmo_" : Config.getInstance().getMySQLTablePrefix();
+        queries = new SQLQueries(tablePrefix, embedded, embedded ? Config.getInstance().getSQLiteSingleTable() : Config.getInstance().getMySQLSingleTable());
+
+        if (embedded) {
+            createEmbeddedPools();
+            checkStructure();
+            return;
+        }
+
         String connectionString = "jdbc:mysql://" + Config.getInstance().getMySQLServerName() + ":" + Config.getInstance().getMySQLServerPort() + "/" + Config.getInstance().getMySQLDatabaseName();
 
         if(Config.getInstance().getMySQLSSL())
@@ -43,6 +95,11 @@ public final class SQLDatabaseManager implements DatabaseManager {
             connectionString +=
                     "?useSSL=false";
 
+        // Let the driver send batched saves as multi-row statements
+        connectionString += "&rewriteBatchedStatements=true";
+        // Prepare statements on the server, so the pooled statements are only parsed and planned once
+        connectionString += "&useServerPrepStmts=true";
+
         try {
             // Force driver to load if not yet loaded
             Class.forName("com.mysql.jdbc.Driver");
@@ -61,6 +118,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         poolProperties.setPassword(Config.getInstance().getMySQLUserPassword());
         poolProperties.setMaxIdle(Config.getInstance().getMySQLMaxPoolSize(PoolIdentifier.MISC));
         poolProperties.setMaxActive(Config.getInstance().getMySQLMaxConnections(PoolIdentifier.MISC));
+        poolProperties.setJdbcInterceptors(getStatementCache(Config.getInstance().getMySQLMaxConnections(PoolIdentifier.MISC)));
         poolProperties.setInitialSize(0);
         poolProperties.setMaxWait(-1);
         poolProperties.setRemoveAbandoned(true);
@@ -77,6 +135,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         poolProperties.setInitialSize(0);
         poolProperties.setMaxIdle(Config.getInstance().getMySQLMaxPoolSize(PoolIdentifier.SAVE));
         poolProperties.setMaxActive(Config.getInstance().getMySQLMaxConnections(PoolIdentifier.SAVE));
+        poolProperties.setJdbcInterceptors(getStatementCache(Config.getInstance().getMySQLMaxConnections(PoolIdentifier.SAVE)));
         poolProperties.setMaxWait(-1);
         poolProperties.setRemoveAbandoned(true);
         poolProperties.setRemoveAbandonedTimeout(60);
@@ -92,6 +151,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         poolProperties.setInitialSize(0);
         poolProperties.setMaxIdle(Config.getInstance().getMySQLMaxPoolSize(PoolIdentifier.LOAD));
         poolProperties.setMaxActive(Config.getInstance().getMySQLMaxConnections(PoolIdentifier.LOAD));
+        poolProperties.setJdbcInterceptors(getStatementCache(Config.getInstance().getMySQLMaxConnections(PoolIdentifier.LOAD)));
         poolProperties.setMaxWait(-1);
         poolProperties.setRemoveAbandoned(true);
         poolProperties.setRemoveAbandonedTimeout(60);
@@ -115,16 +175,25 @@ public final class SQLDatabaseManager implements DatabaseManager {
             connection = getConnection(PoolIdentifier.MISC);
             statement = connection.createStatement();
 
-            purged = statement.executeUpdate("DELETE FROM " + tablePrefix + "skills WHERE "
-                    + "taming = 0 AND mining = 0 AND woodcutting = 0 AND repair = 0 "
-                    + "AND unarmed = 0 AND herbalism = 0 AND excavation = 0 AND "
-                    + "archery = 0 AND swords = 0 AND axes = 0 AND acrobatics = 0 "
-                    + "AND fishing = 0 AND alchemy = 0;");
-
-            statement.executeUpdate("DELETE FROM `" + tablePrefix + "experience` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "experience`.`user_id` = `s`.`user_id`)");
-            statement.executeUpdate("DELETE FROM `" + tablePrefix + "huds` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "huds`.`user_id` = `s`.`user_id`)");
-            statement.executeUpdate("DELETE FROM `" + tablePrefix + "cooldowns` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "cooldowns`.`user_id` = `s`.`user_id`)");
-            statement.executeUpdate("DELETE FROM `" + tablePrefix + "users` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "users`.`id` = `s`.`user_id`)");
+            if (queries.isSingleTable()) {
+                purged = statement.executeUpdate("DELETE FROM " + queries.getUserTable() + " WHERE "
+                        + "taming = 0 AND mining = 0 AND woodcutting = 0 AND repair = 0 "
+                        + "AND unarmed = 0 AND herbalism = 0 AND excavation = 0 AND "
+                        + "archery = 0 AND swords = 0 AND axes = 0 AND acrobatics = 0 "
+                        + "AND fishing = 0 AND alchemy = 0");
+            }
+            else {
+                purged = statement.executeUpdate("DELETE FROM " + tablePrefix + "skills WHERE "
+                        + "taming = 0 AND mining = 0 AND woodcutting = 0 AND repair = 0 "
+                        + "AND unarmed = 0 AND herbalism = 0 AND excavation = 0 AND "
+                        + "archery = 0 AND swords = 0 AND axes = 0 AND acrobatics = 0 "
+                        + "AND fishing = 0 AND alchemy = 0;");
+
+                statement.executeUpdate("DELETE FROM `" + tablePrefix + "experience` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "experience`.`user_id` = `s`.`user_id`)");
+                statement.executeUpdate("DELETE FROM `" + tablePrefix + "huds` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "huds`.`user_id` = `s`.`user_id`)");
+                statement.executeUpdate("DELETE FROM `" + tablePrefix + "cooldowns` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "cooldowns`.`user_id` = `s`.`user_id`)");
+                statement.executeUpdate("DELETE FROM `" + tablePrefix + "users` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "skills` `s` WHERE `" + tablePrefix + "users`.`id` = `s`.`user_id`)");
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
@@ -150,12 +219,20 @@ public final class SQLDatabaseManager implements DatabaseManager {
             connection = getConnection(PoolIdentifier.MISC);
             statement = connection.createStatement();
 
-            purged = statement.executeUpdate("DELETE FROM u, e, h, s, c USING " + tablePrefix + "users u " +
-                    "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
-                    "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
-                    "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
-                    "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
-                    "WHERE ((UNIX_TIMESTAMP() - lastlogin) > " + PURGE_TIME + ")");
+            if (queries.isSingleTable()) {
+                purged = statement.executeUpdate("DELETE FROM " + queries.getUserTable() + " WHERE ((" + queries.getUnixTimestamp() + " - lastlogin) > " + PURGE_TIME + ")");
+            }
+            else if (embedded) {
+                purged = deleteEmbeddedUsers(connection, "((" + queries.getUnixTimestamp() + " - lastlogin) > " + PURGE_TIME + ")", null);
+            }
+            else {
+                purged = statement.executeUpdate("DELETE FROM u, e, h, s, c USING " + tablePrefix + "users u " +
+                        "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
+                        "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
+                        "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
+                        "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
+                        "WHERE ((UNIX_TIMESTAMP() - lastlogin) > " + PURGE_TIME + ")");
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
@@ -176,17 +253,29 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         try {
             connection = getConnection(PoolIdentifier.MISC);
-            statement = connection.prepareStatement("DELETE FROM u, e, h, s, c " +
-                    "USING " + tablePrefix + "users u " +
-                    "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
-                    "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
-                    "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
-                    "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
-                    "WHERE u.user = ?");
 
-            statement.setString(1, playerName);
+            if (queries.isSingleTable()) {
+                statement = connection.prepareStatement("DELETE FROM " + queries.getUserTable() + " WHERE user = ?");
+                statement.setString(1, playerName);
 
-            success = statement.executeUpdate() != 0;
+                success = statement.executeUpdate() != 0;
+            }
+            else if (embedded) {
+                success = deleteEmbeddedUsers(connection, "user = ?", playerName) != 0;
+            }
+            else {
+                statement = connection.prepareStatement("DELETE FROM u, e, h, s, c " +
+                        "USING " + tablePrefix + "users u " +
+                        "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) " +
+                        "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) " +
+                        "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) " +
+                        "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) " +
+                        "WHERE u.user = ?");
+
+                statement.setString(1, playerName);
+
+                success = statement.executeUpdate() != 0;
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
@@ -203,6 +292,46 @@ public final class SQLDatabaseManager implements DatabaseManager {
         return success;
     }
 
+    /**
+     * Delete users and their rows from an embedded database, which lacks
+     * MySQL's multi-table DELETE.
+     *
+     * @param condition The condition on the users table selecting the users to delete
+     * @param parameter The value of the single parameter in the condition, or null if there is none
+     * @return the number of users deleted
+     */
+    private int deleteEmbeddedUsers(Connection connection, String condition, String parameter) throws SQLException {
+        PreparedStatement statement = null;
+        int deleted = 0;
+
+        try {
+            connection.setAutoCommit(false);
+
+            for (String table : Arrays.asList("experience", "huds", "skills", "cooldowns", "users")) {
+                String column = table.equals("users") ? "id" : "user_id";
+                statement = connection.prepareStatement("DELETE FROM " + tablePrefix + table + " WHERE " + column + " IN (SELECT id FROM " + tablePrefix + "users WHERE " + condition + ")");
+
+                if (parameter != null) {
+                    statement.setString(1, parameter);
+                }
+
+                deleted = statement.executeUpdate();
+                statement.close();
+            }
+
+            connection.commit();
+            return deleted;
+        }
+        catch (SQLException ex) {
+            tryRollback(connection);
+            throw ex;
+        }
+        finally {
+            tryClose(statement);
+            tryResetAutoCommit(connection);
+        }
+    }
+
     public boolean saveUser(PlayerProfile profile) {
         boolean success = true;
         PreparedStatement statement = null;
@@ -212,6 +341,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
             connection = getConnection(PoolIdentifier.SAVE);
 
             int id = getUserID(connection, profile.getPlayerName(), profile.getUniqueId());
+            boolean created = false;
 
             if (id == -1) {
                 id = newUser(connection, profile.getPlayerName(), profile.getUniqueId());
@@ -219,126 +349,263 @@ public final class SQLDatabaseManager implements DatabaseManager {
                     mcMMO.p.getLogger().severe("Failed to create new account for " + profile.getPlayerName());
                     return false;
                 }
+                created = true;
             }
 
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "users SET lastlogin = UNIX_TIMESTAMP() WHERE id = ?");
-            statement.setInt(1, id);
-            success &= (statement.executeUpdate() != 0);
-            statement.close();
-            if (!success) {
-                mcMMO.p.getLogger().severe("Failed to update last login for " + profile.getPlayerName());
-                return false;
+            for (SaveUpdate update : getSaveUpdates(profile, id, created)) {
+                statement = connection.prepareStatement(update.query);
+                update.setParameters(statement);
+                success = (statement.executeUpdate() != 0);
+                statement.close();
+                if (!success) {
+                    mcMMO.p.getLogger().severe("Failed to update " + update.description + " for " + profile.getPlayerName());
+                    return false;
+                }
             }
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+        }
+        finally {
+            tryClose(statement);
+            tryClose(connection);
+        }
+
+        return success;
+    }
 
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "skills SET "
-                    + " taming = ?, mining = ?, repair = ?, woodcutting = ?"
-                    + ", unarmed = ?, herbalism = ?, excavation = ?"
-                    + ", archery = ?, swords = ?, axes = ?, acrobatics = ?"
-                    + ", fishing = ?, alchemy = ?, total = ? WHERE user_id = ?");
-            statement.setInt(1, profile.getSkillLevel(SkillType.TAMING));
-            statement.setInt(2, profile.getSkillLevel(SkillType.MINING));
-            statement.setInt(3, profile.getSkillLevel(SkillType.REPAIR));
-            statement.setInt(4, profile.getSkillLevel(SkillType.WOODCUTTING));
-            statement.setInt(5, profile.getSkillLevel(SkillType.UNARMED));
-            statement.setInt(6, profile.getSkillLevel(SkillType.HERBALISM));
-            statement.setInt(7, profile.getSkillLevel(SkillType.EXCAVATION));
-            statement.setInt(8, profile.getSkillLevel(SkillType.ARCHERY));
-            statement.setInt(9, profile.getSkillLevel(SkillType.SWORDS));
-            statement.setInt(10, profile.getSkillLevel(SkillType.AXES));
-            statement.setInt(11, profile.getSkillLevel(SkillType.ACROBATICS));
-            statement.setInt(12, profile.getSkillLevel(SkillType.FISHING));
-            statement.setInt(13, profile.getSkillLevel(SkillType.ALCHEMY));
+    @Override
+    public List<PlayerProfile> saveUsers(Collection<PlayerProfile> profiles) {
+        if (profiles.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        boolean success = false;
+        Connection connection = null;
+        // Profiles with the same changes share a statement, and so a batch
+        Map<String, PreparedStatement> statements = new LinkedHashMap<String, PreparedStatement>();
+        Map<String, String> descriptions = new HashMap<String, String>();
+
+        try {
+            connection = getConnection(PoolIdentifier.SAVE);
+            connection.setAutoCommit(false);
+            success = addSaveBatches(connection, profiles, statements, descriptions);
+
+            if (success) {
+                for (Map.Entry<String, PreparedStatement> entry : statements.entrySet()) {
+                    if (!checkBatch(entry.getValue().executeBatch(), descriptions.get(entry.getKey()))) {
+                        success = false;
+                        break;
+                    }
+                }
+            }
+
+            if (success) {
+                connection.commit();
+            }
+            else {
+                connection.rollback();
+            }
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+            tryRollback(connection);
+            success = false;
+        }
+        finally {
+            for (PreparedStatement statement : statements.values()) {
+                // Cached statements are reused, so leave no batch behind
+                tryClearBatch(statement);
+                tryClose(statement);
+            }
+
+            tryResetAutoCommit(connection);
+            tryClose(connection);
+        }
+
+        if (success) {
+            return Collections.emptyList();
+        }
+
+        // Save each profile on its own, so one bad profile can't hold back the rest
+        mcMMO.p.debug("Batch save of " + profiles.size() + " profiles failed, saving them one by one");
+        List<PlayerProfile> failed = new ArrayList<PlayerProfile>();
+
+        for (PlayerProfile profile : profiles) {
+            if (!saveUser(profile)) {
+                failed.add(profile);
+            }
+        }
+
+        return failed;
+    }
+
+    /**
+     * Add the updates of every profile to the batches of the statements,
+     * creating the rows of users that don't have one yet.
+     *
+     * @return true if every profile was added, false if a row could not be created
+     */
+    private boolean addSaveBatches(Connection connection, Collection<PlayerProfile> profiles, Map<String, PreparedStatement> statements, Map<String, String> descriptions) throws SQLException {
+        for (PlayerProfile profile : profiles) {
+            int id = getUserID(connection, profile.getPlayerName(), profile.getUniqueId());
+            boolean created = false;
+
+            if (id == -1) {
+                id = newUser(connection, profile.getPlayerName(), profile.getUniqueId());
+                if (id == -1) {
+                    mcMMO.p.getLogger().severe("Failed to create new account for " + profile.getPlayerName());
+                    return false;
+                }
+                created = true;
+            }
+
+            for (SaveUpdate update : getSaveUpdates(profile, id, created)) {
+                PreparedStatement statement = statements.get(update.query);
+
+                if (statement == null) {
+                    statement = connection.prepareStatement(update.query);
+                    statements.put(update.query, statement);
+                    descriptions.put(update.query, update.description);
+                }
+
+                update.setParameters(statement);
+                statement.addBatch();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the updates needed to save a profile. Only the columns in
+     * {@link PlayerProfile#getChanges()} are written, or every column if the
+     * profile does not track its changes. The single table layout saves
+     * everything with one update.
+     *
+     * @param created true if the row of the user was just created, which
+     *          holds nothing but defaults, so every column is written
+     */
+    private List<SaveUpdate> getSaveUpdates(PlayerProfile profile, int id, boolean created) {
+        ProfileChanges changes = created ? null : profile.getChanges();
+        List<SaveUpdate> updates = new ArrayList<SaveUpdate>();
+
+        List<String> skillColumns = new ArrayList<String>();
+        List<Object> skillValues = new ArrayList<Object>();
+
+        for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+            if (changes == null || changes.getSkills().contains(skillType)) {
+                skillColumns.add(skillType.name().toLowerCase());
+                skillValues.add(profile.getSkillLevel(skillType));
+            }
+        }
+
+        if (!skillColumns.isEmpty()) {
             int total = 0;
             for (SkillType skillType : SkillType.NON_CHILD_SKILLS)
                 total += profile.getSkillLevel(skillType);
-            statement.setInt(14, total);
-            statement.setInt(15, id);
-            success &= (statement.executeUpdate() != 0);
-            statement.close();
-            if (!success) {
-                mcMMO.p.getLogger().severe("Failed to update skills for " + profile.getPlayerName());
-                return false;
+            skillColumns.add(ALL_QUERY_VERSION);
+            skillValues.add(total);
+        }
+
+        List<String> experienceColumns = new ArrayList<String>();
+        List<Object> experienceValues = new ArrayList<Object>();
+
+        for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+            if (changes == null || changes.getExperience().contains(skillType)) {
+                experienceColumns.add(skillType.name().toLowerCase());
+                experienceValues.add(profile.getSkillXpLevel(skillType));
             }
+        }
 
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "experience SET "
-                    + " taming = ?, mining = ?, repair = ?, woodcutting = ?"
-                    + ", unarmed = ?, herbalism = ?, excavation = ?"
-                    + ", archery = ?, swords = ?, axes = ?, acrobatics = ?"
-                    + ", fishing = ?, alchemy = ? WHERE user_id = ?");
-            statement.setInt(1, profile.getSkillXpLevel(SkillType.TAMING));
-            statement.setInt(2, profile.getSkillXpLevel(SkillType.MINING));
-            statement.setInt(3, profile.getSkillXpLevel(SkillType.REPAIR));
-            statement.setInt(4, profile.getSkillXpLevel(SkillType.WOODCUTTING));
-            statement.setInt(5, profile.getSkillXpLevel(SkillType.UNARMED));
-            statement.setInt(6, profile.getSkillXpLevel(SkillType.HERBALISM));
-            statement.setInt(7, profile.getSkillXpLevel(SkillType.EXCAVATION));
-            statement.setInt(8, profile.getSkillXpLevel(SkillType.ARCHERY));
-            statement.setInt(9, profile.getSkillXpLevel(SkillType.SWORDS));
-            statement.setInt(10, profile.getSkillXpLevel(SkillType.AXES));
-            statement.setInt(11, profile.getSkillXpLevel(SkillType.ACROBATICS));
-            statement.setInt(12, profile.getSkillXpLevel(SkillType.FISHING));
-            statement.setInt(13, profile.getSkillXpLevel(SkillType.ALCHEMY));
-            statement.setInt(14, id);
-            success &= (statement.executeUpdate() != 0);
-            statement.close();
-            if (!success) {
-                mcMMO.p.getLogger().severe("Failed to update experience for " + profile.getPlayerName());
-                return false;
+        List<String> cooldownColumns = new ArrayList<String>();
+        List<Object> cooldownValues = new ArrayList<Object>();
+
+        for (AbilityType abilityType : COOLDOWN_COLUMNS.keySet()) {
+            if (changes == null || changes.getCooldowns().contains(abilityType)) {
+                cooldownColumns.add(COOLDOWN_COLUMNS.get(abilityType));
+                cooldownValues.add(profile.getAbilityDATS(abilityType));
             }
+        }
 
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "cooldowns SET "
-                    + "  mining = ?, woodcutting = ?, unarmed = ?"
-                    + ", herbalism = ?, excavation = ?, swords = ?"
-                    + ", axes = ?, blast_mining = ? WHERE user_id = ?");
-            statement.setLong(1, profile.getAbilityDATS(AbilityType.SUPER_BREAKER));
-            statement.setLong(2, profile.getAbilityDATS(AbilityType.TREE_FELLER));
-            statement.setLong(3, profile.getAbilityDATS(AbilityType.BERSERK));
-            statement.setLong(4, profile.getAbilityDATS(AbilityType.GREEN_TERRA));
-            statement.setLong(5, profile.getAbilityDATS(AbilityType.GIGA_DRILL_BREAKER));
-            statement.setLong(6, profile.getAbilityDATS(AbilityType.SERRATED_STRIKES));
-            statement.setLong(7, profile.getAbilityDATS(AbilityType.SKULL_SPLITTER));
-            statement.setLong(8, profile.getAbilityDATS(AbilityType.BLAST_MINING));
-            statement.setInt(9, id);
-            success = (statement.executeUpdate() != 0);
-            statement.close();
-            if (!success) {
-                mcMMO.p.getLogger().severe("Failed to update cooldowns for " + profile.getPlayerName());
-                return false;
+        List<String> hudColumns = Collections.emptyList();
+        List<Object> hudValues = Collections.emptyList();
+
+        if (changes == null || changes.hasHudChanges()) {
+            hudColumns = Arrays.asList("mobhealthbar", "scoreboardtips");
+            hudValues = Arrays.<Object>asList(profile.getMobHealthbarType() == null ? Config.getInstance().getMobHealthbarDefault().name() : profile.getMobHealthbarType().name(), profile.getScoreboardTipsShown());
+        }
+
+        if (queries.isSingleTable()) {
+            List<String> columns = new ArrayList<String>(skillColumns);
+            List<Object> parameters = new ArrayList<Object>(skillValues);
+
+            for (String column : experienceColumns) {
+                columns.add(SQLQueries.EXPERIENCE_PREFIX + column);
             }
 
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "huds SET mobhealthbar = ?, scoreboardtips = ? WHERE user_id = ?");
-            statement.setString(1, profile.getMobHealthbarType() == null ? Config.getInstance().getMobHealthbarDefault().name() : profile.getMobHealthbarType().name());
-            statement.setInt(2, profile.getScoreboardTipsShown());
-            statement.setInt(3, id);
-            success = (statement.executeUpdate() != 0);
-            statement.close();
-            if (!success) {
-                mcMMO.p.getLogger().severe("Failed to update hud settings for " + profile.getPlayerName());
-                return false;
+            for (String column : cooldownColumns) {
+                columns.add(SQLQueries.COOLDOWN_PREFIX + column);
             }
+
+            columns.addAll(hudColumns);
+            parameters.addAll(experienceValues);
+            parameters.addAll(cooldownValues);
+            parameters.addAll(hudValues);
+            parameters.add(id);
+
+            updates.add(new SaveUpdate("profile", queries.getProfileUpdate(columns), parameters));
+            return updates;
         }
-        catch (SQLException ex) {
-            printErrors(ex);
+
+        updates.add(new SaveUpdate("last login", queries.getSaveLogin(), Collections.<Object>singletonList(id)));
+
+        if (!skillColumns.isEmpty()) {
+            updates.add(getSaveUpdate("skills", "skills", skillColumns, skillValues, id));
         }
-        finally {
-            tryClose(statement);
-            tryClose(connection);
+
+        if (!experienceColumns.isEmpty()) {
+            updates.add(getSaveUpdate("experience", "experience", experienceColumns, experienceValues, id));
         }
 
-        return success;
+        if (!cooldownColumns.isEmpty()) {
+            updates.add(getSaveUpdate("cooldowns", "cooldowns", cooldownColumns, cooldownValues, id));
+        }
+
+        if (!hudColumns.isEmpty()) {
+            updates.add(getSaveUpdate("hud settings", "huds", hudColumns, hudValues, id));
+        }
+
+        return updates;
+    }
+
+    private SaveUpdate getSaveUpdate(String description, String table, List<String> columns, List<Object> values, int id) {
+        List<Object> parameters = new ArrayList<Object>(values);
+        parameters.add(id);
+        return new SaveUpdate(description, queries.getUpdate(table, columns), parameters);
+    }
+
+    private boolean checkBatch(int[] updateCounts, String description) {
+        for (int updateCount : updateCounts) {
+            if (updateCount == 0) {
+                mcMMO.p.getLogger().severe("Failed to update " + description + " during batch save");
+                return false;
+            }
+        }
+
+        return true;
     }
 
     public List<PlayerStat> readLeaderboard(SkillType skill, int pageNumber, int statsPerPage) {
         List<PlayerStat> stats = new ArrayList<PlayerStat>();
 
-        String query = skill == null ? ALL_QUERY_VERSION : skill.name().toLowerCase();
         ResultSet resultSet = null;
         PreparedStatement statement = null;
         Connection connection = null;
 
         try {
             connection = getConnection(PoolIdentifier.MISC);
-            statement = connection.prepareStatement("SELECT " + query + ", user FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON (user_id = id) WHERE " + query + " > 0 AND NOT user = '\\_INVALID\\_OLD\\_USERNAME\\_' ORDER BY " + query + " DESC, user LIMIT ?, ?");
+            statement = connection.prepareStatement(queries.getLeaderboard(skill));
             statement.setInt(1, (pageNumber * statsPerPage) - statsPerPage);
             statement.setInt(2, statsPerPage);
             resultSet = statement.executeQuery();
@@ -372,82 +639,31 @@ public final class SQLDatabaseManager implements DatabaseManager {
         PreparedStatement statement = null;
         Connection connection = null;
 
+        rankLookups.incrementAndGet();
+
         try {
             connection = getConnection(PoolIdentifier.MISC);
-            for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
-                String skillName = skillType.name().toLowerCase();
-                // Get count of all users with higher skill level than player
-                String sql = "SELECT COUNT(*) AS 'rank' FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE " + skillName + " > 0 " +
-                        "AND " + skillName + " > (SELECT " + skillName + " FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                        "WHERE user = ?)";
 
-                statement = connection.prepareStatement(sql);
-                statement.setString(1, playerName);
-                resultSet = statement.executeQuery();
-
-                resultSet.next();
-
-                int rank = resultSet.getInt("rank");
-
-                // Ties are settled by alphabetical order
-                sql = "SELECT user, " + skillName + " FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE " + skillName + " > 0 " +
-                        "AND " + skillName + " = (SELECT " + skillName + " FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                        "WHERE user = '" + playerName + "') ORDER BY user";
-
-                resultSet.close();
-                statement.close();
+            statement = connection.prepareStatement(queries.getRank());
 
-                statement = connection.prepareStatement(sql);
-                resultSet = statement.executeQuery();
-
-                while (resultSet.next()) {
-                    if (resultSet.getString("user").equalsIgnoreCase(playerName)) {
-                        skills.put(skillType, rank + resultSet.getRow());
-                        break;
-                    }
-                }
-
-                resultSet.close();
-                statement.close();
+            for (int i = 1; i <= SkillType.NON_CHILD_SKILLS.size() + 1; i++) {
+                statement.setString(i, playerName);
             }
 
-            String sql = "SELECT COUNT(*) AS 'rank' FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                    "WHERE " + ALL_QUERY_VERSION + " > 0 " +
-                    "AND " + ALL_QUERY_VERSION + " > " +
-                    "(SELECT " + ALL_QUERY_VERSION + " " +
-                    "FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE user = ?)";
-
-            statement = connection.prepareStatement(sql);
-            statement.setString(1, playerName);
-            resultSet = statement.executeQuery();
-
-            resultSet.next();
-
-            int rank = resultSet.getInt("rank");
-
-            resultSet.close();
-            statement.close();
-
-            sql = "SELECT user, " + ALL_QUERY_VERSION + " " +
-                    "FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id " +
-                    "WHERE " + ALL_QUERY_VERSION + " > 0 " +
-                    "AND " + ALL_QUERY_VERSION + " = " +
-                    "(SELECT " + ALL_QUERY_VERSION + " " +
-                    "FROM " + tablePrefix + "users JOIN " + tablePrefix + "skills ON user_id = id WHERE user = ?) ORDER BY user";
-
-            statement = connection.prepareStatement(sql);
-            statement.setString(1, playerName);
+            rankQueries.incrementAndGet();
             resultSet = statement.executeQuery();
 
             while (resultSet.next()) {
-                if (resultSet.getString("user").equalsIgnoreCase(playerName)) {
-                    skills.put(null, rank + resultSet.getRow());
-                    break;
+                String skillName = resultSet.getString("skill");
+                SkillType skillType = skillName.equals(ALL_QUERY_VERSION) ? null : SkillType.valueOf(skillName.toUpperCase());
+
+                if (resultSet.getInt("level") <= 0 || skills.containsKey(skillType)) {
+                    continue;
                 }
-            }
 
-            resultSet.close();
-            statement.close();
+                // Ties are settled by alphabetical order
+                skills.put(skillType, resultSet.getInt("higher") + resultSet.getInt("tied") + 1);
+            }
         }
         catch (SQLException ex) {
             printErrors(ex);
@@ -461,6 +677,25 @@ public final class SQLDatabaseManager implements DatabaseManager {
         return skills;
     }
 
+    /**
+     * Get the number of times {@link #readRank(String)} has been called.
+     *
+     * @return the number of rank lookups
+     */
+    public long getRankLookupCount() {
+        return rankLookups.get();
+    }
+
+    /**
+     * Get the number of queries sent by {@link #readRank(String)}. Every
+     * lookup resolves all ranks with a single query.
+     *
+     * @return the number of rank queries
+     */
+    public long getRankQueryCount() {
+        return rankQueries.get();
+    }
+
     public void newUser(String playerName, UUID uuid) {
         Connection connection = null;
 
@@ -481,15 +716,12 @@ public final class SQLDatabaseManager implements DatabaseManager {
         PreparedStatement statement = null;
 
         try {
-            statement = connection.prepareStatement(
-                    "UPDATE `" + tablePrefix + "users` "
-                            + "SET user = ? "
-                            + "WHERE user = ?");
+            statement = connection.prepareStatement(queries.getInvalidateUserName());
             statement.setString(1, "_INVALID_OLD_USERNAME_");
             statement.setString(2, playerName);
             statement.executeUpdate();
             statement.close();
-            statement = connection.prepareStatement("INSERT INTO " + tablePrefix + "users (user, uuid, lastlogin) VALUES (?, ?, UNIX_TIMESTAMP())", Statement.RETURN_GENERATED_KEYS);
+            statement = connection.prepareStatement(queries.getInsertUser(), Statement.RETURN_GENERATED_KEYS);
             statement.setString(1, playerName);
             statement.setString(2, uuid != null ? uuid.toString() : null);
             statement.executeUpdate();
@@ -536,6 +768,11 @@ public final class SQLDatabaseManager implements DatabaseManager {
             connection = getConnection(PoolIdentifier.LOAD);
             int id = getUserID(connection, playerName, uuid);
 
+            if (id == -1 && migratingProfiles) {
+                // The user may not have been copied into the single table layout yet
+                id = copyProfile(connection, playerName, uuid);
+            }
+
             if (id == -1) {
                 // There is no such user
                 if (create) {
@@ -551,18 +788,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
             // There is such a user
             writeMissingRows(connection, id);
 
-            statement = connection.prepareStatement(
-                    "SELECT "
-                            + "s.taming, s.mining, s.repair, s.woodcutting, s.unarmed, s.herbalism, s.excavation, s.archery, s.swords, s.axes, s.acrobatics, s.fishing, s.alchemy, "
-                            + "e.taming, e.mining, e.repair, e.woodcutting, e.unarmed, e.herbalism, e.excavation, e.archery, e.swords, e.axes, e.acrobatics, e.fishing, e.alchemy, "
-                            + "c.taming, c.mining, c.repair, c.woodcutting, c.unarmed, c.herbalism, c.excavation, c.archery, c.swords, c.axes, c.acrobatics, c.blast_mining, "
-                            + "h.mobhealthbar, h.scoreboardtips, u.uuid, u.user "
-                            + "FROM " + tablePrefix + "users u "
-                            + "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) "
-                            + "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) "
-                            + "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) "
-                            + "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) "
-                            + "WHERE u.id = ?");
+            statement = connection.prepareStatement(queries.getLoadProfile());
             statement.setInt(1, id);
 
             resultSet = statement.executeQuery();
@@ -575,18 +801,12 @@ public final class SQLDatabaseManager implements DatabaseManager {
                     statement.close();
 
                     if (uuid != null && !playerName.isEmpty() && !playerName.equalsIgnoreCase(name)) {
-                        statement = connection.prepareStatement(
-                                "UPDATE `" + tablePrefix + "users` "
-                                        + "SET user = ? "
-                                        + "WHERE user = ?");
+                        statement = connection.prepareStatement(queries.getInvalidateUserName());
                         statement.setString(1, "_INVALID_OLD_USERNAME_");
                         statement.setString(2, name);
                         statement.executeUpdate();
                         statement.close();
-                        statement = connection.prepareStatement(
-                                "UPDATE `" + tablePrefix + "users` "
-                                        + "SET user = ?, uuid = ? "
-                                        + "WHERE id = ?");
+                        statement = connection.prepareStatement(queries.getRenameUser());
                         statement.setString(1, playerName);
                         statement.setString(2, uuid.toString());
                         statement.setInt(3, id);
@@ -622,53 +842,73 @@ public final class SQLDatabaseManager implements DatabaseManager {
         return loadPlayerProfile(playerName, uuid, create, false);
     }
 
-    public void convertUsers(DatabaseManager destination) {
-        PreparedStatement statement = null;
-        Connection connection = null;
-        ResultSet resultSet = null;
+    /**
+     * Read every user in id order, a page at a time. Each page is a range
+     * scan of the primary key that releases its connection before the users
+     * are handed out, so a long conversion never holds a connection long
+     * enough for the pool to abandon it.
+     */
+    @Override
+    public boolean readUsers(long after, ObjLongConsumer<PlayerProfile> consumer) {
+        long lastId = after;
+        boolean more = true;
+
+        while (more) {
+            Map<Long, PlayerProfile> page = new LinkedHashMap<Long, PlayerProfile>();
+            boolean complete = true;
+            int rows = 0;
+            PreparedStatement statement = null;
+            Connection connection = null;
+            ResultSet resultSet = null;
 
-        try {
-            connection = getConnection(PoolIdentifier.MISC);
-            statement = connection.prepareStatement(
-                    "SELECT "
-                            + "s.taming, s.mining, s.repair, s.woodcutting, s.unarmed, s.herbalism, s.excavation, s.archery, s.swords, s.axes, s.acrobatics, s.fishing, s.alchemy, "
-                            + "e.taming, e.mining, e.repair, e.woodcutting, e.unarmed, e.herbalism, e.excavation, e.archery, e.swords, e.axes, e.acrobatics, e.fishing, e.alchemy, "
-                            + "c.taming, c.mining, c.repair, c.woodcutting, c.unarmed, c.herbalism, c.excavation, c.archery, c.swords, c.axes, c.acrobatics, c.blast_mining, "
-                            + "h.mobhealthbar, h.scoreboardtips, u.uuid "
-                            + "FROM " + tablePrefix + "users u "
-                            + "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) "
-                            + "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) "
-                            + "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) "
-                            + "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) "
-                            + "WHERE u.user = ?");
-            List<String> usernames = getStoredUsers();
-            int convertedUsers = 0;
-            long startMillis = System.currentTimeMillis();
-            for (String playerName : usernames) {
-                statement.setString(1, playerName);
-                try {
-                    resultSet = statement.executeQuery();
-                    resultSet.next();
-                    destination.saveUser(loadFromResult(playerName, resultSet));
-                    resultSet.close();
-                }
-                catch (SQLException e) {
-                    printErrors(e);
-                    // Ignore
+            try {
+                connection = getConnection(PoolIdentifier.MISC);
+                statement = connection.prepareStatement(queries.getReadProfiles(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                statement.setLong(1, lastId);
+                statement.setInt(2, READ_PAGE_SIZE);
+                statement.setFetchSize(READ_PAGE_SIZE);
+                resultSet = statement.executeQuery();
+
+                while (resultSet.next()) {
+                    long id = resultSet.getLong(43);
+                    rows++;
+
+                    try {
+                        page.put(id, loadFromResult(resultSet.getString(42), resultSet));
+                    }
+                    catch (SQLException e) {
+                        mcMMO.p.getLogger().severe("Could not read the user with id " + id);
+                        printErrors(e);
+                        complete = false;
+                        break;
+                    }
+
+                    lastId = id;
                 }
-                convertedUsers++;
-                Misc.printProgress(convertedUsers, progressInterval, startMillis);
             }
-        }
-        catch (SQLException e) {
-            printErrors(e);
-        }
-        finally {
-            tryClose(resultSet);
-            tryClose(statement);
-            tryClose(connection);
+            catch (SQLException e) {
+                printErrors(e);
+                complete = false;
+            }
+            finally {
+                tryClose(resultSet);
+                tryClose(statement);
+                tryClose(connection);
+            }
+
+            // Hand over the users read before a failure, so a conversion gets up to it
+            for (Map.Entry<Long, PlayerProfile> entry : page.entrySet()) {
+                consumer.accept(entry.getValue(), entry.getKey());
+            }
+
+            if (!complete) {
+                return false;
+            }
+
+            more = rows == READ_PAGE_SIZE;
         }
 
+        return true;
     }
 
     public boolean saveUserUUID(String userName, UUID uuid) {
@@ -677,9 +917,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         try {
             connection = getConnection(PoolIdentifier.MISC);
-            statement = connection.prepareStatement(
-                    "UPDATE `" + tablePrefix + "users` SET "
-                            + "  uuid = ? WHERE user = ?");
+            statement = connection.prepareStatement(queries.getSaveUniqueId());
             statement.setString(1, uuid.toString());
             statement.setString(2, userName);
             statement.execute();
@@ -703,7 +941,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         try {
             connection = getConnection(PoolIdentifier.MISC);
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "users SET uuid = ? WHERE user = ?");
+            statement = connection.prepareStatement(queries.getSaveUniqueId());
 
             for (Map.Entry<String, UUID> entry : fetchedUUIDs.entrySet()) {
                 statement.setString(1, entry.getValue().toString());
@@ -745,7 +983,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         try {
             connection = getConnection(PoolIdentifier.MISC);
             statement = connection.createStatement();
-            resultSet = statement.executeQuery("SELECT user FROM " + tablePrefix + "users");
+            resultSet = statement.executeQuery("SELECT user FROM " + queries.getUserTable());
             while (resultSet.next()) {
                 users.add(resultSet.getString("user"));
             }
@@ -769,11 +1007,71 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         PreparedStatement statement = null;
         Statement createStatement = null;
-        ResultSet resultSet = null;
         Connection connection = null;
 
         try {
             connection = getConnection(PoolIdentifier.MISC);
+
+            if (embedded) {
+                createEmbeddedTables(connection);
+            }
+            else {
+                createTables(connection);
+
+                for (UpgradeType updateType : UpgradeType.values()) {
+                    checkDatabaseStructure(connection, updateType);
+                }
+            }
+
+            if (queries.isSingleTable()) {
+                createProfilesTable(connection);
+
+                if (startProfileMigration(connection)) {
+                    new ProfileMigrationTask().runTaskAsynchronously(mcMMO.p);
+                }
+            }
+
+            if (Config.getInstance().getTruncateSkills()) {
+                for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+                    int cap = Config.getInstance().getLevelCap(skill);
+                    if (cap != Integer.MAX_VALUE) {
+                        String table = queries.isSingleTable() ? queries.getUserTable() : tablePrefix + "skills";
+                        statement = connection.prepareStatement("UPDATE `" + table + "` SET `" + skill.name().toLowerCase() + "` = " + cap + " WHERE `" + skill.name().toLowerCase() + "` > " + cap);
+                        statement.executeUpdate();
+                        tryClose(statement);
+                    }
+                }
+            }
+
+            if (!queries.isSingleTable()) {
+                mcMMO.p.getLogger().info("Killing orphans");
+                createStatement = connection.createStatement();
+                createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "experience` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "experience`.`user_id` = `u`.`id`)");
+                createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "huds` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "huds`.`user_id` = `u`.`id`)");
+                createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "cooldowns` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "cooldowns`.`user_id` = `u`.`id`)");
+                createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "skills` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "skills`.`user_id` = `u`.`id`)");
+            }
+        }
+        catch (SQLException ex) {
+            printErrors(ex);
+        }
+        finally {
+            tryClose(statement);
+            tryClose(createStatement);
+            tryClose(connection);
+        }
+
+    }
+
+    /**
+     * Create any missing MySQL tables.
+     */
+    private void createTables(Connection connection) throws SQLException {
+        PreparedStatement statement = null;
+        Statement createStatement = null;
+        ResultSet resultSet = null;
+
+        try {
             statement = connection.prepareStatement("SELECT table_name FROM INFORMATION_SCHEMA.TABLES"
                     + " WHERE table_schema = ?"
                     + " AND table_name = ?");
@@ -883,39 +1181,466 @@ public final class SQLDatabaseManager implements DatabaseManager {
             }
             tryClose(resultSet);
             tryClose(statement);
+        }
+        finally {
+            tryClose(resultSet);
+            tryClose(statement);
+            tryClose(createStatement);
+        }
+    }
+
+    /**
+     * Create any missing tables of an embedded database. The schema matches
+     * the MySQL one with every upgrade applied, so no upgrades are needed.
+     */
+    private void createEmbeddedTables(Connection connection) throws SQLException {
+        Statement statement = null;
+
+        try {
+            statement = connection.createStatement();
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "users` ("
+                    + "`id` INTEGER PRIMARY KEY AUTOINCREMENT,"
+                    + "`user` varchar(40) NOT NULL COLLATE NOCASE,"
+                    + "`uuid` varchar(36) NULL DEFAULT NULL UNIQUE,"
+                    + "`lastlogin` INTEGER NOT NULL)");
+            statement.executeUpdate("CREATE INDEX IF NOT EXISTS `" + tablePrefix + "users_user` ON `" + tablePrefix + "users` (`user`)");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "huds` ("
+                    + "`user_id` INTEGER NOT NULL PRIMARY KEY,"
+                    + "`mobhealthbar` varchar(50) NOT NULL DEFAULT '" + Config.getInstance().getMobHealthbarDefault() + "',"
+                    + "`scoreboardtips` INTEGER NOT NULL DEFAULT 0)");
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "cooldowns` ("
+                    + "`user_id` INTEGER NOT NULL PRIMARY KEY"
+                    + getEmbeddedColumns(Arrays.asList("taming", "mining", "woodcutting", "repair", "unarmed", "herbalism", "excavation", "archery", "swords", "axes", "acrobatics", "blast_mining")) + ")");
+
+            List<String> skillColumns = new ArrayList<String>();
 
-            for (UpgradeType updateType : UpgradeType.values()) {
-                checkDatabaseStructure(connection, updateType);
+            for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+                skillColumns.add(skillType.name().toLowerCase());
             }
 
-            if (Config.getInstance().getTruncateSkills()) {
-                for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
-                    int cap = Config.getInstance().getLevelCap(skill);
-                    if (cap != Integer.MAX_VALUE) {
-                        statement = connection.prepareStatement("UPDATE `" + tablePrefix + "skills` SET `" + skill.name().toLowerCase() + "` = " + cap + " WHERE `" + skill.name().toLowerCase() + "` > " + cap);
-                        statement.executeUpdate();
-                        tryClose(statement);
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "experience` ("
+                    + "`user_id` INTEGER NOT NULL PRIMARY KEY"
+                    + getEmbeddedColumns(skillColumns) + ")");
+
+            skillColumns.add(ALL_QUERY_VERSION);
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "skills` ("
+                    + "`user_id` INTEGER NOT NULL PRIMARY KEY"
+                    + getEmbeddedColumns(skillColumns) + ")");
+
+            // Index names are global in SQLite, so they carry the table name
+            for (String column : skillColumns) {
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS `" + tablePrefix + "skills_idx_" + column + "` ON `" + tablePrefix + "skills` (`" + column + "`)");
+            }
+        }
+        finally {
+            tryClose(statement);
+        }
+    }
+
+    private String getEmbeddedColumns(List<String> columns) {
+        StringBuilder definition = new StringBuilder();
+
+        for (String column : columns) {
+            definition.append(", `").append(column).append("` INTEGER NOT NULL DEFAULT 0");
+        }
+
+        return definition.toString();
+    }
+
+    /**
+     * Create the profiles table of the single table layout, with the same
+     * columns and indexes as the five tables it replaces.
+     */
+    private void createProfilesTable(Connection connection) throws SQLException {
+        String table = queries.getUserTable();
+        List<String> skillColumns = new ArrayList<String>(SQLQueries.SKILL_COLUMNS);
+        skillColumns.add(ALL_QUERY_VERSION);
+        Statement statement = null;
+
+        try {
+            statement = connection.createStatement();
+
+            if (embedded) {
+                List<String> columns = new ArrayList<String>(skillColumns);
+
+                for (String column : SQLQueries.SKILL_COLUMNS) {
+                    columns.add(SQLQueries.EXPERIENCE_PREFIX + column);
+                }
+
+                for (String column : SQLQueries.COOLDOWN_COLUMNS) {
+                    columns.add(SQLQueries.COOLDOWN_PREFIX + column);
+                }
+
+                statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + table + "` ("
+                        + "`id` INTEGER PRIMARY KEY AUTOINCREMENT,"
+                        + "`user` varchar(40) NOT NULL COLLATE NOCASE,"
+                        + "`uuid` varchar(36) NULL DEFAULT NULL UNIQUE,"
+                        + "`lastlogin` INTEGER NOT NULL"
+                        + getEmbeddedColumns(columns) + ","
+                        + "`mobhealthbar` varchar(50) NOT NULL DEFAULT '" + Config.getInstance().getMobHealthbarDefault() + "',"
+                        + "`scoreboardtips` INTEGER NOT NULL DEFAULT 0)");
+                statement.executeUpdate("CREATE INDEX IF NOT EXISTS `" + table + "_user` ON `" + table + "` (`user`)");
+
+                for (String column : skillColumns) {
+                    statement.executeUpdate("CREATE INDEX IF NOT EXISTS `" + table + "_idx_" + column + "` ON `" + table + "` (`" + column + "`)");
+                }
+
+                return;
+            }
+
+            StringBuilder columns = new StringBuilder();
+            StringBuilder indexes = new StringBuilder();
+
+            for (String column : skillColumns) {
+                columns.append("`").append(column).append("` int(10) unsigned NOT NULL DEFAULT '0',");
+                indexes.append(",INDEX `idx_").append(column).append("` (`").append(column).append("`) USING BTREE");
+            }
+
+            for (String column : SQLQueries.SKILL_COLUMNS) {
+                columns.append("`").append(SQLQueries.EXPERIENCE_PREFIX).append(column).append("` int(10) unsigned NOT NULL DEFAULT '0',");
+            }
+
+            for (String column : SQLQueries.COOLDOWN_COLUMNS) {
+                columns.append("`").append(SQLQueries.COOLDOWN_PREFIX).append(column).append("` int(32) unsigned NOT NULL DEFAULT '0',");
+            }
+
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + table + "` ("
+                    + "`id` int(10) unsigned NOT NULL AUTO_INCREMENT,"
+                    + "`user` varchar(40) NOT NULL,"
+                    + "`uuid` varchar(36) NULL DEFAULT NULL,"
+                    + "`lastlogin` int(32) unsigned NOT NULL,"
+                    + columns
+                    + "`mobhealthbar` varchar(50) NOT NULL DEFAULT '" + Config.getInstance().getMobHealthbarDefault() + "',"
+                    + "`scoreboardtips` int(10) NOT NULL DEFAULT '0',"
+                    + "PRIMARY KEY (`id`),"
+                    + "INDEX(`user`(20) ASC),"
+                    + "UNIQUE KEY `uuid` (`uuid`)"
+                    + indexes + ") DEFAULT CHARSET=latin1 AUTO_INCREMENT=1;");
+        }
+        finally {
+            tryClose(statement);
+        }
+    }
+
+    /**
+     * Prepare the copy of the users of the five table layout into the
+     * profiles table.
+     * <p>
+     * The first start in the single table layout records the highest id of
+     * the old users table in the migrations table, and moves the id counter
+     * of the profiles table past it, so new players never take the id of a
+     * user that is yet to be copied. The progress of the copy is kept in the
+     * same row.
+     *
+     * @return true if there are users left to copy
+     */
+    private boolean startProfileMigration(Connection connection) throws SQLException {
+        Statement statement = null;
+        ResultSet resultSet = null;
+
+        try {
+            statement = connection.createStatement();
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS `" + tablePrefix + "migrations` ("
+                    + "`name` varchar(32) NOT NULL,"
+                    + "`position` int NOT NULL,"
+                    + "`target` int NOT NULL,"
+                    + "PRIMARY KEY (`name`))");
+
+            int[] progress = readMigrationProgress(connection);
+
+            if (progress == null) {
+                resultSet = statement.executeQuery("SELECT COALESCE(MAX(id), 0) FROM " + tablePrefix + "users");
+                resultSet.next();
+                int target = resultSet.getInt(1);
+                resultSet.close();
+
+                reserveProfileIds(connection, target);
+                statement.executeUpdate("INSERT INTO " + tablePrefix + "migrations (name, position, target) VALUES ('" + PROFILES_MIGRATION + "', 0, " + target + ")");
+                progress = new int[] { 0, target };
+            }
+
+            migratingProfiles = progress[0] < progress[1];
+
+            if (migratingProfiles) {
+                mcMMO.p.getLogger().info("Copying users " + (progress[0] + 1) + " to " + progress[1] + " into the single table layout in the background...");
+            }
+
+            return migratingProfiles;
+        }
+        finally {
+            tryClose(resultSet);
+            tryClose(statement);
+        }
+    }
+
+    /**
+     * @return the last copied id and the last id to copy, or null if the
+     *         migration was never started
+     */
+    private int[] readMigrationProgress(Connection connection) throws SQLException {
+        PreparedStatement statement = null;
+        ResultSet resultSet = null;
+
+        try {
+            statement = connection.prepareStatement("SELECT position, target FROM " + tablePrefix + "migrations WHERE name = ?");
+            statement.setString(1, PROFILES_MIGRATION);
+            resultSet = statement.executeQuery();
+
+            return resultSet.next() ? new int[] { resultSet.getInt(1), resultSet.getInt(2) } : null;
+        }
+        finally {
+            tryClose(resultSet);
+            tryClose(statement);
+        }
+    }
+
+    /**
+     * Make new rows of the profiles table get ids above the given one.
+     */
+    private void reserveProfileIds(Connection connection, int lastId) throws SQLException {
+        String table = queries.getUserTable();
+        Statement statement = null;
+
+        try {
+            statement = connection.createStatement();
+
+            if (embedded) {
+                statement.executeUpdate("INSERT INTO sqlite_sequence (name, seq) SELECT '" + table + "', 0 WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = '" + table + "')");
+                statement.executeUpdate("UPDATE sqlite_sequence SET seq = " + lastId + " WHERE name = '" + table + "' AND seq < " + lastId);
+            }
+            else {
+                // MySQL raises the value to the highest id in use if it is lower
+                statement.executeUpdate("ALTER TABLE `" + table + "` AUTO_INCREMENT = " + (lastId + 1));
+            }
+        }
+        finally {
+            tryClose(statement);
+        }
+    }
+
+    /**
+     * Copy the users of the five table layout into the profiles table.
+     * <p>
+     * Users are copied in ascending id ranges, each in its own short
+     * transaction together with the progress row, so the old tables are
+     * never locked for long and an interrupted migration continues after the
+     * last copied range. Users that were already copied when they logged in
+     * are skipped. A row of another player in the way stops the migration
+     * instead of being skipped, the remaining users are still copied one at
+     * a time as they log in.
+     */
+    private void migrateProfiles() {
+        Connection connection = null;
+        PreparedStatement insert = null;
+        PreparedStatement progress = null;
+        int position = 0;
+
+        try {
+            connection = getConnection(PoolIdentifier.MISC);
+
+            int[] migration = readMigrationProgress(connection);
+            position = migration[0];
+            int target = migration[1];
+
+            insert = connection.prepareStatement(buildMigrateProfilesQuery("u.id > ? AND u.id <= ?"));
+            progress = connection.prepareStatement("UPDATE " + tablePrefix + "migrations SET position = ? WHERE name = ?");
+            connection.setAutoCommit(false);
+
+            long startMillis = System.currentTimeMillis();
+            int copied = 0;
+            boolean retried = false;
+
+            while (position < target && !disabled) {
+                int end = Math.min(position + MIGRATION_CHUNK_SIZE, target);
+
+                try {
+                    insert.setInt(1, position);
+                    insert.setInt(2, end);
+                    copied += insert.executeUpdate();
+
+                    progress.setInt(1, end);
+                    progress.setString(2, PROFILES_MIGRATION);
+                    progress.executeUpdate();
+
+                    connection.commit();
+                }
+                catch (SQLException ex) {
+                    // A player of this range may have been copied on login meanwhile, which the next attempt skips
+                    if (retried) {
+                        throw ex;
                     }
+
+                    tryRollback(connection);
+                    retried = true;
+                    continue;
                 }
+
+                position = end;
+                retried = false;
+            }
+
+            if (position < target) {
+                mcMMO.p.getLogger().info("Paused copying users into the single table layout after id " + position + ", it will continue on the next start");
+                return;
             }
 
-            mcMMO.p.getLogger().info("Killing orphans");
-            createStatement = connection.createStatement();
-            createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "experience` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "experience`.`user_id` = `u`.`id`)");
-            createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "huds` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "huds`.`user_id` = `u`.`id`)");
-            createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "cooldowns` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "cooldowns`.`user_id` = `u`.`id`)");
-            createStatement.executeUpdate("DELETE FROM `" + tablePrefix + "skills` WHERE NOT EXISTS (SELECT * FROM `" + tablePrefix + "users` `u` WHERE `" + tablePrefix + "skills`.`user_id` = `u`.`id`)");
+            migratingProfiles = false;
+            mcMMO.p.getLogger().info("Copied " + copied + " users into the single table layout in " + (System.currentTimeMillis() - startMillis) + "ms");
         }
         catch (SQLException ex) {
+            tryRollback(connection);
+            mcMMO.p.getLogger().severe("Could not copy the users after id " + position + " into " + queries.getUserTable() + ", a row of " + queries.getUserTable()
+                    + " already has the id or uuid of one of them. Remove the conflicting rows and restart the server to continue the migration.");
             printErrors(ex);
         }
         finally {
-            tryClose(resultSet);
-            tryClose(statement);
-            tryClose(createStatement);
+            tryClose(progress);
+            tryClose(insert);
+            tryResetAutoCommit(connection);
             tryClose(connection);
         }
+    }
+
+    /**
+     * Copy a single user of the five table layout that was not migrated yet.
+     *
+     * @return the id of the copied user, or -1 if there is no such user
+     */
+    private int copyProfile(Connection connection, String playerName, UUID uuid) {
+        PreparedStatement statement = null;
+
+        try {
+            if (uuid == null) {
+                statement = connection.prepareStatement(buildMigrateProfilesQuery("u.user = ?"));
+                statement.setString(1, playerName);
+            }
+            else {
+                statement = connection.prepareStatement(buildMigrateProfilesQuery("(u.uuid = ? OR (u.uuid IS NULL AND u.user = ?))"));
+                statement.setString(1, uuid.toString());
+                statement.setString(2, playerName);
+            }
+
+            if (statement.executeUpdate() == 0) {
+                return -1;
+            }
+        }
+        catch (SQLException ex) {
+            int id = getUserID(connection, playerName, uuid);
+
+            // Copied by the migration task meanwhile
+            if (id != -1) {
+                return id;
+            }
+
+            mcMMO.p.getLogger().severe("Could not copy " + playerName + " into " + queries.getUserTable() + ", a row of " + queries.getUserTable() + " already has their id or uuid.");
+            printErrors(ex);
+            return -1;
+        }
+        finally {
+            tryClose(statement);
+        }
+
+        return getUserID(connection, playerName, uuid);
+    }
+
+    /**
+     * Build the copy of the users matching a condition into the profiles
+     * table. Missing rows of the five table layout are filled with defaults,
+     * like they would be when the user is loaded. Users already in the
+     * profiles table are left out, any other row with the same id or uuid
+     * makes the copy fail.
+     */
+    private String buildMigrateProfilesQuery(String condition) {
+        StringBuilder columns = new StringBuilder("id, user, uuid, lastlogin");
+        StringBuilder values = new StringBuilder("u.id, u.user, u.uuid, u.lastlogin");
+
+        for (String column : SQLQueries.SKILL_COLUMNS) {
+            columns.append(", ").append(column);
+            values.append(", COALESCE(s.").append(column).append(", 0)");
+        }
+
+        columns.append(", ").append(ALL_QUERY_VERSION);
+        values.append(", COALESCE(s.").append(ALL_QUERY_VERSION).append(", 0)");
+
+        for (String column : SQLQueries.SKILL_COLUMNS) {
+            columns.append(", ").append(SQLQueries.EXPERIENCE_PREFIX).append(column);
+            values.append(", COALESCE(e.").append(column).append(", 0)");
+        }
+
+        for (String column : SQLQueries.COOLDOWN_COLUMNS) {
+            columns.append(", ").append(SQLQueries.COOLDOWN_PREFIX).append(column);
+            values.append(", COALESCE(c.").append(column).append(", 0)");
+        }
+
+        columns.append(", mobhealthbar, scoreboardtips");
+        values.append(", COALESCE(h.mobhealthbar, '").append(Config.getInstance().getMobHealthbarDefault()).append("'), COALESCE(h.scoreboardtips, 0)");
+
+        return "INSERT INTO " + queries.getUserTable() + " (" + columns + ") "
+                + "SELECT " + values + " "
+                + "FROM " + tablePrefix + "users u "
+                + "LEFT JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) "
+                + "LEFT JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) "
+                + "LEFT JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) "
+                + "LEFT JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) "
+                + "WHERE " + condition + " "
+                + "AND NOT EXISTS (SELECT 1 FROM " + queries.getUserTable() + " p WHERE p.id = u.id AND (p.uuid = u.uuid OR p.user = u.user))";
+    }
+
+    /**
+     * Copies the users of the five table layout into the profiles table off
+     * the main thread.
+     */
+    private class ProfileMigrationTask extends BukkitRunnable {
+        @Override
+        public void run() {
+            migrateProfiles();
+        }
+    }
+
+    private void createEmbeddedPools() {
+        File databaseFile = new File(mcMMO.getFlatFileDirectory(), Config.getInstance().getSQLiteFileName());
+        databaseFile.getParentFile().mkdirs();
+
+        try {
+            // Force driver to load if not yet loaded
+            Class.forName("org.sqlite.JDBC");
+        }
+        catch (ClassNotFoundException e) {
+            e.printStackTrace();
+            return;
+        }
+
+        String connectionString = "jdbc:sqlite:" + databaseFile.getAbsolutePath();
+        miscPool = createEmbeddedPool(connectionString, Config.getInstance().getSQLiteMaxConnections());
+        loadPool = createEmbeddedPool(connectionString, Config.getInstance().getSQLiteMaxConnections());
+        savePool = createEmbeddedPool(connectionString, Config.getInstance().getSQLiteMaxConnections());
+    }
+
+    private DataSource createEmbeddedPool(String connectionString, int maxConnections) {
+        PoolProperties poolProperties = new PoolProperties();
+        poolProperties.setDriverClassName("org.sqlite.JDBC");
+        poolProperties.setUrl(connectionString);
+        // Write-ahead logging lets loads run alongside a save, and a busy timeout makes concurrent saves queue up instead of failing
+        poolProperties.setConnectionProperties("journal_mode=WAL;synchronous=NORMAL;busy_timeout=30000");
+        poolProperties.setInitialSize(0);
+        poolProperties.setMaxIdle(maxConnections);
+        poolProperties.setMaxActive(maxConnections);
+        poolProperties.setJdbcInterceptors(getStatementCache(maxConnections));
+        poolProperties.setMaxWait(-1);
+        poolProperties.setTestOnBorrow(true);
+        poolProperties.setValidationQuery("SELECT 1");
+        poolProperties.setValidationInterval(30000);
+        return new DataSource(poolProperties);
+    }
 
+    /**
+     * Get the interceptor that keeps closed statements of a pool open for
+     * reuse, so that each connection only prepares a query once.
+     *
+     * @param maxConnections The maximum number of connections of the pool
+     */
+    private String getStatementCache(int maxConnections) {
+        return "StatementCache(prepared=true,callable=false,max=" + (maxConnections * STATEMENT_CACHE_SIZE) + ")";
     }
 
     private Connection getConnection(PoolIdentifier identifier) throws SQLException {
@@ -1014,25 +1739,30 @@ public final class SQLDatabaseManager implements DatabaseManager {
     }
 
     private void writeMissingRows(Connection connection, int id) {
+        if (queries.isSingleTable()) {
+            // Every column of a profile is created along with the user
+            return;
+        }
+
         PreparedStatement statement = null;
 
         try {
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "experience (user_id) VALUES (?)");
+            statement = connection.prepareStatement(queries.getInsertExperience());
             statement.setInt(1, id);
             statement.execute();
             statement.close();
 
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "skills (user_id) VALUES (?)");
+            statement = connection.prepareStatement(queries.getInsertSkills());
             statement.setInt(1, id);
             statement.execute();
             statement.close();
 
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "cooldowns (user_id) VALUES (?)");
+            statement = connection.prepareStatement(queries.getInsertCooldowns());
             statement.setInt(1, id);
             statement.execute();
             statement.close();
 
-            statement = connection.prepareStatement("INSERT IGNORE INTO " + tablePrefix + "huds (user_id, mobhealthbar, scoreboardtips) VALUES (?, ?, ?)");
+            statement = connection.prepareStatement(queries.getInsertHuds());
             statement.setInt(1, id);
             statement.setString(2, Config.getInstance().getMobHealthbarDefault().name());
             statement.setInt(3, 0);
@@ -1135,7 +1865,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
     }
 
     public DatabaseType getDatabaseType() {
-        return DatabaseType.SQL;
+        return embedded ? DatabaseType.SQLITE : DatabaseType.SQL;
     }
 
     private void checkNameUniqueness(final Statement statement) {
@@ -1414,7 +2144,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         PreparedStatement statement = null;
 
         try {
-            statement = connection.prepareStatement("SELECT id, user FROM " + tablePrefix + "users WHERE uuid = ? OR (uuid IS NULL AND user = ?)");
+            statement = connection.prepareStatement(queries.getUserIdByUniqueId());
             statement.setString(1, uuid.toString());
             statement.setString(2, playerName);
             resultSet = statement.executeQuery();
@@ -1443,7 +2173,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
         PreparedStatement statement = null;
 
         try {
-            statement = connection.prepareStatement("SELECT id, user FROM " + tablePrefix + "users WHERE user = ?");
+            statement = connection.prepareStatement(queries.getUserIdByName());
             statement.setString(1, playerName);
             resultSet = statement.executeQuery();
 
@@ -1475,8 +2205,42 @@ public final class SQLDatabaseManager implements DatabaseManager {
         }
     }
 
+    private void tryClearBatch(Statement statement) {
+        if (statement != null) {
+            try {
+                statement.clearBatch();
+            }
+            catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void tryRollback(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.rollback();
+            }
+            catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
+    private void tryResetAutoCommit(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.setAutoCommit(true);
+            }
+            catch (SQLException e) {
+                // Ignore
+            }
+        }
+    }
+
     @Override
     public void onDisable() {
+        disabled = true;
         mcMMO.p.debug("Releasing connection pool resource...");
         miscPool.close();
         loadPool.close();
@@ -1495,7 +2259,7 @@ public final class SQLDatabaseManager implements DatabaseManager {
 
         try {
             connection = getConnection(PoolIdentifier.MISC);
-            statement = connection.prepareStatement("UPDATE " + tablePrefix + "huds SET mobhealthbar = ?");
+            statement = connection.prepareStatement("UPDATE " + (queries.isSingleTable() ? queries.getUserTable() : tablePrefix + "huds") + " SET mobhealthbar = ?");
             statement.setString(1, Config.getInstance().getMobHealthbarDefault().toString());
             statement.executeUpdate();
         }
@@ -1507,4 +2271,25 @@ public final class SQLDatabaseManager implements DatabaseManager {
             tryClose(connection);
         }
     }
+
+    /**
+     * A single UPDATE of a save, along with its parameters.
+     */
+    private static final class SaveUpdate {
+        private final String description;
+        private final String query;
+        private final List<Object> parameters;
+
+        private SaveUpdate(String description, String query, List<Object> parameters) {
+            this.description = description;
+            this.query = query;
+            this.parameters = parameters;
+        }
+
+        private void setParameters(PreparedStatement statement) throws SQLException {
+            for (int i = 0; i < parameters.size(); i++) {
+                statement.setObject(i + 1, parameters.get(i));
+            }
+        }
+    }
 }
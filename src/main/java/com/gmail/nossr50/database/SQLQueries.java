@@ -0,0 +1,303 @@
+package com.gmail.nossr50.database;
+
+import com.gmail.nossr50.datatypes.skills.SkillType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The queries used by {@link SQLDatabaseManager} for saving, loading,
+ * leaderboards and ranks, built once for a table prefix, SQL dialect and
+ * table layout.
+ * <p>
+ * In the five table layout a user is spread over the users, skills,
+ * experience, cooldowns and huds tables. In the single table layout every
+ * user is one row of the profiles table, where the experience and cooldown
+ * columns are prefixed with {@link #EXPERIENCE_PREFIX} and
+ * {@link #COOLDOWN_PREFIX}.
+ * <p>
+ * Every call sends exactly the same SQL for the same kind of query, so the
+ * statement cache of the connection pools can hand back a statement that
+ * was already parsed and planned instead of preparing it again.
+ */
+final class SQLQueries {
+    static final String EXPERIENCE_PREFIX = "xp_";
+    static final String COOLDOWN_PREFIX = "cd_";
+
+    // The skill and cooldown columns, in the order loaded profiles expect them
+    static final List<String> SKILL_COLUMNS = Arrays.asList("taming", "mining", "repair", "woodcutting", "unarmed", "herbalism", "excavation", "archery", "swords", "axes", "acrobatics", "fishing", "alchemy");
+    static final List<String> COOLDOWN_COLUMNS = Arrays.asList("taming", "mining", "repair", "woodcutting", "unarmed", "herbalism", "excavation", "archery", "swords", "axes", "acrobatics", "blast_mining");
+
+    private final String tablePrefix;
+    private final boolean embedded;
+    private final boolean singleTable;
+    private final String userTable;
+    private final String rankSource;
+    private final String skillAlias;
+
+    private final String userIdByUniqueId;
+    private final String userIdByName;
+    private final String invalidateUserName;
+    private final String insertUser;
+    private final String renameUser;
+    private final String saveUniqueId;
+    private final String saveLogin;
+    private final String loadProfile;
+    private final String readProfiles;
+    private final String insertExperience;
+    private final String insertSkills;
+    private final String insertCooldowns;
+    private final String insertHuds;
+    private final String rank;
+    private final String powerLevelLeaderboard;
+    private final Map<SkillType, String> skillLeaderboards = new EnumMap<SkillType, String>(SkillType.class);
+    private final Map<String, String> updates = new ConcurrentHashMap<String, String>();
+
+    SQLQueries(String tablePrefix, boolean embedded, boolean singleTable) {
+        this.tablePrefix = tablePrefix;
+        this.embedded = embedded;
+        this.singleTable = singleTable;
+
+        String profileTables;
+
+        if (singleTable) {
+            userTable = tablePrefix + "profiles";
+            profileTables = "FROM " + userTable + " u ";
+            rankSource = userTable + " u";
+            skillAlias = "u";
+        }
+        else {
+            userTable = tablePrefix + "users";
+            profileTables = "FROM " + tablePrefix + "users u "
+                    + "JOIN " + tablePrefix + "skills s ON (u.id = s.user_id) "
+                    + "JOIN " + tablePrefix + "experience e ON (u.id = e.user_id) "
+                    + "JOIN " + tablePrefix + "cooldowns c ON (u.id = c.user_id) "
+                    + "JOIN " + tablePrefix + "huds h ON (u.id = h.user_id) ";
+            rankSource = tablePrefix + "users u JOIN " + tablePrefix + "skills s ON (s.user_id = u.id)";
+            skillAlias = "s";
+        }
+
+        String profileColumns = buildProfileColumns();
+        String insertIgnore = embedded ? "INSERT OR IGNORE" : "INSERT IGNORE";
+
+        userIdByUniqueId = "SELECT id, user FROM " + userTable + " WHERE uuid = ? OR (uuid IS NULL AND user = ?)";
+        userIdByName = "SELECT id, user FROM " + userTable + " WHERE user = ?";
+        invalidateUserName = "UPDATE " + userTable + " SET user = ? WHERE user = ?";
+        insertUser = "INSERT INTO " + userTable + " (user, uuid, lastlogin) VALUES (?, ?, " + getUnixTimestamp() + ")";
+        renameUser = "UPDATE " + userTable + " SET user = ?, uuid = ? WHERE id = ?";
+        saveUniqueId = "UPDATE " + userTable + " SET uuid = ? WHERE user = ?";
+        saveLogin = "UPDATE " + userTable + " SET lastlogin = " + getUnixTimestamp() + " WHERE id = ?";
+        loadProfile = "SELECT " + profileColumns + ", u.user " + profileTables + "WHERE u.id = ?";
+        readProfiles = "SELECT " + profileColumns + ", u.user, u.id " + profileTables + "WHERE u.id > ? ORDER BY u.id LIMIT ?";
+        insertExperience = insertIgnore + " INTO " + tablePrefix + "experience (user_id) VALUES (?)";
+        insertSkills = insertIgnore + " INTO " + tablePrefix + "skills (user_id) VALUES (?)";
+        insertCooldowns = insertIgnore + " INTO " + tablePrefix + "cooldowns (user_id) VALUES (?)";
+        insertHuds = insertIgnore + " INTO " + tablePrefix + "huds (user_id, mobhealthbar, scoreboardtips) VALUES (?, ?, ?)";
+        rank = buildRankQuery();
+
+        for (SkillType skill : SkillType.NON_CHILD_SKILLS) {
+            skillLeaderboards.put(skill, buildLeaderboardQuery(skill.name().toLowerCase()));
+        }
+
+        powerLevelLeaderboard = buildLeaderboardQuery(SQLDatabaseManager.ALL_QUERY_VERSION);
+    }
+
+    String getUnixTimestamp() {
+        return embedded ? "CAST(strftime('%s', 'now') AS INTEGER)" : "UNIX_TIMESTAMP()";
+    }
+
+    boolean isSingleTable() {
+        return singleTable;
+    }
+
+    /**
+     * Get the table holding the user names, uuids and last logins.
+     */
+    String getUserTable() {
+        return userTable;
+    }
+
+    String getUserIdByUniqueId() {
+        return userIdByUniqueId;
+    }
+
+    String getUserIdByName() {
+        return userIdByName;
+    }
+
+    String getInvalidateUserName() {
+        return invalidateUserName;
+    }
+
+    String getInsertUser() {
+        return insertUser;
+    }
+
+    String getRenameUser() {
+        return renameUser;
+    }
+
+    String getSaveUniqueId() {
+        return saveUniqueId;
+    }
+
+    String getSaveLogin() {
+        return saveLogin;
+    }
+
+    String getLoadProfile() {
+        return loadProfile;
+    }
+
+    /**
+     * Get the next page of profiles after an id, in id order.
+     */
+    String getReadProfiles() {
+        return readProfiles;
+    }
+
+    String getInsertExperience() {
+        return insertExperience;
+    }
+
+    String getInsertSkills() {
+        return insertSkills;
+    }
+
+    String getInsertCooldowns() {
+        return insertCooldowns;
+    }
+
+    String getInsertHuds() {
+        return insertHuds;
+    }
+
+    String getRank() {
+        return rank;
+    }
+
+    /**
+     * @param skill The skill, or null for power level
+     */
+    String getLeaderboard(SkillType skill) {
+        return skill == null ? powerLevelLeaderboard : skillLeaderboards.get(skill);
+    }
+
+    /**
+     * Get the update of some columns of a table of the five table layout,
+     * keyed by user id. Each combination of columns is built once and then
+     * reused.
+     *
+     * @param table The table, without prefix
+     * @param columns The columns to set, in order
+     */
+    String getUpdate(String table, List<String> columns) {
+        String key = table + ":" + columns;
+        String query = updates.get(key);
+
+        if (query != null) {
+            return query;
+        }
+
+        query = "UPDATE " + tablePrefix + table + " SET " + getAssignments(columns) + " WHERE user_id = ?";
+        updates.put(key, query);
+        return query;
+    }
+
+    /**
+     * Get the update of some columns of the profiles table of the single
+     * table layout, keyed by id. The last login is always set as well, so a
+     * save is a single statement.
+     *
+     * @param columns The columns to set, in order
+     */
+    String getProfileUpdate(List<String> columns) {
+        String key = "profiles:" + columns;
+        String query = updates.get(key);
+
+        if (query != null) {
+            return query;
+        }
+
+        query = "UPDATE " + userTable + " SET lastlogin = " + getUnixTimestamp() + (columns.isEmpty() ? "" : ", " + getAssignments(columns)) + " WHERE id = ?";
+        updates.put(key, query);
+        return query;
+    }
+
+    private String getAssignments(List<String> columns) {
+        StringBuilder assignments = new StringBuilder();
+
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                assignments.append(", ");
+            }
+
+            assignments.append(columns.get(i)).append(" = ?");
+        }
+
+        return assignments.toString();
+    }
+
+    private String buildProfileColumns() {
+        StringBuilder columns = new StringBuilder();
+
+        for (String column : SKILL_COLUMNS) {
+            columns.append(singleTable ? "u." : "s.").append(column).append(", ");
+        }
+
+        for (String column : SKILL_COLUMNS) {
+            columns.append(singleTable ? "u." + EXPERIENCE_PREFIX : "e.").append(column).append(", ");
+        }
+
+        for (String column : COOLDOWN_COLUMNS) {
+            columns.append(singleTable ? "u." + COOLDOWN_PREFIX : "c.").append(column).append(", ");
+        }
+
+        String hudAlias = singleTable ? "u." : "h.";
+        return columns.append(hudAlias).append("mobhealthbar, ").append(hudAlias).append("scoreboardtips, u.uuid").toString();
+    }
+
+    private String buildLeaderboardQuery(String column) {
+        String source = singleTable ? userTable : tablePrefix + "users JOIN " + tablePrefix + "skills ON (user_id = id)";
+        return "SELECT " + column + ", user FROM " + source + " WHERE " + column + " > 0 AND NOT user = '\\_INVALID\\_OLD\\_USERNAME\\_' ORDER BY " + column + " DESC, user LIMIT ?, ?";
+    }
+
+    /**
+     * Build the rank query, one row per skill counting the users ahead of the
+     * player. Both counts are range scans on the indexed skill column, so a
+     * lookup never sorts the table. Every branch takes the player name as a
+     * parameter.
+     */
+    private String buildRankQuery() {
+        StringBuilder query = new StringBuilder();
+
+        for (String column : getRankColumns()) {
+            if (query.length() > 0) {
+                query.append(" UNION ALL ");
+            }
+
+            String skillColumn = skillAlias + "." + column;
+            query.append("SELECT '").append(column).append("' AS skill, p.").append(column).append(" AS level, ")
+                    .append("(SELECT COUNT(*) FROM ").append(rankSource).append(" WHERE ").append(skillColumn).append(" > p.").append(column).append(") AS higher, ")
+                    .append("(SELECT COUNT(*) FROM ").append(rankSource).append(" WHERE ").append(skillColumn).append(" = p.").append(column).append(" AND u.user < p.user) AS tied ")
+                    .append("FROM (SELECT u.user, ").append(skillColumn).append(" FROM ").append(rankSource).append(" WHERE u.user = ?) p");
+        }
+
+        return query.toString();
+    }
+
+    private List<String> getRankColumns() {
+        List<String> columns = new ArrayList<String>();
+
+        for (SkillType skillType : SkillType.NON_CHILD_SKILLS) {
+            columns.add(skillType.name().toLowerCase());
+        }
+
+        columns.add(SQLDatabaseManager.ALL_QUERY_VERSION);
+        return columns;
+    }
+}
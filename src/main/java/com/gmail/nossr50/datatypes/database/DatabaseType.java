@@ -3,6 +3,7 @@ package com.gmail.nossr50.datatypes.database;
 public enum DatabaseType {
     FLATFILE,
     SQL,
+    SQLITE,
     CUSTOM;
 
     public static DatabaseType getDatabaseType(String typeName) {
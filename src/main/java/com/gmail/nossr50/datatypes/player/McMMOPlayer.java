@@ -15,6 +15,7 @@ import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.party.PartyManager;
 import com.gmail.nossr50.party.ShareHandler;
+import com.gmail.nossr50.runnables.player.PlayerProfileSaveTask;
 import com.gmail.nossr50.runnables.skills.AbilityDisableTask;
 import com.gmail.nossr50.runnables.skills.BleedTimerTask;
 import com.gmail.nossr50.runnables.skills.ToolLowerTask;
@@ -885,12 +886,14 @@ public class McMMOPlayer {
     public void logout(boolean syncSave) {
         Player thisPlayer = getPlayer();
         resetAbilityMode();
+        getWoodcuttingManager().abortTreeFeller();
         BleedTimerTask.bleedOut(thisPlayer);
 
         if (syncSave) {
             getProfile().save();
+            mcMMO.getProfilePrefetcher().endSession(thisPlayer.getUniqueId());
         } else {
-            getProfile().scheduleAsyncSave();
+            new PlayerProfileSaveTask(getProfile(), true).runTaskAsynchronously(mcMMO.p);
         }
 
         UserManager.remove(thisPlayer);
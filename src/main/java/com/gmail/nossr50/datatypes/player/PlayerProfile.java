@@ -13,10 +13,7 @@ import com.gmail.nossr50.skills.child.FamilyTree;
 import com.gmail.nossr50.util.player.UserManager;
 import com.google.common.collect.ImmutableMap;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.DelayQueue;
 
 public class PlayerProfile {
@@ -24,6 +21,8 @@ public class PlayerProfile {
     private UUID uuid;
     private boolean loaded;
     private volatile boolean changed;
+    private final ProfileChanges pendingChanges = new ProfileChanges();
+    private ProfileChanges savedChanges;
 
     /* HUDs */
     private MobHealthbarType mobHealthbarType;
@@ -84,6 +83,11 @@ public class PlayerProfile {
         loaded = true;
     }
 
+    private PlayerProfile(PlayerProfile profile, ProfileChanges savedChanges) {
+        this(profile.playerName, profile.uuid, ImmutableMap.copyOf(profile.skills), ImmutableMap.copyOf(profile.skillsXp), ImmutableMap.copyOf(profile.abilityDATS), profile.mobHealthbarType, profile.scoreboardTipsShown);
+        this.savedChanges = savedChanges;
+    }
+
     public void scheduleAsyncSave() {
         new PlayerProfileSaveTask(this).runTaskAsynchronously(mcMMO.p);
     }
@@ -93,15 +97,58 @@ public class PlayerProfile {
             return;
         }
 
-        // TODO should this part be synchronized?
-        PlayerProfile profileCopy = new PlayerProfile(playerName, uuid, ImmutableMap.copyOf(skills), ImmutableMap.copyOf(skillsXp), ImmutableMap.copyOf(abilityDATS), mobHealthbarType, scoreboardTipsShown);
-        changed = !mcMMO.getDatabaseManager().saveUser(profileCopy);
+        changed = false;
+        PlayerProfile profileCopy = copy();
 
-        if (changed) {
+        if (!mcMMO.getDatabaseManager().saveUser(profileCopy)) {
+            restoreChanges(profileCopy);
             mcMMO.p.getLogger().warning("PlayerProfile saving failed for player: " + playerName + " " + uuid);
         }
     }
 
+    /**
+     * Save a group of profiles with a single database operation.
+     *
+     * @param profiles The profiles to save, unchanged or unloaded profiles are skipped
+     */
+    public static void saveAll(Collection<PlayerProfile> profiles) {
+        List<PlayerProfile> changedProfiles = new ArrayList<PlayerProfile>(profiles.size());
+        List<PlayerProfile> profileCopies = new ArrayList<PlayerProfile>(profiles.size());
+
+        for (PlayerProfile profile : profiles) {
+            if (!profile.changed || !profile.loaded) {
+                continue;
+            }
+
+            profile.changed = false;
+            changedProfiles.add(profile);
+            profileCopies.add(profile.copy());
+        }
+
+        if (profileCopies.isEmpty()) {
+            return;
+        }
+
+        List<PlayerProfile> failedCopies = mcMMO.getDatabaseManager().saveUsers(profileCopies);
+
+        if (failedCopies.isEmpty()) {
+            return;
+        }
+
+        // Only the profiles that failed are marked to be saved again
+        Set<PlayerProfile> failed = Collections.newSetFromMap(new IdentityHashMap<PlayerProfile, Boolean>());
+        failed.addAll(failedCopies);
+
+        for (int i = 0; i < changedProfiles.size(); i++) {
+            PlayerProfile profileCopy = profileCopies.get(i);
+
+            if (failed.contains(profileCopy)) {
+                changedProfiles.get(i).restoreChanges(profileCopy);
+                mcMMO.p.getLogger().warning("PlayerProfile saving failed for player: " + profileCopy.playerName + " " + profileCopy.uuid);
+            }
+        }
+    }
+
     public String getPlayerName() {
         return playerName;
     }
@@ -120,6 +167,16 @@ public class PlayerProfile {
         return loaded;
     }
 
+    /**
+     * Get the fields being saved, for the copies of this profile that are
+     * handed to {@link com.gmail.nossr50.database.DatabaseManager#saveUser(PlayerProfile)}.
+     *
+     * @return the changed fields, or null if every field should be saved
+     */
+    public ProfileChanges getChanges() {
+        return savedChanges;
+    }
+
     /*
      * Mob Healthbars
      */
@@ -130,6 +187,7 @@ public class PlayerProfile {
 
     public void setMobHealthbarType(MobHealthbarType mobHealthbarType) {
         changed = true;
+        pendingChanges.markHuds();
 
         this.mobHealthbarType = mobHealthbarType;
     }
@@ -140,6 +198,7 @@ public class PlayerProfile {
 
     public void setScoreboardTipsShown(int scoreboardTipsShown) {
         changed = true;
+        pendingChanges.markHuds();
 
         this.scoreboardTipsShown = scoreboardTipsShown;
     }
@@ -170,6 +229,7 @@ public class PlayerProfile {
      */
     protected void setAbilityDATS(AbilityType ability, long DATS) {
         changed = true;
+        pendingChanges.markCooldown(ability);
 
         abilityDATS.put(ability, (int) (DATS * .001D));
     }
@@ -182,6 +242,7 @@ public class PlayerProfile {
 
         for (AbilityType ability : abilityDATS.keySet()) {
             abilityDATS.put(ability, 0);
+            pendingChanges.markCooldown(ability);
         }
     }
 
@@ -207,6 +268,7 @@ public class PlayerProfile {
         }
 
         changed = true;
+        pendingChanges.markExperience(skill);
 
         skillsXp.put(skill, xpLevel);
     }
@@ -215,9 +277,12 @@ public class PlayerProfile {
         float xpRemoved = getXpToLevel(skill);
 
         changed = true;
+        pendingChanges.markSkill(skill);
+        pendingChanges.markExperience(skill);
 
         skills.put(skill, skills.get(skill) + 1);
         skillsXp.put(skill, skillsXp.get(skill) - xpRemoved);
+        updateSkillLevel(skill);
 
         return xpRemoved;
     }
@@ -234,6 +299,7 @@ public class PlayerProfile {
         }
 
         changed = true;
+        pendingChanges.markExperience(skill);
 
         skillsXp.put(skill, skillsXp.get(skill) - xp);
     }
@@ -244,6 +310,7 @@ public class PlayerProfile {
         }
 
         changed = true;
+        pendingChanges.markExperience(skill);
 
         skillsXp.put(skill, skillsXp.get(skill) - xp);
     }
@@ -260,9 +327,12 @@ public class PlayerProfile {
         }
 
         changed = true;
+        pendingChanges.markSkill(skill);
+        pendingChanges.markExperience(skill);
 
         skills.put(skill, level);
         skillsXp.put(skill, 0F);
+        updateSkillLevel(skill);
     }
 
     /**
@@ -290,10 +360,12 @@ public class PlayerProfile {
 
             for (SkillType parentSkill : parentSkills) {
                 skillsXp.put(parentSkill, skillsXp.get(parentSkill) + dividedXP);
+                pendingChanges.markExperience(parentSkill);
             }
         }
         else {
             skillsXp.put(skill, skillsXp.get(skill) + xp);
+            pendingChanges.markExperience(skill);
         }
     }
 
@@ -349,6 +421,29 @@ public class PlayerProfile {
         return mcMMO.getFormulaManager().getCachedXpToLevel(level, formulaType);
     }
 
+    private void updateSkillLevel(SkillType skill) {
+        if (!loaded) {
+            return;
+        }
+
+        mcMMO.getDatabaseManager().updateSkillLevel(this, skill);
+    }
+
+    /**
+     * Copy this profile for saving. The pending changes are drained first,
+     * so a change made while copying is saved again next time instead of
+     * being lost.
+     */
+    private PlayerProfile copy() {
+        // TODO should this part be synchronized?
+        return new PlayerProfile(this, pendingChanges.drain());
+    }
+
+    private void restoreChanges(PlayerProfile profileCopy) {
+        pendingChanges.merge(profileCopy.savedChanges);
+        changed = true;
+    }
+
     private int getChildSkillLevel(SkillType skillType) {
         Set<SkillType> parents = FamilyTree.getParents(skillType);
         int sum = 0;
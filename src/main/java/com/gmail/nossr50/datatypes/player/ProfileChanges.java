@@ -0,0 +1,93 @@
+package com.gmail.nossr50.datatypes.player;
+
+import com.gmail.nossr50.datatypes.skills.AbilityType;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Tracks which fields of a {@link PlayerProfile} changed since it was last
+ * saved. Repeated changes to the same field are coalesced, so a save only
+ * has to write the fields that differ from what is stored.
+ */
+public class ProfileChanges {
+    private final Set<SkillType> skills = EnumSet.noneOf(SkillType.class);
+    private final Set<SkillType> experience = EnumSet.noneOf(SkillType.class);
+    private final Set<AbilityType> cooldowns = EnumSet.noneOf(AbilityType.class);
+    private boolean huds;
+
+    /**
+     * Get the skills whose level changed.
+     */
+    public synchronized Set<SkillType> getSkills() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(skills));
+    }
+
+    /**
+     * Get the skills whose experience changed.
+     */
+    public synchronized Set<SkillType> getExperience() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(experience));
+    }
+
+    /**
+     * Get the abilities whose cooldown changed.
+     */
+    public synchronized Set<AbilityType> getCooldowns() {
+        return Collections.unmodifiableSet(EnumSet.copyOf(cooldowns));
+    }
+
+    /**
+     * Whether the mob healthbar or scoreboard tips setting changed.
+     */
+    public synchronized boolean hasHudChanges() {
+        return huds;
+    }
+
+    public synchronized boolean isEmpty() {
+        return skills.isEmpty() && experience.isEmpty() && cooldowns.isEmpty() && !huds;
+    }
+
+    synchronized void markSkill(SkillType skill) {
+        skills.add(skill);
+    }
+
+    synchronized void markExperience(SkillType skill) {
+        experience.add(skill);
+    }
+
+    synchronized void markCooldown(AbilityType ability) {
+        cooldowns.add(ability);
+    }
+
+    synchronized void markHuds() {
+        huds = true;
+    }
+
+    /**
+     * Move all changes into a new instance, leaving this one empty.
+     */
+    synchronized ProfileChanges drain() {
+        ProfileChanges drained = new ProfileChanges();
+        drained.merge(this);
+
+        skills.clear();
+        experience.clear();
+        cooldowns.clear();
+        huds = false;
+
+        return drained;
+    }
+
+    /**
+     * Add back changes that failed to save.
+     */
+    synchronized void merge(ProfileChanges other) {
+        skills.addAll(other.skills);
+        experience.addAll(other.experience);
+        cooldowns.addAll(other.cooldowns);
+        huds |= other.huds;
+    }
+}
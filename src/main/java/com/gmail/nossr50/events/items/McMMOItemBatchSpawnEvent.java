@@ -0,0 +1,70 @@
+package com.gmail.nossr50.events.items;
+
+import org.bukkit.Location;
+import org.bukkit.event.Cancellable;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.List;
+
+/**
+ * Called when mcMMO is preparing to drop items of the same kind merged into
+ * as few stacks as possible, in place of a {@link McMMOItemSpawnEvent} for
+ * each item.
+ */
+public class McMMOItemBatchSpawnEvent extends Event implements Cancellable {
+    private Location location;
+    private List<ItemStack> itemStacks;
+    private boolean cancelled;
+
+    public McMMOItemBatchSpawnEvent(Location location, List<ItemStack> itemStacks) {
+        this.location = location;
+        this.itemStacks = itemStacks;
+        this.cancelled = false;
+    }
+
+    /**
+     * @return Location where the items will be dropped
+     */
+    public Location getLocation() {
+        return location;
+    }
+
+    /**
+     * @param location Location where to drop the items
+     */
+    public void setLocation(Location location) {
+        this.location = location;
+    }
+
+    /**
+     * @return ItemStacks that will be dropped, one item entity each, which can be changed
+     */
+    public List<ItemStack> getItemStacks() {
+        return itemStacks;
+    }
+
+    /** Following are required for Cancellable **/
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public void setCancelled(boolean cancelled) {
+        this.cancelled = cancelled;
+    }
+
+    /** Rest of file is required boilerplate for custom events **/
+    private static final HandlerList handlers = new HandlerList();
+
+    @Override
+    public HandlerList getHandlers() {
+        return handlers;
+    }
+
+    public static HandlerList getHandlerList() {
+        return handlers;
+    }
+}
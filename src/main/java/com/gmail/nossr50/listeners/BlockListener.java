@@ -24,7 +24,6 @@ import com.gmail.nossr50.util.player.UserManager;
 import com.gmail.nossr50.util.skills.SkillUtils;
 import org.bukkit.*;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
 import org.bukkit.block.BrewingStand;
 import org.bukkit.enchantments.Enchantment;
@@ -107,39 +106,30 @@ public class BlockListener implements Listener {
 
     /**
      * Monitor BlockPistonExtend events.
+     * <p>
+     * The placed block data moves along with the blocks, before they move,
+     * and the blocks the piston breaks are cleared.
+     * Cancelled moves never get here, so there is nothing to check or undo
+     * afterwards.
      *
      * @param event The event to monitor
      */
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPistonExtend(BlockPistonExtendEvent event) {
-        BlockFace direction = event.getDirection();
-        Block movedBlock = event.getBlock();
-        movedBlock = movedBlock.getRelative(direction, 2);
-
-        for (Block b : event.getBlocks()) {
-            if (BlockUtils.shouldBeWatched(b.getState()) && mcMMO.getPlaceStore().isTrue(b)) {
-                movedBlock = b.getRelative(direction);
-                mcMMO.getPlaceStore().setTrue(movedBlock);
-            }
-        }
+        mcMMO.getPlaceStore().shift(event.getBlocks(), event.getDirection());
     }
 
     /**
      * Monitor BlockPistonRetract events.
+     * <p>
+     * Only sticky pistons pull blocks, for anything else the list is empty.
+     * The direction is the way the pulled blocks move.
      *
      * @param event The event to watch
      */
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onBlockPistonRetract(BlockPistonRetractEvent event) {
-        // Get opposite direction so we get correct block
-        BlockFace direction = event.getDirection();
-        Block movedBlock = event.getBlock().getRelative(direction);
-        mcMMO.getPlaceStore().setTrue(movedBlock);
-
-        for (Block block : event.getBlocks()) {
-            movedBlock = block.getRelative(direction);
-            mcMMO.getPlaceStore().setTrue(movedBlock);
-        }
+        mcMMO.getPlaceStore().shift(event.getBlocks(), event.getDirection());
     }
 
     /**
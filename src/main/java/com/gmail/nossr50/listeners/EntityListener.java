@@ -19,6 +19,7 @@ import com.gmail.nossr50.skills.mining.MiningManager;
 import com.gmail.nossr50.skills.taming.Taming;
 import com.gmail.nossr50.skills.taming.TamingManager;
 import com.gmail.nossr50.util.BlockUtils;
+import com.gmail.nossr50.util.EntityFlagStore.Flag;
 import com.gmail.nossr50.util.Misc;
 import com.gmail.nossr50.util.Permissions;
 import com.gmail.nossr50.util.player.UserManager;
@@ -52,12 +53,12 @@ public class EntityListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR)
     public void onEntityTransform(EntityTransformEvent event)
     {
-        //Transfer metadata keys from mob-spawned mobs to new mobs
-        if(event.getEntity().getMetadata(mcMMO.entityMetadataKey).size() >= 1)
+        //Transfer the spawned flag from mob-spawned mobs to new mobs
+        if(mcMMO.getEntityFlags().has(event.getEntity(), Flag.SPAWNED))
         {
             for(Entity entity : event.getTransformedEntities())
             {
-                entity.setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+                mcMMO.getEntityFlags().set(entity, Flag.SPAWNED);
             }
         }
     }
@@ -114,11 +115,11 @@ public class EntityListener implements Listener {
         Entity entity = event.getEntity();
 
         if (entity instanceof FallingBlock || entity instanceof Enderman) {
-            boolean isTracked = entity.hasMetadata(mcMMO.entityMetadataKey);
+            boolean isTracked = mcMMO.getEntityFlags().has(entity, Flag.SPAWNED);
 
             if (mcMMO.getPlaceStore().isTrue(block) && !isTracked) {
                 mcMMO.getPlaceStore().setFalse(block);
-                entity.setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+                mcMMO.getEntityFlags().set(entity, Flag.SPAWNED);
             }
             else if (isTracked) {
                 mcMMO.getPlaceStore().setTrue(block);
@@ -149,7 +150,7 @@ public class EntityListener implements Listener {
             return;
         }
         
-        if (event.getDamager().hasMetadata(mcMMO.funfettiMetadataKey))
+        if (mcMMO.getEntityFlags().has(event.getDamager(), Flag.FUNFETTI))
         {
             event.setCancelled(true);
             return;
@@ -175,8 +176,7 @@ public class EntityListener implements Listener {
 
 
 
-        if (defender.hasMetadata(mcMMO.customDamageKey)) {
-            defender.removeMetadata(mcMMO.customDamageKey, plugin);
+        if (mcMMO.getEntityFlags().remove(defender, Flag.CUSTOM_DAMAGE)) {
             return;
         }
 
@@ -260,8 +260,7 @@ public class EntityListener implements Listener {
 
         Entity entity = event.getEntity();
 
-        if (entity.hasMetadata(mcMMO.customDamageKey)) {
-            entity.removeMetadata(mcMMO.customDamageKey, plugin);
+        if (mcMMO.getEntityFlags().remove(entity, Flag.CUSTOM_DAMAGE)) {
             return;
         }
 
@@ -411,9 +410,7 @@ public class EntityListener implements Listener {
             entity.removeMetadata(mcMMO.customVisibleKey, plugin);
         }
 
-        if (entity.hasMetadata(mcMMO.entityMetadataKey)) {
-            entity.removeMetadata(mcMMO.entityMetadataKey, plugin);
-        }
+        mcMMO.getEntityFlags().forget(entity);
     }
 
     /**
@@ -448,17 +445,17 @@ public class EntityListener implements Listener {
             case NETHER_PORTAL:
             case SPAWNER:
             case SPAWNER_EGG:
-                entity.setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+                mcMMO.getEntityFlags().set(entity, Flag.SPAWNED);
 
                 Entity passenger = entity.getPassenger();
 
                 if (passenger != null) {
-                    passenger.setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+                    mcMMO.getEntityFlags().set(passenger, Flag.SPAWNED);
                 }
                 return;
 
             case BREEDING:
-                entity.setMetadata(mcMMO.bredMetadataKey, mcMMO.metadataValue);
+                mcMMO.getEntityFlags().set(entity, Flag.BRED);
                 return;
 
             default:
@@ -652,11 +649,11 @@ public class EntityListener implements Listener {
         Player player = (Player) event.getOwner();
         LivingEntity entity = event.getEntity();
 
-        if (!UserManager.hasPlayerDataKey(player) || Misc.isNPCEntity(entity) || entity.hasMetadata(mcMMO.entityMetadataKey)) {
+        if (!UserManager.hasPlayerDataKey(player) || Misc.isNPCEntity(entity) || mcMMO.getEntityFlags().has(entity, Flag.SPAWNED)) {
             return;
         }
 
-        entity.setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+        mcMMO.getEntityFlags().set(entity, Flag.SPAWNED);
         UserManager.getPlayer(player).getTamingManager().awardTamingXP(entity);
     }
 
@@ -713,8 +710,8 @@ public class EntityListener implements Listener {
     
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onPigZapEvent(PigZapEvent event) {
-        if (event.getEntity().hasMetadata(mcMMO.entityMetadataKey)) {
-            event.getPigZombie().setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+        if (mcMMO.getEntityFlags().has(event.getEntity(), Flag.SPAWNED)) {
+            mcMMO.getEntityFlags().set(event.getPigZombie(), Flag.SPAWNED);
         }
     }
 }
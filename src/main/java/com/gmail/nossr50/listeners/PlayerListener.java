@@ -357,6 +357,40 @@ public class PlayerListener implements Listener {
         }
     }
 
+    /**
+     * Monitor AsyncPlayerPreLoginEvents.
+     * <p>
+     * These events are monitored for the purpose of loading the player's
+     * profile while they are still logging in.
+     *
+     * @param event The event to monitor
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        mcMMO.getProfilePrefetcher().prefetch(event.getName(), event.getUniqueId());
+    }
+
+    /**
+     * Monitor PlayerLoginEvents.
+     * <p>
+     * These events are monitored for the purpose of dropping profiles that
+     * were prefetched for logins that were denied afterwards.
+     *
+     * @param event The event to monitor
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerLogin(PlayerLoginEvent event) {
+        if (event.getResult() == PlayerLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        mcMMO.getProfilePrefetcher().discard(event.getPlayer().getUniqueId());
+    }
+
     /**
      * Monitor PlayerQuitEvents.
      * <p>
@@ -370,12 +404,17 @@ public class PlayerListener implements Listener {
     public void onPlayerQuit(PlayerQuitEvent event) {
         Player player = event.getPlayer();
 
+        if (Misc.isNPCEntity(player)) {
+            return;
+        }
+
         if (!UserManager.hasPlayerDataKey(player)) {
+            mcMMO.getProfilePrefetcher().endSession(player.getUniqueId());
             return;
         }
 
         McMMOPlayer mcMMOPlayer = UserManager.getPlayer(player);
-        mcMMOPlayer.logout(false);
+        mcMMOPlayer.logout(false); // Ends the session once saved
     }
 
     /**
@@ -395,7 +434,12 @@ public class PlayerListener implements Listener {
             return;
         }
 
-        new PlayerProfileLoadingTask(player).runTaskLaterAsynchronously(mcMMO.p, 1); // 1 Tick delay to ensure the player is marked as online before we begin loading
+        PlayerProfileLoadingTask loadingTask = new PlayerProfileLoadingTask(player, mcMMO.getProfilePrefetcher().take(player.getUniqueId()));
+        mcMMO.getProfilePrefetcher().startSession(player.getUniqueId());
+
+        if (!loadingTask.applyPrefetchedProfile()) {
+            loadingTask.runTaskLaterAsynchronously(mcMMO.p, 1); // 1 Tick delay to ensure the player is marked as online before we begin loading
+        }
 
         if (Config.getInstance().getMOTDEnabled() && Permissions.motd(player)) {
             Motd.displayAll(player);
@@ -3,10 +3,10 @@ package com.gmail.nossr50.listeners;
 import com.gmail.nossr50.mcMMO;
 import org.bukkit.Chunk;
 import org.bukkit.World;
-import org.bukkit.block.BlockState;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.world.ChunkLoadEvent;
 import org.bukkit.event.world.ChunkUnloadEvent;
 import org.bukkit.event.world.StructureGrowEvent;
 import org.bukkit.event.world.WorldInitEvent;
@@ -32,9 +32,7 @@ public class WorldListener implements Listener {
             return;
         }
 
-        for (BlockState blockState : event.getBlocks()) {
-            mcMMO.getPlaceStore().setFalse(blockState);
-        }
+        mcMMO.getPlaceStore().setStates(event.getBlocks(), false);
     }
 
     /**
@@ -47,6 +45,18 @@ public class WorldListener implements Listener {
         mcMMO.getPlaceStore().unloadWorld(event.getWorld());
     }
 
+    /**
+     * Monitor ChunkLoad events.
+     *
+     * @param event The event to watch
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(ChunkLoadEvent event) {
+        Chunk chunk = event.getChunk();
+
+        mcMMO.getPlaceStore().chunkLoaded(chunk.getX(), chunk.getZ(), event.getWorld(), event.isNewChunk());
+    }
+
     /**
      * Monitor ChunkUnload events.
      *
@@ -57,5 +67,6 @@ public class WorldListener implements Listener {
         Chunk chunk = event.getChunk();
 
         mcMMO.getPlaceStore().chunkUnloaded(chunk.getX(), chunk.getZ(), event.getWorld());
+        mcMMO.getEntityFlags().chunkUnloaded(chunk);
     }
 }
@@ -16,7 +16,9 @@ import com.gmail.nossr50.database.DatabaseManager;
 import com.gmail.nossr50.database.DatabaseManagerFactory;
 import com.gmail.nossr50.listeners.*;
 import com.gmail.nossr50.party.PartyManager;
+import com.gmail.nossr50.runnables.BlockTrackerStatisticsTask;
 import com.gmail.nossr50.runnables.CheckDateTask;
+import com.gmail.nossr50.runnables.EntityFlagPurgeTask;
 import com.gmail.nossr50.runnables.SaveTimerTask;
 import com.gmail.nossr50.runnables.backups.CleanBackupsTask;
 import com.gmail.nossr50.runnables.database.UserPurgeTask;
@@ -24,6 +26,7 @@ import com.gmail.nossr50.runnables.party.PartyAutoKickTask;
 import com.gmail.nossr50.runnables.player.ClearRegisteredXPGainTask;
 import com.gmail.nossr50.runnables.player.PlayerProfileLoadingTask;
 import com.gmail.nossr50.runnables.player.PowerLevelUpdatingTask;
+import com.gmail.nossr50.runnables.skills.AwardCombatXpTask;
 import com.gmail.nossr50.runnables.skills.BleedTimerTask;
 import com.gmail.nossr50.skills.alchemy.Alchemy;
 import com.gmail.nossr50.skills.child.ChildConfig;
@@ -37,8 +40,10 @@ import com.gmail.nossr50.skills.smelting.SmeltingManager;
 import com.gmail.nossr50.util.*;
 import com.gmail.nossr50.util.blockmeta.ChunkManager;
 import com.gmail.nossr50.util.blockmeta.ChunkManagerFactory;
+import com.gmail.nossr50.util.blockmeta.RegionCompactor;
 import com.gmail.nossr50.util.commands.CommandRegistrationManager;
 import com.gmail.nossr50.util.experience.FormulaManager;
+import com.gmail.nossr50.util.player.ProfilePrefetcher;
 import com.gmail.nossr50.util.player.UserManager;
 import com.gmail.nossr50.util.scoreboards.ScoreboardManager;
 import com.gmail.nossr50.util.upgrade.UpgradeManager;
@@ -46,6 +51,7 @@ import com.google.common.base.Charsets;
 import net.shatteredlands.shatt.backup.ZipLibrary;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
 import org.bukkit.entity.Player;
 import org.bukkit.event.HandlerList;
 import org.bukkit.metadata.FixedMetadataValue;
@@ -57,7 +63,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class mcMMO extends JavaPlugin {
     /* Managers */
@@ -66,10 +74,12 @@ public class mcMMO extends JavaPlugin {
     private static SalvageableManager salvageableManager;
     private static ModManager         modManager;
     private static DatabaseManager    databaseManager;
+    private static ProfilePrefetcher  profilePrefetcher;
     private static FormulaManager     formulaManager;
     private static HolidayManager     holidayManager;
     private static UpgradeManager     upgradeManager;
     private static MaterialMapStore materialMapStore;
+    private static EntityFlagStore  entityFlags;
 
     /* File Paths */
     private static String mainDirectory;
@@ -94,7 +104,6 @@ public class mcMMO extends JavaPlugin {
     /* Metadata Values */
     public static final String FISH_HOOK_REF_METAKEY = "mcMMO: Fish Hook Tracker";
     public final static String entityMetadataKey   = "mcMMO: Spawned Entity";
-    public final static String blockMetadataKey    = "mcMMO: Piston Tracking";
     public final static String furnaceMetadataKey  = "mcMMO: Tracked Furnace";
     public final static String tntMetadataKey      = "mcMMO: Tracked TNT";
     public final static String funfettiMetadataKey = "mcMMO: Funfetti";
@@ -155,6 +164,9 @@ public class mcMMO extends JavaPlugin {
             }
 
             databaseManager = DatabaseManagerFactory.getDatabaseManager();
+            profilePrefetcher = new ProfilePrefetcher();
+
+            entityFlags = new EntityFlagStore(ExperienceConfig.getInstance().getMobFlagPersistenceEnabled() ? new NamespacedKey(this, "entity_flags") : null);
 
             registerEvents();
             registerCustomRecipes();
@@ -165,6 +177,7 @@ public class mcMMO extends JavaPlugin {
             holidayManager = new HolidayManager();
 
             for (Player player : getServer().getOnlinePlayers()) {
+                profilePrefetcher.startSession(player.getUniqueId());
                 new PlayerProfileLoadingTask(player).runTaskLaterAsynchronously(mcMMO.p, 1); // 1 Tick delay to ensure the player is marked as online before we begin loading
             }
 
@@ -173,6 +186,10 @@ public class mcMMO extends JavaPlugin {
             scheduleTasks();
             CommandRegistrationManager.registerCommands();
 
+            if (HiddenConfig.getInstance().getChunkletsEnabled() && Config.getInstance().getBlockTrackingCompactOnStartup()) {
+                compactRegionFiles();
+            }
+
             placeStore = ChunkManagerFactory.getChunkManager(); // Get our ChunkletManager
 
             if (Config.getInstance().getPTPCommandWorldPermissions()) {
@@ -215,6 +232,7 @@ public class mcMMO extends JavaPlugin {
         }
         catch (NullPointerException e) {}
 
+        debug("Combat XP: " + AwardCombatXpTask.getHits() + " hits given as " + AwardCombatXpTask.getAwards() + " experience gains, " + AwardCombatXpTask.getCoalescedHits() + " coalesced");
         debug("Canceling all tasks...");
         getServer().getScheduler().cancelTasks(this); // This removes our tasks
         debug("Unregister all events...");
@@ -239,6 +257,7 @@ public class mcMMO extends JavaPlugin {
             }
         }
 
+        profilePrefetcher.shutdown();
         databaseManager.onDisable();
         debug("Was disabled."); // How informative!
     }
@@ -287,6 +306,10 @@ public class mcMMO extends JavaPlugin {
         return placeStore;
     }
 
+    public static EntityFlagStore getEntityFlags() {
+        return entityFlags;
+    }
+
     public static RepairableManager getRepairableManager() {
         return repairableManager;
     }
@@ -299,6 +322,10 @@ public class mcMMO extends JavaPlugin {
         return databaseManager;
     }
 
+    public static ProfilePrefetcher getProfilePrefetcher() {
+        return profilePrefetcher;
+    }
+
     public static ModManager getModManager() {
         return modManager;
     }
@@ -450,6 +477,9 @@ public class mcMMO extends JavaPlugin {
         // Cleanup the backups folder
         new CleanBackupsTask().runTaskAsynchronously(mcMMO.p);
 
+        // Combat XP of the last tick's hits (Runs every tick)
+        new AwardCombatXpTask().runTaskTimer(this, 1, 1);
+
         // Bleed timer (Runs every two seconds)
         new BleedTimerTask().runTaskTimer(this, 2 * Misc.TICK_CONVERSION_FACTOR, 2 * Misc.TICK_CONVERSION_FACTOR);
 
@@ -484,6 +514,39 @@ public class mcMMO extends JavaPlugin {
         if (ExperienceConfig.getInstance().getDiminishedReturnsEnabled()) {
             new ClearRegisteredXPGainTask().runTaskTimer(this, 60, 60);
         }
+
+        // Report how the block tracker is using memory and region files
+        long statisticsIntervalTicks = Config.getInstance().getBlockTrackingStatisticsInterval() * 60L * Misc.TICK_CONVERSION_FACTOR;
+
+        if (statisticsIntervalTicks > 0) {
+            new BlockTrackerStatisticsTask().runTaskTimer(this, statisticsIntervalTicks, statisticsIntervalTicks);
+        }
+
+        // Forget the flags of entities that went without dying or unloading (Runs every five minutes)
+        new EntityFlagPurgeTask().runTaskTimer(this, 5 * 60 * Misc.TICK_CONVERSION_FACTOR, 5 * 60 * Misc.TICK_CONVERSION_FACTOR);
+    }
+
+    /**
+     * Compact the block tracking region files of every world, before the
+     * tracker is created. Worlds may already be loaded, but only the tracker
+     * opens the region files, so none of them are in use yet.
+     */
+    private void compactRegionFiles() {
+        Map<File, RegionCompactor.RegionLock> regionDirectories = new HashMap<File, RegionCompactor.RegionLock>();
+        File[] worldFolders = getServer().getWorldContainer().listFiles();
+
+        if (worldFolders != null) {
+            for (File worldFolder : worldFolders) {
+                File regionDirectory = new File(worldFolder, "mcmmo_regions");
+
+                if (regionDirectory.isDirectory()) {
+                    regionDirectories.put(regionDirectory, RegionCompactor.UNLOCKED);
+                }
+            }
+        }
+
+        RegionCompactor.Report report = new RegionCompactor(Config.getInstance().getBlockTrackingCompactionThreads(), getLogger()).compact(regionDirectories);
+        getLogger().info("Block tracking region files: " + report);
     }
 
     private void checkModConfigs() {
@@ -0,0 +1,20 @@
+package com.gmail.nossr50.runnables;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.util.blockmeta.ChunkStoreStatistics;
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class BlockTrackerStatisticsTask extends BukkitRunnable {
+    @Override
+    public void run() {
+        ChunkStoreStatistics statistics = mcMMO.getPlaceStore() == null ? null : mcMMO.getPlaceStore().getStatistics();
+
+        // Nothing to report for this block tracker
+        if (statistics == null) {
+            this.cancel();
+            return;
+        }
+
+        mcMMO.p.getLogger().info("Block tracker: " + statistics);
+    }
+}
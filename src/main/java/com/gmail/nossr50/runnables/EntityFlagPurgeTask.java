@@ -0,0 +1,15 @@
+package com.gmail.nossr50.runnables;
+
+import com.gmail.nossr50.mcMMO;
+import org.bukkit.scheduler.BukkitRunnable;
+
+public class EntityFlagPurgeTask extends BukkitRunnable {
+    @Override
+    public void run() {
+        int purged = mcMMO.getEntityFlags().purge(mcMMO.p.getServer().getWorlds());
+
+        if (purged > 0) {
+            mcMMO.p.debug("Forgot the flags of " + purged + " entities no longer in a world.");
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.gmail.nossr50.runnables;
+
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.locale.LocaleLoader;
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.util.blockmeta.RegionCompactor;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class RegionCompactionTask extends BukkitRunnable {
+    private final CommandSender sender;
+    private final Map<File, UUID> regionDirectories = new HashMap<File, UUID>();
+
+    public RegionCompactionTask(CommandSender sender, List<World> worlds) {
+        this.sender = sender;
+
+        for (World world : worlds) {
+            regionDirectories.put(new File(world.getWorldFolder(), "mcmmo_regions"), world.getUID());
+        }
+    }
+
+    @Override
+    public void run() {
+        Map<File, RegionCompactor.RegionLock> locks = new HashMap<File, RegionCompactor.RegionLock>();
+
+        for (Map.Entry<File, UUID> entry : regionDirectories.entrySet()) {
+            final UUID worldId = entry.getValue();
+
+            // The block tracker closes each file while it is replaced
+            locks.put(entry.getKey(), (rx, rz, action) -> mcMMO.getPlaceStore().whileRegionClosed(worldId, rx, rz, action));
+        }
+
+        RegionCompactor.Report report = new RegionCompactor(Config.getInstance().getBlockTrackingCompactionThreads(), mcMMO.p.getLogger()).compact(locks);
+        final String message;
+
+        if (report.isRefused()) {
+            message = LocaleLoader.getString("Commands.mccompact.Unsupported");
+        }
+        else {
+            mcMMO.p.getLogger().info("Block tracking region files: " + report);
+            message = LocaleLoader.getString("Commands.mccompact.Finish", report.getRegionFiles(), report.getRegionFilesRemoved(), report.getChunksDropped(), report.getChunksUpgraded(), report.getBytesReclaimed() / 1024);
+        }
+
+        mcMMO.p.getServer().getScheduler().runTask(mcMMO.p, new Runnable() {
+            @Override
+            public void run() {
+                sender.sendMessage(message);
+            }
+        });
+    }
+}
@@ -1,23 +1,30 @@
 package com.gmail.nossr50.runnables;
 
 import com.gmail.nossr50.datatypes.player.McMMOPlayer;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.party.PartyManager;
-import com.gmail.nossr50.runnables.player.PlayerProfileSaveTask;
+import com.gmail.nossr50.runnables.player.PlayerProfileBatchSaveTask;
 import com.gmail.nossr50.util.player.UserManager;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
 public class SaveTimerTask extends BukkitRunnable {
     @Override
     public void run() {
         // All player data will be saved periodically through this
-        int count = 1;
+        Collection<McMMOPlayer> players = UserManager.getPlayers();
+        List<PlayerProfile> profiles = new ArrayList<PlayerProfile>(players.size());
 
-        for (McMMOPlayer mcMMOPlayer : UserManager.getPlayers()) {
-            new PlayerProfileSaveTask(mcMMOPlayer.getProfile()).runTaskLaterAsynchronously(mcMMO.p, count);
-            count++;
+        for (McMMOPlayer mcMMOPlayer : players) {
+            profiles.add(mcMMOPlayer.getProfile());
         }
 
+        new PlayerProfileBatchSaveTask(profiles).runTaskAsynchronously(mcMMO.p);
+
         PartyManager.saveParties();
     }
 }
@@ -1,25 +1,44 @@
 package com.gmail.nossr50.runnables.database;
 
+import com.gmail.nossr50.database.DatabaseConverter;
 import com.gmail.nossr50.database.DatabaseManager;
 import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.mcMMO;
 import org.bukkit.command.CommandSender;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.io.File;
+
 public class DatabaseConversionTask extends BukkitRunnable {
     private final DatabaseManager sourceDatabase;
     private final CommandSender sender;
-    private final String message;
+    private final String oldType;
+    private final String newType;
 
     public DatabaseConversionTask(DatabaseManager sourceDatabase, CommandSender sender, String oldType, String newType) {
         this.sourceDatabase = sourceDatabase;
         this.sender = sender;
-        message = LocaleLoader.getString("Commands.mcconvert.Database.Finish", oldType, newType);
+        this.oldType = oldType;
+        this.newType = newType;
     }
 
     @Override
     public void run() {
-        sourceDatabase.convertUsers(mcMMO.getDatabaseManager());
+        DatabaseConverter converter = new DatabaseConverter(sourceDatabase, mcMMO.getDatabaseManager(), new File(mcMMO.getFlatFileDirectory(), "conversion.yml"));
+        final String message;
+
+        try {
+            if (converter.convert()) {
+                message = LocaleLoader.getString("Commands.mcconvert.Database.Finish", oldType, newType);
+            }
+            else {
+                message = LocaleLoader.getString("Commands.mcconvert.Database.Failed", oldType, newType, converter.getConvertedUsers());
+            }
+        }
+        finally {
+            // The source database was only opened for this conversion, release its pools and tasks
+            sourceDatabase.onDisable();
+        }
 
         mcMMO.p.getServer().getScheduler().runTask(mcMMO.p, new Runnable() {
             @Override
@@ -0,0 +1,19 @@
+package com.gmail.nossr50.runnables.player;
+
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.Collection;
+
+public class PlayerProfileBatchSaveTask extends BukkitRunnable {
+    private Collection<PlayerProfile> playerProfiles;
+
+    public PlayerProfileBatchSaveTask(Collection<PlayerProfile> playerProfiles) {
+        this.playerProfiles = playerProfiles;
+    }
+
+    @Override
+    public void run() {
+        PlayerProfile.saveAll(playerProfiles);
+    }
+}
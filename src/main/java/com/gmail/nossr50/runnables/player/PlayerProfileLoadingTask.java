@@ -13,15 +13,29 @@ import org.bukkit.Server;
 import org.bukkit.entity.Player;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
 public class PlayerProfileLoadingTask extends BukkitRunnable {
     private static final int MAX_TRIES = 5;
     private final Player player;
     private int attempt = 0;
+    private Future<PlayerProfile> prefetchedProfile;
 
     public PlayerProfileLoadingTask(Player player) {
         this.player = player;
     }
 
+    /**
+     * @param player The player to load
+     * @param prefetchedProfile The profile load started while the player was logging in, may be null
+     */
+    public PlayerProfileLoadingTask(Player player, Future<PlayerProfile> prefetchedProfile) {
+        this.player = player;
+        this.prefetchedProfile = prefetchedProfile;
+    }
+
     private PlayerProfileLoadingTask(Player player, int attempt) {
         this.player = player;
         this.attempt = attempt;
@@ -37,10 +51,17 @@ public class PlayerProfileLoadingTask extends BukkitRunnable {
             return;
         }
 
+        PlayerProfile profile = getPrefetchedProfile();
+
+        if (profile != null) {
+            new ApplySuccessfulProfile(new McMMOPlayer(player, profile)).runTask(mcMMO.p);
+            return;
+        }
+
         // Increment attempt counter and try
         attempt++;
 
-        PlayerProfile profile = mcMMO.getDatabaseManager().loadPlayerProfile(player.getName(), player.getUniqueId(), true);
+        profile = mcMMO.getDatabaseManager().loadPlayerProfile(player.getName(), player.getUniqueId(), true);
         // If successful, schedule the apply
         if (profile.isLoaded()) {
             new ApplySuccessfulProfile(new McMMOPlayer(player, profile)).runTask(mcMMO.p);
@@ -57,6 +78,58 @@ public class PlayerProfileLoadingTask extends BukkitRunnable {
         new PlayerProfileLoadingTask(player, attempt).runTaskLaterAsynchronously(mcMMO.p, 100 * attempt);
     }
 
+    /**
+     * Apply the prefetched profile right away if it has already been loaded.
+     * Must be called from the main thread.
+     *
+     * @return true if the profile was applied, false if the task still has to be scheduled
+     */
+    public boolean applyPrefetchedProfile() {
+        if (prefetchedProfile == null || !prefetchedProfile.isDone()) {
+            return false;
+        }
+
+        PlayerProfile profile = getPrefetchedProfile();
+
+        if (profile == null) {
+            return false;
+        }
+
+        new ApplySuccessfulProfile(new McMMOPlayer(player, profile)).run();
+        return true;
+    }
+
+    /**
+     * Wait for the prefetched profile, if any. It is only used once, failed
+     * loads and players without a user yet fall back to loading from the
+     * database, which creates the user. It is waited for however long it
+     * takes, so no second load of the player runs alongside it.
+     */
+    private PlayerProfile getPrefetchedProfile() {
+        if (prefetchedProfile == null) {
+            return null;
+        }
+
+        Future<PlayerProfile> future = prefetchedProfile;
+        prefetchedProfile = null;
+
+        try {
+            PlayerProfile profile = future.get();
+            return profile != null && profile.isLoaded() ? profile : null;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            mcMMO.p.getLogger().warning("Prefetching the PlayerProfile for " + player.getName() + " failed: " + e.getCause());
+        }
+        catch (CancellationException e) {
+            // Never started, the plugin is shutting down
+        }
+
+        return null;
+    }
+
     private class ApplySuccessfulProfile extends BukkitRunnable {
         private final McMMOPlayer mcMMOPlayer;
 
@@ -1,17 +1,35 @@
 package com.gmail.nossr50.runnables.player;
 
 import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.mcMMO;
 import org.bukkit.scheduler.BukkitRunnable;
 
 public class PlayerProfileSaveTask extends BukkitRunnable {
     private PlayerProfile playerProfile;
+    private boolean logout;
 
     public PlayerProfileSaveTask(PlayerProfile playerProfile) {
         this.playerProfile = playerProfile;
     }
 
+    /**
+     * @param playerProfile The profile to save
+     * @param logout true if this is the save of a player who logged out, which ends their session
+     */
+    public PlayerProfileSaveTask(PlayerProfile playerProfile, boolean logout) {
+        this.playerProfile = playerProfile;
+        this.logout = logout;
+    }
+
     @Override
     public void run() {
-        playerProfile.save();
+        try {
+            playerProfile.save();
+        }
+        finally {
+            if (logout && playerProfile.getUniqueId() != null) {
+                mcMMO.getProfilePrefetcher().endSession(playerProfile.getUniqueId());
+            }
+        }
     }
 }
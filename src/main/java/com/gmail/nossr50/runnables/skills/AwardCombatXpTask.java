@@ -3,41 +3,157 @@ package com.gmail.nossr50.runnables.skills;
 import com.gmail.nossr50.datatypes.player.McMMOPlayer;
 import com.gmail.nossr50.datatypes.skills.SkillType;
 import com.gmail.nossr50.datatypes.skills.XPGainReason;
+import com.gmail.nossr50.util.player.UserManager;
 import org.bukkit.entity.LivingEntity;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Gives the combat experience of the hits of the last tick, once the damage
+ * they did is known. All the hits of a player with a skill in a tick are
+ * given as a single experience gain.
+ */
 public class AwardCombatXpTask extends BukkitRunnable {
-    private McMMOPlayer mcMMOPlayer;
-    private double baseXp;
-    private SkillType skillType;
-    private LivingEntity target;
-    private XPGainReason xpGainReason;
-    private double baseHealth;
-
-    public AwardCombatXpTask(McMMOPlayer mcMMOPlayer, SkillType skillType, double baseXp, LivingEntity target, XPGainReason xpGainReason) {
-        this.mcMMOPlayer = mcMMOPlayer;
-        this.skillType = skillType;
-        this.baseXp = baseXp;
-        this.target = target;
-        this.xpGainReason = xpGainReason;
-        baseHealth = target.getHealth();
-    }
+    private static Map<McMMOPlayer, List<Award>> pendingAwards = new HashMap<McMMOPlayer, List<Award>>();
+
+    private static long hits;
+    private static long awards;
 
     @Override
     public void run() {
-        double health = target.getHealth();
-        double damage = baseHealth - health;
-
-        // May avoid negative xp, we don't know what other plugins do with the entity health
-        if (damage <= 0) {
+        if (pendingAwards.isEmpty()) {
             return;
         }
 
-        // Don't reward the player for overkills
-        if (health < 0) {
-            damage += health;
+        // Swap the awards out first, so hits recorded while giving experience wait for the next tick
+        Map<McMMOPlayer, List<Award>> awarding = pendingAwards;
+        pendingAwards = new HashMap<McMMOPlayer, List<Award>>();
+
+        for (List<Award> playerAwards : awarding.values()) {
+            for (Award award : playerAwards) {
+                award.give();
+            }
+        }
+    }
+
+    /**
+     * Give experience for a hit on the next tick, based on the damage done by then.
+     *
+     * @param mcMMOPlayer The attacking player
+     * @param skillType The skill being used
+     * @param baseXp The experience for each point of damage done
+     * @param target The defending entity
+     * @param xpGainReason The reason for the experience
+     */
+    public static void add(McMMOPlayer mcMMOPlayer, SkillType skillType, double baseXp, LivingEntity target, XPGainReason xpGainReason) {
+        List<Award> playerAwards = pendingAwards.get(mcMMOPlayer);
+
+        if (playerAwards == null) {
+            playerAwards = new ArrayList<Award>(2);
+            pendingAwards.put(mcMMOPlayer, playerAwards);
         }
 
-        mcMMOPlayer.beginXpGain(skillType, (int) (damage * baseXp), xpGainReason);
+        Award award = null;
+
+        for (Award playerAward : playerAwards) {
+            if (playerAward.skillType == skillType && playerAward.xpGainReason == xpGainReason) {
+                award = playerAward;
+                break;
+            }
+        }
+
+        if (award == null) {
+            award = new Award(mcMMOPlayer, skillType, xpGainReason);
+            playerAwards.add(award);
+        }
+
+        award.add(target, baseXp);
+        hits++;
+    }
+
+    /**
+     * @return The number of hits experience was recorded for
+     */
+    public static long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return The number of experience gains the hits were given as
+     */
+    public static long getAwards() {
+        return awards;
+    }
+
+    /**
+     * @return The number of hits given as part of another hit's experience gain
+     */
+    public static long getCoalescedHits() {
+        return hits - awards;
+    }
+
+    private static final class Award {
+        private final McMMOPlayer mcMMOPlayer;
+        private final SkillType skillType;
+        private final XPGainReason xpGainReason;
+
+        private LivingEntity[] targets = new LivingEntity[2];
+        private double[] baseHealths = new double[2];
+        private double[] baseXps = new double[2];
+        private int size;
+
+        private Award(McMMOPlayer mcMMOPlayer, SkillType skillType, XPGainReason xpGainReason) {
+            this.mcMMOPlayer = mcMMOPlayer;
+            this.skillType = skillType;
+            this.xpGainReason = xpGainReason;
+        }
+
+        private void add(LivingEntity target, double baseXp) {
+            if (size == targets.length) {
+                targets = Arrays.copyOf(targets, size * 2);
+                baseHealths = Arrays.copyOf(baseHealths, size * 2);
+                baseXps = Arrays.copyOf(baseXps, size * 2);
+            }
+
+            targets[size] = target;
+            baseHealths[size] = target.getHealth();
+            baseXps[size] = baseXp;
+            size++;
+        }
+
+        private void give() {
+            awards++;
+
+            // The player logged out, nothing is left to give the experience to
+            if (!UserManager.hasPlayerDataKey(mcMMOPlayer.getPlayer())) {
+                return;
+            }
+
+            int xp = 0;
+
+            for (int i = 0; i < size; i++) {
+                double health = targets[i].getHealth();
+                double damage = baseHealths[i] - health;
+
+                // May avoid negative xp, we don't know what other plugins do with the entity health
+                if (damage <= 0) {
+                    continue;
+                }
+
+                // Don't reward the player for overkills
+                if (health < 0) {
+                    damage += health;
+                }
+
+                xp += (int) (damage * baseXps[i]);
+            }
+
+            mcMMOPlayer.beginXpGain(skillType, xp, xpGainReason);
+        }
     }
 }
@@ -0,0 +1,176 @@
+package com.gmail.nossr50.runnables.skills;
+
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.datatypes.skills.XPGainReason;
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.skills.woodcutting.WoodcuttingManager;
+import com.gmail.nossr50.util.DropAggregator;
+import com.gmail.nossr50.util.EventUtils;
+import com.gmail.nossr50.util.player.UserManager;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitRunnable;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Breaks the blocks of a felled tree over as many ticks as it takes to stay
+ * within the per tick budget, giving the experience for each tick's blocks
+ * as it goes.
+ */
+public class TreeFellerTask extends BukkitRunnable {
+    private final WoodcuttingManager woodcuttingManager;
+    private final Player player;
+    private final Deque<BlockState> blocks;
+    private final int blocksPerTick;
+    private final long nanosPerTick;
+
+    private boolean scheduled;
+    private boolean finished;
+    private int ticks;
+    private int blocksBroken;
+    private long totalNanos;
+    private long maxTickNanos;
+
+    public TreeFellerTask(WoodcuttingManager woodcuttingManager, Collection<BlockState> treeFellerBlocks) {
+        this.woodcuttingManager = woodcuttingManager;
+        this.player = woodcuttingManager.getPlayer();
+        this.blocks = new ArrayDeque<BlockState>(treeFellerBlocks);
+        this.blocksPerTick = Config.getInstance().getTreeFellerBlocksPerTick();
+        this.nanosPerTick = TimeUnit.MILLISECONDS.toNanos(Config.getInstance().getTreeFellerMillisPerTick());
+    }
+
+    /**
+     * Break the first blocks right away, and the rest over the following ticks.
+     */
+    public void start() {
+        run();
+
+        if (!finished) {
+            scheduled = true;
+            runTaskTimer(mcMMO.p, 1, 1);
+        }
+    }
+
+    @Override
+    public void run() {
+        if (finished) {
+            return;
+        }
+
+        // The player logged out, nothing is left to give the experience to
+        if (!player.isOnline() || !UserManager.hasPlayerDataKey(player)) {
+            finish(false);
+            return;
+        }
+
+        long start = System.nanoTime();
+        int broken = 0;
+        int xp = 0;
+        boolean cancelled = false;
+        DropAggregator drops = new DropAggregator();
+
+        // Always break at least one block, so the tree keeps falling however small the budget
+        while (!blocks.isEmpty()) {
+            BlockState blockState = blocks.poll();
+            Block block = blockState.getBlock();
+
+            // Broken or replaced since the tree was felled
+            if (block.getType() != blockState.getType()) {
+                continue;
+            }
+
+            if (!EventUtils.simulateBlockBreak(block, player, true)) {
+                cancelled = true;
+                break;
+            }
+
+            xp += woodcuttingManager.dropBlock(blockState, drops);
+            broken++;
+
+            if ((blocksPerTick > 0 && broken >= blocksPerTick) || (nanosPerTick > 0 && System.nanoTime() - start >= nanosPerTick)) {
+                break;
+            }
+        }
+
+        drops.drop();
+
+        if (xp > 0) {
+            woodcuttingManager.applyXpGain(xp, XPGainReason.PVE);
+        }
+
+        long elapsed = System.nanoTime() - start;
+        ticks++;
+        blocksBroken += broken;
+        totalNanos += elapsed;
+        maxTickNanos = Math.max(maxTickNanos, elapsed);
+
+        if (cancelled || blocks.isEmpty()) {
+            finish(!cancelled);
+        }
+    }
+
+    /**
+     * Stop breaking blocks, leaving the rest of the tree standing.
+     */
+    public void abort() {
+        finish(false);
+    }
+
+    private void finish(boolean completed) {
+        if (finished) {
+            return;
+        }
+
+        finished = true;
+
+        if (scheduled) {
+            cancel();
+        }
+
+        mcMMO.p.debug("Tree Feller for " + player.getName() + (completed ? " finished" : " stopped with " + blocks.size() + " blocks left")
+                + ": " + blocksBroken + " blocks in " + ticks + " ticks, " + TimeUnit.NANOSECONDS.toMicros(totalNanos) + " us total, " + TimeUnit.NANOSECONDS.toMicros(maxTickNanos) + " us longest tick");
+        blocks.clear();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * @return the blocks still to be broken
+     */
+    public Collection<BlockState> getRemainingBlocks() {
+        return Collections.unmodifiableCollection(blocks);
+    }
+
+    /**
+     * @return the ticks spent breaking blocks so far
+     */
+    public int getTicks() {
+        return ticks;
+    }
+
+    public int getBlocksBroken() {
+        return blocksBroken;
+    }
+
+    /**
+     * @return the time spent breaking blocks so far, over every tick
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the most time spent breaking blocks in a single tick
+     */
+    public long getMaxTickNanos() {
+        return maxTickNanos;
+    }
+}
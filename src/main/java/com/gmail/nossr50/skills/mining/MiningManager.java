@@ -13,6 +13,7 @@ import com.gmail.nossr50.runnables.skills.AbilityCooldownTask;
 import com.gmail.nossr50.skills.SkillManager;
 import com.gmail.nossr50.skills.mining.BlastMining.Tier;
 import com.gmail.nossr50.util.BlockUtils;
+import com.gmail.nossr50.util.DropAggregator;
 import com.gmail.nossr50.util.EventUtils;
 import com.gmail.nossr50.util.Misc;
 import com.gmail.nossr50.util.Permissions;
@@ -27,6 +28,7 @@ import org.bukkit.event.entity.EntityExplodeEvent;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 
 public class MiningManager extends SkillManager {
@@ -117,36 +119,37 @@ public class MiningManager extends SkillManager {
 
         float debrisYield = event.getYield() - debrisReduction;
 
-        for (Block block : event.blockList()) {
-            BlockState blockState = block.getState();
+        DropAggregator drops = new DropAggregator();
+        List<Block> blocks = event.blockList();
+        BitSet placed = mcMMO.getPlaceStore().isTrue(blocks); // Look up every chunk of the explosion once
+
+        for (int blockIndex = 0; blockIndex < blocks.size(); blockIndex++) {
+            if (placed.get(blockIndex))
+                continue;
+
+            BlockState blockState = blocks.get(blockIndex).getState();
 
             if (!ExperienceConfig.getInstance().isSkillBlock(SkillType.MINING, blockState.getBlockData()))
                 continue;
             if (blockState instanceof Container)
                 continue;
-            if (mcMMO.getPlaceStore().isTrue(block))
-                continue;
 
             if (BlockUtils.isOre(blockState)) {
                 if (Misc.getRandom().nextFloat() < (event.getYield() + oreBonus)) {
-                    if (!mcMMO.getPlaceStore().isTrue(blockState)) {
-                        xp += Mining.getBlockXp(blockState);
-                    }
-
-                    Misc.dropItem(Misc.getBlockCenter(blockState), new ItemStack(blockState.getType())); // Initial block that would have been dropped
+                    xp += Mining.getBlockXp(blockState);
 
-                    for (int i = 1; i < dropMultiplier; i++) {
-                        Misc.dropItem(Misc.getBlockCenter(blockState), new ItemStack(blockState.getType())); // Bonus drops
-                    }
+                    // Initial block that would have been dropped, and the bonus drops
+                    drops.add(Misc.getBlockCenter(blockState), new ItemStack(blockState.getType()), Math.max(1, dropMultiplier));
                 }
             }
             else if (debrisYield > 0) {
                 if (Misc.getRandom().nextFloat() < debrisYield) {
-                    Misc.dropItems(Misc.getBlockCenter(blockState), blockState.getBlock().getDrops());
+                    drops.add(Misc.getBlockCenter(blockState), blockState.getBlock().getDrops());
                 }
             }
         }
 
+        drops.drop();
         event.setYield(0F);
 
         applyXpGain(xp, XPGainReason.PVE);
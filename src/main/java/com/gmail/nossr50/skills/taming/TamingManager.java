@@ -13,6 +13,7 @@ import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.mcMMO;
 import com.gmail.nossr50.runnables.skills.BleedTimerTask;
 import com.gmail.nossr50.skills.SkillManager;
+import com.gmail.nossr50.util.EntityFlagStore.Flag;
 import com.gmail.nossr50.util.Misc;
 import com.gmail.nossr50.util.Permissions;
 import com.gmail.nossr50.util.StringUtils;
@@ -273,7 +274,7 @@ public class TamingManager extends SkillManager {
                 continue;
             }
 
-            entity.setMetadata(mcMMO.entityMetadataKey, mcMMO.metadataValue);
+            mcMMO.getEntityFlags().set(entity, Flag.SPAWNED);
             ((Tameable) entity).setOwner(player);
             entity.setRemoveWhenFarAway(false);
 
@@ -0,0 +1,284 @@
+package com.gmail.nossr50.skills.woodcutting;
+
+import com.gmail.nossr50.config.experience.ExperienceConfig;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.util.CompatManager;
+import com.gmail.nossr50.util.blockmeta.UserBlockTracker;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the blocks of a tree for Tree Feller, starting from the block broken.
+ * <p>
+ * Every position is looked at once, as a packed long in a primitive set.
+ * Only the material of a block is read until it turns out to be part of the
+ * tree, and the state is taken then. All state belongs to the search, so
+ * searches for different players don't share anything.
+ */
+/*
+ * Algorithm: An int[][] of X/Z directions is created on static class
+ * initialization, representing a cylinder with radius of about 2 - the
+ * (0,0) center and all (+-2, +-2) corners are omitted.
+ *
+ * Logs are searched around breadth first, nearest the broken block first.
+ * (Call the log being searched around "this log" for the below explanation.)
+ *
+ *  [A] There is a log not yet found above this log (TRUNK)
+ *    Only the flat cylinder in the directions array is searched.
+ *  [B] There is not a log not yet found above this log (BRANCH AND TOP)
+ *    The cylinder in the directions array is extended up and down by 1
+ *    block in the Y-axis, and the block below this log is checked as
+ *    well. Due to the fact that the directions array will catch all
+ *    blocks on a red mushroom, the special method for it is eliminated.
+ */
+final class TreeSearch {
+    /**
+     * The x/y differences to the blocks in a flat cylinder around the center
+     * block, which is excluded.
+     */
+    private static final int[][] directions = {
+                            new int[] {-2, -1}, new int[] {-2, 0}, new int[] {-2, 1},
+        new int[] {-1, -2}, new int[] {-1, -1}, new int[] {-1, 0}, new int[] {-1, 1}, new int[] {-1, 2},
+        new int[] { 0, -2}, new int[] { 0, -1},                    new int[] { 0, 1}, new int[] { 0, 2},
+        new int[] { 1, -2}, new int[] { 1, -1}, new int[] { 1, 0}, new int[] { 1, 1}, new int[] { 1, 2},
+                            new int[] { 2, -1}, new int[] { 2, 0}, new int[] { 2, 1},
+    };
+
+    enum Part {
+        LOG,
+        LEAVES,
+        NONE,
+    }
+
+    /**
+     * Tells which materials are part of a tree.
+     */
+    interface Classifier {
+        Part classify(Material material);
+    }
+
+    /**
+     * Logs are the blocks that give Woodcutting experience, as {@link com.gmail.nossr50.util.BlockUtils#isLog} has it.
+     */
+    static final Classifier DEFAULT = material -> {
+        if (ExperienceConfig.getInstance().isSkillBlock(SkillType.WOODCUTTING, material) || mcMMO.getModManager().isCustomLog(material)) {
+            return Part.LOG;
+        }
+
+        return mcMMO.getMaterialMapStore().isLeavesWhiteListed(material) ? Part.LEAVES : Part.NONE;
+    };
+
+    private final UserBlockTracker placeStore;
+    private final int threshold;
+    private final Classifier classifier;
+    private final Map<Material, Part> parts = new EnumMap<Material, Part>(Material.class);
+
+    private final List<BlockState> blocks = new ArrayList<BlockState>();
+    private final VisitedSet visited = new VisitedSet();
+    private long[] logs = new long[64]; // Logs to search around, in the order found
+    private int logCount;
+    private World world;
+    private int minHeight;
+    private int maxHeight;
+    private boolean reachedThreshold;
+
+    /**
+     * @param placeStore Blocks placed by players, which are never part of a tree
+     * @param threshold The most blocks a tree can have
+     */
+    TreeSearch(UserBlockTracker placeStore, int threshold, Classifier classifier) {
+        this.placeStore = placeStore;
+        this.threshold = threshold;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Find the tree around a block, which is not itself included.
+     *
+     * @param start Block being broken
+     * @return false if the tree has more blocks than the threshold
+     */
+    boolean search(Block start) {
+        world = start.getWorld();
+        minHeight = CompatManager.getWorldMinCompat(world);
+        maxHeight = world.getMaxHeight();
+
+        long position = pack(start.getX(), start.getY(), start.getZ());
+        visited.add(position);
+        logs[logCount++] = position;
+
+        for (int next = 0; next < logCount && !reachedThreshold; next++) {
+            long log = logs[next];
+            searchAround(unpackX(log), unpackY(log), unpackZ(log));
+        }
+
+        return !reachedThreshold;
+    }
+
+    /**
+     * @return the blocks of the tree, nearest the block broken first
+     */
+    List<BlockState> getBlocks() {
+        return blocks;
+    }
+
+    private void searchAround(int x, int y, int z) {
+        // Check the block up and take different behavior (smaller search) if it's a log
+        if (visit(x, y + 1, z) == Part.LOG) {
+            for (int[] dir : directions) {
+                visit(x + dir[0], y, z + dir[1]);
+
+                if (reachedThreshold) {
+                    return;
+                }
+            }
+        }
+        else {
+            // Cover DOWN
+            visit(x, y - 1, z);
+            // Search in a cube
+            for (int dy = -1; dy <= 1; dy++) {
+                for (int[] dir : directions) {
+                    visit(x + dir[0], y + dy, z + dir[1]);
+
+                    if (reachedThreshold) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the part of the tree the block was found to be, or NONE if it
+     *     was already looked at or is not part of the tree
+     */
+    private Part visit(int x, int y, int z) {
+        if (reachedThreshold || y < minHeight || y >= maxHeight || !visited.add(pack(x, y, z))) {
+            return Part.NONE;
+        }
+
+        Block block = world.getBlockAt(x, y, z);
+        Part part = classify(block.getType());
+
+        if (part == Part.NONE || placeStore.isTrue(block)) {
+            return Part.NONE;
+        }
+
+        blocks.add(block.getState());
+
+        // Without this check Tree Feller propagates through leaves until the threshold is hit
+        if (blocks.size() > threshold) {
+            reachedThreshold = true;
+        }
+
+        if (part == Part.LOG) {
+            if (logCount == logs.length) {
+                logs = Arrays.copyOf(logs, logCount * 2);
+            }
+
+            logs[logCount++] = pack(x, y, z);
+        }
+
+        return part;
+    }
+
+    private Part classify(Material material) {
+        Part part = parts.get(material);
+
+        if (part == null) {
+            part = classifier.classify(material);
+            parts.put(material, part);
+        }
+
+        return part;
+    }
+
+    // 26 bits of x, 26 bits of z and 12 bits of y, as the server packs block positions
+    static long pack(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    static int unpackX(long position) {
+        return (int) (position >> 38);
+    }
+
+    static int unpackY(long position) {
+        return (int) (position << 52 >> 52);
+    }
+
+    static int unpackZ(long position) {
+        return (int) (position << 26 >> 38);
+    }
+
+    /**
+     * An open addressing hash set of packed positions.
+     */
+    private static final class VisitedSet {
+        // Only x = -2^25 packs to this, which is far outside the world border
+        private static final long EMPTY = Long.MIN_VALUE;
+
+        private long[] keys = newTable(1024);
+        private int size;
+
+        /**
+         * @return false if the position was already in the set
+         */
+        boolean add(long key) {
+            // Keep the table at most half full
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+
+            if (!insert(keys, key)) {
+                return false;
+            }
+
+            size++;
+            return true;
+        }
+
+        private void grow() {
+            long[] table = newTable(keys.length * 2);
+
+            for (long key : keys) {
+                if (key != EMPTY) {
+                    insert(table, key);
+                }
+            }
+
+            keys = table;
+        }
+
+        private static boolean insert(long[] table, long key) {
+            int mask = table.length - 1;
+            int i = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+
+            while (table[i] != EMPTY) {
+                if (table[i] == key) {
+                    return false;
+                }
+
+                i = (i + 1) & mask;
+            }
+
+            table[i] = key;
+            return true;
+        }
+
+        private static long[] newTable(int capacity) {
+            long[] table = new long[capacity];
+            Arrays.fill(table, EMPTY);
+            return table;
+        }
+    }
+}
@@ -8,6 +8,7 @@ import com.gmail.nossr50.datatypes.skills.SkillType;
 import com.gmail.nossr50.datatypes.skills.XPGainReason;
 import com.gmail.nossr50.locale.LocaleLoader;
 import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.runnables.skills.TreeFellerTask;
 import com.gmail.nossr50.skills.SkillManager;
 import com.gmail.nossr50.skills.woodcutting.Woodcutting.ExperienceGainMethod;
 import com.gmail.nossr50.util.*;
@@ -20,9 +21,11 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 
 import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 public class WoodcuttingManager extends SkillManager {
+    private TreeFellerTask treeFellerTask;
+
     public WoodcuttingManager(McMMOPlayer mcMMOPlayer) {
         super(mcMMOPlayer, SkillType.WOODCUTTING);
     }
@@ -68,20 +71,25 @@ public class WoodcuttingManager extends SkillManager {
      */
     public void processTreeFeller(BlockState blockState) {
         Player player = getPlayer();
-        Set<BlockState> treeFellerBlocks = new HashSet<BlockState>();
-
-        Woodcutting.treeFellerReachedThreshold = false;
-
-        Woodcutting.processTree(blockState, treeFellerBlocks);
+        TreeSearch treeSearch = new TreeSearch(mcMMO.getPlaceStore(), Woodcutting.treeFellerThreshold, TreeSearch.DEFAULT);
 
         // If the player is trying to break too many blocks
-        if (Woodcutting.treeFellerReachedThreshold) {
-            Woodcutting.treeFellerReachedThreshold = false;
-
+        if (!treeSearch.search(blockState.getBlock())) {
             player.sendMessage(LocaleLoader.getString("Woodcutting.Skills.TreeFeller.Threshold"));
             return;
         }
 
+        List<BlockState> treeFellerBlocks = treeSearch.getBlocks();
+
+        // Blocks of the last tree still waiting to fall are already paid for
+        if (treeFellerTask != null && !treeFellerTask.isFinished()) {
+            treeFellerBlocks.removeAll(new HashSet<BlockState>(treeFellerTask.getRemainingBlocks()));
+
+            if (treeFellerBlocks.isEmpty()) {
+                return;
+            }
+        }
+
         // If the tool can't sustain the durability loss
         if (!Woodcutting.handleDurabilityLoss(treeFellerBlocks, player.getInventory().getItemInMainHand())) {
             player.sendMessage(LocaleLoader.getString("Woodcutting.Skills.TreeFeller.Splinter"));
@@ -95,63 +103,72 @@ public class WoodcuttingManager extends SkillManager {
             return;
         }
 
-        dropBlocks(treeFellerBlocks);
-        Woodcutting.treeFellerReachedThreshold = false; // Reset the value after we're done with Tree Feller each time.
+        treeFellerTask = new TreeFellerTask(this, treeFellerBlocks);
+        treeFellerTask.start();
     }
 
     /**
-     * Handles the dropping of blocks
+     * Drops a block broken by Tree Feller and removes it
      *
-     * @param treeFellerBlocks List of blocks to be dropped
+     * @param blockState Block to be dropped
+     * @param drops Drops of the ability, where the block's drops are added
+     * @return Experience for the block
      */
-    private void dropBlocks(Set<BlockState> treeFellerBlocks) {
-        Player player = getPlayer();
+    public int dropBlock(BlockState blockState, DropAggregator drops) {
+        Block block = blockState.getBlock();
+        Material material = blockState.getType();
         int xp = 0;
 
-        for (BlockState blockState : treeFellerBlocks) {
-            Block block = blockState.getBlock();
-
-            if (!EventUtils.simulateBlockBreak(block, player, true)) {
-                break; // TODO: Shouldn't we use continue instead?
+        if (material == Material.BROWN_MUSHROOM_BLOCK || material == Material.RED_MUSHROOM_BLOCK) {
+            xp += Woodcutting.getExperienceFromLog(blockState, ExperienceGainMethod.TREE_FELLER);
+            drops.add(Misc.getBlockCenter(blockState), block.getDrops());
+        }
+        else if (mcMMO.getModManager().isCustomLog(blockState)) {
+            if (canGetDoubleDrops()) {
+                Woodcutting.checkForDoubleDrop(blockState, drops);
             }
 
-            Material material = blockState.getType();
+            CustomBlock customBlock = mcMMO.getModManager().getBlock(blockState);
+            xp = customBlock.getXpGain();
 
-            if (material == Material.BROWN_MUSHROOM_BLOCK || material == Material.RED_MUSHROOM_BLOCK) {
-                xp += Woodcutting.getExperienceFromLog(blockState, ExperienceGainMethod.TREE_FELLER);
-                Misc.dropItems(Misc.getBlockCenter(blockState), block.getDrops());
-            }
-            else if (mcMMO.getModManager().isCustomLog(blockState)) {
+            drops.add(Misc.getBlockCenter(blockState), block.getDrops());
+        }
+        else if (mcMMO.getModManager().isCustomLeaf(blockState)) {
+            drops.add(Misc.getBlockCenter(blockState), block.getDrops());
+        }
+        else {
+
+            if (BlockUtils.isLog(blockState)) {
                 if (canGetDoubleDrops()) {
-                    Woodcutting.checkForDoubleDrop(blockState);
+                    Woodcutting.checkForDoubleDrop(blockState, drops);
                 }
-
-                CustomBlock customBlock = mcMMO.getModManager().getBlock(blockState);
-                xp = customBlock.getXpGain();
-
-                Misc.dropItems(Misc.getBlockCenter(blockState), block.getDrops());
-            }
-            else if (mcMMO.getModManager().isCustomLeaf(blockState)) {
-                Misc.dropItems(Misc.getBlockCenter(blockState), block.getDrops());
+                xp += Woodcutting.getExperienceFromLog(blockState, ExperienceGainMethod.TREE_FELLER);
+                drops.add(Misc.getBlockCenter(blockState), block.getDrops());
             }
-            else {
-
-                if (BlockUtils.isLog(blockState)) {
-                    if (canGetDoubleDrops()) {
-                        Woodcutting.checkForDoubleDrop(blockState);
-                    }
-                    xp += Woodcutting.getExperienceFromLog(blockState, ExperienceGainMethod.TREE_FELLER);
-                    Misc.dropItems(Misc.getBlockCenter(blockState), block.getDrops());
-                }
-                if (BlockUtils.isLeaves(blockState)) {
-                    Misc.dropItems(Misc.getBlockCenter(blockState), block.getDrops());
-                }
+            if (BlockUtils.isLeaves(blockState)) {
+                drops.add(Misc.getBlockCenter(blockState), block.getDrops());
             }
+        }
 
-            blockState.setType(Material.AIR);
-            blockState.update(true);
+        blockState.setType(Material.AIR);
+        blockState.update(true);
+        return xp;
+    }
+
+    /**
+     * Stops breaking the blocks of a tree still falling
+     */
+    public void abortTreeFeller() {
+        if (treeFellerTask != null) {
+            treeFellerTask.abort();
+            treeFellerTask = null;
         }
+    }
 
-        applyXpGain(xp, XPGainReason.PVE);
+    /**
+     * @return The Tree Feller job breaking the last tree felled, or null if none was felled
+     */
+    public TreeFellerTask getTreeFellerTask() {
+        return treeFellerTask;
     }
 }
@@ -0,0 +1,123 @@
+package com.gmail.nossr50.util;
+
+import com.gmail.nossr50.events.items.McMMOItemBatchSpawnEvent;
+import com.gmail.nossr50.mcMMO;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.ItemStack;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the items dropped by one use of an ability, so they can be
+ * dropped merged into as few item entities as possible.
+ * <p>
+ * Items of the same type and meta are merged into full stacks, dropped
+ * where the first of them came from. Each kind of item fires a single
+ * {@link McMMOItemBatchSpawnEvent}.
+ */
+public class DropAggregator {
+    private final Map<ItemStack, Aggregate> aggregates = new LinkedHashMap<ItemStack, Aggregate>();
+
+    /**
+     * Add items to drop.
+     *
+     * @param location The location the items came from
+     * @param drops The items to drop
+     */
+    public void add(Location location, Collection<ItemStack> drops) {
+        for (ItemStack drop : drops) {
+            add(location, drop, 1);
+        }
+    }
+
+    /**
+     * Add items to drop.
+     *
+     * @param location The location the items came from
+     * @param is The items to drop
+     * @param quantity The amount of times to drop the items
+     */
+    public void add(Location location, ItemStack is, int quantity) {
+        if (is.getType() == Material.AIR || is.getAmount() <= 0 || quantity <= 0) {
+            return;
+        }
+
+        // Stacks of one item of a kind are equal, whatever amount they came in
+        ItemStack kind = is.clone();
+        kind.setAmount(1);
+
+        Aggregate aggregate = aggregates.get(kind);
+
+        if (aggregate == null) {
+            aggregate = new Aggregate(location, kind);
+            aggregates.put(kind, aggregate);
+        }
+
+        aggregate.amount += is.getAmount() * quantity;
+    }
+
+    public boolean isEmpty() {
+        return aggregates.isEmpty();
+    }
+
+    /**
+     * Drop every item added so far, and start over.
+     *
+     * @return Dropped Item entities
+     */
+    public List<Item> drop() {
+        List<Item> items = new ArrayList<Item>();
+
+        for (Aggregate aggregate : aggregates.values()) {
+            McMMOItemBatchSpawnEvent event = new McMMOItemBatchSpawnEvent(aggregate.location, aggregate.toStacks());
+            mcMMO.p.getServer().getPluginManager().callEvent(event);
+
+            if (event.isCancelled()) {
+                continue;
+            }
+
+            Location location = event.getLocation();
+
+            for (ItemStack itemStack : event.getItemStacks()) {
+                if (itemStack == null || itemStack.getType() == Material.AIR) {
+                    continue;
+                }
+
+                items.add(location.getWorld().dropItem(location, itemStack));
+            }
+        }
+
+        aggregates.clear();
+        return items;
+    }
+
+    private static final class Aggregate {
+        private final Location location;
+        private final ItemStack kind;
+        private int amount;
+
+        private Aggregate(Location location, ItemStack kind) {
+            this.location = location;
+            this.kind = kind;
+        }
+
+        private List<ItemStack> toStacks() {
+            int maxStackSize = Math.max(1, kind.getMaxStackSize());
+            List<ItemStack> stacks = new ArrayList<ItemStack>(amount / maxStackSize + 1);
+
+            for (int left = amount; left > 0; left -= maxStackSize) {
+                ItemStack stack = kind.clone();
+                stack.setAmount(Math.min(left, maxStackSize));
+                stacks.add(stack);
+            }
+
+            return stacks;
+        }
+    }
+}
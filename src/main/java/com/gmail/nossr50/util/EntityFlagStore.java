@@ -0,0 +1,312 @@
+package com.gmail.nossr50.util;
+
+import com.gmail.nossr50.mcMMO;
+import org.bukkit.Chunk;
+import org.bukkit.NamespacedKey;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+
+import java.util.Collection;
+
+/**
+ * The flags mcMMO keeps on entities, as a bitmask per entity id.
+ * <p>
+ * Checking a flag is a single probe of a primitive hash map, where Bukkit
+ * metadata builds a string key and takes a lock for every lookup. Flags
+ * only live in the map as long as the entity is loaded: they are forgotten
+ * when it dies or its chunk unloads, and {@link #purge} sweeps out entities
+ * that went some other way. Persistent flags can also be kept in the
+ * {@link PersistentDataContainer} of the entity.
+ * <p>
+ * The first time an entity is seen, its flags are seeded from its
+ * persistent data and from the metadata mcMMO used to keep the spawned and
+ * bred flags in, which other plugins set, such as mob stackers marking the
+ * mobs of their spawners. Entities without flags are remembered as well,
+ * so after that the map is the only place an entity's flags are looked up.
+ * Seeding on first sight rather than on chunk load also covers servers
+ * where the entities of a chunk load after the chunk itself.
+ * <p>
+ * Only to be used from the main thread.
+ */
+public final class EntityFlagStore {
+    public enum Flag {
+        /** From a spawner, spawn egg or portal, or summoned or tamed, so it gives less experience */
+        SPAWNED(true, mcMMO.entityMetadataKey),
+        BRED(true, mcMMO.bredMetadataKey),
+        /** A firework of mcMMO's, which does no damage */
+        FUNFETTI(false, null),
+        /** Damaged by mcMMO, which no skill reacts to */
+        CUSTOM_DAMAGE(false, null);
+
+        private final int bit;
+        private final boolean persistent;
+        private final String metadataKey;
+
+        Flag(boolean persistent, String metadataKey) {
+            this.bit = 1 << ordinal();
+            this.persistent = persistent;
+            this.metadataKey = metadataKey;
+        }
+    }
+
+    private static final int INITIAL_CAPACITY = 1024;
+    // Set on every entity in the map, so one seeded without flags is not an empty slot
+    private static final int SEEDED = 1 << 31;
+
+    private final NamespacedKey persistenceKey;
+    private final int persistentFlags;
+
+    // Open addressing, a mask of 0 is an empty slot
+    private int[] ids = new int[INITIAL_CAPACITY];
+    private int[] masks = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * @param persistenceKey The key to keep persistent flags under in entities, or null to keep them in memory only
+     */
+    public EntityFlagStore(NamespacedKey persistenceKey) {
+        this.persistenceKey = persistenceKey;
+
+        int persistentFlags = 0;
+
+        for (Flag flag : Flag.values()) {
+            if (flag.persistent) {
+                persistentFlags |= flag.bit;
+            }
+        }
+
+        this.persistentFlags = persistentFlags;
+    }
+
+    public boolean has(Entity entity, Flag flag) {
+        return (getSeeded(entity) & flag.bit) != 0;
+    }
+
+    public void set(Entity entity, Flag flag) {
+        int mask = getSeeded(entity);
+
+        if ((mask & flag.bit) != 0) {
+            return;
+        }
+
+        put(entity.getEntityId(), mask | flag.bit);
+
+        if (flag.persistent) {
+            save(entity, mask | flag.bit);
+        }
+    }
+
+    /**
+     * @return true if the entity had the flag
+     */
+    public boolean remove(Entity entity, Flag flag) {
+        int mask = getSeeded(entity);
+
+        if ((mask & flag.bit) == 0) {
+            return false;
+        }
+
+        put(entity.getEntityId(), mask & ~flag.bit);
+
+        if (flag.persistent) {
+            save(entity, mask & ~flag.bit);
+        }
+
+        return true;
+    }
+
+    /**
+     * Forget the flags of an entity that is gone, such as one that died.
+     */
+    public void forget(Entity entity) {
+        delete(entity.getEntityId());
+    }
+
+    public void chunkUnloaded(Chunk chunk) {
+        for (Entity entity : chunk.getEntities()) {
+            delete(entity.getEntityId());
+        }
+    }
+
+    /**
+     * Forget the flags of every entity no longer in a world, such as
+     * mobs that despawned or fireworks that went off.
+     *
+     * @return The number of entities forgotten
+     */
+    public int purge(Collection<World> worlds) {
+        int[] oldIds = ids;
+        int[] oldMasks = masks;
+        int oldSize = size;
+
+        clear(capacityFor(oldSize));
+
+        for (World world : worlds) {
+            for (Entity entity : world.getEntities()) {
+                int mask = find(oldIds, oldMasks, entity.getEntityId());
+
+                if (mask != 0) {
+                    put(entity.getEntityId(), mask);
+                }
+            }
+        }
+
+        return oldSize - size;
+    }
+
+    /**
+     * @return The number of entities seen, with flags or without
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the flags of an entity, seeding them the first time it is seen.
+     */
+    private int getSeeded(Entity entity) {
+        int id = entity.getEntityId();
+        int mask = get(id);
+
+        if (mask != 0) {
+            return mask;
+        }
+
+        mask = SEEDED;
+
+        for (Flag flag : Flag.values()) {
+            // Set by another plugin, or by an older version of mcMMO
+            if (flag.metadataKey != null && entity.hasMetadata(flag.metadataKey)) {
+                mask |= flag.bit;
+            }
+        }
+
+        if (persistenceKey != null) {
+            Integer saved = entity.getPersistentDataContainer().get(persistenceKey, PersistentDataType.INTEGER);
+
+            if (saved != null) {
+                mask |= saved & persistentFlags;
+            }
+        }
+
+        put(id, mask);
+        return mask;
+    }
+
+    private void save(Entity entity, int mask) {
+        if (persistenceKey == null) {
+            return;
+        }
+
+        PersistentDataContainer container = entity.getPersistentDataContainer();
+
+        if ((mask & persistentFlags) == 0) {
+            container.remove(persistenceKey);
+        }
+        else {
+            container.set(persistenceKey, PersistentDataType.INTEGER, mask & persistentFlags);
+        }
+    }
+
+    private int get(int id) {
+        return find(ids, masks, id);
+    }
+
+    private static int find(int[] ids, int[] masks, int id) {
+        int last = ids.length - 1;
+
+        for (int i = slot(id, last); masks[i] != 0; i = (i + 1) & last) {
+            if (ids[i] == id) {
+                return masks[i];
+            }
+        }
+
+        return 0;
+    }
+
+    private void put(int id, int mask) {
+        int last = ids.length - 1;
+        int i = slot(id, last);
+
+        while (masks[i] != 0) {
+            if (ids[i] == id) {
+                masks[i] = mask;
+                return;
+            }
+
+            i = (i + 1) & last;
+        }
+
+        ids[i] = id;
+        masks[i] = mask;
+        size++;
+
+        // Keep the table at most half full
+        if (size * 2 > ids.length) {
+            rehash(ids.length * 2);
+        }
+    }
+
+    private void delete(int id) {
+        int last = ids.length - 1;
+        int i = slot(id, last);
+
+        while (ids[i] != id || masks[i] == 0) {
+            if (masks[i] == 0) {
+                return;
+            }
+
+            i = (i + 1) & last;
+        }
+
+        // Shift back the entries after it that would no longer be found past the gap
+        for (int j = (i + 1) & last; masks[j] != 0; j = (j + 1) & last) {
+            int home = slot(ids[j], last);
+
+            if (((j - home) & last) >= ((j - i) & last)) {
+                ids[i] = ids[j];
+                masks[i] = masks[j];
+                i = j;
+            }
+        }
+
+        masks[i] = 0;
+        size--;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldIds = ids;
+        int[] oldMasks = masks;
+
+        clear(capacity);
+
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldMasks[i] != 0) {
+                put(oldIds[i], oldMasks[i]);
+            }
+        }
+    }
+
+    private void clear(int capacity) {
+        ids = new int[capacity];
+        masks = new int[capacity];
+        size = 0;
+    }
+
+    private static int capacityFor(int size) {
+        int capacity = INITIAL_CAPACITY;
+
+        while (capacity < size * 2) {
+            capacity *= 2;
+        }
+
+        return capacity;
+    }
+
+    private static int slot(int id, int last) {
+        int hash = id * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & last;
+    }
+}
@@ -65,16 +65,16 @@ public final class Misc {
     }
 
     /**
-     * Drop items at a given location.
+     * Drop items at a given location, merged into as few stacks as possible.
      *
      * @param location The location to drop the items at
      * @param is The items to drop
      * @param quantity The amount of items to drop
      */
     public static void dropItems(Location location, ItemStack is, int quantity) {
-        for (int i = 0; i < quantity; i++) {
-            dropItem(location, is);
-        }
+        DropAggregator drops = new DropAggregator();
+        drops.add(location, is, quantity);
+        drops.drop();
     }
 
     /**
@@ -140,6 +140,10 @@ public class ModManager {
         return Config.getInstance().getBlockModsEnabled() && customLogs.contains(state.getType());
     }
 
+    public boolean isCustomLog(Material material) {
+        return Config.getInstance().getBlockModsEnabled() && customLogs.contains(material);
+    }
+
     public boolean isCustomLeaf(BlockState state) {
         return Config.getInstance().getBlockModsEnabled() && customLeaves.contains(state.getType());
     }
@@ -0,0 +1,402 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import com.gmail.nossr50.mcMMO;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A {@link ChunkManager} that keeps region file access off the main thread.
+ * <p>
+ * The chunk store of a chunk is read in the background as soon as the chunk
+ * loads, so by the time a block in it is looked up the store is usually in
+ * memory already. A lookup that comes first waits for the read. When a chunk
+ * unloads, a changed store is copied on the main thread and the copy is
+ * compressed and written in the background.
+ * <p>
+ * Every read, write and close of a region file runs on a single thread in
+ * the order it was queued, so a chunk that loads again right after
+ * unloading always reads back what it last wrote.
+ */
+public class AsyncChunkManager implements ChunkManager {
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(new IOThreadFactory());
+    private final RegionFile.Factory regionFactory;
+
+    // Only used on the io thread
+    private final HashMap<CoordinateKey, RegionFile> regionMap = new HashMap<>(); // Tracks open regions
+    private final HashSet<CoordinateKey> missingRegions = new HashSet<>(); // Regions known to have no file yet
+
+    // Guarded by this
+    private final ChunkIndex<Future<ChunkStore>> chunkMap = new ChunkIndex<>(); // Tracks loaded and loading chunks, completing with null if the chunk has no store
+    private final HashMap<CoordinateKey, Integer> chunkUsageMap = new HashMap<>(); // Tracks the number of chunks in chunkMap by region
+
+    public AsyncChunkManager() {
+        this(McMMOSimpleRegionFile::new);
+    }
+
+    public AsyncChunkManager(RegionFile.Factory regionFactory) {
+        this.regionFactory = regionFactory;
+    }
+
+    @Override
+    public synchronized void chunkLoaded(int cx, int cz, World world, boolean newChunk) {
+        if (chunkMap.containsKey(world.getUID(), cx, cz))
+            return;
+
+        // Freshly generated terrain can't have placed blocks, skip reading it
+        if (newChunk)
+            addChunk(world.getUID(), cx, cz, CompletableFuture.completedFuture(null));
+        else
+            addChunk(world.getUID(), cx, cz, queueRead(world, cx, cz));
+    }
+
+    @Override
+    public synchronized void chunkUnloaded(int cx, int cz, World world) {
+        Future<ChunkStore> future = chunkMap.remove(world.getUID(), cx, cz);
+
+        if (future == null)
+            return;
+
+        // A store that is still being read was never handed out, so it can't have changed
+        if (future.isDone()) {
+            ChunkStore chunkStore = getResult(future);
+
+            if (chunkStore != null && chunkStore.isDirty())
+                queueWrite(world, chunkStore);
+        }
+
+        CoordinateKey regionKey = HashChunkManager.toRegionKey(world.getUID(), cx, cz);
+        int usage = chunkUsageMap.get(regionKey) - 1;
+
+        if (usage > 0) {
+            chunkUsageMap.put(regionKey, usage);
+            return;
+        }
+
+        // Last chunk of the region, close the region file once its writes are done
+        chunkUsageMap.remove(regionKey);
+        ioExecutor.execute(() -> closeRegion(regionKey));
+    }
+
+    @Override
+    public synchronized void unloadWorld(World world) {
+        UUID wID = world.getUID();
+
+        for (Future<ChunkStore> future : chunkMap.removeWorld(wID)) {
+            if (!future.isDone())
+                continue;
+
+            ChunkStore chunkStore = getResult(future);
+
+            if (chunkStore != null && chunkStore.isDirty())
+                queueWrite(world, chunkStore);
+        }
+
+        chunkUsageMap.keySet().removeIf(regionKey -> wID.equals(regionKey.worldID));
+
+        // The world folder may go away after this, so wait for its files to be written and closed
+        awaitIO(ioExecutor.submit(() -> {
+            closeRegions(wID);
+            missingRegions.removeIf(regionKey -> wID.equals(regionKey.worldID));
+        }));
+    }
+
+    @Override
+    public synchronized void closeAll() {
+        // Save all dirty chunkstores
+        for (Future<ChunkStore> future : chunkMap.values()) {
+            if (!future.isDone())
+                continue;
+
+            ChunkStore chunkStore = getResult(future);
+
+            if (chunkStore == null || !chunkStore.isDirty())
+                continue;
+
+            World world = Bukkit.getWorld(chunkStore.getWorldId());
+
+            if (world == null)
+                continue; // Oh well
+
+            queueWrite(world, chunkStore);
+        }
+
+        // Clear in memory chunks
+        chunkMap.clear();
+        chunkUsageMap.clear();
+
+        // Close all region files after the last writes, then wait for them
+        ioExecutor.execute(() -> closeRegions(null));
+        ioExecutor.shutdown();
+
+        try {
+            if (!ioExecutor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS))
+                mcMMO.p.getLogger().severe("Timed out saving placed block data, some of it may be lost");
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public synchronized boolean isTrue(Block block) {
+        return isTrue(block.getX(), block.getY(), block.getZ(), block.getWorld());
+    }
+
+    @Override
+    public synchronized boolean isTrue(BlockState blockState) {
+        return isTrue(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld());
+    }
+
+    @Override
+    public synchronized void setTrue(Block block) {
+        set(block.getX(), block.getY(), block.getZ(), block.getWorld(), true);
+    }
+
+    @Override
+    public synchronized void setTrue(BlockState blockState) {
+        set(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld(), true);
+    }
+
+    @Override
+    public synchronized void setFalse(Block block) {
+        set(block.getX(), block.getY(), block.getZ(), block.getWorld(), false);
+    }
+
+    @Override
+    public synchronized void setFalse(BlockState blockState) {
+        set(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld(), false);
+    }
+
+    private synchronized boolean isTrue(int x, int y, int z, World world) {
+        ChunkStore check = getChunkStore(world, x >> 4, z >> 4);
+
+        // No chunk, return false
+        if (check == null)
+            return false;
+
+        int ix = Math.abs(x) % 16;
+        int iz = Math.abs(z) % 16;
+
+        return check.isTrue(ix, y, iz);
+    }
+
+    @Override
+    public synchronized BitSet isTrue(List<Block> blocks) {
+        return BlockBatch.ofBlocks(blocks).isTrue(this::getChunkStore);
+    }
+
+    @Override
+    public synchronized BitSet isTrueStates(List<BlockState> blockStates) {
+        return BlockBatch.ofStates(blockStates).isTrue(this::getChunkStore);
+    }
+
+    @Override
+    public synchronized void set(Collection<Block> blocks, boolean value) {
+        BlockBatch.ofBlocks(blocks).set(null, value, this::getChunkStore);
+    }
+
+    @Override
+    public synchronized void setStates(Collection<BlockState> blockStates, boolean value) {
+        BlockBatch.ofStates(blockStates).set(null, value, this::getChunkStore);
+    }
+
+    @Override
+    public synchronized void move(Collection<Block> blocks, BlockFace direction) {
+        BlockBatch.ofBlocks(blocks).move(direction, this::getChunkStore);
+    }
+
+    private synchronized void set(int x, int y, int z, World world, boolean value) {
+        // If setting to false, no need to create an empty chunkstore
+        ChunkStore cStore = getChunkStore(world, x >> 4, z >> 4, value);
+
+        if (cStore == null)
+            return;
+
+        // Get block offset (offset from chunk corner)
+        int ix = Math.abs(x) % 16;
+        int iz = Math.abs(z) % 16;
+
+        // Set chunk store value
+        cStore.set(ix, y, iz, value);
+    }
+
+    /**
+     * Get the store of a chunk, waiting for it to be read if it is not in
+     * memory yet.
+     *
+     * @return the chunk store, or null if the chunk has none
+     */
+    private ChunkStore getChunkStore(World world, int cx, int cz) {
+        UUID worldId = world.getUID();
+        Future<ChunkStore> future = chunkMap.get(worldId, cx, cz);
+
+        // Not prefetched, e.g. loaded before mcMMO was enabled
+        if (future == null) {
+            future = queueRead(world, cx, cz);
+            addChunk(worldId, cx, cz, future);
+        }
+
+        return getResult(future);
+    }
+
+    private ChunkStore getChunkStore(World world, int cx, int cz, boolean create) {
+        ChunkStore cStore = getChunkStore(world, cx, cz);
+
+        if (cStore != null || !create)
+            return cStore;
+
+        cStore = new SparseChunkStore(world, cx, cz);
+        chunkMap.put(world.getUID(), cx, cz, CompletableFuture.completedFuture(cStore));
+        return cStore;
+    }
+
+    private void addChunk(UUID worldId, int cx, int cz, Future<ChunkStore> future) {
+        chunkMap.put(worldId, cx, cz, future);
+        chunkUsageMap.merge(HashChunkManager.toRegionKey(worldId, cx, cz), 1, Integer::sum);
+    }
+
+    private Future<ChunkStore> queueRead(World world, int cx, int cz) {
+        CoordinateKey regionKey = HashChunkManager.toRegionKey(world.getUID(), cx, cz);
+        File regionFile = HashChunkManager.getRegionFile(world, regionKey);
+
+        return ioExecutor.submit(() -> readChunkStore(regionKey, regionFile, cx, cz));
+    }
+
+    private void queueWrite(World world, ChunkStore chunkStore) {
+        int cx = chunkStore.getChunkX();
+        int cz = chunkStore.getChunkZ();
+        byte[] data;
+
+        // Copy the store while it can't change, the io thread does the costly part
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            BitSetChunkStore.Serialization.writeChunkStore(new DataOutputStream(buffer), chunkStore);
+            data = buffer.toByteArray();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Unable to write chunk meta data for " + cx + ", " + cz, e);
+        }
+
+        chunkStore.setDirty(false);
+
+        CoordinateKey regionKey = HashChunkManager.toRegionKey(world.getUID(), cx, cz);
+        File regionFile = HashChunkManager.getRegionFile(world, regionKey);
+
+        ioExecutor.execute(() -> writeChunkStore(regionKey, regionFile, cx, cz, data));
+    }
+
+    private ChunkStore getResult(Future<ChunkStore> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ignored) {}
+
+        return null;
+    }
+
+    private void awaitIO(Future<?> future) {
+        try {
+            future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            mcMMO.p.getLogger().warning("Unable to close placed block data: " + e.getCause());
+        }
+    }
+
+    /*
+     * Everything below runs on the io thread
+     */
+
+    private ChunkStore readChunkStore(CoordinateKey regionKey, File regionFile, int cx, int cz) {
+        RegionFile rf = getRegion(regionKey, regionFile, false);
+
+        if (rf == null)
+            return null; // If there is no region file, there can't be a chunk
+
+        try (DataInputStream in = rf.getInputStream(cx, cz)) { // Get input stream for chunk
+            if (in == null)
+                return null; // No chunk
+            return BitSetChunkStore.Serialization.readChunkStore(in); // Read in the chunkstore
+        }
+        catch (Exception ignored) {}
+
+        return null;
+    }
+
+    private void writeChunkStore(CoordinateKey regionKey, File regionFile, int cx, int cz, byte[] data) {
+        try {
+            RegionFile rf = getRegion(regionKey, regionFile, true);
+
+            try (DataOutputStream out = rf.getOutputStream(cx, cz)) {
+                out.write(data);
+            }
+        }
+        catch (Exception e) {
+            mcMMO.p.getLogger().warning("Unable to write chunk meta data for " + cx + ", " + cz + ": " + e);
+        }
+    }
+
+    private RegionFile getRegion(CoordinateKey regionKey, File regionFile, boolean create) {
+        RegionFile rf = regionMap.get(regionKey);
+
+        if (rf != null)
+            return rf;
+
+        if (!create && (missingRegions.contains(regionKey) || !regionFile.exists())) {
+            missingRegions.add(regionKey); // Don't create the file on read-only operations
+            return null;
+        }
+
+        missingRegions.remove(regionKey);
+        regionFile.getParentFile().mkdirs();
+        rf = regionFactory.open(regionFile, regionKey.x, regionKey.z);
+        regionMap.put(regionKey, rf);
+        return rf;
+    }
+
+    private void closeRegion(CoordinateKey regionKey) {
+        RegionFile rf = regionMap.remove(regionKey);
+
+        if (rf != null)
+            rf.close();
+    }
+
+    /**
+     * @param worldId The world to close the regions of, or null for all worlds
+     */
+    private void closeRegions(UUID worldId) {
+        for (Iterator<Map.Entry<CoordinateKey, RegionFile>> iterator = regionMap.entrySet().iterator(); iterator.hasNext();) {
+            Map.Entry<CoordinateKey, RegionFile> entry = iterator.next();
+
+            if (worldId != null && !worldId.equals(entry.getKey().worldID))
+                continue;
+
+            iterator.remove();
+            entry.getValue().close();
+        }
+    }
+
+    private static final class IOThreadFactory implements ThreadFactory {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mcMMO Block Tracker IO");
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
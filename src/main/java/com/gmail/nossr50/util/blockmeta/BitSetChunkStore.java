@@ -108,7 +108,11 @@ public class BitSetChunkStore implements ChunkStore {
         return (z * 16 + x) + (256 * (y + yOffset));
     }
 
-    private static int getWorldMin(UUID worldUid, int storedWorldMin)
+    long[] toLongArray() {
+        return store.toLongArray();
+    }
+
+    static int getWorldMin(UUID worldUid, int storedWorldMin)
     {
         World world = Bukkit.getWorld(worldUid);
 
@@ -119,7 +123,7 @@ public class BitSetChunkStore implements ChunkStore {
         return CompatManager.getWorldMinCompat(world);
     }
 
-    private static int getWorldMax(UUID worldUid, int storedWorldMax)
+    static int getWorldMax(UUID worldUid, int storedWorldMax)
     {
         World world = Bukkit.getWorld(worldUid);
 
@@ -221,18 +225,28 @@ public class BitSetChunkStore implements ChunkStore {
                     pushbackInputStream.unread((magicNumber >>> 8) & 0xFF);
                     inputStream = new DataInputStream(pushbackInputStream);
                 }
-                return new LegacyDeserializationInputStream(inputStream).readLegacyChunkStore();
+                BitSetChunkStore legacy = new LegacyDeserializationInputStream(inputStream).readLegacyChunkStore();
+                return legacy == null ? null : SparseChunkStore.copyOf(legacy);
             }
             else if (magicNumber == STREAM_MAGIC) // Pure bytes format
             {
-                return BitSetChunkStore.deserialize(inputStream);
+                return SparseChunkStore.copyOf(BitSetChunkStore.deserialize(inputStream));
+            }
+            else if (magicNumber == SparseChunkStore.STREAM_MAGIC) // Sectioned format
+            {
+                return SparseChunkStore.deserialize(inputStream);
             }
             throw new IOException("Bad Data Format");
         }
 
         public static void writeChunkStore(DataOutputStream outputStream, ChunkStore chunkStore) throws IOException {
+            if (chunkStore instanceof SparseChunkStore) {
+                outputStream.writeShort(SparseChunkStore.STREAM_MAGIC);
+                ((SparseChunkStore)chunkStore).serialize(outputStream);
+                return;
+            }
             if (!(chunkStore instanceof BitSetChunkStore))
-                throw new InvalidClassException("ChunkStore must be instance of BitSetChunkStore");
+                throw new InvalidClassException("ChunkStore must be instance of BitSetChunkStore or SparseChunkStore");
             outputStream.writeShort(STREAM_MAGIC);
             ((BitSetChunkStore)chunkStore).serialize(outputStream);
         }
@@ -306,7 +320,7 @@ public class BitSetChunkStore implements ChunkStore {
                 return read;
             }
 
-            public ChunkStore readLegacyChunkStore(){
+            public BitSetChunkStore readLegacyChunkStore(){
                 try {
                     LegacyChunkStoreDeserializer deserializer = (LegacyChunkStoreDeserializer)readObject();
                     return deserializer.convert();
@@ -0,0 +1,268 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+
+/**
+ * The coordinates of a collection of blocks, ordered so that the blocks of
+ * each region, and of each chunk within it, come one after another.
+ * <p>
+ * Bulk operations walk the blocks in that order and resolve every chunk
+ * once, instead of once per block. Positions in results and masks are the
+ * positions of the blocks in the collection the batch was made from.
+ */
+final class BlockBatch {
+    private final World[] worlds;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] zs;
+    private final int[] order; // Positions of the blocks, grouped by region then chunk
+
+    /**
+     * Resolves the store of a chunk for a bulk operation.
+     */
+    interface ChunkResolver {
+        /**
+         * @param create whether to create a store if the chunk has none
+         * @return the chunk store, or null if the chunk has none and create is false
+         */
+        ChunkStore getChunkStore(World world, int cx, int cz, boolean create);
+    }
+
+    private BlockBatch(World[] worlds, int[] xs, int[] ys, int[] zs) {
+        this.worlds = worlds;
+        this.xs = xs;
+        this.ys = ys;
+        this.zs = zs;
+        this.order = sortByChunk();
+    }
+
+    static BlockBatch ofBlocks(Collection<Block> blocks) {
+        int size = blocks.size();
+        World[] worlds = new World[size];
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        int[] zs = new int[size];
+        int i = 0;
+
+        for (Block block : blocks) {
+            worlds[i] = block.getWorld();
+            xs[i] = block.getX();
+            ys[i] = block.getY();
+            zs[i] = block.getZ();
+            i++;
+        }
+
+        return new BlockBatch(worlds, xs, ys, zs);
+    }
+
+    static BlockBatch ofStates(Collection<BlockState> blockStates) {
+        int size = blockStates.size();
+        World[] worlds = new World[size];
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        int[] zs = new int[size];
+        int i = 0;
+
+        for (BlockState blockState : blockStates) {
+            worlds[i] = blockState.getWorld();
+            xs[i] = blockState.getX();
+            ys[i] = blockState.getY();
+            zs[i] = blockState.getZ();
+            i++;
+        }
+
+        return new BlockBatch(worlds, xs, ys, zs);
+    }
+
+    /**
+     * The same blocks, one step in a direction.
+     */
+    BlockBatch offset(BlockFace direction) {
+        int size = size();
+        int[] xs = new int[size];
+        int[] ys = new int[size];
+        int[] zs = new int[size];
+
+        for (int i = 0; i < size; i++) {
+            xs[i] = this.xs[i] + direction.getModX();
+            ys[i] = this.ys[i] + direction.getModY();
+            zs[i] = this.zs[i] + direction.getModZ();
+        }
+
+        return new BlockBatch(worlds, xs, ys, zs);
+    }
+
+    int size() {
+        return order.length;
+    }
+
+    /**
+     * The world and chunk of the block at a position in the walk order.
+     */
+    World getWorld(int start) {
+        return worlds[order[start]];
+    }
+
+    int getChunkX(int start) {
+        return xs[order[start]] >> 4;
+    }
+
+    int getChunkZ(int start) {
+        return zs[order[start]] >> 4;
+    }
+
+    /**
+     * @return the end of the run of blocks in the same region as the block at start, in walk order
+     */
+    int regionRunEnd(int start) {
+        int first = order[start];
+        int end = start + 1;
+
+        while (end < order.length && sameRegion(first, order[end]))
+            end++;
+
+        return end;
+    }
+
+    /**
+     * Set every block, or only the blocks in a mask.
+     *
+     * @param mask positions of the blocks to set, or null for all of them
+     */
+    void set(BitSet mask, boolean value, ChunkResolver resolver) {
+        set(0, size(), mask, value, resolver);
+    }
+
+    /**
+     * Set the blocks of part of the walk order.
+     */
+    void set(int from, int to, BitSet mask, boolean value, ChunkResolver resolver) {
+        int start = from;
+
+        while (start < to) {
+            int end = chunkRunEnd(start, to);
+            ChunkStore chunkStore = null;
+            boolean resolved = false;
+
+            for (int k = start; k < end; k++) {
+                int i = order[k];
+
+                if (mask != null && !mask.get(i))
+                    continue;
+
+                // Skip chunks the mask leaves out entirely
+                if (!resolved) {
+                    chunkStore = resolver.getChunkStore(worlds[i], xs[i] >> 4, zs[i] >> 4, value);
+                    resolved = true;
+                }
+
+                // If setting to false, no need to create an empty chunkstore
+                if (chunkStore == null)
+                    break;
+
+                chunkStore.set(Math.abs(xs[i]) % 16, ys[i], Math.abs(zs[i]) % 16, value);
+            }
+
+            start = end;
+        }
+    }
+
+    BitSet isTrue(ChunkResolver resolver) {
+        BitSet result = new BitSet(size());
+        isTrue(0, size(), result, resolver);
+        return result;
+    }
+
+    /**
+     * Look up the blocks of part of the walk order, setting the positions
+     * of those that are true.
+     */
+    void isTrue(int from, int to, BitSet result, ChunkResolver resolver) {
+        int start = from;
+
+        while (start < to) {
+            int end = chunkRunEnd(start, to);
+            int first = order[start];
+            ChunkStore chunkStore = resolver.getChunkStore(worlds[first], xs[first] >> 4, zs[first] >> 4, false);
+
+            if (chunkStore != null) {
+                for (int k = start; k < end; k++) {
+                    int i = order[k];
+
+                    if (chunkStore.isTrue(Math.abs(xs[i]) % 16, ys[i], Math.abs(zs[i]) % 16))
+                        result.set(i);
+                }
+            }
+
+            start = end;
+        }
+    }
+
+    /**
+     * Move the blocks one step in a direction, as a piston does. All of them
+     * are lifted before any is put down, so a row of blocks can move into
+     * its own positions, and whatever was tracked where they land is
+     * replaced.
+     */
+    void move(BlockFace direction, ChunkResolver resolver) {
+        BitSet tracked = isTrue(resolver);
+        BlockBatch moved = offset(direction);
+
+        set(null, false, resolver);
+        moved.set(null, false, resolver);
+        moved.set(tracked, true, resolver);
+    }
+
+    private int chunkRunEnd(int start, int to) {
+        int first = order[start];
+        int end = start + 1;
+
+        while (end < to && sameChunk(first, order[end]))
+            end++;
+
+        return end;
+    }
+
+    private boolean sameChunk(int a, int b) {
+        return xs[a] >> 4 == xs[b] >> 4 && zs[a] >> 4 == zs[b] >> 4 && worlds[a].getUID().equals(worlds[b].getUID());
+    }
+
+    private boolean sameRegion(int a, int b) {
+        return xs[a] >> 9 == xs[b] >> 9 && zs[a] >> 9 == zs[b] >> 9 && worlds[a].getUID().equals(worlds[b].getUID());
+    }
+
+    private int[] sortByChunk() {
+        int size = xs.length;
+        int[] order = new int[size];
+
+        if (size == 0)
+            return order;
+
+        // Sort keys of region, then chunk within the region, then position, relative to the first block
+        int rx0 = xs[0] >> 9;
+        int rz0 = zs[0] >> 9;
+        long[] keys = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            long regionX = ((xs[i] >> 9) - rx0) & 0xFFF;
+            long regionZ = ((zs[i] >> 9) - rz0) & 0xFFF;
+            long chunk = ((xs[i] >> 4) & 0x1F) << 5 | ((zs[i] >> 4) & 0x1F);
+            keys[i] = regionX << 52 | regionZ << 40 | chunk << 30 | i;
+        }
+
+        // Batches too far apart to fit the key still come out right, in more runs
+        Arrays.sort(keys);
+
+        for (int i = 0; i < size; i++)
+            order[i] = (int) (keys[i] & 0x3FFFFFFF);
+
+        return order;
+    }
+}
@@ -0,0 +1,187 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * The chunks of every world, with a {@link LongChunkMap} per world.
+ * <p>
+ * Block lookups come in runs within the same chunk, so the last chunk looked
+ * up is remembered and a repeated lookup costs a few comparisons. Values may
+ * be null, for chunks known to have nothing stored. Not thread safe.
+ * <p>
+ * Each chunk is stamped when it is put and when a lookup reaches it, so the
+ * chunks used least recently can be found. A repeated lookup of the last
+ * chunk skips the stamp, but no other chunk can have been used since.
+ */
+final class ChunkIndex<V> {
+    private final HashMap<UUID, LongChunkMap<V>> worldMaps = new HashMap<>();
+    private long clock; // Stamp of the last chunk used
+
+    // Last world looked up
+    private UUID lastWorldId;
+    private LongChunkMap<V> lastWorldMap;
+
+    // Last chunk looked up, in the last world
+    private boolean lastChunkValid;
+    private int lastChunkX;
+    private int lastChunkZ;
+    private boolean lastChunkPresent;
+    private V lastChunkValue;
+
+    /**
+     * Check if a chunk is in the index, possibly with a null value. A
+     * following {@link #get(UUID, int, int)} of the same chunk is free.
+     */
+    boolean containsKey(UUID worldId, int cx, int cz) {
+        lookup(worldId, cx, cz);
+        return lastChunkPresent;
+    }
+
+    V get(UUID worldId, int cx, int cz) {
+        lookup(worldId, cx, cz);
+        return lastChunkValue;
+    }
+
+    void put(UUID worldId, int cx, int cz, V value) {
+        LongChunkMap<V> worldMap = getWorldMap(worldId);
+
+        if (worldMap == null) {
+            worldMap = new LongChunkMap<>();
+            worldMaps.put(worldId, worldMap);
+            lastWorldMap = worldMap;
+        }
+
+        worldMap.put(cx, cz, value);
+        worldMap.touch(worldMap.indexOf(cx, cz), ++clock);
+        lastChunkValid = false;
+    }
+
+    V remove(UUID worldId, int cx, int cz) {
+        LongChunkMap<V> worldMap = getWorldMap(worldId);
+
+        if (worldMap == null)
+            return null;
+
+        lastChunkValid = false;
+        return worldMap.remove(cx, cz);
+    }
+
+    /**
+     * Remove every chunk of a world.
+     *
+     * @return the non-null values that were removed
+     */
+    List<V> removeWorld(UUID worldId) {
+        LongChunkMap<V> worldMap = worldMaps.remove(worldId);
+        invalidate();
+        return worldMap == null ? new ArrayList<>() : worldMap.values();
+    }
+
+    /**
+     * Copy out every non-null value.
+     */
+    List<V> values() {
+        List<V> values = new ArrayList<>();
+
+        for (LongChunkMap<V> worldMap : worldMaps.values())
+            values.addAll(worldMap.values());
+
+        return values;
+    }
+
+    /**
+     * Find the chunks used least recently, in no particular order.
+     *
+     * @param count the number of chunks to find
+     */
+    List<CoordinateKey> leastRecentlyUsed(int count) {
+        List<CoordinateKey> chunks = new ArrayList<>();
+
+        if (count <= 0)
+            return chunks;
+
+        // Every stamp is different, so the count oldest are those up to the count-th smallest
+        long[] stamps = new long[size()];
+        int i = 0;
+
+        for (LongChunkMap<V> worldMap : worldMaps.values()) {
+            for (int index = 0; index < worldMap.capacity(); index++) {
+                if (worldMap.isUsed(index))
+                    stamps[i++] = worldMap.stampAt(index);
+            }
+        }
+
+        if (count >= stamps.length)
+            count = stamps.length;
+
+        if (count == 0)
+            return chunks;
+
+        Arrays.sort(stamps);
+        long oldest = stamps[count - 1];
+
+        for (Map.Entry<UUID, LongChunkMap<V>> entry : worldMaps.entrySet()) {
+            LongChunkMap<V> worldMap = entry.getValue();
+
+            for (int index = 0; index < worldMap.capacity(); index++) {
+                if (worldMap.isUsed(index) && worldMap.stampAt(index) <= oldest)
+                    chunks.add(new CoordinateKey(entry.getKey(), worldMap.chunkXAt(index), worldMap.chunkZAt(index)));
+            }
+        }
+
+        return chunks;
+    }
+
+    int size() {
+        int size = 0;
+
+        for (LongChunkMap<V> worldMap : worldMaps.values())
+            size += worldMap.size();
+
+        return size;
+    }
+
+    void clear() {
+        worldMaps.clear();
+        invalidate();
+    }
+
+    private void lookup(UUID worldId, int cx, int cz) {
+        if (lastChunkValid && cx == lastChunkX && cz == lastChunkZ && worldId.equals(lastWorldId))
+            return;
+
+        LongChunkMap<V> worldMap = getWorldMap(worldId);
+        int index = worldMap == null ? -1 : worldMap.indexOf(cx, cz);
+
+        lastChunkValid = true;
+        lastChunkX = cx;
+        lastChunkZ = cz;
+        lastChunkPresent = index >= 0;
+        lastChunkValue = index >= 0 ? worldMap.valueAt(index) : null;
+
+        if (index >= 0)
+            worldMap.touch(index, ++clock);
+    }
+
+    private LongChunkMap<V> getWorldMap(UUID worldId) {
+        if (worldId.equals(lastWorldId))
+            return lastWorldMap;
+
+        lastWorldId = worldId;
+        lastWorldMap = worldMaps.get(worldId);
+        lastChunkValid = false;
+        return lastWorldMap;
+    }
+
+    private void invalidate() {
+        lastWorldId = null;
+        lastWorldMap = null;
+        lastChunkValid = false;
+        lastChunkValue = null;
+    }
+}
@@ -2,8 +2,29 @@ package com.gmail.nossr50.util.blockmeta;
 
 import org.bukkit.World;
 
+import java.io.IOException;
+import java.util.UUID;
+
 public interface ChunkManager extends UserBlockTracker {
     void closeAll();
+    void chunkLoaded(int cx, int cz, World world, boolean newChunk);
     void chunkUnloaded(int cx, int cz, World world);
     void unloadWorld(World world);
+
+    /**
+     * @return how the manager is using memory and region files, or null if it keeps no statistics
+     */
+    default ChunkStoreStatistics getStatistics() {
+        return null;
+    }
+
+    /**
+     * Run an action on the file of a region while the manager keeps it
+     * closed. The manager opens it again the next time it is needed.
+     *
+     * @return false if the manager cannot close its region files on demand, and the action was not run
+     */
+    default boolean whileRegionClosed(UUID worldId, int rx, int rz, RegionCompactor.IOAction action) throws IOException {
+        return false;
+    }
 }
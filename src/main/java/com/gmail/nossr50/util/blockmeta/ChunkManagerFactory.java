@@ -1,5 +1,6 @@
 package com.gmail.nossr50.util.blockmeta;
 
+import com.gmail.nossr50.config.Config;
 import com.gmail.nossr50.config.HiddenConfig;
 
 public class ChunkManagerFactory {
@@ -7,7 +8,17 @@ public class ChunkManagerFactory {
         HiddenConfig hConfig = HiddenConfig.getInstance();
 
         if (hConfig.getChunkletsEnabled()) {
-            return new HashChunkManager();
+            RegionFile.Factory regionFactory = Config.getInstance().getBlockTrackingNIORegionFiles() ? NIORegionFile::new : McMMOSimpleRegionFile::new;
+
+            if (Config.getInstance().getBlockTrackingConcurrentAccess()) {
+                return new ConcurrentChunkManager(regionFactory);
+            }
+
+            if (Config.getInstance().getBlockTrackingAsyncIO()) {
+                return new AsyncChunkManager(regionFactory);
+            }
+
+            return new HashChunkManager(regionFactory, Config.getInstance().getBlockTrackingMaxResidentChunks());
         }
 
         return new NullChunkManager();
@@ -0,0 +1,85 @@
+package com.gmail.nossr50.util.blockmeta;
+
+/**
+ * A snapshot of how a {@link ChunkManager} is using memory and region files,
+ * for sizing its budget.
+ */
+public final class ChunkStoreStatistics {
+    private final int residentChunks;
+    private final int maxResidentChunks;
+    private final int openRegionFiles;
+    private final long hits;
+    private final long misses;
+    private final long evictions;
+    private final long bytesWritten;
+
+    ChunkStoreStatistics(int residentChunks, int maxResidentChunks, int openRegionFiles, long hits, long misses, long evictions, long bytesWritten) {
+        this.residentChunks = residentChunks;
+        this.maxResidentChunks = maxResidentChunks;
+        this.openRegionFiles = openRegionFiles;
+        this.hits = hits;
+        this.misses = misses;
+        this.evictions = evictions;
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * @return the chunks held in memory, including chunks known to have no placed blocks
+     */
+    public int getResidentChunks() {
+        return residentChunks;
+    }
+
+    /**
+     * @return the most chunks held in memory before the least recently used are evicted, or 0 for no limit
+     */
+    public int getMaxResidentChunks() {
+        return maxResidentChunks;
+    }
+
+    public int getOpenRegionFiles() {
+        return openRegionFiles;
+    }
+
+    /**
+     * @return the lookups of a chunk already in memory
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the lookups of a chunk that had to be read from its region file
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the chunks dropped from memory to stay within the budget
+     */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * @return the bytes of chunk data written to region files, before compression
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return "resident chunks " + residentChunks + (maxResidentChunks > 0 ? "/" + maxResidentChunks : "")
+                + ", open region files " + openRegionFiles
+                + ", hit ratio " + String.format("%.3f", getHitRatio()) + " (" + hits + " hits, " + misses + " misses)"
+                + ", evictions " + evictions
+                + ", bytes written " + bytesWritten;
+    }
+}
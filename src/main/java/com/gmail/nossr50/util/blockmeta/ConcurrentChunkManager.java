@@ -0,0 +1,445 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * A {@link ChunkManager} that any thread may query and update.
+ * <p>
+ * Chunks are grouped by region, and each region has its own lock and
+ * region file. Looking up a block of a chunk that is already in memory takes
+ * no lock at all: it reads optimistically and only retries under the lock if
+ * a write to the same region raced with it. Reading a chunk from disk,
+ * changing a block and saving take the write lock of that region only, so
+ * threads working in different regions never wait on each other.
+ */
+public class ConcurrentChunkManager implements ChunkManager {
+    private static final int REGION_CHUNKS = 32 * 32;
+
+    private final RegionFile.Factory regionFactory;
+    private final ConcurrentHashMap<UUID, ConcurrentHashMap<Long, Region>> worlds = new ConcurrentHashMap<>();
+
+    public ConcurrentChunkManager() {
+        this(McMMOSimpleRegionFile::new);
+    }
+
+    public ConcurrentChunkManager(RegionFile.Factory regionFactory) {
+        this.regionFactory = regionFactory;
+    }
+
+    @Override
+    public void closeAll() {
+        for (ConcurrentHashMap<Long, Region> regions : worlds.values())
+            closeRegions(regions);
+    }
+
+    @Override
+    public void chunkLoaded(int cx, int cz, World world, boolean newChunk) {
+        // Chunks are loaded when first used
+    }
+
+    @Override
+    public void chunkUnloaded(int cx, int cz, World world) {
+        ConcurrentHashMap<Long, Region> regions = worlds.get(world.getUID());
+
+        if (regions == null)
+            return;
+
+        long regionKey = LongChunkMap.toKey(cx >> 5, cz >> 5);
+        Region region = regions.get(regionKey);
+
+        if (region == null)
+            return;
+
+        // Close the region along with its last chunk
+        if (region.unloadChunk(toChunkIndex(cx, cz)))
+            regions.remove(regionKey, region);
+    }
+
+    @Override
+    public void unloadWorld(World world) {
+        ConcurrentHashMap<Long, Region> regions = worlds.get(world.getUID());
+
+        if (regions != null)
+            closeRegions(regions);
+    }
+
+    @Override
+    public boolean isTrue(Block block) {
+        return isTrue(block.getX(), block.getY(), block.getZ(), block.getWorld());
+    }
+
+    @Override
+    public boolean isTrue(BlockState blockState) {
+        return isTrue(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld());
+    }
+
+    @Override
+    public void setTrue(Block block) {
+        set(block.getX(), block.getY(), block.getZ(), block.getWorld(), true);
+    }
+
+    @Override
+    public void setTrue(BlockState blockState) {
+        set(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld(), true);
+    }
+
+    @Override
+    public void setFalse(Block block) {
+        set(block.getX(), block.getY(), block.getZ(), block.getWorld(), false);
+    }
+
+    @Override
+    public void setFalse(BlockState blockState) {
+        set(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld(), false);
+    }
+
+    @Override
+    public BitSet isTrue(List<Block> blocks) {
+        return isTrue(BlockBatch.ofBlocks(blocks));
+    }
+
+    @Override
+    public BitSet isTrueStates(List<BlockState> blockStates) {
+        return isTrue(BlockBatch.ofStates(blockStates));
+    }
+
+    @Override
+    public void set(Collection<Block> blocks, boolean value) {
+        set(BlockBatch.ofBlocks(blocks), null, value);
+    }
+
+    @Override
+    public void setStates(Collection<BlockState> blockStates, boolean value) {
+        set(BlockBatch.ofStates(blockStates), null, value);
+    }
+
+    @Override
+    public void move(Collection<Block> blocks, BlockFace direction) {
+        BlockBatch batch = BlockBatch.ofBlocks(blocks);
+        BlockBatch moved = batch.offset(direction);
+        BitSet tracked = isTrue(batch);
+
+        set(batch, null, false);
+        set(moved, null, false);
+        set(moved, tracked, true);
+    }
+
+    boolean isTrue(int x, int y, int z, World world) {
+        int cx = x >> 4;
+        int cz = z >> 4;
+        int index = toChunkIndex(cx, cz);
+
+        // Get block offset (offset from chunk corner)
+        int ix = Math.abs(x) % 16;
+        int iz = Math.abs(z) % 16;
+
+        while (true) {
+            Region region = getRegion(world, cx, cz);
+            StampedLock lock = region.lock;
+            long stamp = lock.tryOptimisticRead();
+
+            if (stamp != 0 && region.loaded[index]) {
+                ChunkStore chunkStore = region.chunks[index];
+                boolean value;
+
+                try {
+                    value = chunkStore != null && chunkStore.isTrue(ix, y, iz);
+                }
+                catch (RuntimeException e) {
+                    // A store caught halfway through a change can throw, only a valid read may
+                    if (lock.validate(stamp))
+                        throw e;
+                    value = false;
+                }
+
+                if (lock.validate(stamp))
+                    return value;
+            }
+
+            stamp = lock.writeLock();
+
+            try {
+                // Closed since we looked it up, a fresh region replaces it
+                if (region.closed)
+                    continue;
+
+                ChunkStore chunkStore = region.getChunk(index, cx, cz);
+                return chunkStore != null && chunkStore.isTrue(ix, y, iz);
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    void set(int x, int y, int z, World world, boolean value) {
+        int cx = x >> 4;
+        int cz = z >> 4;
+
+        while (true) {
+            Region region = getRegion(world, cx, cz);
+            long stamp = region.lock.writeLock();
+
+            try {
+                if (region.closed)
+                    continue;
+
+                // If setting to false, no need to create an empty chunkstore
+                ChunkStore cStore = region.getChunk(world, cx, cz, value);
+
+                if (cStore == null)
+                    return;
+
+                // Get block offset (offset from chunk corner)
+                int ix = Math.abs(x) % 16;
+                int iz = Math.abs(z) % 16;
+
+                // Set chunk store value
+                cStore.set(ix, y, iz, value);
+                return;
+            }
+            finally {
+                region.lock.unlockWrite(stamp);
+            }
+        }
+    }
+
+    private BitSet isTrue(BlockBatch batch) {
+        BitSet result = new BitSet(batch.size());
+        int start = 0;
+
+        // Take the lock of each region once
+        while (start < batch.size()) {
+            int end = batch.regionRunEnd(start);
+            Region region = getRegion(batch.getWorld(start), batch.getChunkX(start), batch.getChunkZ(start));
+            long stamp = region.lock.writeLock();
+
+            try {
+                if (region.closed)
+                    continue;
+
+                batch.isTrue(start, end, result, region::getChunk);
+            }
+            finally {
+                region.lock.unlockWrite(stamp);
+            }
+
+            start = end;
+        }
+
+        return result;
+    }
+
+    private void set(BlockBatch batch, BitSet mask, boolean value) {
+        int start = 0;
+
+        // Take the lock of each region once
+        while (start < batch.size()) {
+            int end = batch.regionRunEnd(start);
+            Region region = getRegion(batch.getWorld(start), batch.getChunkX(start), batch.getChunkZ(start));
+            long stamp = region.lock.writeLock();
+
+            try {
+                if (region.closed)
+                    continue;
+
+                batch.set(start, end, mask, value, region::getChunk);
+            }
+            finally {
+                region.lock.unlockWrite(stamp);
+            }
+
+            start = end;
+        }
+    }
+
+    private void closeRegions(ConcurrentHashMap<Long, Region> regions) {
+        // Only forget a region once it is closed, so a new one can't open the same file while it is still being saved
+        for (Map.Entry<Long, Region> entry : regions.entrySet()) {
+            entry.getValue().close();
+            regions.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private Region getRegion(World world, int cx, int cz) {
+        UUID worldId = world.getUID();
+        ConcurrentHashMap<Long, Region> regions = worlds.get(worldId);
+
+        if (regions == null)
+            regions = worlds.computeIfAbsent(worldId, k -> new ConcurrentHashMap<>());
+
+        long regionKey = LongChunkMap.toKey(cx >> 5, cz >> 5);
+        Region region = regions.get(regionKey);
+
+        if (region == null)
+            region = regions.computeIfAbsent(regionKey, k -> new Region(HashChunkManager.getRegionFile(world, HashChunkManager.toRegionKey(worldId, cx, cz))));
+
+        return region;
+    }
+
+    private static int toChunkIndex(int cx, int cz) {
+        return ((cx & 0x1F) << 5) + (cz & 0x1F);
+    }
+
+    /**
+     * The chunks of a region in memory, and its region file once opened.
+     * Everything is written under the write lock, and read either under it
+     * or optimistically.
+     */
+    private final class Region {
+        private final StampedLock lock = new StampedLock();
+        private final File file;
+        private final ChunkStore[] chunks = new ChunkStore[REGION_CHUNKS];
+        private final boolean[] loaded = new boolean[REGION_CHUNKS]; // Chunks read from disk, whether or not they had a store
+        private int loadedCount;
+        private RegionFile regionFile;
+        private boolean closed;
+
+        private Region(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Get the store of a chunk, reading it from the region file the first
+         * time. Must hold the write lock.
+         *
+         * @return the chunk store, or null if the chunk has none
+         */
+        private ChunkStore getChunk(int index, int cx, int cz) {
+            if (loaded[index])
+                return chunks[index];
+
+            chunks[index] = readChunkStore(cx, cz);
+            loaded[index] = true;
+            loadedCount++;
+            return chunks[index];
+        }
+
+        /**
+         * Get the store of a chunk, creating it if asked to. Must hold the
+         * write lock.
+         */
+        private ChunkStore getChunk(World world, int cx, int cz, boolean create) {
+            int index = toChunkIndex(cx, cz);
+            ChunkStore chunkStore = getChunk(index, cx, cz);
+
+            if (chunkStore != null || !create)
+                return chunkStore;
+
+            chunkStore = new SparseChunkStore(world, cx, cz);
+            chunks[index] = chunkStore;
+            return chunkStore;
+        }
+
+        /**
+         * Save and forget a chunk, closing the region if it was the last one.
+         *
+         * @return whether the region closed
+         */
+        private boolean unloadChunk(int index) {
+            long stamp = lock.writeLock();
+
+            try {
+                if (closed || !loaded[index])
+                    return false;
+
+                ChunkStore chunkStore = chunks[index];
+
+                if (chunkStore != null && chunkStore.isDirty())
+                    writeChunkStore(chunkStore);
+
+                chunks[index] = null;
+                loaded[index] = false;
+
+                if (--loadedCount > 0)
+                    return false;
+
+                closeFile();
+                return true;
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void close() {
+            long stamp = lock.writeLock();
+
+            try {
+                if (closed)
+                    return;
+
+                // Save all dirty chunkstores
+                for (ChunkStore chunkStore : chunks) {
+                    if (chunkStore != null && chunkStore.isDirty()) {
+                        try {
+                            writeChunkStore(chunkStore);
+                        }
+                        catch (Exception ignored) { }
+                    }
+                }
+
+                closeFile();
+            }
+            finally {
+                lock.unlockWrite(stamp);
+            }
+        }
+
+        private void closeFile() {
+            closed = true;
+            Arrays.fill(chunks, null);
+            Arrays.fill(loaded, false);
+            loadedCount = 0;
+
+            if (regionFile != null)
+                regionFile.close();
+            regionFile = null;
+        }
+
+        private ChunkStore readChunkStore(int cx, int cz) {
+            if (regionFile == null) {
+                if (!file.exists())
+                    return null; // If there is no region file, there can't be a chunk
+                regionFile = regionFactory.open(file, cx >> 5, cz >> 5);
+            }
+
+            try (DataInputStream in = regionFile.getInputStream(cx, cz)) { // Get input stream for chunk
+                if (in == null)
+                    return null; // No chunk
+                return BitSetChunkStore.Serialization.readChunkStore(in); // Read in the chunkstore
+            }
+            catch (Exception ignored) {}
+
+            return null;
+        }
+
+        private void writeChunkStore(ChunkStore data) {
+            try {
+                if (regionFile == null) {
+                    file.getParentFile().mkdirs();
+                    regionFile = regionFactory.open(file, data.getChunkX() >> 5, data.getChunkZ() >> 5);
+                }
+
+                try (DataOutputStream out = regionFile.getOutputStream(data.getChunkX(), data.getChunkZ())) {
+                    BitSetChunkStore.Serialization.writeChunkStore(out, data);
+                }
+                data.setDirty(false);
+            }
+            catch (IOException e) {
+                throw new RuntimeException("Unable to write chunk meta data for " + data.getChunkX() + ", " + data.getChunkZ(), e);
+            }
+        }
+    }
+}
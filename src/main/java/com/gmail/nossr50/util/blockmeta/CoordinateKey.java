@@ -0,0 +1,34 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * The coordinates of a chunk or region in a world.
+ */
+final class CoordinateKey {
+    public final UUID worldID;
+    public final int x;
+    public final int z;
+
+    CoordinateKey(UUID worldID, int x, int z) {
+        this.worldID = worldID;
+        this.x = x;
+        this.z = z;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CoordinateKey coordinateKey = (CoordinateKey) o;
+        return x == coordinateKey.x &&
+                z == coordinateKey.z &&
+                worldID.equals(coordinateKey.worldID);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(worldID, x, z);
+    }
+}
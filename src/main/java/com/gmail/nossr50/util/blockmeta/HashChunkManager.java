@@ -3,6 +3,7 @@ package com.gmail.nossr50.util.blockmeta;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
 
 import java.io.DataInputStream;
@@ -12,9 +13,42 @@ import java.io.IOException;
 import java.util.*;
 
 public class HashChunkManager implements ChunkManager {
-    private final HashMap<CoordinateKey, McMMOSimpleRegionFile> regionMap = new HashMap<>(); // Tracks active regions
+    private final RegionFile.Factory regionFactory;
+    private final int maxResidentChunks; // 0 for no limit
+    private final HashMap<CoordinateKey, RegionFile> regionMap = new HashMap<>(); // Tracks active regions
     private final HashMap<CoordinateKey, HashSet<CoordinateKey>> chunkUsageMap = new HashMap<>(); // Tracks active chunks by region
-    private final HashMap<CoordinateKey, ChunkStore> chunkMap = new HashMap<>(); // Tracks active chunks
+    private final ChunkIndex<ChunkStore> chunkMap = new ChunkIndex<>(); // Tracks active chunks, null for chunks known to have no store
+    private final HashSet<CoordinateKey> closedRegions = new HashSet<>(); // Regions kept closed by whileRegionClosed
+
+    // Statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long bytesWritten;
+
+    public HashChunkManager() {
+        this(McMMOSimpleRegionFile::new);
+    }
+
+    public HashChunkManager(RegionFile.Factory regionFactory) {
+        this(regionFactory, 0);
+    }
+
+    /**
+     * @param maxResidentChunks the most chunks to keep in memory, or 0 for
+     *                          no limit. Past it the chunks used least
+     *                          recently are saved if needed and dropped,
+     *                          whether or not their chunk is still loaded.
+     */
+    public HashChunkManager(RegionFile.Factory regionFactory, int maxResidentChunks) {
+        this.regionFactory = regionFactory;
+        this.maxResidentChunks = Math.max(0, maxResidentChunks);
+    }
+
+    @Override
+    public synchronized ChunkStoreStatistics getStatistics() {
+        return new ChunkStoreStatistics(chunkMap.size(), maxResidentChunks, regionMap.size(), hits, misses, evictions, bytesWritten);
+    }
 
     @Override
     public synchronized void closeAll() {
@@ -32,13 +66,66 @@ public class HashChunkManager implements ChunkManager {
         chunkMap.clear();
         chunkUsageMap.clear();
         // Close all region files
-        for (McMMOSimpleRegionFile rf : regionMap.values())
+        for (RegionFile rf : regionMap.values())
             rf.close();
         regionMap.clear();
     }
 
+    /**
+     * Only the region is held closed while the action runs, reads and writes
+     * of that region wait for it to finish without holding the monitor, and
+     * every other region stays usable.
+     */
+    @Override
+    public boolean whileRegionClosed(UUID worldId, int rx, int rz, RegionCompactor.IOAction action) throws IOException {
+        CoordinateKey regionKey = new CoordinateKey(worldId, rx, rz);
+
+        synchronized (this) {
+            awaitRegion(regionKey);
+
+            // Opened again by the next read or write, the chunks in memory stay as they are
+            RegionFile rf = regionMap.remove(regionKey);
+            if (rf != null)
+                rf.close();
+
+            closedRegions.add(regionKey);
+        }
+
+        try {
+            action.run();
+        }
+        finally {
+            synchronized (this) {
+                closedRegions.remove(regionKey);
+                notifyAll();
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Wait for a region closed by {@link #whileRegionClosed} to be released,
+     * giving up the monitor meanwhile.
+     */
+    private synchronized void awaitRegion(CoordinateKey regionKey) {
+        boolean interrupted = false;
+
+        while (closedRegions.contains(regionKey)) {
+            try {
+                wait();
+            }
+            catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
     private synchronized ChunkStore readChunkStore(World world, int cx, int cz) throws IOException {
-        McMMOSimpleRegionFile rf = getReadableSimpleRegionFile(world, cx, cz);
+        RegionFile rf = getReadableSimpleRegionFile(world, cx, cz);
         if (rf == null)
             return null; // If there is no region file, there can't be a chunk
         try (DataInputStream in = rf.getInputStream(cx, cz)) { // Get input stream for chunk
@@ -52,39 +139,44 @@ public class HashChunkManager implements ChunkManager {
         if (!data.isDirty())
             return; // Don't save unchanged data
         try {
-            McMMOSimpleRegionFile rf = getWriteableSimpleRegionFile(world, data.getChunkX(), data.getChunkZ());
+            RegionFile rf = getWriteableSimpleRegionFile(world, data.getChunkX(), data.getChunkZ());
+            int size;
             try (DataOutputStream out = rf.getOutputStream(data.getChunkX(), data.getChunkZ())) {
                 BitSetChunkStore.Serialization.writeChunkStore(out, data);
+                size = out.size();
             }
             data.setDirty(false);
+            bytesWritten += size;
         }
         catch (IOException e) {
             throw new RuntimeException("Unable to write chunk meta data for " + data.getChunkX() + ", " + data.getChunkZ(), e);
         }
     }
 
-    private synchronized McMMOSimpleRegionFile getWriteableSimpleRegionFile(World world, int cx, int cz) {
+    private synchronized RegionFile getWriteableSimpleRegionFile(World world, int cx, int cz) {
         CoordinateKey regionKey = toRegionKey(world.getUID(), cx, cz);
+        awaitRegion(regionKey);
 
         return regionMap.computeIfAbsent(regionKey, k -> {
             File regionFile = getRegionFile(world, regionKey);
             regionFile.getParentFile().mkdirs();
-            return new McMMOSimpleRegionFile(regionFile, regionKey.x, regionKey.z);
+            return regionFactory.open(regionFile, regionKey.x, regionKey.z);
         });
     }
 
-    private synchronized McMMOSimpleRegionFile getReadableSimpleRegionFile(World world, int cx, int cz) {
+    private synchronized RegionFile getReadableSimpleRegionFile(World world, int cx, int cz) {
         CoordinateKey regionKey = toRegionKey(world.getUID(), cx, cz);
+        awaitRegion(regionKey);
 
         return regionMap.computeIfAbsent(regionKey, k -> {
             File regionFile = getRegionFile(world, regionKey);
             if (!regionFile.exists())
                 return null; // Don't create the file on read-only operations
-            return new McMMOSimpleRegionFile(regionFile, regionKey.x, regionKey.z);
+            return regionFactory.open(regionFile, regionKey.x, regionKey.z);
         });
     }
 
-    private File getRegionFile(World world, CoordinateKey regionKey) {
+    static File getRegionFile(World world, CoordinateKey regionKey) {
         if (world.getUID() != regionKey.worldID)
             throw new IllegalArgumentException();
         return new File(new File(world.getWorldFolder(), "mcmmo_regions"), "mcmmo_" + regionKey.x + "_" + regionKey.z + "_.mcm");
@@ -100,24 +192,70 @@ public class HashChunkManager implements ChunkManager {
     }
 
     private void unloadChunk(int cx, int cz, World world) {
-        CoordinateKey chunkKey = toChunkKey(world.getUID(), cx, cz);
-        ChunkStore chunkStore = chunkMap.remove(chunkKey); // Remove from chunk map
-        if (chunkStore == null)
+        UUID worldId = world.getUID();
+        if (!chunkMap.containsKey(worldId, cx, cz))
             return;
 
-        if (chunkStore.isDirty())
+        releaseChunk(worldId, cx, cz, world);
+    }
+
+    /**
+     * Drop a chunk from memory, saving its store first if it changed.
+     *
+     * @param world the world of the chunk, only needed if its store is dirty
+     */
+    private void releaseChunk(UUID worldId, int cx, int cz, World world) {
+        ChunkStore chunkStore = chunkMap.remove(worldId, cx, cz); // Remove from chunk map
+
+        if (chunkStore != null && chunkStore.isDirty())
             writeChunkStore(world, chunkStore);
 
-        CoordinateKey regionKey = toRegionKey(world.getUID(), cx, cz);
+        CoordinateKey regionKey = toRegionKey(worldId, cx, cz);
         HashSet<CoordinateKey> chunkKeys = chunkUsageMap.get(regionKey);
-        chunkKeys.remove(chunkKey); // remove from region file in-use set
+        if (chunkKeys == null)
+            return;
+
+        chunkKeys.remove(toChunkKey(worldId, cx, cz)); // remove from region file in-use set
         if (chunkKeys.isEmpty()) // If it was last chunk in region, close the region file and remove it from memory
         {
             chunkUsageMap.remove(regionKey);
-            regionMap.remove(regionKey).close();
+            RegionFile rf = regionMap.remove(regionKey);
+            if (rf != null) // Never opened if the region has no file
+                rf.close();
         }
     }
 
+    /**
+     * Keep the chunks in memory within the budget, dropping those used least
+     * recently.
+     */
+    private void evictLeastRecentlyUsed() {
+        if (maxResidentChunks == 0 || chunkMap.size() <= maxResidentChunks)
+            return;
+
+        // Make room for an eighth of the budget at once, rather than searching every chunk for each new one
+        int keep = maxResidentChunks - maxResidentChunks / 8;
+
+        for (CoordinateKey chunkKey : chunkMap.leastRecentlyUsed(chunkMap.size() - keep)) {
+            ChunkStore chunkStore = chunkMap.get(chunkKey.worldID, chunkKey.x, chunkKey.z);
+            World world = null;
+
+            if (chunkStore != null && chunkStore.isDirty()) {
+                world = Bukkit.getWorld(chunkKey.worldID);
+                if (world == null)
+                    continue; // Nowhere to save it, keep it until its world unloads
+            }
+
+            releaseChunk(chunkKey.worldID, chunkKey.x, chunkKey.z, world);
+            evictions++;
+        }
+    }
+
+    @Override
+    public void chunkLoaded(int cx, int cz, World world, boolean newChunk) {
+        // Chunks are loaded when first used
+    }
+
     @Override
     public synchronized void chunkUnloaded(int cx, int cz, World world) {
         unloadChunk(cx, cz, world);
@@ -128,11 +266,7 @@ public class HashChunkManager implements ChunkManager {
         UUID wID = world.getUID();
 
         // Save and remove all the chunks
-        List<CoordinateKey> chunkKeys = new ArrayList<>(chunkMap.keySet());
-        for (CoordinateKey chunkKey : chunkKeys) {
-            if (!wID.equals(chunkKey.worldID))
-                continue;
-            ChunkStore chunkStore = chunkMap.remove(chunkKey);
+        for (ChunkStore chunkStore : chunkMap.removeWorld(wID)) {
             if (!chunkStore.isDirty())
                 continue;
             try {
@@ -146,24 +280,13 @@ public class HashChunkManager implements ChunkManager {
             if (!wID.equals(regionKey.worldID))
                 continue;
             regionMap.remove(regionKey).close();
-            chunkUsageMap.remove(regionKey);
         }
+        // Including the regions with no file
+        chunkUsageMap.keySet().removeIf(regionKey -> wID.equals(regionKey.worldID));
     }
 
-    private synchronized boolean isTrue(int x, int y, int z, World world) {
-        CoordinateKey chunkKey = blockCoordinateToChunkKey(world.getUID(), x, y, z);
-
-        // Get chunk, load from file if necessary
-        // Get/Load/Create chunkstore
-        ChunkStore check = chunkMap.computeIfAbsent(chunkKey, k -> {
-            // Load from file
-            ChunkStore loaded = loadChunk(chunkKey.x, chunkKey.z, world);
-            if (loaded == null)
-                return null;
-            // Mark chunk in-use for region tracking
-            chunkUsageMap.computeIfAbsent(toRegionKey(chunkKey.worldID, chunkKey.x, chunkKey.z), j -> new HashSet<>()).add(chunkKey);
-            return loaded;
-        });
+    synchronized boolean isTrue(int x, int y, int z, World world) {
+        ChunkStore check = getChunkStore(world.getUID(), x >> 4, z >> 4, world);
 
         // No chunk, return false
         if (check == null)
@@ -205,28 +328,38 @@ public class HashChunkManager implements ChunkManager {
         set(blockState.getX(), blockState.getY(), blockState.getZ(), blockState.getWorld(), false);
     }
 
-    private synchronized void set(int x, int y, int z, World world, boolean value){
-        CoordinateKey chunkKey = blockCoordinateToChunkKey(world.getUID(), x, y, z);
+    @Override
+    public synchronized BitSet isTrue(List<Block> blocks) {
+        return BlockBatch.ofBlocks(blocks).isTrue(this::getChunkStore);
+    }
+
+    @Override
+    public synchronized BitSet isTrueStates(List<BlockState> blockStates) {
+        return BlockBatch.ofStates(blockStates).isTrue(this::getChunkStore);
+    }
 
-        // Get/Load/Create chunkstore
-        ChunkStore cStore = chunkMap.computeIfAbsent(chunkKey, k -> {
-            // Load from file
-            ChunkStore loaded = loadChunk(chunkKey.x, chunkKey.z, world);
-            if (loaded != null)
-            {
-                chunkUsageMap.computeIfAbsent(toRegionKey(chunkKey.worldID, chunkKey.x, chunkKey.z), j -> new HashSet<>()).add(chunkKey);
-                return loaded;
-            }
-            // If setting to false, no need to create an empty chunkstore
-            if (!value)
-                return null;
-            // Mark chunk in-use for region tracking
-            chunkUsageMap.computeIfAbsent(toRegionKey(chunkKey.worldID, chunkKey.x, chunkKey.z), j -> new HashSet<>()).add(chunkKey);
-            // Create a new chunkstore
-            return new BitSetChunkStore(world, chunkKey.x, chunkKey.z);
-        });
+    @Override
+    public synchronized void set(Collection<Block> blocks, boolean value) {
+        BlockBatch.ofBlocks(blocks).set(null, value, this::getChunkStore);
+    }
+
+    @Override
+    public synchronized void setStates(Collection<BlockState> blockStates, boolean value) {
+        BlockBatch.ofStates(blockStates).set(null, value, this::getChunkStore);
+    }
+
+    @Override
+    public synchronized void move(Collection<Block> blocks, BlockFace direction) {
+        BlockBatch.ofBlocks(blocks).move(direction, this::getChunkStore);
+    }
+
+    synchronized void set(int x, int y, int z, World world, boolean value){
+        int cx = x >> 4;
+        int cz = z >> 4;
+
+        // Get/Load chunkstore, if setting to false, no need to create an empty chunkstore
+        ChunkStore cStore = getChunkStore(world, cx, cz, value);
 
-        // Indicates setting false on empty chunkstore
         if (cStore == null)
             return;
 
@@ -238,45 +371,53 @@ public class HashChunkManager implements ChunkManager {
         cStore.set(ix, y, iz, value);
     }
 
-    private CoordinateKey blockCoordinateToChunkKey(UUID worldUid, int x, int y, int z) {
-        return toChunkKey(worldUid, x >> 4, z >> 4);
+    /**
+     * Get the store of a chunk, reading it from its region file the first
+     * time. Allocates nothing once the chunk has been read.
+     *
+     * @return the chunk store, or null if the chunk has none
+     */
+    private ChunkStore getChunkStore(UUID worldId, int cx, int cz, World world) {
+        if (chunkMap.containsKey(worldId, cx, cz)) {
+            hits++;
+            return chunkMap.get(worldId, cx, cz);
+        }
+
+        // Load from file, remembering chunks without a store too
+        misses++;
+        ChunkStore loaded = loadChunk(cx, cz, world);
+        chunkMap.put(worldId, cx, cz, loaded);
+        // Chunks without a store hold their region file open too, until they are dropped
+        markChunkInUse(worldId, cx, cz);
+        evictLeastRecentlyUsed();
+        return loaded;
+    }
+
+    private ChunkStore getChunkStore(World world, int cx, int cz, boolean create) {
+        UUID worldId = world.getUID();
+        ChunkStore cStore = getChunkStore(worldId, cx, cz, world);
+
+        if (cStore != null || !create)
+            return cStore;
+
+        // Create a new chunkstore, in place of the chunk remembered as having none
+        cStore = new SparseChunkStore(world, cx, cz);
+        chunkMap.put(worldId, cx, cz, cStore);
+        return cStore;
     }
 
-    private CoordinateKey toChunkKey(UUID worldUid, int cx, int cz){
+    private void markChunkInUse(UUID worldId, int cx, int cz) {
+        chunkUsageMap.computeIfAbsent(toRegionKey(worldId, cx, cz), j -> new HashSet<>()).add(toChunkKey(worldId, cx, cz));
+    }
+
+    static CoordinateKey toChunkKey(UUID worldUid, int cx, int cz){
         return new CoordinateKey(worldUid, cx, cz);
     }
 
-    private CoordinateKey toRegionKey(UUID worldUid, int cx, int cz) {
+    static CoordinateKey toRegionKey(UUID worldUid, int cx, int cz) {
         // Compute region index (32x32 chunk regions)
         int rx = cx >> 5;
         int rz = cz >> 5;
         return new CoordinateKey(worldUid, rx, rz);
     }
-
-    private static final class CoordinateKey {
-        public final UUID worldID;
-        public final int x;
-        public final int z;
-
-        private CoordinateKey(UUID worldID, int x, int z) {
-            this.worldID = worldID;
-            this.x = x;
-            this.z = z;
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            if (this == o) return true;
-            if (o == null || getClass() != o.getClass()) return false;
-            CoordinateKey coordinateKey = (CoordinateKey) o;
-            return x == coordinateKey.x &&
-                    z == coordinateKey.z &&
-                    worldID.equals(coordinateKey.worldID);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(worldID, x, z);
-        }
-    }
 }
@@ -0,0 +1,223 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An open addressing hash map from chunk coordinates to values, for the
+ * chunks of one world.
+ * <p>
+ * The coordinates are packed into a long and probed linearly, so looking a
+ * chunk up allocates nothing: no key object, no boxing and no varargs array
+ * for the hash. Values may be null, so a map can remember chunks that are
+ * known to have nothing stored.
+ * <p>
+ * Every entry also carries a stamp, which the owner of the map can use to
+ * record when the entry was last used.
+ */
+final class LongChunkMap<V> {
+    private static final int INITIAL_CAPACITY = 64; // Must be a power of two
+
+    private long[] keys;
+    private Object[] values;
+    private boolean[] used;
+    private long[] stamps;
+    private int mask;
+    private int size;
+
+    LongChunkMap() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    static long toKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return the slot holding the chunk, or -1 if it is not in the map
+     */
+    int indexOf(int cx, int cz) {
+        long key = toKey(cx, cz);
+        int index = hash(key) & mask;
+
+        while (used[index]) {
+            if (keys[index] == key)
+                return index;
+            index = (index + 1) & mask;
+        }
+
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        return (V) values[index];
+    }
+
+    int chunkXAt(int index) {
+        return (int) (keys[index] >> 32);
+    }
+
+    int chunkZAt(int index) {
+        return (int) keys[index];
+    }
+
+    long stampAt(int index) {
+        return stamps[index];
+    }
+
+    void touch(int index, long stamp) {
+        stamps[index] = stamp;
+    }
+
+    /**
+     * @return the number of slots, used or not, for walking every entry
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    boolean isUsed(int index) {
+        return used[index];
+    }
+
+    boolean containsKey(int cx, int cz) {
+        return indexOf(cx, cz) >= 0;
+    }
+
+    V get(int cx, int cz) {
+        int index = indexOf(cx, cz);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    void put(int cx, int cz, V value) {
+        long key = toKey(cx, cz);
+        int index = hash(key) & mask;
+
+        while (used[index]) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+        stamps[index] = 0;
+
+        // Keep at most half of the slots in use so probes stay short
+        if (++size > keys.length >> 1)
+            allocate(keys.length << 1);
+    }
+
+    /**
+     * @return the value that was removed, or null if there was none
+     */
+    V remove(int cx, int cz) {
+        int index = indexOf(cx, cz);
+
+        if (index < 0)
+            return null;
+
+        V value = valueAt(index);
+        removeAt(index);
+        return value;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Copy the values out of the map, leaving out nulls.
+     */
+    List<V> values() {
+        List<V> list = new ArrayList<>(size);
+
+        for (int i = 0; i < keys.length; i++) {
+            if (used[i] && values[i] != null)
+                list.add(valueAt(i));
+        }
+
+        return list;
+    }
+
+    void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    private void removeAt(int index) {
+        size--;
+
+        // Shift later entries of the probe sequence back, so lookups never stop early at the hole
+        int gap = index;
+        int next = (gap + 1) & mask;
+
+        while (used[next]) {
+            int ideal = hash(keys[next]) & mask;
+
+            // Only move entries whose probe sequence passes through the gap
+            if (((next - ideal) & mask) >= ((next - gap) & mask)) {
+                keys[gap] = keys[next];
+                values[gap] = values[next];
+                stamps[gap] = stamps[next];
+                gap = next;
+            }
+
+            next = (next + 1) & mask;
+        }
+
+        used[gap] = false;
+        values[gap] = null;
+    }
+
+    private void allocate(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        boolean[] oldUsed = used;
+        long[] oldStamps = stamps;
+
+        keys = new long[capacity];
+        values = new Object[capacity];
+        used = new boolean[capacity];
+        stamps = new long[capacity];
+        mask = capacity - 1;
+        size = 0;
+
+        if (oldKeys == null)
+            return;
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (!oldUsed[i])
+                continue;
+
+            int index = hash(oldKeys[i]) & mask;
+
+            while (used[index])
+                index = (index + 1) & mask;
+
+            used[index] = true;
+            keys[index] = oldKeys[i];
+            values[index] = oldValues[i];
+            stamps[index] = oldStamps[i];
+            size++;
+        }
+    }
+
+    private static int hash(long key) {
+        // Finalizer of MurmurHash3, neighbouring chunks differ in only a few bits
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
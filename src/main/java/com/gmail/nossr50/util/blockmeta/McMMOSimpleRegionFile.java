@@ -33,7 +33,7 @@ import java.util.zip.InflaterInputStream;
  * bytes 12288+ contain the data segments, by default 1024 byte segments.
  * Chunk data is compressed and stored in 1 or more segments as needed.
  */
-public class McMMOSimpleRegionFile {
+public class McMMOSimpleRegionFile implements RegionFile {
     private static final int DEFAULT_SEGMENT_EXPONENT = 10; // TODO, analyze real world usage and determine if a smaller segment(512) is worth it or not. (need to know average chunkstore bytesize)
     private static final int DEFAULT_SEGMENT_SIZE = (int)Math.pow(2, DEFAULT_SEGMENT_EXPONENT); // 1024
     private static final int RESERVED_HEADER_BYTES = 12288; // This needs to be divisible by segment size
@@ -104,6 +104,7 @@ public class McMMOSimpleRegionFile {
         }
     }
 
+    @Override
     public synchronized DataOutputStream getOutputStream(int x, int z) {
         int index = getChunkIndex(x, z); // Get chunk index
         return new DataOutputStream(new DeflaterOutputStream(new McMMOSimpleChunkBuffer(this, index)));
@@ -144,6 +145,7 @@ public class McMMOSimpleRegionFile {
         file.writeInt(chunkNumBytes[index]);
     }
 
+    @Override
     public synchronized DataInputStream getInputStream(int x, int z) throws IOException {
         int index = getChunkIndex(x, z); // Get chunk index
         int byteLength = chunkNumBytes[index]; // Get byte length of data
@@ -159,6 +161,7 @@ public class McMMOSimpleRegionFile {
         return new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(data)));
     }
 
+    @Override
     public synchronized void close() {
         try {
             file.close();
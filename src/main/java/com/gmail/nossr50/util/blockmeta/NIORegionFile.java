@@ -0,0 +1,321 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A {@link RegionFile} in the same format as {@link McMMOSimpleRegionFile},
+ * so either can open the files of the other.
+ * <p>
+ * Chunk data is read and written with positional {@link FileChannel} calls
+ * instead of seeking a shared file pointer. Header entries are kept in memory
+ * and written in batches, each run of neighbouring chunks in one positional
+ * write, when enough segments are waiting to be freed and when the region
+ * closes. Until then a chunk is never written over the segments it was moved
+ * from, so the header on disk always points at intact data. The inflater,
+ * deflater and compressed data buffer live as long as the region does
+ * instead of being created for every chunk.
+ */
+public class NIORegionFile implements RegionFile {
+    private static final int DEFAULT_SEGMENT_EXPONENT = 10;
+    private static final int DEFAULT_SEGMENT_SIZE = 1 << DEFAULT_SEGMENT_EXPONENT;
+    private static final int RESERVED_HEADER_BYTES = 12288; // This needs to be divisible by segment size
+    private static final int NUM_CHUNKS = 1024; // 32x32
+    private static final int SEEK_CHUNK_SEGMENT_INDICES = 0;
+    private static final int SEEK_CHUNK_BYTE_LENGTHS = 4096;
+    private static final int SEEK_FILE_INFO = 8192;
+    private static final int MAX_RELEASED_SEGMENTS = 256; // Segments left behind by moved chunks before the header is written
+
+    // Chunk info
+    private final int[] chunkSegmentIndex = new int[NUM_CHUNKS];
+    private final int[] chunkNumBytes = new int[NUM_CHUNKS];
+
+    private final BitSet segments = new BitSet(); // Used to denote which segments are in use or not
+    private final BitSet releasedSegments = new BitSet(); // Segments moved away from, still in use until the header is written
+    private final BitSet dirtyChunks = new BitSet(); // Chunks with header entries not written yet
+    private final int segmentExponent;
+
+    private final FileChannel channel;
+    private boolean written;
+
+    // Reused for every chunk, only touched while holding the lock
+    private final Inflater inflater = new Inflater();
+    private final Deflater deflater = new Deflater();
+    private byte[] compressed = new byte[DEFAULT_SEGMENT_SIZE];
+
+    // Region index
+    private final int rx;
+    private final int rz;
+
+    public NIORegionFile(File f, int rx, int rz) {
+        this.rx = rx;
+        this.rz = rz;
+
+        FileChannel channel = null;
+
+        try {
+            channel = FileChannel.open(f.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            this.channel = channel;
+            ByteBuffer header = ByteBuffer.allocate(RESERVED_HEADER_BYTES);
+
+            // New file, write out header bytes
+            if (channel.size() < RESERVED_HEADER_BYTES) {
+                header.putInt(SEEK_FILE_INFO, DEFAULT_SEGMENT_EXPONENT);
+                writeFully(header, 0);
+                written = true;
+            }
+            else {
+                readFully(header, 0);
+            }
+
+            this.segmentExponent = header.getInt(SEEK_FILE_INFO);
+
+            // Mark reserved segments reserved
+            segments.set(0, bytesToSegments(RESERVED_HEADER_BYTES), true);
+
+            // Read chunk header data
+            for (int i = 0; i < NUM_CHUNKS; i++) {
+                chunkSegmentIndex[i] = header.getInt(SEEK_CHUNK_SEGMENT_INDICES + (4 * i));
+                chunkNumBytes[i] = header.getInt(SEEK_CHUNK_BYTE_LENGTHS + (4 * i));
+                markChunkSegments(i, true);
+            }
+
+            // Pad the file to a whole number of segments
+            long fileLength = channel.size();
+            int extend = (int) (-fileLength & ((1 << segmentExponent) - 1));
+            if (extend > 0)
+                channel.write(ByteBuffer.allocate(extend), fileLength);
+        }
+        catch (IOException e) {
+            closeQuietly(channel);
+            throw new RuntimeException(e);
+        }
+        catch (RuntimeException e) {
+            closeQuietly(channel);
+            throw e;
+        }
+    }
+
+    @Override
+    public synchronized DataOutputStream getOutputStream(int x, int z) {
+        int index = getChunkIndex(x, z); // Get chunk index
+        return new DataOutputStream(new ChunkBuffer(this, index));
+    }
+
+    /**
+     * Collects the uncompressed data of a chunk, which is compressed and
+     * written in one go when closed.
+     */
+    private static class ChunkBuffer extends ByteArrayOutputStream {
+        final NIORegionFile rf;
+        final int index;
+
+        ChunkBuffer(NIORegionFile rf, int index) {
+            super(DEFAULT_SEGMENT_SIZE);
+            this.rf = rf;
+            this.index = index;
+        }
+
+        @Override
+        public void close() throws IOException {
+            rf.write(index, buf, count);
+        }
+    }
+
+    private synchronized void write(int index, byte[] data, int length) throws IOException {
+        deflater.reset();
+        deflater.setInput(data, 0, length);
+        deflater.finish();
+
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            size += deflater.deflate(compressed, size, compressed.length - size);
+        }
+
+        // The old segments stay in use until the header no longer points at them
+        int oldSegmentIndex = chunkSegmentIndex[index];
+        if (chunkNumBytes[index] != 0)
+            releasedSegments.set(oldSegmentIndex, oldSegmentIndex + bytesToSegments(chunkNumBytes[index]));
+
+        int newSegmentIndex = findContiguousSegments(size); // Find contiguous segments to save to
+        writeFully(ByteBuffer.wrap(compressed, 0, size), (long) newSegmentIndex << segmentExponent);
+        written = true;
+
+        // update in memory info
+        chunkSegmentIndex[index] = newSegmentIndex;
+        chunkNumBytes[index] = size;
+        markChunkSegments(index, true);
+        dirtyChunks.set(index);
+
+        if (releasedSegments.cardinality() >= MAX_RELEASED_SEGMENTS)
+            writeHeader();
+    }
+
+    /**
+     * Write the header entries of the chunks written since the last call,
+     * and free the segments they were moved from.
+     */
+    private void writeHeader() throws IOException {
+        for (int from = dirtyChunks.nextSetBit(0); from != -1; from = dirtyChunks.nextSetBit(from)) {
+            int to = dirtyChunks.nextClearBit(from);
+            writeEntries(SEEK_CHUNK_SEGMENT_INDICES, chunkSegmentIndex, from, to);
+            writeEntries(SEEK_CHUNK_BYTE_LENGTHS, chunkNumBytes, from, to);
+            from = to;
+        }
+
+        dirtyChunks.clear();
+        segments.andNot(releasedSegments);
+        releasedSegments.clear();
+    }
+
+    private void writeEntries(int tableOffset, int[] values, int from, int to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4 * (to - from));
+        buffer.asIntBuffer().put(values, from, to - from);
+        writeFully(buffer, tableOffset + (4 * from));
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining())
+            channel.write(buffer, position + buffer.position());
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Region file ends within its header");
+        }
+    }
+
+    @Override
+    public synchronized DataInputStream getInputStream(int x, int z) throws IOException {
+        int index = getChunkIndex(x, z); // Get chunk index
+        int byteLength = chunkNumBytes[index]; // Get byte length of data
+
+        // No bytes
+        if (byteLength == 0)
+            return null;
+
+        if (compressed.length < byteLength)
+            compressed = new byte[byteLength];
+
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, byteLength);
+        long position = (long) chunkSegmentIndex[index] << segmentExponent;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                throw new EOFException("Chunk data runs past the end of the region file");
+        }
+
+        // Inflate now, so the stream handed out shares neither the buffer nor the inflater
+        inflater.reset();
+        inflater.setInput(compressed, 0, byteLength);
+
+        byte[] data = new byte[byteLength * 4];
+        int size = 0;
+
+        try {
+            while (!inflater.finished()) {
+                if (size == data.length)
+                    data = Arrays.copyOf(data, data.length * 2);
+
+                int inflated = inflater.inflate(data, size, data.length - size);
+
+                if (inflated == 0 && !inflater.finished() && (inflater.needsInput() || inflater.needsDictionary()))
+                    throw new EOFException("Truncated chunk data");
+
+                size += inflated;
+            }
+        }
+        catch (DataFormatException e) {
+            throw new IOException(e);
+        }
+
+        return new DataInputStream(new ByteArrayInputStream(data, 0, size));
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            writeHeader();
+            if (written)
+                channel.force(false);
+            written = false;
+            channel.close();
+            inflater.end();
+            deflater.end();
+            segments.clear();
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("Unable to close file", ioe);
+        }
+    }
+
+    private void markChunkSegments(int index, boolean inUse) {
+        // No bytes used
+        if (chunkNumBytes[index] == 0)
+            return;
+
+        int start = chunkSegmentIndex[index];
+        int end = start + bytesToSegments(chunkNumBytes[index]);
+
+        // If we are writing, assert we don't write over any in-use segments
+        if (inUse) {
+            int nextSetBit = segments.nextSetBit(start);
+            if (nextSetBit != -1 && nextSetBit < end)
+                throw new IllegalStateException("Attempting to overwrite an in-use segment");
+        }
+
+        segments.set(start, end, inUse);
+    }
+
+    private int findContiguousSegments(int size) {
+        int needed = bytesToSegments(size); // Number of segments we need
+
+        // Take the first gap that is big enough, or the end of the file
+        int start = segments.nextClearBit(0);
+        while (!fits(start, needed))
+            start = segments.nextClearBit(segments.nextSetBit(start));
+
+        return start;
+    }
+
+    private boolean fits(int start, int needed) {
+        int nextSetBit = segments.nextSetBit(start);
+        return nextSetBit == -1 || nextSetBit - start >= needed;
+    }
+
+    private int bytesToSegments(int bytes) {
+        if (bytes <= 0)
+            return 1;
+
+        return ((bytes - 1) >> segmentExponent) + 1; // ((bytes - 1) / segmentSize) + 1
+    }
+
+    private int getChunkIndex(int x, int z) {
+        if (rx != (x >> 5) || rz != (z >> 5))
+            throw new IndexOutOfBoundsException();
+
+        x = x & 0x1F; // 5 bits (mod 32)
+        z = z & 0x1F; // 5 bits (mod 32)
+
+        return (x << 5) + z; // x in the upper 5 bits, z in the lower 5 bits
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null)
+            return;
+
+        try {
+            closeable.close();
+        }
+        catch (IOException ignored) {}
+    }
+}
@@ -9,6 +9,9 @@ public class NullChunkManager implements ChunkManager {
     @Override
     public void closeAll() {}
 
+    @Override
+    public void chunkLoaded(int cx, int cz, World world, boolean newChunk) {}
+
     @Override
     public void chunkUnloaded(int cx, int cz, World world) {}
 
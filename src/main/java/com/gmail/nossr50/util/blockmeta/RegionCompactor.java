@@ -0,0 +1,363 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import com.google.common.io.ByteStreams;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites region files with their chunks packed one after another, leaving
+ * out chunks with no placed blocks and converting chunk stores saved in older
+ * formats to the current one. Region files are compacted in parallel.
+ * <p>
+ * Each file is compacted from a snapshot, so the block tracker can go on
+ * using it meanwhile. The compacted copy only replaces the file if it is
+ * still the same as the snapshot. Files that changed are mostly caught
+ * before the {@link RegionLock} is taken, the lock only covers a last check
+ * and the swap. A file that changed is left for the next run.
+ */
+public class RegionCompactor {
+    private static final Pattern REGION_FILE_NAME = Pattern.compile("mcmmo_(-?\\d+)_(-?\\d+)_\\.mcm");
+    private static final int NUM_CHUNKS = 1024; // 32x32
+
+    /**
+     * For files nothing else has open, such as before the block tracker starts.
+     */
+    public static final RegionLock UNLOCKED = (rx, rz, action) -> {
+        action.run();
+        return true;
+    };
+
+    private final int threads;
+    private final Logger logger;
+
+    /**
+     * Keeps the file of a region closed while an action runs.
+     */
+    public interface RegionLock {
+        /**
+         * @return false if the file could not be closed, and the action was not run
+         */
+        boolean whileClosed(int rx, int rz, IOAction action) throws IOException;
+    }
+
+    public interface IOAction {
+        void run() throws IOException;
+    }
+
+    public RegionCompactor(int threads, Logger logger) {
+        this.threads = Math.max(1, threads);
+        this.logger = logger;
+    }
+
+    /**
+     * Compact every region file in some region directories.
+     *
+     * @param regionDirectories the directories, with the lock guarding the region files in each
+     */
+    public Report compact(Map<File, RegionLock> regionDirectories) {
+        Report report = new Report();
+        AtomicBoolean refused = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            for (Map.Entry<File, RegionLock> entry : regionDirectories.entrySet()) {
+                File[] files = entry.getKey().listFiles();
+
+                if (files == null)
+                    continue;
+
+                for (File file : files) {
+                    Matcher matcher = REGION_FILE_NAME.matcher(file.getName());
+
+                    if (!matcher.matches())
+                        continue;
+
+                    int rx = Integer.parseInt(matcher.group(1));
+                    int rz = Integer.parseInt(matcher.group(2));
+                    RegionLock lock = entry.getValue();
+
+                    futures.add(executor.submit(() -> {
+                        // Once the tracker refuses to close a file it refuses every file
+                        if (refused.get())
+                            return;
+
+                        try {
+                            compactFile(file, rx, rz, lock, report, refused);
+                        }
+                        catch (IOException | RuntimeException e) {
+                            report.failed();
+                            logger.log(Level.WARNING, "Unable to compact " + file, e);
+                        }
+                    }));
+                }
+            }
+
+            for (Future<?> future : futures)
+                future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            logger.log(Level.WARNING, "Region compaction stopped", e.getCause());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        report.refused = refused.get();
+        return report;
+    }
+
+    private void compactFile(File file, int rx, int rz, RegionLock lock, Report report, AtomicBoolean refused) throws IOException {
+        byte[] original = Files.readAllBytes(file.toPath());
+        File snapshot = new File(file.getParentFile(), file.getName() + ".snapshot");
+        File compacted = new File(file.getParentFile(), file.getName() + ".compact");
+        FileResult result = new FileResult();
+
+        try {
+            Files.write(snapshot.toPath(), original);
+            Files.deleteIfExists(compacted.toPath());
+
+            RegionFile source = new McMMOSimpleRegionFile(snapshot, rx, rz);
+            RegionFile target = new McMMOSimpleRegionFile(compacted, rx, rz);
+
+            try {
+                // A new file fills from the front, so the chunks end up packed in order
+                for (int i = 0; i < NUM_CHUNKS; i++)
+                    compactChunk(source, target, (rx << 5) + (i >> 5), (rz << 5) + (i & 31), result);
+            }
+            finally {
+                source.close();
+                target.close();
+            }
+
+            // Written to since the snapshot, checked before taking the lock so only the last writes are checked under it
+            if (!isUnchanged(file, original)) {
+                report.changed();
+                return;
+            }
+
+            boolean closed = lock.whileClosed(rx, rz, () -> {
+                if (!isUnchanged(file, original))
+                    return;
+
+                if (result.chunksKept == 0)
+                    Files.delete(file.toPath());
+                else
+                    replace(compacted, file);
+
+                result.replaced = true;
+            });
+
+            if (!closed)
+                refused.set(true);
+            else if (!result.replaced)
+                report.changed();
+            else
+                report.add(result, original.length, result.chunksKept == 0 ? 0 : file.length());
+        }
+        finally {
+            Files.deleteIfExists(snapshot.toPath());
+            Files.deleteIfExists(compacted.toPath());
+        }
+    }
+
+    private void compactChunk(RegionFile source, RegionFile target, int cx, int cz, FileResult result) throws IOException {
+        byte[] data;
+
+        try (DataInputStream in = source.getInputStream(cx, cz)) {
+            if (in == null)
+                return; // No chunk
+
+            data = ByteStreams.toByteArray(in);
+        }
+
+        ChunkStore chunkStore;
+
+        try {
+            chunkStore = BitSetChunkStore.Serialization.readChunkStore(new DataInputStream(new ByteArrayInputStream(data)));
+        }
+        catch (IOException | RuntimeException e) {
+            chunkStore = null;
+        }
+
+        // Keep what can't be read as it was, it may still be readable by a later version
+        if (chunkStore == null) {
+            write(target, cx, cz, data);
+            result.chunksKept++;
+            result.chunksUnreadable++;
+            return;
+        }
+
+        if (chunkStore.isEmpty()) {
+            result.chunksDropped++;
+            return;
+        }
+
+        boolean current = data.length >= 2 && (short) ((data[0] << 8) | (data[1] & 0xFF)) == SparseChunkStore.STREAM_MAGIC;
+
+        if (current && !chunkStore.isDirty()) {
+            write(target, cx, cz, data);
+        }
+        else {
+            try (DataOutputStream out = target.getOutputStream(cx, cz)) {
+                BitSetChunkStore.Serialization.writeChunkStore(out, chunkStore);
+            }
+
+            if (!current)
+                result.chunksUpgraded++;
+        }
+
+        result.chunksKept++;
+    }
+
+    private static boolean isUnchanged(File file, byte[] original) throws IOException {
+        return file.length() == original.length && Arrays.equals(original, Files.readAllBytes(file.toPath()));
+    }
+
+    private static void write(RegionFile target, int cx, int cz, byte[] data) throws IOException {
+        try (DataOutputStream out = target.getOutputStream(cx, cz)) {
+            out.write(data);
+        }
+    }
+
+    private static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static class FileResult {
+        int chunksKept;
+        int chunksDropped;
+        int chunksUpgraded;
+        int chunksUnreadable;
+        boolean replaced;
+    }
+
+    /**
+     * What a compaction did, added up over every region file.
+     */
+    public static final class Report {
+        private int regionFiles;
+        private int regionFilesRemoved;
+        private int regionFilesChanged;
+        private int regionFilesFailed;
+        private long chunksKept;
+        private long chunksDropped;
+        private long chunksUpgraded;
+        private long chunksUnreadable;
+        private long bytesBefore;
+        private long bytesAfter;
+        private boolean refused;
+
+        private synchronized void add(FileResult result, long sizeBefore, long sizeAfter) {
+            regionFiles++;
+            if (sizeAfter == 0)
+                regionFilesRemoved++;
+            chunksKept += result.chunksKept;
+            chunksDropped += result.chunksDropped;
+            chunksUpgraded += result.chunksUpgraded;
+            chunksUnreadable += result.chunksUnreadable;
+            bytesBefore += sizeBefore;
+            bytesAfter += sizeAfter;
+        }
+
+        private synchronized void changed() {
+            regionFilesChanged++;
+        }
+
+        private synchronized void failed() {
+            regionFilesFailed++;
+        }
+
+        /**
+         * @return the region files compacted, including those removed
+         */
+        public synchronized int getRegionFiles() {
+            return regionFiles;
+        }
+
+        /**
+         * @return the region files removed because none of their chunks had placed blocks
+         */
+        public synchronized int getRegionFilesRemoved() {
+            return regionFilesRemoved;
+        }
+
+        /**
+         * @return the region files left alone because they were written to while being compacted
+         */
+        public synchronized int getRegionFilesChanged() {
+            return regionFilesChanged;
+        }
+
+        public synchronized int getRegionFilesFailed() {
+            return regionFilesFailed;
+        }
+
+        public synchronized long getChunksKept() {
+            return chunksKept;
+        }
+
+        /**
+         * @return the chunks left out because they had no placed blocks
+         */
+        public synchronized long getChunksDropped() {
+            return chunksDropped;
+        }
+
+        /**
+         * @return the chunks converted from an older format
+         */
+        public synchronized long getChunksUpgraded() {
+            return chunksUpgraded;
+        }
+
+        /**
+         * @return the chunks that could not be read, kept as they were
+         */
+        public synchronized long getChunksUnreadable() {
+            return chunksUnreadable;
+        }
+
+        public synchronized long getBytesReclaimed() {
+            return bytesBefore - bytesAfter;
+        }
+
+        /**
+         * @return true if the block tracker could not close its region files, so nothing was compacted
+         */
+        public synchronized boolean isRefused() {
+            return refused;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return regionFiles + " region files compacted (" + regionFilesRemoved + " removed, " + regionFilesChanged + " changed meanwhile, " + regionFilesFailed + " failed)"
+                    + ", " + chunksKept + " chunks kept, " + chunksDropped + " empty chunks dropped, " + chunksUpgraded + " upgraded, " + chunksUnreadable + " unreadable"
+                    + ", " + getBytesReclaimed() + " bytes reclaimed";
+        }
+    }
+}
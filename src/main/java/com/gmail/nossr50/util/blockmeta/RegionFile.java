@@ -0,0 +1,30 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A file holding the compressed chunk stores of a 32x32 chunk region.
+ */
+public interface RegionFile {
+    /**
+     * @return a stream of the uncompressed data of a chunk, or null if the chunk has none
+     */
+    DataInputStream getInputStream(int x, int z) throws IOException;
+
+    /**
+     * @return a stream replacing the data of a chunk, written out when closed
+     */
+    DataOutputStream getOutputStream(int x, int z);
+
+    void close();
+
+    /**
+     * Opens the region file of a region, creating it if needed.
+     */
+    interface Factory {
+        RegionFile open(File file, int rx, int rz);
+    }
+}
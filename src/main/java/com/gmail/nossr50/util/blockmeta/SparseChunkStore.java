@@ -0,0 +1,416 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import com.gmail.nossr50.util.CompatManager;
+import org.bukkit.World;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * A ChunkStore made of 16x16x16 sections, where only sections with
+ * something set take any memory.
+ * <p>
+ * A section with few blocks set keeps a sorted list of them, a section with
+ * few blocks clear keeps a sorted list of those instead, and anything in
+ * between keeps a bit per block. Only non-empty sections are written, each
+ * in the smallest of those encodings. Stores of the older
+ * {@link BitSetChunkStore} formats are converted when read.
+ */
+public class SparseChunkStore implements ChunkStore {
+    public static final short STREAM_MAGIC = (short) 0xACDF; // Follows BitSetChunkStore.Serialization.STREAM_MAGIC
+    private static final int CURRENT_VERSION = 10;
+    private static final int MAGIC_NUMBER = 0xEA5EDEBB;
+
+    private static final int SECTION_BLOCKS = 16 * 16 * 16;
+    private static final int SECTION_WORDS = SECTION_BLOCKS / 64;
+    // Sections with at most this many blocks set, or clear, are kept as a list
+    private static final int LIST_LIMIT = 128;
+
+    // Section encodings
+    private static final byte ENCODING_FULL = 0;
+    private static final byte ENCODING_SET_LIST = 1;
+    private static final byte ENCODING_CLEAR_LIST = 2;
+    private static final byte ENCODING_BITS = 3;
+
+    private final int cx;
+    private final int cz;
+    private final int worldMin;
+    private final int worldMax;
+    private final UUID worldUid;
+    // Sections from the bottom of the world up, null when empty
+    private final Section[] sections;
+
+    private transient boolean dirty = false;
+
+    public SparseChunkStore(World world, int cx, int cz) {
+        this(world.getUID(), CompatManager.getWorldMinCompat(world), world.getMaxHeight(), cx, cz);
+    }
+
+    private SparseChunkStore(UUID worldUid, int worldMin, int worldMax, int cx, int cz) {
+        this.cx = cx;
+        this.cz = cz;
+        this.worldUid = worldUid;
+        this.worldMin = worldMin;
+        this.worldMax = worldMax;
+        this.sections = new Section[(worldMax - worldMin + 15) >> 4];
+    }
+
+    /**
+     * Convert a store read in the {@link BitSetChunkStore} format. The
+     * converted store is only dirty if the original was.
+     */
+    static SparseChunkStore copyOf(BitSetChunkStore chunkStore) {
+        SparseChunkStore copy = new SparseChunkStore(chunkStore.getWorldId(), chunkStore.getChunkMin(), chunkStore.getChunkMax(), chunkStore.getChunkX(), chunkStore.getChunkZ());
+        // Both stores order blocks the same way from the bottom up, so every 64 words of the bitset are one section
+        long[] words = chunkStore.toLongArray();
+
+        for (int i = 0; i < copy.sections.length && i * SECTION_WORDS < words.length; i++) {
+            long[] sectionWords = Arrays.copyOfRange(words, i * SECTION_WORDS, (i + 1) * SECTION_WORDS);
+            copy.sections[i] = Section.fromWords(sectionWords);
+        }
+
+        copy.dirty = chunkStore.isDirty();
+        return copy;
+    }
+
+    @Override
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    @Override
+    public void setDirty(boolean dirty) {
+        this.dirty = dirty;
+    }
+
+    @Override
+    public int getChunkX() {
+        return cx;
+    }
+
+    @Override
+    public int getChunkZ() {
+        return cz;
+    }
+
+    @Override
+    public int getChunkMin() {
+        return worldMin;
+    }
+
+    @Override
+    public int getChunkMax() {
+        return worldMax;
+    }
+
+    @Override
+    public UUID getWorldId() {
+        return worldUid;
+    }
+
+    @Override
+    public boolean isTrue(int x, int y, int z) {
+        checkBounds(x, y, z);
+        Section section = sections[(y - worldMin) >> 4];
+        return section != null && section.get(toSectionIndex(x, y, z));
+    }
+
+    @Override
+    public void setTrue(int x, int y, int z) {
+        set(x, y, z, true);
+    }
+
+    @Override
+    public void setFalse(int x, int y, int z) {
+        set(x, y, z, false);
+    }
+
+    @Override
+    public void set(int x, int y, int z, boolean value) {
+        checkBounds(x, y, z);
+        int sectionY = (y - worldMin) >> 4;
+        Section section = sections[sectionY];
+
+        if (section == null) {
+            if (!value)
+                return;
+            section = new Section();
+            sections[sectionY] = section;
+        }
+
+        section.set(toSectionIndex(x, y, z), value);
+
+        if (section.population == 0)
+            sections[sectionY] = null;
+
+        dirty = true;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (Section section : sections) {
+            if (section != null)
+                return false;
+        }
+
+        return true;
+    }
+
+    private void checkBounds(int x, int y, int z) {
+        if (x < 0 || x >= 16 || y < worldMin || y >= worldMax || z < 0 || z >= 16)
+            throw new IndexOutOfBoundsException(String.format("x: %d y: %d z: %d World Min: %d World Max: %d", x, y, z, worldMin, worldMax));
+    }
+
+    private int toSectionIndex(int x, int y, int z) {
+        return (z * 16 + x) + (256 * ((y - worldMin) & 15));
+    }
+
+    void serialize(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC_NUMBER);
+        out.writeInt(CURRENT_VERSION);
+
+        out.writeLong(worldUid.getLeastSignificantBits());
+        out.writeLong(worldUid.getMostSignificantBits());
+        out.writeInt(cx);
+        out.writeInt(cz);
+        out.writeInt(worldMin);
+        out.writeInt(worldMax);
+
+        int sectionCount = 0;
+
+        for (Section section : sections) {
+            if (section != null)
+                sectionCount++;
+        }
+
+        out.writeInt(sectionCount);
+
+        for (int i = 0; i < sections.length; i++) {
+            if (sections[i] == null)
+                continue;
+
+            // Sections are keyed by absolute height, so they stay put if the world height changes
+            out.writeInt((worldMin >> 4) + i);
+            sections[i].write(out);
+        }
+
+        dirty = false;
+    }
+
+    static SparseChunkStore deserialize(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        int fileVersionNumber = in.readInt();
+
+        if (magic != MAGIC_NUMBER || fileVersionNumber < CURRENT_VERSION)
+            throw new IOException();
+
+        long lsb = in.readLong();
+        long msb = in.readLong();
+        UUID worldUid = new UUID(msb, lsb);
+        int cx = in.readInt();
+        int cz = in.readInt();
+        int worldMin = in.readInt();
+        int worldMax = in.readInt();
+
+        int currentWorldMin = BitSetChunkStore.getWorldMin(worldUid, worldMin);
+        int currentWorldMax = BitSetChunkStore.getWorldMax(worldUid, worldMax);
+
+        SparseChunkStore chunkStore = new SparseChunkStore(worldUid, currentWorldMin, currentWorldMax, cx, cz);
+        int sectionCount = in.readInt();
+
+        for (int i = 0; i < sectionCount; i++) {
+            int sectionY = in.readInt() - (currentWorldMin >> 4);
+            Section section = Section.read(in);
+
+            // Lop off sections the world no longer has
+            if (sectionY >= 0 && sectionY < chunkStore.sections.length)
+                chunkStore.sections[sectionY] = section;
+        }
+
+        chunkStore.dirty = currentWorldMin != worldMin || currentWorldMax != worldMax;
+        return chunkStore;
+    }
+
+    /**
+     * The blocks of one 16x16x16 section, as a sorted list of the blocks set,
+     * a sorted list of the blocks clear, or a bit per block.
+     */
+    private static final class Section {
+        private static final short[] NO_POSITIONS = new short[0];
+
+        private long[] words; // A bit per block, or null while listed
+        private short[] positions = NO_POSITIONS; // The listed blocks, sorted
+        private int count; // The number of positions in use
+        private boolean listsClear; // Whether the positions are the blocks clear rather than set
+        private int population; // The number of blocks set
+
+        private static Section fromWords(long[] words) {
+            Section section = new Section();
+
+            for (long word : words)
+                section.population += Long.bitCount(word);
+
+            if (section.population == 0)
+                return null;
+
+            if (section.population > LIST_LIMIT && section.population < SECTION_BLOCKS - LIST_LIMIT) {
+                section.words = words;
+                return section;
+            }
+
+            section.listsClear = section.population >= SECTION_BLOCKS - LIST_LIMIT;
+            section.positions = new short[section.listsClear ? SECTION_BLOCKS - section.population : section.population];
+
+            for (int i = 0; i < SECTION_BLOCKS; i++) {
+                if (((words[i >> 6] & (1L << i)) != 0) != section.listsClear)
+                    section.positions[section.count++] = (short) i;
+            }
+
+            return section;
+        }
+
+        private boolean get(int index) {
+            if (words != null)
+                return (words[index >> 6] & (1L << index)) != 0;
+
+            return (Arrays.binarySearch(positions, 0, count, (short) index) >= 0) != listsClear;
+        }
+
+        private void set(int index, boolean value) {
+            if (words != null) {
+                long mask = 1L << index;
+
+                if (((words[index >> 6] & mask) != 0) == value)
+                    return;
+
+                words[index >> 6] ^= mask;
+                population += value ? 1 : -1;
+                return;
+            }
+
+            int found = Arrays.binarySearch(positions, 0, count, (short) index);
+
+            // Listed blocks differ from the rest of the section
+            if ((found >= 0) == (value != listsClear))
+                return;
+
+            if (found >= 0) {
+                System.arraycopy(positions, found + 1, positions, found, count - found - 1);
+                count--;
+            }
+            else if (count == LIST_LIMIT) {
+                toWords();
+                set(index, value);
+                return;
+            }
+            else {
+                int insertAt = -(found + 1);
+
+                if (count == positions.length)
+                    positions = Arrays.copyOf(positions, Math.min(LIST_LIMIT, Math.max(4, count * 2)));
+
+                System.arraycopy(positions, insertAt, positions, insertAt + 1, count - insertAt);
+                positions[insertAt] = (short) index;
+                count++;
+            }
+
+            population += value ? 1 : -1;
+        }
+
+        private void toWords() {
+            words = new long[SECTION_WORDS];
+
+            if (listsClear)
+                Arrays.fill(words, -1L);
+
+            for (int i = 0; i < count; i++)
+                words[positions[i] >> 6] ^= 1L << positions[i];
+
+            positions = NO_POSITIONS;
+            count = 0;
+            listsClear = false;
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            if (population == SECTION_BLOCKS) {
+                out.writeByte(ENCODING_FULL);
+                return;
+            }
+
+            boolean writeClear = population >= SECTION_BLOCKS - LIST_LIMIT;
+
+            if (!writeClear && population > LIST_LIMIT) {
+                out.writeByte(ENCODING_BITS);
+
+                for (long word : getWords())
+                    out.writeLong(word);
+
+                return;
+            }
+
+            out.writeByte(writeClear ? ENCODING_CLEAR_LIST : ENCODING_SET_LIST);
+            out.writeShort(writeClear ? SECTION_BLOCKS - population : population);
+
+            for (int i = 0; i < SECTION_BLOCKS; i++) {
+                if (get(i) != writeClear)
+                    out.writeShort(i);
+            }
+        }
+
+        private long[] getWords() {
+            if (words != null)
+                return words;
+
+            long[] copy = new long[SECTION_WORDS];
+
+            for (int i = 0; i < SECTION_BLOCKS; i++) {
+                if (get(i))
+                    copy[i >> 6] |= 1L << i;
+            }
+
+            return copy;
+        }
+
+        private static Section read(DataInputStream in) throws IOException {
+            byte encoding = in.readByte();
+            long[] words = new long[SECTION_WORDS];
+
+            switch (encoding) {
+                case ENCODING_FULL:
+                    Arrays.fill(words, -1L);
+                    break;
+
+                case ENCODING_SET_LIST:
+                case ENCODING_CLEAR_LIST:
+                    if (encoding == ENCODING_CLEAR_LIST)
+                        Arrays.fill(words, -1L);
+
+                    int listed = in.readUnsignedShort();
+
+                    for (int i = 0; i < listed; i++) {
+                        int index = in.readUnsignedShort();
+
+                        if (index >= SECTION_BLOCKS)
+                            throw new IOException("Bad section index " + index);
+
+                        words[index >> 6] ^= 1L << index;
+                    }
+                    break;
+
+                case ENCODING_BITS:
+                    for (int i = 0; i < SECTION_WORDS; i++)
+                        words[i] = in.readLong();
+                    break;
+
+                default:
+                    throw new IOException("Bad section encoding " + encoding);
+            }
+
+            // Pick the representation from the contents, not from how they were written
+            return fromWords(words);
+        }
+    }
+}
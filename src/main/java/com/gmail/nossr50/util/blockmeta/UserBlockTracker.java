@@ -2,7 +2,14 @@ package com.gmail.nossr50.util.blockmeta;
 
 import com.gmail.nossr50.mcMMO;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
 import org.bukkit.block.BlockState;
+import org.bukkit.block.PistonMoveReaction;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
 
 /**
  * Contains blockstore methods that are safe for external plugins to access.
@@ -52,4 +59,120 @@ public interface UserBlockTracker {
      * @param blockState BlockState location to set
      */
     void setFalse(BlockState blockState);
+
+    /**
+     * Check which of a list of block locations are set to true, looking up
+     * each chunk once
+     *
+     * @param blocks Block locations to check
+     * @return the indices in the list of the block locations that are set to true
+     */
+    default BitSet isTrue(List<Block> blocks) {
+        BitSet result = new BitSet(blocks.size());
+
+        for (int i = 0; i < blocks.size(); i++) {
+            if (isTrue(blocks.get(i)))
+                result.set(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Check which of a list of BlockState locations are set to true, looking
+     * up each chunk once
+     *
+     * @param blockStates BlockState locations to check
+     * @return the indices in the list of the BlockState locations that are set to true
+     */
+    default BitSet isTrueStates(List<BlockState> blockStates) {
+        BitSet result = new BitSet(blockStates.size());
+
+        for (int i = 0; i < blockStates.size(); i++) {
+            if (isTrue(blockStates.get(i)))
+                result.set(i);
+        }
+
+        return result;
+    }
+
+    /**
+     * Set a collection of block locations, looking up each chunk once
+     *
+     * @param blocks Block locations to set
+     * @param value The value to set them to
+     */
+    default void set(Collection<Block> blocks, boolean value) {
+        for (Block block : blocks) {
+            if (value)
+                setTrue(block);
+            else
+                setFalse(block);
+        }
+    }
+
+    /**
+     * Set a collection of BlockState locations, looking up each chunk once
+     *
+     * @param blockStates BlockState locations to set
+     * @param value The value to set them to
+     */
+    default void setStates(Collection<BlockState> blockStates, boolean value) {
+        for (BlockState blockState : blockStates) {
+            if (value)
+                setTrue(blockState);
+            else
+                setFalse(blockState);
+        }
+    }
+
+    /**
+     * Move the blocks of a piston event one block in a direction. The
+     * blocks the piston breaks are cleared, and the rest are moved as by
+     * {@link #move}. Locations no block moves to are left alone.
+     *
+     * @param blocks Block locations of the event, both moved and broken
+     * @param direction The direction the blocks move in
+     */
+    default void shift(Collection<Block> blocks, BlockFace direction) {
+        List<Block> moved = new ArrayList<>(blocks.size());
+        List<Block> broken = new ArrayList<>();
+
+        for (Block block : blocks) {
+            if (block.getPistonMoveReaction() == PistonMoveReaction.BREAK)
+                broken.add(block);
+            else
+                moved.add(block);
+        }
+
+        // Cleared first, a moved block may land where one of them was
+        set(broken, false);
+        move(moved, direction);
+    }
+
+    /**
+     * Move a collection of block locations one block in a direction. Every
+     * location a block moves to takes the value of that block, and the
+     * locations left empty are set to false, so a row of blocks may move
+     * into its own locations.
+     *
+     * @param blocks Block locations to move
+     * @param direction The direction to move them in
+     */
+    default void move(Collection<Block> blocks, BlockFace direction) {
+        List<Block> tracked = new ArrayList<>();
+
+        for (Block block : blocks) {
+            if (isTrue(block))
+                tracked.add(block);
+        }
+
+        for (Block block : blocks) {
+            setFalse(block);
+            setFalse(block.getRelative(direction));
+        }
+
+        for (Block block : tracked)
+            setTrue(block.getRelative(direction));
+    }
 }
@@ -281,6 +281,15 @@ public final class CommandRegistrationManager {
         command.setExecutor(new McconvertCommand());
     }
 
+    private static void registerMccompactCommand() {
+        PluginCommand command = mcMMO.p.getCommand("mccompact");
+        command.setDescription(LocaleLoader.getString("Commands.Description.mccompact"));
+        command.setPermission("mcmmo.commands.mccompact");
+        command.setPermissionMessage(permissionsMessage);
+        command.setUsage(LocaleLoader.getString("Commands.Usage.1", "mccompact", "[" + LocaleLoader.getString("Commands.Usage.World") + "]"));
+        command.setExecutor(new MccompactCommand());
+    }
+
     private static void registerAdminChatCommand() {
         PluginCommand command = mcMMO.p.getCommand("adminchat");
         command.setDescription(LocaleLoader.getString("Commands.Description.adminchat"));
@@ -422,6 +431,7 @@ public final class CommandRegistrationManager {
         registerMcremoveCommand();
         registerMmoshowdbCommand();
         registerMcconvertCommand();
+        registerMccompactCommand();
 
         // Experience Commands
         registerAddlevelsCommand();
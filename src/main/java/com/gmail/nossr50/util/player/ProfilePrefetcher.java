@@ -0,0 +1,416 @@
+package com.gmail.nossr50.util.player;
+
+import com.gmail.nossr50.config.Config;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
+import com.gmail.nossr50.mcMMO;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loads player profiles while players are still logging in.
+ * <p>
+ * Loads are started from AsyncPlayerPreLoginEvent on a fixed pool of
+ * threads, and the results are kept by uuid until the player joins, so the
+ * profile can usually be attached as soon as the player is online. At most
+ * Threads + Queue_Size loads are in flight at once. Further logins wait for
+ * a free slot up to the configured timeout and, failing that, load their
+ * profile after joining like before.
+ * <p>
+ * The login may still be denied after the prefetch, so only existing users
+ * are loaded. New players get no loaded profile, and are created when they
+ * join.
+ * <p>
+ * While a player is online, or their logout save is still running, the
+ * database may hold older data than the server does. No profile is
+ * prefetched for them then, and a prefetched profile is only used if the
+ * player's data did not change since it started loading. Stale loads are
+ * still waited for, so no second load of the same player runs alongside.
+ */
+public class ProfilePrefetcher {
+    private static final long EXPIRY_MILLIS = 60000L;
+    private static final int LATENCY_SAMPLES = 1024;
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final long timeout;
+    private final Map<UUID, PendingProfile> pendingProfiles = new ConcurrentHashMap<UUID, PendingProfile>();
+    private final Map<UUID, Session> sessions = new ConcurrentHashMap<UUID, Session>();
+    private final AtomicLong changeCount = new AtomicLong();
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private long latencyCount = 0;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong staleLoads = new AtomicLong();
+
+    public ProfilePrefetcher() {
+        Config config = Config.getInstance();
+
+        if (!config.getProfilePrefetchEnabled()) {
+            executor = null;
+            permits = null;
+            timeout = 0;
+            return;
+        }
+
+        executor = Executors.newFixedThreadPool(config.getProfilePrefetchThreads(), new LoaderThreadFactory());
+        permits = new Semaphore(config.getProfilePrefetchThreads() + config.getProfilePrefetchQueueSize());
+        timeout = config.getProfilePrefetchTimeout();
+    }
+
+    /**
+     * Start loading the profile of a player who is logging in, and wait up
+     * to the configured timeout for it. Must not be called from the main
+     * thread.
+     *
+     * @param playerName The name of the player
+     * @param uuid The uuid of the player
+     */
+    public void prefetch(final String playerName, final UUID uuid) {
+        if (executor == null) {
+            return;
+        }
+
+        expireStaleProfiles();
+
+        // Taken before the check, so a session starting in between makes the load stale
+        long sequence = changeCount.get();
+        Session session = sessions.get(uuid);
+
+        if (session != null && session.open > 0) {
+            mcMMO.p.debug(playerName + " is still online or being saved, their profile will be loaded after joining");
+            return;
+        }
+
+        long deadline = System.currentTimeMillis() + timeout;
+
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                rejections.incrementAndGet();
+                mcMMO.p.debug("Profile loading queue is full, " + playerName + " will be loaded after joining");
+                return;
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        final long start = System.nanoTime();
+        Future<PlayerProfile> future;
+
+        try {
+            future = executor.submit(new Callable<PlayerProfile>() {
+                @Override
+                public PlayerProfile call() {
+                    try {
+                        // Never create the user here, the login may still be denied
+                        return mcMMO.getDatabaseManager().loadPlayerProfile(playerName, uuid, false);
+                    }
+                    finally {
+                        recordLatency(System.nanoTime() - start);
+                        permits.release();
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            permits.release();
+            return;
+        }
+
+        pendingProfiles.put(uuid, new PendingProfile(future, sequence));
+
+        try {
+            future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException e) {
+            // Handled when the player joins
+        }
+        catch (TimeoutException e) {
+            // Keep loading, the player will pick it up after joining
+        }
+    }
+
+    /**
+     * Take the prefetched profile of a player who joined. Must be called
+     * before {@link #startSession} for the join.
+     *
+     * @param uuid The uuid of the player
+     * @return the pending load, or null if nothing was prefetched. The load
+     * of a stale profile gives null once it is done.
+     */
+    public Future<PlayerProfile> take(UUID uuid) {
+        PendingProfile pendingProfile = pendingProfiles.remove(uuid);
+
+        if (pendingProfile == null) {
+            if (executor != null) {
+                misses.incrementAndGet();
+            }
+
+            return null;
+        }
+
+        Session session = sessions.get(uuid);
+
+        if ((session != null && (session.open > 0 || session.lastChange > pendingProfile.sequence)) || pendingProfile.isExpired(System.currentTimeMillis())) {
+            staleLoads.incrementAndGet();
+            return new StaleLoad(pendingProfile.future);
+        }
+
+        if (pendingProfile.future.isDone()) {
+            hits.incrementAndGet();
+        }
+        else {
+            waits.incrementAndGet();
+        }
+
+        return pendingProfile.future;
+    }
+
+    /**
+     * Record that a player joined. Their data may change from now on, until
+     * {@link #endSession} is called after their logout save.
+     *
+     * @param uuid The uuid of the player
+     */
+    public void startSession(UUID uuid) {
+        if (executor == null) {
+            return;
+        }
+
+        sessions.compute(uuid, (key, session) -> {
+            if (session == null) {
+                session = new Session();
+            }
+
+            session.open++;
+            session.lastChange = changeCount.incrementAndGet();
+            return session;
+        });
+    }
+
+    /**
+     * Record that the logout of a player is done, their data saved or
+     * dropped. May be called from any thread.
+     *
+     * @param uuid The uuid of the player
+     */
+    public void endSession(UUID uuid) {
+        if (executor == null) {
+            return;
+        }
+
+        sessions.compute(uuid, (key, session) -> {
+            if (session == null) {
+                session = new Session();
+            }
+
+            session.open = Math.max(0, session.open - 1);
+            session.lastChange = changeCount.incrementAndGet();
+            session.ended = System.currentTimeMillis();
+            return session;
+        });
+    }
+
+    /**
+     * Forget the prefetched profile of a player, for logins that were denied.
+     *
+     * @param uuid The uuid of the player
+     */
+    public void discard(UUID uuid) {
+        pendingProfiles.remove(uuid);
+    }
+
+    /**
+     * Get a percentile of the time taken by recent profile loads, from the
+     * start of the login to the profile being ready.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return the load time in milliseconds, or 0 if nothing was loaded yet
+     */
+    public double getLoadLatencyPercentile(double percentile) {
+        long[] samples;
+
+        synchronized (latencies) {
+            samples = Arrays.copyOf(latencies, (int) Math.min(latencyCount, LATENCY_SAMPLES));
+        }
+
+        if (samples.length == 0) {
+            return 0;
+        }
+
+        Arrays.sort(samples);
+        int index = (int) Math.ceil(percentile / 100.0D * samples.length) - 1;
+        return samples[Math.max(0, Math.min(index, samples.length - 1))] / 1000000.0D;
+    }
+
+    /**
+     * Get the number of joins whose profile was ready when they joined.
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of joins whose profile was still loading when they joined.
+     */
+    public long getWaitCount() {
+        return waits.get();
+    }
+
+    /**
+     * Get the number of joins for which no profile was prefetched.
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of logins turned away because too many loads were queued.
+     */
+    public long getRejectionCount() {
+        return rejections.get();
+    }
+
+    /**
+     * Get the number of joins whose prefetched profile was older than their data.
+     */
+    public long getStaleCount() {
+        return staleLoads.get();
+    }
+
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+
+        // Loads that never started would never finish, and joins may be waiting for them
+        for (Runnable load : executor.shutdownNow()) {
+            if (load instanceof Future) {
+                ((Future<?>) load).cancel(false);
+            }
+        }
+
+        pendingProfiles.clear();
+        sessions.clear();
+
+        mcMMO.p.debug(String.format("Profile prefetching: %d ready, %d waited, %d missed, %d rejected, %d stale, load times p50 %.1fms p95 %.1fms p99 %.1fms",
+                getHitCount(), getWaitCount(), getMissCount(), getRejectionCount(), getStaleCount(),
+                getLoadLatencyPercentile(50), getLoadLatencyPercentile(95), getLoadLatencyPercentile(99)));
+    }
+
+    private void recordLatency(long nanos) {
+        synchronized (latencies) {
+            latencies[(int) (latencyCount % LATENCY_SAMPLES)] = nanos;
+            latencyCount++;
+        }
+    }
+
+    private void expireStaleProfiles() {
+        long now = System.currentTimeMillis();
+
+        // Loads still running are kept, a join must not load the player a second time alongside one
+        for (Iterator<PendingProfile> iterator = pendingProfiles.values().iterator(); iterator.hasNext();) {
+            PendingProfile pendingProfile = iterator.next();
+
+            if (pendingProfile.isExpired(now) && pendingProfile.future.isDone()) {
+                iterator.remove();
+            }
+        }
+
+        // Any load that started before these sessions ended has expired
+        for (Iterator<Session> iterator = sessions.values().iterator(); iterator.hasNext();) {
+            Session session = iterator.next();
+
+            if (session.open == 0 && now - session.ended > EXPIRY_MILLIS) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static final class PendingProfile {
+        private final Future<PlayerProfile> future;
+        private final long sequence;
+        private final long created = System.currentTimeMillis();
+
+        private PendingProfile(Future<PlayerProfile> future, long sequence) {
+            this.future = future;
+            this.sequence = sequence;
+        }
+
+        private boolean isExpired(long now) {
+            return now - created > EXPIRY_MILLIS;
+        }
+    }
+
+    /**
+     * The joins and logouts of a player, only changed inside compute.
+     */
+    private static final class Session {
+        private volatile int open;
+        private volatile long lastChange;
+        private volatile long ended;
+    }
+
+    /**
+     * A load whose profile is not to be used, but which still has to be
+     * waited for.
+     */
+    private static final class StaleLoad implements Future<PlayerProfile> {
+        private final Future<PlayerProfile> load;
+
+        private StaleLoad(Future<PlayerProfile> load) {
+            this.load = load;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return load.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return load.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return load.isDone();
+        }
+
+        @Override
+        public PlayerProfile get() throws InterruptedException, ExecutionException {
+            load.get();
+            return null;
+        }
+
+        @Override
+        public PlayerProfile get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            load.get(timeout, unit);
+            return null;
+        }
+    }
+
+    private static final class LoaderThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "mcMMO Profile Loader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
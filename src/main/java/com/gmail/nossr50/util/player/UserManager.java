@@ -1,6 +1,7 @@
 package com.gmail.nossr50.util.player;
 
 import com.gmail.nossr50.datatypes.player.McMMOPlayer;
+import com.gmail.nossr50.datatypes.player.PlayerProfile;
 import com.gmail.nossr50.mcMMO;
 import com.google.common.collect.ImmutableList;
 import org.bukkit.OfflinePlayer;
@@ -10,6 +11,7 @@ import org.bukkit.metadata.FixedMetadataValue;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public final class UserManager {
 
@@ -47,18 +49,21 @@ public final class UserManager {
      */
     public static void saveAll() {
         ImmutableList<Player> onlinePlayers = ImmutableList.copyOf(mcMMO.p.getServer().getOnlinePlayers());
+        List<PlayerProfile> profiles = new ArrayList<PlayerProfile>(onlinePlayers.size());
         mcMMO.p.debug("Saving mcMMOPlayers... (" + onlinePlayers.size() + ")");
 
         for (Player player : onlinePlayers) {
             try
             {
-                getPlayer(player).getProfile().save();
+                profiles.add(getPlayer(player).getProfile());
             }
             catch (Exception e)
             {
                 mcMMO.p.getLogger().warning("Could not save mcMMO player data for player: " + player.getName());
             }
         }
+
+        PlayerProfile.saveAll(profiles);
     }
 
     public static Collection<McMMOPlayer> getPlayers() {
@@ -19,6 +19,7 @@ import com.gmail.nossr50.skills.swords.SwordsManager;
 import com.gmail.nossr50.skills.taming.TamingManager;
 import com.gmail.nossr50.skills.unarmed.UnarmedManager;
 import com.gmail.nossr50.util.*;
+import com.gmail.nossr50.util.EntityFlagStore.Flag;
 import com.gmail.nossr50.util.player.UserManager;
 import com.google.common.collect.ImmutableMap;
 import org.bukkit.GameMode;
@@ -428,7 +429,7 @@ public final class CombatUtils {
     }
 
     /**
-     * Start the task that gives combat XP.
+     * Queue the combat XP of a hit, given on the next tick.
      *
      * @param mcMMOPlayer The attacking player
      * @param target The defending entity
@@ -485,11 +486,11 @@ public final class CombatUtils {
                 }
             }
 
-            if (target.hasMetadata(mcMMO.entityMetadataKey)) {
+            if (mcMMO.getEntityFlags().has(target, Flag.SPAWNED)) {
                 baseXP *= ExperienceConfig.getInstance().getSpawnedMobXpMultiplier();
             }
 
-            if (target.hasMetadata(mcMMO.bredMetadataKey)) {
+            if (mcMMO.getEntityFlags().has(target, Flag.BRED)) {
                 baseXP *= ExperienceConfig.getInstance().getBredMobXpMultiplier();
             }
 
@@ -501,7 +502,7 @@ public final class CombatUtils {
         baseXP *= multiplier;
 
         if (baseXP != 0) {
-            new AwardCombatXpTask(mcMMOPlayer, skillType, baseXP, target, xpGainReason).runTaskLater(mcMMO.p, 0);
+            AwardCombatXpTask.add(mcMMOPlayer, skillType, baseXP, target, xpGainReason);
         }
     }
 
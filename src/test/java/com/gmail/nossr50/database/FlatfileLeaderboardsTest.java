@@ -0,0 +1,148 @@
+package com.gmail.nossr50.database;
+
+import com.gmail.nossr50.datatypes.database.PlayerStat;
+import com.gmail.nossr50.datatypes.skills.SkillType;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class FlatfileLeaderboardsTest {
+    private static List<String> names(List<PlayerStat> stats) {
+        List<String> names = new ArrayList<String>();
+
+        for (PlayerStat stat : stats) {
+            names.add(stat.name);
+        }
+
+        return names;
+    }
+
+    @Test
+    public void testTiesOrderedByName() {
+        FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
+        leaderboards.update("Bob", SkillType.MINING, 10);
+        leaderboards.update("alice", SkillType.MINING, 10);
+        leaderboards.update("Carl", SkillType.MINING, 20);
+        leaderboards.update("dave", SkillType.MINING, 10);
+
+        // Ties are settled alphabetically, ignoring case
+        Assert.assertEquals(Arrays.asList("Carl", "alice", "Bob", "dave"), names(leaderboards.getRange(SkillType.MINING, 0, 10)));
+        Assert.assertEquals(Arrays.asList("alice", "Bob"), names(leaderboards.getRange(SkillType.MINING, 1, 2)));
+        Assert.assertEquals(Integer.valueOf(1), leaderboards.getRanks("carl").get(SkillType.MINING));
+        Assert.assertEquals(Integer.valueOf(2), leaderboards.getRanks("alice").get(SkillType.MINING));
+        Assert.assertEquals(Integer.valueOf(3), leaderboards.getRanks("Bob").get(SkillType.MINING));
+        Assert.assertEquals(Integer.valueOf(4), leaderboards.getRanks("dave").get(SkillType.MINING));
+
+        // Everyone else is tied at 0 in the other skills
+        Assert.assertEquals(Integer.valueOf(3), leaderboards.getRanks("Carl").get(SkillType.WOODCUTTING));
+        Assert.assertEquals(Integer.valueOf(1), leaderboards.getRanks("Carl").get(null));
+    }
+
+    @Test
+    public void testUpdateMovesRank() {
+        FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
+        leaderboards.update("alice", SkillType.MINING, 10);
+        leaderboards.update("bob", SkillType.MINING, 20);
+        leaderboards.update("bob", SkillType.HERBALISM, 5);
+        Assert.assertEquals(Integer.valueOf(2), leaderboards.getRanks("alice").get(SkillType.MINING));
+
+        Map<SkillType, Integer> levels = new EnumMap<SkillType, Integer>(SkillType.class);
+        levels.put(SkillType.MINING, 30);
+        levels.put(SkillType.HERBALISM, 1);
+        leaderboards.update("alice", levels);
+        Assert.assertEquals(Integer.valueOf(1), leaderboards.getRanks("alice").get(SkillType.MINING));
+        Assert.assertEquals(Integer.valueOf(1), leaderboards.getRanks("alice").get(null));
+        Assert.assertEquals(Integer.valueOf(2), leaderboards.getRanks("alice").get(SkillType.HERBALISM));
+
+        List<PlayerStat> powerLevels = leaderboards.getRange(null, 0, 10);
+        Assert.assertEquals(Arrays.asList("alice", "bob"), names(powerLevels));
+        Assert.assertEquals(31, powerLevels.get(0).statVal);
+        Assert.assertEquals(25, powerLevels.get(1).statVal);
+    }
+
+    @Test
+    public void testRemove() {
+        FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
+        leaderboards.update("alice", SkillType.MINING, 10);
+        leaderboards.update("bob", SkillType.MINING, 10);
+        leaderboards.update("carl", SkillType.MINING, 20);
+
+        leaderboards.remove("CARL");
+        Assert.assertTrue(leaderboards.getRanks("carl").isEmpty());
+        Assert.assertEquals(Integer.valueOf(1), leaderboards.getRanks("alice").get(SkillType.MINING));
+        Assert.assertEquals(Integer.valueOf(2), leaderboards.getRanks("bob").get(SkillType.MINING));
+        Assert.assertEquals(Arrays.asList("alice", "bob"), names(leaderboards.getRange(null, 0, 10)));
+
+        // Removing an unknown user changes nothing
+        leaderboards.remove("dave");
+        Assert.assertEquals(2, leaderboards.getRange(SkillType.MINING, 0, 10).size());
+
+        leaderboards.remove("alice");
+        leaderboards.remove("bob");
+        Assert.assertTrue(leaderboards.getRange(SkillType.MINING, 0, 10).isEmpty());
+    }
+
+    @Test
+    public void testInvalidNamesIgnored() {
+        FlatfileLeaderboards leaderboards = new FlatfileLeaderboards();
+        leaderboards.update("_INVALID_OLD_USERNAME_", SkillType.MINING, 10);
+        leaderboards.update(null, SkillType.MINING, 10);
+        leaderboards.update("alice", SkillType.SMELTING, 10);
+        Assert.assertTrue(leaderboards.getRange(SkillType.MINING, 0, 10).isEmpty());
+        Assert.assertTrue(leaderboards.getRanks("alice").isEmpty());
+    }
+
+    @Test
+    public void testAgainstSortedList() {
+        FlatfileLeaderboards.RankTree tree = new FlatfileLeaderboards.RankTree();
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        Random random = new Random(0);
+
+        for (int step = 0; step < 20000; step++) {
+            String name = "player" + random.nextInt(500);
+            Integer level = expected.remove(name);
+
+            if (level != null) {
+                tree.remove(name, level);
+            }
+
+            // Few distinct levels, so most entries are tied with others
+            if (random.nextInt(4) != 0) {
+                int newLevel = random.nextInt(20);
+                tree.insert(name, newLevel);
+                expected.put(name, newLevel);
+            }
+        }
+
+        List<Map.Entry<String, Integer>> sorted = new ArrayList<Map.Entry<String, Integer>>(expected.entrySet());
+        Collections.sort(sorted, new Comparator<Map.Entry<String, Integer>>() {
+            @Override
+            public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+                int compare = b.getValue().compareTo(a.getValue());
+                return compare != 0 ? compare : a.getKey().compareTo(b.getKey());
+            }
+        });
+
+        List<PlayerStat> stats = new ArrayList<PlayerStat>();
+        tree.collect(0, sorted.size() + 10, stats);
+        Assert.assertEquals(sorted.size(), stats.size());
+
+        for (int i = 0; i < sorted.size(); i++) {
+            Map.Entry<String, Integer> entry = sorted.get(i);
+            Assert.assertEquals(entry.getKey(), stats.get(i).name);
+            Assert.assertEquals(entry.getValue().intValue(), stats.get(i).statVal);
+            Assert.assertEquals(Integer.valueOf(i + 1), tree.rank(entry.getKey(), entry.getValue()));
+        }
+
+        Assert.assertNull(tree.rank("player0", -1));
+    }
+}
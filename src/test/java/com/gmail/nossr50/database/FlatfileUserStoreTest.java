@@ -0,0 +1,225 @@
+package com.gmail.nossr50.database;
+
+import com.gmail.nossr50.TestUtil;
+import com.google.common.base.Strings;
+import com.google.common.io.Files;
+import org.junit.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+public class FlatfileUserStoreTest {
+    private static final int UUID_INDEX = 2;
+
+    private static File tempDir;
+    @BeforeClass
+    public static void setUpClass() {
+        tempDir = Files.createTempDir();
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        TestUtil.recursiveDelete(tempDir);
+    }
+
+    private File file;
+    @Before
+    public void setUpFile() {
+        file = new File(tempDir, "users-" + UUID.randomUUID() + ".txt");
+    }
+
+    private static String record(String name, int level, UUID uuid) {
+        return name + ":" + level + ":" + uuid + ":";
+    }
+
+    private static List<String> readAll(FlatfileUserStore store) throws IOException {
+        List<String> records = new ArrayList<String>();
+
+        try (BufferedReader in = store.openReader()) {
+            String record;
+
+            while ((record = FlatfileUserStore.nextRecord(in)) != null) {
+                records.add(record);
+            }
+        }
+
+        return records;
+    }
+
+    @Test
+    public void testWriteWithinHeadroom() throws IOException {
+        FlatfileUserStore store = new FlatfileUserStore(file, UUID_INDEX);
+        UUID uuid = UUID.randomUUID();
+        FlatfileUserStore.Slot slot = store.append(record("alice", 1, uuid));
+        long length = file.length();
+
+        // A few more digits fit in the padding of the slot
+        FlatfileUserStore.Slot patched = store.write(slot, record("alice", 100000, uuid));
+        Assert.assertSame(slot, patched);
+        Assert.assertEquals(length, file.length());
+        Assert.assertEquals(record("alice", 100000, uuid), store.read(patched));
+        Assert.assertFalse(store.needsCompaction());
+    }
+
+    @Test
+    public void testWritePastHeadroomRelocates() throws IOException {
+        FlatfileUserStore store = new FlatfileUserStore(file, UUID_INDEX);
+        UUID uuid = UUID.randomUUID();
+        UUID bobId = UUID.randomUUID();
+        FlatfileUserStore.Slot slot = store.append(record("alice", 1, uuid));
+        store.append(record("bob", 2, bobId));
+        long length = file.length();
+
+        String grown = record("alice", 1, uuid) + Strings.repeat("0:", 100);
+        FlatfileUserStore.Slot relocated = store.write(slot, grown);
+        Assert.assertNotSame(slot, relocated);
+        Assert.assertTrue(file.length() > length);
+        Assert.assertSame(relocated, store.getByName("ALICE"));
+        Assert.assertSame(relocated, store.getByUniqueId(uuid));
+        Assert.assertEquals(grown, store.read(relocated));
+
+        // The old slot is blanked out, so a scan only finds the moved record
+        Assert.assertEquals("", store.read(slot));
+        Assert.assertEquals(Arrays.asList(record("bob", 2, bobId), grown), readAll(store));
+    }
+
+    @Test
+    public void testReloadFromDisk() throws IOException {
+        FlatfileUserStore store = new FlatfileUserStore(file, UUID_INDEX);
+        UUID aliceId = UUID.randomUUID();
+        UUID bobId = UUID.randomUUID();
+        UUID carlId = UUID.randomUUID();
+        FlatfileUserStore.Slot alice = store.append(record("alice", 1, aliceId));
+        store.append(record("bob", 2, bobId));
+        FlatfileUserStore.Slot carl = store.append(record("carl", 3, carlId));
+        String grown = record("alice", 1, aliceId) + Strings.repeat("0:", 100);
+        store.write(alice, grown);
+        store.remove(carl);
+
+        FlatfileUserStore reloaded = new FlatfileUserStore(file, UUID_INDEX);
+        reloaded.load();
+        Assert.assertEquals(grown, reloaded.read(reloaded.getByUniqueId(aliceId)));
+        Assert.assertEquals(record("bob", 2, bobId), reloaded.read(reloaded.getByName("Bob")));
+        Assert.assertNull(reloaded.getByName("carl"));
+        Assert.assertNull(reloaded.getByUniqueId(carlId));
+
+        List<String> names = reloaded.getNames();
+        Collections.sort(names);
+        Assert.assertEquals(Arrays.asList("alice", "bob"), names);
+
+        // Slots found on load are patched in place like appended ones
+        FlatfileUserStore.Slot bob = reloaded.getByName("bob");
+        Assert.assertSame(bob, reloaded.write(bob, record("bob", 20, bobId)));
+        reloaded.load();
+        Assert.assertEquals(record("bob", 20, bobId), reloaded.read(reloaded.getByName("bob")));
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        FlatfileUserStore store = new FlatfileUserStore(file, UUID_INDEX);
+        List<UUID> uuids = new ArrayList<UUID>();
+
+        for (int i = 0; i < 2000; i++) {
+            uuids.add(UUID.randomUUID());
+            store.append(record("player" + i, i, uuids.get(i)));
+        }
+
+        for (int i = 0; i < 2000; i += 2) {
+            store.remove(store.getByUniqueId(uuids.get(i)));
+        }
+
+        long length = file.length();
+        Assert.assertTrue(store.needsCompaction());
+        store.compact();
+        Assert.assertFalse(store.needsCompaction());
+        Assert.assertTrue(file.length() < length);
+
+        FlatfileUserStore reloaded = new FlatfileUserStore(file, UUID_INDEX);
+        reloaded.load();
+
+        for (int i = 0; i < 2000; i++) {
+            FlatfileUserStore.Slot slot = store.getByUniqueId(uuids.get(i));
+
+            if (i % 2 == 0) {
+                Assert.assertNull(slot);
+                Assert.assertNull(reloaded.getByUniqueId(uuids.get(i)));
+                continue;
+            }
+
+            Assert.assertEquals(record("player" + i, i, uuids.get(i)), store.read(slot));
+            Assert.assertEquals(record("player" + i, i, uuids.get(i)), reloaded.read(reloaded.getByName("player" + i)));
+        }
+    }
+
+    @Test
+    public void testResumeFromRecordOffset() throws IOException {
+        FlatfileUserStore store = new FlatfileUserStore(file, UUID_INDEX);
+        UUID aliceId = UUID.randomUUID();
+        UUID bobId = UUID.randomUUID();
+        UUID carlId = UUID.randomUUID();
+        FlatfileUserStore.Slot alice = store.append(record("alice", 1, aliceId));
+        store.append(record("bob", 2, bobId));
+        store.append(record("carl", 3, carlId));
+        // Leaves a blank slot at the start of the file
+        String grown = record("alice", 1, aliceId) + Strings.repeat("0:", 100);
+        store.write(alice, grown);
+
+        File copy = new File(file.getPath() + ".copy");
+        store.copyTo(copy);
+        // Changes after the copy is taken don't show up in it
+        store.remove(store.getByName("carl"));
+
+        List<String> records = new ArrayList<String>();
+        List<Long> offsets = new ArrayList<Long>();
+
+        try (FlatfileUserStore.RecordReader in = FlatfileUserStore.openRecordReader(copy, 0)) {
+            String record;
+
+            while ((record = in.next()) != null) {
+                records.add(record);
+                offsets.add(in.getRecordOffset());
+            }
+        }
+
+        Assert.assertEquals(Arrays.asList(record("bob", 2, bobId), record("carl", 3, carlId), grown), records);
+
+        try (FlatfileUserStore.RecordReader in = FlatfileUserStore.openRecordReader(copy, offsets.get(1))) {
+            Assert.assertEquals(record("carl", 3, carlId), in.next());
+            Assert.assertEquals(offsets.get(1).longValue(), in.getRecordOffset());
+            Assert.assertEquals(grown, in.next());
+            Assert.assertNull(in.next());
+        }
+    }
+
+    @Test
+    public void testFailedRewriteKeepsIndex() throws IOException {
+        FlatfileUserStore store = new FlatfileUserStore(file, UUID_INDEX);
+        UUID uuid = UUID.randomUUID();
+        store.append(record("alice", 1, uuid));
+
+        // The temp file can't be created where a directory is in the way
+        File tempFile = new File(file.getPath() + ".tmp");
+        Assert.assertTrue(tempFile.mkdir());
+
+        try {
+            store.rewrite(Collections.singletonList(record("bob", 2, UUID.randomUUID())));
+            Assert.fail("The rewrite should have failed");
+        }
+        catch (IOException expected) {
+            // Expected
+        }
+        finally {
+            tempFile.delete();
+        }
+
+        Assert.assertNull(store.getByName("bob"));
+        Assert.assertEquals(record("alice", 1, uuid), store.read(store.getByUniqueId(uuid)));
+        Assert.assertEquals(Collections.singletonList(record("alice", 1, uuid)), readAll(store));
+    }
+}
@@ -0,0 +1,147 @@
+package com.gmail.nossr50.util;
+
+import com.gmail.nossr50.mcMMO;
+import com.gmail.nossr50.util.EntityFlagStore.Flag;
+import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.mockito.Mockito.mock;
+
+public class EntityFlagStoreTest {
+    private static Entity mockEntity(int id) {
+        Entity entity = mock(Entity.class);
+        Mockito.when(entity.getEntityId()).thenReturn(id);
+        return entity;
+    }
+
+    @Test
+    public void testSetAndRemove() {
+        EntityFlagStore store = new EntityFlagStore(null);
+        Entity entity = mockEntity(42);
+
+        Assert.assertFalse(store.has(entity, Flag.SPAWNED));
+        store.set(entity, Flag.SPAWNED);
+        store.set(entity, Flag.FUNFETTI);
+        Assert.assertTrue(store.has(entity, Flag.SPAWNED));
+        Assert.assertTrue(store.has(entity, Flag.FUNFETTI));
+        Assert.assertFalse(store.has(entity, Flag.BRED));
+
+        Assert.assertTrue(store.remove(entity, Flag.SPAWNED));
+        Assert.assertFalse(store.remove(entity, Flag.SPAWNED));
+        Assert.assertTrue(store.has(entity, Flag.FUNFETTI));
+        Assert.assertEquals(1, store.size());
+
+        store.forget(entity);
+        Assert.assertEquals(0, store.size());
+        Assert.assertFalse(store.has(entity, Flag.FUNFETTI));
+    }
+
+    @Test
+    public void testSeededFromMetadataOnce() {
+        EntityFlagStore store = new EntityFlagStore(null);
+        Entity marked = mockEntity(7);
+        Entity unmarked = mockEntity(8);
+        // Marked by another plugin
+        Mockito.when(marked.hasMetadata(mcMMO.entityMetadataKey)).thenReturn(true);
+
+        for (int i = 0; i < 3; i++) {
+            Assert.assertTrue(store.has(marked, Flag.SPAWNED));
+            Assert.assertFalse(store.has(marked, Flag.BRED));
+            Assert.assertFalse(store.has(unmarked, Flag.SPAWNED));
+        }
+
+        store.set(marked, Flag.BRED);
+        store.remove(marked, Flag.SPAWNED);
+        store.forget(unmarked);
+        Assert.assertFalse(store.has(marked, Flag.SPAWNED));
+        Assert.assertTrue(store.has(marked, Flag.BRED));
+
+        // Misses are remembered too, and the metadata is never written
+        Mockito.verify(marked, Mockito.times(1)).hasMetadata(mcMMO.entityMetadataKey);
+        Mockito.verify(unmarked, Mockito.times(1)).hasMetadata(mcMMO.entityMetadataKey);
+        Mockito.verify(marked, Mockito.never()).setMetadata(Mockito.anyString(), Mockito.any());
+        Mockito.verify(marked, Mockito.never()).removeMetadata(Mockito.anyString(), Mockito.any());
+        Mockito.verify(unmarked, Mockito.never()).removeMetadata(Mockito.anyString(), Mockito.any());
+    }
+
+    @Test
+    public void testAgainstMap() {
+        EntityFlagStore store = new EntityFlagStore(null);
+        Map<Integer, Integer> expected = new HashMap<>();
+        Flag[] flags = Flag.values();
+        Random random = new Random(0);
+        Entity[] entities = new Entity[5000];
+
+        for (int i = 0; i < entities.length; i++)
+            entities[i] = mockEntity(random.nextInt(20000) - 1000);
+
+        for (int step = 0; step < 200000; step++) {
+            Entity entity = entities[random.nextInt(entities.length)];
+            int id = entity.getEntityId();
+            Flag flag = flags[random.nextInt(flags.length)];
+            int mask = expected.getOrDefault(id, 0);
+
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    store.set(entity, flag);
+                    mask |= 1 << flag.ordinal();
+                    break;
+                case 2:
+                    Assert.assertEquals((mask & 1 << flag.ordinal()) != 0, store.remove(entity, flag));
+                    mask &= ~(1 << flag.ordinal());
+                    break;
+                default:
+                    store.forget(entity);
+                    mask = 0;
+            }
+
+            if (mask == 0)
+                expected.remove(id);
+            else
+                expected.put(id, mask);
+
+            Flag checked = flags[random.nextInt(flags.length)];
+            Entity other = entities[random.nextInt(entities.length)];
+            Assert.assertEquals((expected.getOrDefault(other.getEntityId(), 0) & 1 << checked.ordinal()) != 0, store.has(other, checked));
+        }
+
+        for (Entity entity : entities) {
+            for (Flag flag : flags)
+                Assert.assertEquals((expected.getOrDefault(entity.getEntityId(), 0) & 1 << flag.ordinal()) != 0, store.has(entity, flag));
+        }
+    }
+
+    @Test
+    public void testPurge() {
+        EntityFlagStore store = new EntityFlagStore(null);
+        List<Entity> alive = new ArrayList<>();
+
+        for (int id = 0; id < 3000; id++) {
+            Entity entity = mockEntity(id);
+            store.set(entity, Flag.BRED);
+
+            if (id % 3 == 0)
+                alive.add(entity);
+        }
+
+        World world = mock(World.class);
+        Mockito.when(world.getEntities()).thenReturn(alive);
+
+        Assert.assertEquals(2000, store.purge(Collections.singletonList(world)));
+        Assert.assertEquals(1000, store.size());
+
+        for (int id = 0; id < 3000; id++)
+            Assert.assertEquals(id % 3 == 0, store.has(mockEntity(id), Flag.BRED));
+    }
+}
@@ -7,6 +7,8 @@ import com.google.common.io.Files;
 import org.bukkit.Bukkit;
 import org.bukkit.World;
 import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.PistonMoveReaction;
 import org.junit.*;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -15,7 +17,13 @@ import org.powermock.core.classloader.annotations.PrepareForTest;
 import org.powermock.modules.junit4.PowerMockRunner;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
+import java.util.logging.Logger;
 
 import static org.mockito.Mockito.mock;
 
@@ -148,6 +156,76 @@ public class ChunkStoreTest {
         file.delete();
     }
 
+    @Test
+    public void testNIORegionCompatibility() throws IOException {
+        SparseChunkStore original = new SparseChunkStore(mockWorld, 12, 12);
+        original.setTrue(14, 89, 12);
+        original.setTrue(14, 90, 12);
+        original.setTrue(13, 89, 12);
+        File file = new File(tempDir, "NIORegionCompatibility.region");
+        RegionFile region = new NIORegionFile(file, 0, 0);
+        try (DataOutputStream outputStream = region.getOutputStream(12, 12)){
+            outputStream.write(serializeChunkstore(original));
+        }
+        region.close();
+        // Both backends read the same file format
+        region = new McMMOSimpleRegionFile(file, 0, 0);
+        try (DataInputStream is = region.getInputStream(original.getChunkX(), original.getChunkZ()))
+        {
+            Assert.assertNotNull(is);
+            assertEqual(original, BitSetChunkStore.Serialization.readChunkStore(is));
+        }
+        try (DataOutputStream outputStream = region.getOutputStream(3, 4)){
+            outputStream.write(serializeChunkstore(original));
+        }
+        region.close();
+        region = new NIORegionFile(file, 0, 0);
+        Assert.assertNull(region.getInputStream(5, 5));
+        try (DataInputStream is = region.getInputStream(3, 4))
+        {
+            Assert.assertNotNull(is);
+            assertEqualIgnoreMinMax(original, BitSetChunkStore.Serialization.readChunkStore(is));
+        }
+        region.close();
+        file.delete();
+    }
+
+    @Test
+    public void testNIORegionHeaderWrittenOnClose() throws IOException {
+        SparseChunkStore original = new SparseChunkStore(mockWorld, 12, 12);
+        original.setTrue(14, 89, 12);
+        SparseChunkStore updated = new SparseChunkStore(mockWorld, 12, 12);
+        updated.setTrue(14, 89, 12);
+        updated.setTrue(15, 90, 13);
+        File file = new File(tempDir, "NIORegionHeader.region");
+        RegionFile region = new NIORegionFile(file, 0, 0);
+        try (DataOutputStream outputStream = region.getOutputStream(12, 12)){
+            outputStream.write(serializeChunkstore(original));
+        }
+        region.close();
+        region = new NIORegionFile(file, 0, 0);
+        try (DataOutputStream outputStream = region.getOutputStream(12, 12)){
+            outputStream.write(serializeChunkstore(updated));
+        }
+        // Until the header is written the file still points at the intact old copy
+        RegionFile reader = new McMMOSimpleRegionFile(file, 0, 0);
+        try (DataInputStream is = reader.getInputStream(12, 12))
+        {
+            Assert.assertNotNull(is);
+            assertEqual(original, BitSetChunkStore.Serialization.readChunkStore(is));
+        }
+        reader.close();
+        region.close();
+        reader = new McMMOSimpleRegionFile(file, 0, 0);
+        try (DataInputStream is = reader.getInputStream(12, 12))
+        {
+            Assert.assertNotNull(is);
+            assertEqual(updated, BitSetChunkStore.Serialization.readChunkStore(is));
+        }
+        reader.close();
+        file.delete();
+    }
+
     @Test
     public void testSimpleRegionRejectsOutOfBounds() {
         File file = new File(tempDir, "SimpleRegionRoundTrip.region");
@@ -189,6 +267,188 @@ public class ChunkStoreTest {
         Assert.assertTrue(chunkManager.isTrue(mockBlockA));
     }
 
+    @Test
+    public void testAsyncUnloadReload() {
+        ChunkManager chunkManager = new AsyncChunkManager();
+        Block mockBlock = mock(Block.class);
+        Mockito.when(mockBlock.getX()).thenReturn(-17);
+        Mockito.when(mockBlock.getZ()).thenReturn(33);
+        Mockito.when(mockBlock.getY()).thenReturn(64);
+        Mockito.when(mockBlock.getWorld()).thenReturn(mockWorld);
+
+        chunkManager.chunkLoaded(-2, 2, mockWorld, false);
+        chunkManager.setTrue(mockBlock);
+        chunkManager.chunkUnloaded(-2, 2, mockWorld);
+        // Reading back right after unloading has to see the queued write
+        chunkManager.chunkLoaded(-2, 2, mockWorld, false);
+        Assert.assertTrue(chunkManager.isTrue(mockBlock));
+        chunkManager.closeAll();
+    }
+
+    @Test
+    public void testSparseRoundTrip() throws IOException {
+        SparseChunkStore original = new SparseChunkStore(mockWorld, 1, 2);
+        original.setTrue(14, 89, 12);
+        original.setTrue(14, 90, 12);
+        original.setTrue(13, 89, 12);
+        // A full section and a section with a few blocks clear
+        for (int i = 0; i < 16 * 16 * 16; i++) {
+            original.setTrue(i & 15, 16 + (i >> 8), (i >> 4) & 15);
+            original.setTrue(i & 15, 32 + (i >> 8), (i >> 4) & 15);
+        }
+        original.setFalse(3, 40, 7);
+        byte[] serializedBytes = serializeChunkstore(original);
+        ChunkStore deserialized = BitSetChunkStore.Serialization.readChunkStore(new DataInputStream(new ByteArrayInputStream(serializedBytes)));
+        Assert.assertTrue(deserialized instanceof SparseChunkStore);
+        assertEqual(original, deserialized);
+    }
+
+    @Test
+    public void testSparseUpgrade() throws IOException {
+        BitSetChunkStore original = new BitSetChunkStore(mockWorld, 1, 2);
+        // Enough blocks in one section that it has to keep a bit per block
+        for (int i = 0; i < 1000; i++)
+            original.setTrue(i % 16, 64 + i % 7, (i * 7) % 16);
+        original.setTrue(0, 255, 0);
+        byte[] serializedBytes = serializeChunkstore(original);
+        ChunkStore deserialized = BitSetChunkStore.Serialization.readChunkStore(new DataInputStream(new ByteArrayInputStream(serializedBytes)));
+        Assert.assertTrue(deserialized instanceof SparseChunkStore);
+        assertEqual(original, deserialized);
+    }
+
+    @Test
+    public void testSparseSectionTransitions() {
+        SparseChunkStore sparse = new SparseChunkStore(mockWorld, 0, 0);
+        BitSetChunkStore expected = new BitSetChunkStore(mockWorld, 0, 0);
+        Random random = new Random(42);
+
+        // Fill a section until it is full, then empty it again, in random order
+        for (boolean value : new boolean[] { true, false }) {
+            for (int i = 0; i < 20000; i++) {
+                int x = random.nextInt(16);
+                int y = 48 + random.nextInt(16);
+                int z = random.nextInt(16);
+                sparse.set(x, y, z, value);
+                expected.set(x, y, z, value);
+            }
+            for (int i = 0; i < 16 * 16 * 16; i++) {
+                sparse.set(i & 15, 48 + (i >> 8), (i >> 4) & 15, value);
+                expected.set(i & 15, 48 + (i >> 8), (i >> 4) & 15, value);
+            }
+            assertEqual(expected, sparse);
+        }
+
+        Assert.assertTrue(sparse.isEmpty());
+    }
+
+    @Test
+    public void testBulkOperations() {
+        HashChunkManager chunkManager = new HashChunkManager();
+        List<Block> blocks = new ArrayList<>();
+
+        // A column across a chunk border, like a grown tree
+        for (int y = 64; y < 84; y++) {
+            blocks.add(mockBlock(15, y, 3));
+            blocks.add(mockBlock(16, y, 3));
+        }
+
+        chunkManager.set(blocks.subList(0, 20), true);
+        BitSet placed = chunkManager.isTrue(blocks);
+        Assert.assertEquals(20, placed.cardinality());
+        Assert.assertEquals(20, placed.nextClearBit(0));
+
+        // The piston breaks an untracked block with a placed block behind it, and a placed block
+        List<Block> pushed = new ArrayList<>(blocks);
+        pushed.add(mockBrokenBlock(15, 84, 3));
+        pushed.add(mockBrokenBlock(16, 84, 3));
+        chunkManager.set(15, 85, 3, mockWorld, true);
+        chunkManager.set(16, 84, 3, mockWorld, true);
+
+        // Everything moves up one, the column moving into its own positions
+        chunkManager.shift(pushed, BlockFace.UP);
+        Assert.assertFalse(chunkManager.isTrue(15, 64, 3, mockWorld));
+        Assert.assertFalse(chunkManager.isTrue(16, 64, 3, mockWorld));
+        Assert.assertTrue(chunkManager.isTrue(15, 65, 3, mockWorld));
+        Assert.assertTrue(chunkManager.isTrue(16, 74, 3, mockWorld));
+        Assert.assertFalse(chunkManager.isTrue(16, 75, 3, mockWorld));
+        Assert.assertFalse(chunkManager.isTrue(15, 84, 3, mockWorld));
+        Assert.assertFalse(chunkManager.isTrue(16, 84, 3, mockWorld));
+
+        // Nothing moves past the broken blocks
+        Assert.assertTrue(chunkManager.isTrue(15, 85, 3, mockWorld));
+        Assert.assertFalse(chunkManager.isTrue(16, 85, 3, mockWorld));
+
+        chunkManager.set(15, 85, 3, mockWorld, false);
+        chunkManager.set(blocks, false);
+        Assert.assertTrue(chunkManager.isTrue(blocks).isEmpty());
+        chunkManager.closeAll();
+    }
+
+    @Test
+    public void testResidentChunkBudget() {
+        HashChunkManager chunkManager = new HashChunkManager(McMMOSimpleRegionFile::new, 8);
+
+        // A row of chunks across two regions, more than fit in the budget
+        for (int cx = 0; cx < 64; cx++)
+            chunkManager.set(cx * 16, 64, 0, mockWorld, true);
+
+        ChunkStoreStatistics statistics = chunkManager.getStatistics();
+        Assert.assertTrue(statistics.getResidentChunks() <= 8);
+        Assert.assertTrue(statistics.getEvictions() >= 56);
+        Assert.assertTrue(statistics.getBytesWritten() > 0);
+        Assert.assertEquals(1, statistics.getOpenRegionFiles()); // The first region has nothing left in memory
+
+        // Evicted chunks were saved, and are read back
+        for (int cx = 0; cx < 64; cx++)
+            Assert.assertTrue(chunkManager.isTrue(cx * 16, 64, 0, mockWorld));
+
+        Assert.assertTrue(chunkManager.getStatistics().getMisses() > 64);
+        chunkManager.closeAll();
+    }
+
+    @Test
+    public void testRegionCompaction() {
+        // A world of its own, the other tests share a world folder
+        File worldFolder = new File(tempDir, "compaction");
+        Mockito.when(mockWorld.getWorldFolder()).thenReturn(worldFolder);
+
+        HashChunkManager chunkManager = new HashChunkManager();
+        chunkManager.set(3, 70, 4, mockWorld, true);
+        chunkManager.set(20, 70, 4, mockWorld, true);
+        chunkManager.closeAll();
+
+        // Saved again, now with nothing placed
+        chunkManager.set(20, 70, 4, mockWorld, false);
+        chunkManager.closeAll();
+
+        File regionDirectory = new File(worldFolder, "mcmmo_regions");
+        RegionCompactor.Report report = new RegionCompactor(2, Logger.getAnonymousLogger()).compact(Collections.singletonMap(regionDirectory, RegionCompactor.UNLOCKED));
+        Assert.assertEquals(1, report.getRegionFiles());
+        Assert.assertEquals(1, report.getChunksKept());
+        Assert.assertEquals(1, report.getChunksDropped());
+        Assert.assertTrue(report.getBytesReclaimed() > 0);
+
+        chunkManager = new HashChunkManager();
+        Assert.assertTrue(chunkManager.isTrue(3, 70, 4, mockWorld));
+        Assert.assertFalse(chunkManager.isTrue(20, 70, 4, mockWorld));
+        chunkManager.closeAll();
+    }
+
+    private Block mockBlock(int x, int y, int z) {
+        Block block = mock(Block.class);
+        Mockito.when(block.getX()).thenReturn(x);
+        Mockito.when(block.getY()).thenReturn(y);
+        Mockito.when(block.getZ()).thenReturn(z);
+        Mockito.when(block.getWorld()).thenReturn(mockWorld);
+        return block;
+    }
+
+    private Block mockBrokenBlock(int x, int y, int z) {
+        Block block = mockBlock(x, y, z);
+        Mockito.when(block.getPistonMoveReaction()).thenReturn(PistonMoveReaction.BREAK);
+        return block;
+    }
+
     private interface Delegate {
         void run();
     }
@@ -227,7 +487,7 @@ public class ChunkStoreTest {
 
     private static byte[] serializeChunkstore(ChunkStore chunkStore) throws IOException {
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        if (chunkStore instanceof BitSetChunkStore)
+        if (chunkStore instanceof BitSetChunkStore || chunkStore instanceof SparseChunkStore)
             BitSetChunkStore.Serialization.writeChunkStore(new DataOutputStream(byteArrayOutputStream), chunkStore);
         else
             new UnitTestObjectOutputStream(byteArrayOutputStream).writeObject(chunkStore); // Serializes the class as if it were the old PrimitiveChunkStore
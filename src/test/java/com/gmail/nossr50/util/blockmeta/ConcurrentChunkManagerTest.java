@@ -0,0 +1,156 @@
+package com.gmail.nossr50.util.blockmeta;
+
+import com.gmail.nossr50.TestUtil;
+import com.google.common.io.Files;
+import org.bukkit.Bukkit;
+import org.bukkit.World;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hammers a {@link ConcurrentChunkManager} from several threads at once.
+ */
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({ Bukkit.class })
+public class ConcurrentChunkManagerTest {
+    private static final int THREADS = 8;
+    private static final int BLOCKS = 12800;
+    private static final int CHUNK_SPAN = 8; // Chunks -4 to 3 on each axis, four regions
+
+    private File tempDir;
+    private World world;
+
+    @Before
+    public void setUp() {
+        tempDir = Files.createTempDir();
+        world = createWorld(UUID.randomUUID(), tempDir);
+        PowerMockito.mockStatic(Bukkit.class);
+        Mockito.when(Bukkit.getWorld(world.getUID())).thenReturn(world);
+    }
+
+    @After
+    public void tearDown() {
+        TestUtil.recursiveDelete(tempDir);
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        ConcurrentChunkManager chunkManager = new ConcurrentChunkManager();
+        AtomicInteger placed = new AtomicInteger();
+        AtomicBoolean done = new AtomicBoolean();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+
+        try {
+            // One thread places blocks in order
+            futures.add(executor.submit(() -> {
+                try {
+                    for (int i = 0; i < BLOCKS; i++) {
+                        chunkManager.set(blockX(i), blockY(i), blockZ(i), world, true);
+                        placed.set(i + 1);
+                    }
+                }
+                finally {
+                    done.set(true);
+                }
+            }));
+
+            // Unloading saves chunks and drops them, so they are read back while in use
+            futures.add(executor.submit(() -> {
+                Random random = new Random(0);
+                while (!done.get())
+                    chunkManager.chunkUnloaded(random.nextInt(CHUNK_SPAN) - CHUNK_SPAN / 2, random.nextInt(CHUNK_SPAN) - CHUNK_SPAN / 2, world);
+            }));
+
+            // The rest look up blocks known to be placed, and blocks that never are
+            for (int t = 0; t < THREADS - 2; t++) {
+                int seed = t + 1;
+                futures.add(executor.submit(() -> {
+                    Random random = new Random(seed);
+                    while (!done.get()) {
+                        int upTo = placed.get();
+                        if (upTo == 0)
+                            continue;
+                        // Half of the time one of the blocks just placed, in a chunk still being written to
+                        int i = random.nextBoolean() ? random.nextInt(upTo) : upTo - 1 - random.nextInt(Math.min(upTo, 64));
+                        Assert.assertTrue(chunkManager.isTrue(blockX(i), blockY(i), blockZ(i), world));
+                        Assert.assertFalse(chunkManager.isTrue(blockX(i), blockY(i) + 1, blockZ(i), world));
+                    }
+                }));
+            }
+
+            for (Future<?> future : futures)
+                future.get(60, TimeUnit.SECONDS);
+        }
+        finally {
+            done.set(true);
+            executor.shutdownNow();
+        }
+
+        chunkManager.closeAll();
+
+        // Everything made it to disk
+        ConcurrentChunkManager reloaded = new ConcurrentChunkManager();
+        for (int i = 0; i < BLOCKS; i++)
+            Assert.assertTrue(reloaded.isTrue(blockX(i), blockY(i), blockZ(i), world));
+        reloaded.closeAll();
+    }
+
+    // Blocks come in 128 columns of 100 at even heights, each column at a different x
+    private static int blockX(int i) {
+        return (i / 100) * 37 % (CHUNK_SPAN * 16) - CHUNK_SPAN * 8;
+    }
+
+    private static int blockY(int i) {
+        return (i % 100) * 2;
+    }
+
+    private static int blockZ(int i) {
+        return (i / 100) * 53 % (CHUNK_SPAN * 16) - CHUNK_SPAN * 8;
+    }
+
+    /**
+     * A world that only answers what the chunk manager asks of it. A mock
+     * would record every call from every thread.
+     */
+    private static World createWorld(UUID worldId, File worldFolder) {
+        return (World) Proxy.newProxyInstance(World.class.getClassLoader(), new Class<?>[] { World.class }, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getUID":
+                    return worldId;
+                case "getWorldFolder":
+                    return worldFolder;
+                case "getMaxHeight":
+                    return 256;
+                case "getMinHeight":
+                    return 0;
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+}